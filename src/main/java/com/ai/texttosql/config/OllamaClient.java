@@ -1,13 +1,27 @@
 package com.ai.texttosql.config;
 
+import com.ai.texttosql.exception.QueryCancelledException;
+import com.ai.texttosql.service.CancellationToken;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
+import org.json.JSONArray;
 import org.json.JSONObject;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
 import reactor.core.scheduler.Schedulers;
 
+import java.time.Duration;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Slf4j
 @Component
@@ -15,40 +29,175 @@ public class OllamaClient {
 
     private final WebClient webClient;
     private final String model;
+    private final String embeddingModel;
+    private final String keepAlive;
+    private final Timer promptEvalTimer;
+    private final DistributionSummary promptEvalTokens;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Counter cancelledGenerations;
 
     public OllamaClient(@Value("${ollama.model.name:llama3.2}") String model,
-                        @Value("${ollama.model.baseurl:http://localhost:11434}") String baseUrl) {
+                        @Value("${ollama.model.baseurl:http://localhost:11434}") String baseUrl,
+                        @Value("${ollama.embedding.model:nomic-embed-text}") String embeddingModel,
+                        @Value("${ollama.keep-alive:30m}") String keepAlive,
+                        MeterRegistry meterRegistry) {
         this.model = model;
+        this.embeddingModel = embeddingModel;
+        this.keepAlive = keepAlive;
         this.webClient = WebClient.builder()
                 .baseUrl(baseUrl)
                 .build();
+        this.promptEvalTimer = Timer.builder("ollama.prompt.eval.time")
+                .description("Time Ollama spent evaluating the prompt")
+                .register(meterRegistry);
+        this.promptEvalTokens = DistributionSummary.builder("ollama.prompt.eval.tokens")
+                .description("Prompt tokens evaluated by Ollama")
+                .register(meterRegistry);
+        meterRegistry.gauge("ollama.requests.in.flight", inFlight);
+        this.cancelledGenerations = Counter.builder("query.cancelled.work")
+                .description("Work aborted because its request was cancelled")
+                .tag("stage", "generation")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Number of generation requests currently waiting on Ollama.
+     */
+    public int getInFlightRequests() {
+        return inFlight.get();
+    }
+
+    public boolean isReachable(Duration timeout) {
+        try {
+            webClient.get()
+                    .uri("/api/tags")
+                    .retrieve()
+                    .toBodilessEntity()
+                    .block(timeout);
+            return true;
+        } catch (Exception e) {
+            log.debug("Ollama is not reachable: {}", e.getMessage());
+            return false;
+        }
     }
 
     public String ask(String promptText) {
+        return generate(promptText, Map.of());
+    }
+
+    /**
+     * Generates with a sampling temperature other than the model's default, e.g. to get
+     * different candidates for the same prompt.
+     */
+    public String ask(String promptText, double temperature) {
+        return generate(promptText, Map.of("temperature", temperature));
+    }
+
+    private String generate(String promptText, Map<String, Object> options) {
         log.debug("Sending prompt to Ollama:\n{}", promptText);
 
         long start = System.currentTimeMillis();
 
-        String jsonResponse = webClient.post()
+        String jsonResponse;
+        inFlight.incrementAndGet();
+        try {
+            jsonResponse = awaitCancellable(webClient.post()
+                    .uri("/api/generate")
+                    .header("Content-Type", "application/json")
+                    .bodyValue(Map.of(
+                            "model", model,
+                            "prompt", promptText,
+                            "stream", false,
+                            "keep_alive", keepAlive,
+                            "options", options
+                    ))
+                    .retrieve()
+                    .bodyToMono(String.class)
+                    .subscribeOn(Schedulers.boundedElastic()));
+        } finally {
+            inFlight.decrementAndGet();
+        }
+
+        long duration = System.currentTimeMillis() - start;
+        log.info("Ollama call took {} ms", duration);
+
+        JSONObject responseJson = new JSONObject(jsonResponse);
+        if (responseJson.has("prompt_eval_duration")) {
+            promptEvalTimer.record(responseJson.optLong("prompt_eval_duration"), TimeUnit.NANOSECONDS);
+            promptEvalTokens.record(responseJson.optLong("prompt_eval_count"));
+        }
+        String response = responseJson.optString("response", "").trim();
+
+        log.debug("Ollama response:\n{}", response);
+        return response;
+    }
+
+    /**
+     * Blocks for the response like {@code block()}, but disposes the subscription when the
+     * current request is cancelled. Closing the connection makes Ollama stop generating.
+     */
+    private String awaitCancellable(Mono<String> response) {
+        CancellationToken token = CancellationToken.current();
+        if (token == null) {
+            return response.block();
+        }
+        token.throwIfCancelled();
+
+        CompletableFuture<String> result = new CompletableFuture<>();
+        Disposable subscription = response.subscribe(result::complete, result::completeExceptionally);
+        try (CancellationToken.Registration ignored = token.onCancel(() -> {
+            subscription.dispose();
+            if (result.completeExceptionally(new QueryCancelledException(token.getReason()))) {
+                cancelledGenerations.increment();
+            }
+        })) {
+            return result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Loads the generation model into Ollama's memory without generating anything, giving up
+     * after {@code timeout}.
+     */
+    public void loadModel(Duration timeout) {
+        webClient.post()
                 .uri("/api/generate")
                 .header("Content-Type", "application/json")
                 .bodyValue(Map.of(
                         "model", model,
-                        "prompt", promptText,
-                        "stream", false
+                        "prompt", "",
+                        "stream", false,
+                        "keep_alive", keepAlive
                 ))
                 .retrieve()
                 .bodyToMono(String.class)
                 .subscribeOn(Schedulers.boundedElastic())
-                .block();
-
-        long duration = System.currentTimeMillis() - start;
-        log.info("Ollama call took {} ms", duration);
+                .block(timeout);
+    }
 
-        JSONObject responseJson = new JSONObject(jsonResponse);
-        String response = responseJson.optString("response", "").trim();
+    public float[] embed(String text) {
+        String jsonResponse = webClient.post()
+                .uri("/api/embeddings")
+                .header("Content-Type", "application/json")
+                .bodyValue(Map.of(
+                        "model", embeddingModel,
+                        "prompt", text
+                ))
+                .retrieve()
+                .bodyToMono(String.class)
+                .subscribeOn(Schedulers.boundedElastic())
+                .block();
 
-        log.debug("Ollama response:\n{}", response);
-        return response;
+        JSONArray embedding = new JSONObject(jsonResponse).getJSONArray("embedding");
+        float[] vector = new float[embedding.length()];
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = (float) embedding.getDouble(i);
+        }
+        return vector;
     }
 }
@@ -32,6 +32,7 @@ public class SecurityConfig {
                                 "/api/v1/query/**",
                                 "/api/v1/schema/**",
                                 "/api/v1/slack/**",
+                                "/api/v1/watch/**",
                                 "/swagger-ui/**",
                                 "/v3/api-docs/**",
                                 "/swagger-ui.html",
@@ -0,0 +1,39 @@
+package com.ai.texttosql.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Named target databases that a request can query instead of the application database.
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "app.datasources")
+public class TargetDataSourceProperties {
+
+    /**
+     * Upper bound on the summed maximum pool sizes of all open target pools.
+     */
+    private int maxTotalConnections = 100;
+
+    /**
+     * Pools that have not been used for this long are closed.
+     */
+    private Duration idleEvictAfter = Duration.ofMinutes(10);
+
+    private Map<String, Target> targets = new LinkedHashMap<>();
+
+    @Data
+    public static class Target {
+        private String url;
+        private String username;
+        private String password;
+        private String driverClassName = "com.mysql.cj.jdbc.Driver";
+        private int maximumPoolSize = 10;
+    }
+}
@@ -0,0 +1,295 @@
+package com.ai.texttosql.config;
+
+import com.ai.texttosql.exception.InvalidQueryException;
+import com.ai.texttosql.exception.QueryExecutionException;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.CacheManager;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+/**
+ * Resolves the database a request runs against.
+ * <p>
+ * {@link #DEFAULT} is the application database. Every other name is a target from
+ * {@code app.datasources.targets}; its Hikari pool is created on first use, keeps no idle
+ * connections, and is closed together with its cached schema metadata once it has been idle
+ * for {@code app.datasources.idle-evict-after}. The summed pool sizes of all open targets never
+ * exceed {@code app.datasources.max-total-connections}; when a new pool does not fit, the least
+ * recently used pool without active connections is closed to make room.
+ * <p>
+ * The {@link JdbcTemplate} of a target does not hold on to a pool: each connection it takes is
+ * borrowed from the target's current pool, opening it again if it was closed, and pools are only
+ * opened and closed under the registry's lock while none of their connections is borrowed. Opening
+ * a pool does not connect; its first connection is made by the borrower, outside the lock.
+ */
+@Slf4j
+@Component
+public class TargetDataSourceRegistry {
+
+    public static final String DEFAULT = "default";
+
+    private final TargetDataSourceProperties properties;
+    private final JdbcTemplate defaultJdbcTemplate;
+    private final CacheManager cacheManager;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, Pool> pools = new ConcurrentHashMap<>();
+    private final Map<String, JdbcTemplate> jdbcTemplates = new ConcurrentHashMap<>();
+
+    public TargetDataSourceRegistry(TargetDataSourceProperties properties,
+                                    DataSource dataSource,
+                                    CacheManager cacheManager,
+                                    MeterRegistry meterRegistry) {
+        // Requests name the application database "default", so a target of that name could never be reached
+        if (properties.getTargets().keySet().stream().anyMatch(name -> DEFAULT.equals(resolveName(name)))) {
+            throw new IllegalStateException("app.datasources.targets must not contain a target named '" + DEFAULT + "'");
+        }
+        this.properties = properties;
+        this.defaultJdbcTemplate = new JdbcTemplate(dataSource);
+        this.cacheManager = cacheManager;
+        this.meterRegistry = meterRegistry;
+        meterRegistry.gauge("datasource.pools.open", pools, Map::size);
+        meterRegistry.gauge("datasource.pools.connections.allotted", this, TargetDataSourceRegistry::allottedConnections);
+    }
+
+    public static String resolveName(String dataSource) {
+        return dataSource == null || dataSource.isBlank() ? DEFAULT : dataSource.trim();
+    }
+
+    public static boolean isDefault(String dataSource) {
+        return DEFAULT.equals(resolveName(dataSource));
+    }
+
+    public Set<String> getTargetNames() {
+        return properties.getTargets().keySet();
+    }
+
+    public JdbcTemplate jdbcTemplate(String dataSource) {
+        String name = resolveName(dataSource);
+        if (DEFAULT.equals(name)) {
+            return defaultJdbcTemplate;
+        }
+        TargetDataSourceProperties.Target target = properties.getTargets().get(name);
+        if (target == null) {
+            throw new InvalidQueryException("Unknown data source: " + name);
+        }
+
+        return jdbcTemplates.computeIfAbsent(name, key -> new JdbcTemplate(new BorrowingDataSource(key, target)));
+    }
+
+    @Scheduled(fixedDelayString = "${app.datasources.eviction-interval-ms:60000}")
+    public synchronized void evictIdlePools() {
+        long idleNanos = properties.getIdleEvictAfter().toNanos();
+        long now = System.nanoTime();
+        pools.forEach((name, pool) -> {
+            if (now - pool.lastUsed > idleNanos && pool.isUnused()) {
+                close(name, "idle");
+            }
+        });
+    }
+
+    @PreDestroy
+    public synchronized void closeAll() {
+        pools.keySet().forEach(name -> close(name, "shutdown"));
+    }
+
+    /**
+     * The target's pool with one more borrower, opening the pool when there is none.
+     */
+    private synchronized Pool borrow(String name, TargetDataSourceProperties.Target target) {
+        Pool pool = pools.get(name);
+        if (pool == null) {
+            pool = open(name, target);
+        }
+        pool.borrowers++;
+        pool.lastUsed = System.nanoTime();
+        return pool;
+    }
+
+    private synchronized void giveBack(Pool pool) {
+        pool.borrowers--;
+        pool.lastUsed = System.nanoTime();
+    }
+
+    private Pool open(String name, TargetDataSourceProperties.Target target) {
+        int size = Math.min(target.getMaximumPoolSize(), properties.getMaxTotalConnections() - allottedConnections());
+        while (size < 1) {
+            Optional<String> victim = pools.entrySet().stream()
+                    .filter(e -> e.getValue().isUnused())
+                    .min(Comparator.comparingLong(e -> e.getValue().lastUsed))
+                    .map(Map.Entry::getKey);
+            if (victim.isEmpty()) {
+                meterRegistry.counter("datasource.pools.rejected").increment();
+                throw new QueryExecutionException("All " + properties.getMaxTotalConnections()
+                        + " target connections are in use; try again later");
+            }
+            close(victim.get(), "capacity");
+            size = Math.min(target.getMaximumPoolSize(), properties.getMaxTotalConnections() - allottedConnections());
+        }
+
+        HikariConfig config = new HikariConfig();
+        config.setPoolName("Target-" + name);
+        config.setJdbcUrl(target.getUrl());
+        config.setUsername(target.getUsername());
+        config.setPassword(target.getPassword());
+        config.setDriverClassName(target.getDriverClassName());
+        config.setMaximumPoolSize(size);
+        config.setMinimumIdle(0);
+        config.setIdleTimeout(Math.max(10_000, properties.getIdleEvictAfter().toMillis() / 2));
+        config.setReadOnly(true);
+        config.setMetricRegistry(meterRegistry);
+        // Opened under the registry's lock, so it must not connect: a slow target would stall all others
+        config.setInitializationFailTimeout(-1);
+
+        Pool pool = new Pool(new HikariDataSource(config));
+        pools.put(name, pool);
+        meterRegistry.counter("datasource.pools.created").increment();
+        log.info("Opened connection pool for data source '{}' with {} connections", name, size);
+        return pool;
+    }
+
+    private void close(String name, String reason) {
+        Pool pool = pools.remove(name);
+        if (pool == null) {
+            return;
+        }
+        pool.dataSource.close();
+        evictSchemaCache(name);
+        meterRegistry.counter("datasource.pools.evicted", "reason", reason).increment();
+        log.info("Closed connection pool for data source '{}' ({})", name, reason);
+    }
+
+    /**
+     * Schema cache keys start with the data source name, see {@code SchemaAnalysisService}.
+     */
+    @SuppressWarnings("unchecked")
+    private void evictSchemaCache(String name) {
+        org.springframework.cache.Cache cache = cacheManager.getCache("schemaCache");
+        if (cache != null && cache.getNativeCache() instanceof Cache<?, ?> nativeCache) {
+            String prefix = name + ":";
+            ((Cache<Object, Object>) nativeCache).asMap().keySet()
+                    .removeIf(key -> key instanceof String s && s.startsWith(prefix));
+        }
+    }
+
+    private int allottedConnections() {
+        return pools.values().stream().mapToInt(pool -> pool.dataSource.getMaximumPoolSize()).sum();
+    }
+
+    /**
+     * Guarded by the registry's lock.
+     */
+    private static final class Pool {
+        private final HikariDataSource dataSource;
+        private long lastUsed = System.nanoTime();
+        private int borrowers;
+
+        private Pool(HikariDataSource dataSource) {
+            this.dataSource = dataSource;
+        }
+
+        private boolean isUnused() {
+            return borrowers == 0 && dataSource.getHikariPoolMXBean().getActiveConnections() == 0;
+        }
+    }
+
+    /**
+     * Lends connections from a target's current pool and gives the pool back when they are closed.
+     */
+    private final class BorrowingDataSource implements DataSource {
+
+        private final String name;
+        private final TargetDataSourceProperties.Target target;
+
+        private BorrowingDataSource(String name, TargetDataSourceProperties.Target target) {
+            this.name = name;
+            this.target = target;
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            Pool pool = borrow(name, target);
+            Connection connection;
+            try {
+                connection = pool.dataSource.getConnection();
+            } catch (SQLException | RuntimeException e) {
+                giveBack(pool);
+                throw e;
+            }
+            AtomicBoolean returned = new AtomicBoolean();
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                    (proxy, method, args) -> {
+                        try {
+                            return method.invoke(connection, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        } finally {
+                            if (method.getName().equals("close") && returned.compareAndSet(false, true)) {
+                                giveBack(pool);
+                            }
+                        }
+                    });
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            throw new SQLFeatureNotSupportedException("Target connections use the configured credentials");
+        }
+
+        @Override
+        public PrintWriter getLogWriter() {
+            return null;
+        }
+
+        @Override
+        public void setLogWriter(PrintWriter out) {
+        }
+
+        @Override
+        public void setLoginTimeout(int seconds) {
+        }
+
+        @Override
+        public int getLoginTimeout() {
+            return 0;
+        }
+
+        @Override
+        public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+            throw new SQLFeatureNotSupportedException();
+        }
+
+        @Override
+        public <T> T unwrap(Class<T> iface) throws SQLException {
+            if (iface.isInstance(this)) {
+                return iface.cast(this);
+            }
+            throw new SQLException("Not a wrapper for " + iface.getName());
+        }
+
+        @Override
+        public boolean isWrapperFor(Class<?> iface) {
+            return iface.isInstance(this);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.ai.texttosql.config;
 
+import com.ai.texttosql.interceptor.CancellationInterceptor;
 import com.ai.texttosql.interceptor.RateLimitInterceptor;
 import lombok.RequiredArgsConstructor;
 import org.springframework.context.annotation.Configuration;
@@ -11,6 +12,7 @@ import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 public class WebConfig implements WebMvcConfigurer {
 
     private final RateLimitInterceptor rateLimitInterceptor;
+    private final CancellationInterceptor cancellationInterceptor;
 
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
@@ -24,5 +26,9 @@ public class WebConfig implements WebMvcConfigurer {
                         "/swagger-resources/**",
                         "/webjars/**"
                 );
+
+        // Slack requests are acknowledged at once; their background work has its own deadline
+        registry.addInterceptor(cancellationInterceptor)
+                .addPathPatterns("/api/v1/query/**");
     }
 }
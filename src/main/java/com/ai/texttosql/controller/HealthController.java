@@ -2,8 +2,13 @@ package com.ai.texttosql.controller;
 
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
-import org.springframework.boot.actuate.health.Health;
-import org.springframework.boot.actuate.health.HealthIndicator;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.health.CompositeHealth;
+import org.springframework.boot.actuate.health.HealthComponent;
+import org.springframework.boot.actuate.health.HealthEndpoint;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.boot.availability.ApplicationAvailability;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -16,33 +21,33 @@ import java.util.Map;
 @Tag(name = "Health Check", description = "API for checking the health status of the application")
 @RestController
 @RequestMapping("/api/v1/health")
-public class HealthController implements HealthIndicator {
+@RequiredArgsConstructor
+public class HealthController {
 
-    @Operation(summary = "Check the health status of the application")
+    private final HealthEndpoint healthEndpoint;
+    private final ApplicationAvailability applicationAvailability;
+
+    @Operation(summary = "Check the health status of the application",
+            description = "Summarizes the actuator health indicators; responds with 503 when the application is " +
+                    "DOWN or OUT_OF_SERVICE")
     @GetMapping
     public ResponseEntity<Map<String, Object>> getHealth() {
+        HealthComponent health = healthEndpoint.health();
+
         Map<String, Object> response = new HashMap<>();
-        response.put("status", "UP");
+        response.put("status", health.getStatus().getCode());
+        response.put("readiness", applicationAvailability.getReadinessState());
         response.put("timestamp", Instant.now());
         response.put("service", "Text-to-SQL API");
         response.put("version", "1.0.0");
 
-        // Add more health check details as needed
         Map<String, Object> details = new HashMap<>();
-        details.put("database", "UP");
-        details.put("diskSpace", "OK");
-        details.put("redis", "UP");
-
+        if (health instanceof CompositeHealth composite) {
+            composite.getComponents().forEach((name, component) -> details.put(name, component.getStatus().getCode()));
+        }
         response.put("details", details);
 
-        return ResponseEntity.ok(response);
-    }
-
-    @Override
-    public Health health() {
-        return Health.up()
-                .withDetail("service", "Text-to-SQL API")
-                .withDetail("timestamp", Instant.now())
-                .build();
+        boolean available = health.getStatus().equals(Status.UP) || health.getStatus().equals(Status.UNKNOWN);
+        return ResponseEntity.status(available ? HttpStatus.OK : HttpStatus.SERVICE_UNAVAILABLE).body(response);
     }
 }
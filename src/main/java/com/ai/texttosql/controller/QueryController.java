@@ -1,10 +1,16 @@
 package com.ai.texttosql.controller;
 
+import com.ai.texttosql.model.ExecutionPlan;
 import com.ai.texttosql.model.QueryHistory;
 import com.ai.texttosql.model.QueryRequest;
 import com.ai.texttosql.model.QueryResponse;
+import com.ai.texttosql.model.QueryResultPage;
+import com.ai.texttosql.service.ColumnarCborEncoder;
+import com.ai.texttosql.service.ProgressiveAggregateService;
 import com.ai.texttosql.service.QueryExecutionService;
 import com.ai.texttosql.service.QueryHistoryService;
+import com.ai.texttosql.service.ResultSnapshotService;
+import com.ai.texttosql.service.SlowQueryCaptureService;
 import com.ai.texttosql.service.TextToSqlService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
@@ -14,9 +20,13 @@ import org.springdoc.core.annotations.ParameterObject;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.util.List;
 import java.util.Optional;
@@ -36,6 +46,10 @@ public class QueryController {
     private final TextToSqlService textToSqlService;
     private final QueryExecutionService queryExecutionService;
     private final QueryHistoryService queryHistoryService;
+    private final ColumnarCborEncoder columnarCborEncoder;
+    private final ResultSnapshotService resultSnapshotService;
+    private final ProgressiveAggregateService progressiveAggregateService;
+    private final SlowQueryCaptureService slowQueryCaptureService;
 
     @Operation(summary = "Convert natural language to SQL")
     @PostMapping("/text-to-sql")
@@ -44,14 +58,22 @@ public class QueryController {
         return ResponseEntity.ok(response);
     }
 
-    @Operation(summary = "Execute a SQL query")
-    @PostMapping("/execute")
-    public ResponseEntity<QueryResponse> executeQuery(
+    @Operation(summary = "Execute a SQL query",
+            description = "Responds with JSON by default, or with a columnar CBOR encoding when the " +
+                    "Accept header prefers application/cbor")
+    @PostMapping(value = "/execute", produces = {MediaType.APPLICATION_JSON_VALUE, ColumnarCborEncoder.MEDIA_TYPE_VALUE})
+    public ResponseEntity<?> executeQuery(
             @Validated @RequestBody QueryRequest request,
             @Parameter(description = "Page number (0-based)", example = "0") 
             @RequestParam(defaultValue = "0") int page,
             @Parameter(description = "Number of items per page", example = "20") 
-            @RequestParam(defaultValue = "20") int size) {
+            @RequestParam(defaultValue = "20") int size,
+            @Parameter(description = "Continuation token from the previous page; takes precedence over the page number")
+            @RequestParam(required = false) String continuationToken,
+            @Parameter(description = "Materialize the full result once so that further pages are served " +
+                    "from a local snapshot via /snapshots/{snapshotId}")
+            @RequestParam(defaultValue = "false") boolean snapshot,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
             
         // Validate pagination parameters
         page = Math.max(0, page);
@@ -60,22 +82,95 @@ public class QueryController {
         // First convert to SQL
         QueryResponse sqlResponse = textToSqlService.generateSqlQuery(request);
 
+        if (ColumnarCborEncoder.isRequested(accept)) {
+            return executeAsCbor(request, sqlResponse, PageRequest.of(page, size), continuationToken, snapshot);
+        }
+
         // Then execute with pagination
-        QueryResponse executionResponse = queryExecutionService.executeQuery(
-            sqlResponse.getGeneratedSql(), 
-            PageRequest.of(page, size)
-        );
+        QueryResponse executionResponse = snapshot
+            ? queryExecutionService.toResponse(resultSnapshotService.create(
+                request.getDataSource(), sqlResponse.getGeneratedSql(), PageRequest.of(page, size)))
+            : queryExecutionService.executeQuery(
+                request.getDataSource(),
+                sqlResponse.getGeneratedSql(),
+                PageRequest.of(page, size),
+                continuationToken
+            );
 
         // Merge responses
         executionResponse.setNaturalLanguageQuery(request.getNaturalLanguageQuery());
         executionResponse.setExplanation(sqlResponse.getExplanation());
+        executionResponse.setPreviousQueryId(request.getPreviousQueryId());
 
-        // Save to history
-        queryHistoryService.saveQuery(executionResponse, "system");
+        // Save to history; its ID is what a follow-up refers to
+        executionResponse.setQueryId(queryHistoryService.saveQuery(executionResponse, request.getDataSource(), "system").getId());
 
         return ResponseEntity.ok(executionResponse);
     }
 
+    private ResponseEntity<StreamingResponseBody> executeAsCbor(QueryRequest request, QueryResponse sqlResponse,
+                                                                Pageable pageable, String continuationToken,
+                                                                boolean snapshot) {
+        QueryResultPage resultPage = snapshot
+                ? resultSnapshotService.create(request.getDataSource(), sqlResponse.getGeneratedSql(), pageable)
+                : queryExecutionService.executeQueryPage(
+                        request.getDataSource(), sqlResponse.getGeneratedSql(), pageable, continuationToken);
+
+        // Saved first, so that the body carries the ID a follow-up refers to
+        UUID queryId = queryHistoryService.saveQuery(QueryResponse.builder()
+                .naturalLanguageQuery(request.getNaturalLanguageQuery())
+                .generatedSql(resultPage.getGeneratedSql())
+                .explanation(sqlResponse.getExplanation())
+                .previousQueryId(request.getPreviousQueryId())
+                .timestamp(resultPage.getTimestamp())
+                .executionMetrics(resultPage.getExecutionMetrics())
+                .build(), request.getDataSource(), "system").getId();
+
+        StreamingResponseBody body = out -> columnarCborEncoder.encode(
+                resultPage, queryId, request.getNaturalLanguageQuery(), sqlResponse.getExplanation(), out);
+        return ResponseEntity.ok()
+                .contentType(ColumnarCborEncoder.MEDIA_TYPE)
+                .body(body);
+    }
+
+    @Operation(summary = "Execute an aggregate query progressively",
+            description = "Streams server-sent 'estimate' events with approximate results and confidence " +
+                    "intervals while the query runs over key ranges of its first table, then a 'result' event " +
+                    "with the exact answer")
+    @PostMapping(value = "/execute/progressive", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter executeProgressively(@Validated @RequestBody QueryRequest request) {
+        return progressiveAggregateService.execute(request);
+    }
+
+    @Operation(summary = "Get a page of a result snapshot",
+            description = "Served from the local snapshot without querying the database; 404 once the " +
+                    "snapshot has expired or been evicted")
+    @GetMapping(value = "/snapshots/{snapshotId}", produces = {MediaType.APPLICATION_JSON_VALUE, ColumnarCborEncoder.MEDIA_TYPE_VALUE})
+    public ResponseEntity<?> getSnapshotPage(
+            @Parameter(description = "Snapshot ID from the page info of an execution with snapshot=true")
+            @PathVariable String snapshotId,
+            @Parameter(description = "Page number (0-based)", example = "0")
+            @RequestParam(defaultValue = "0") int page,
+            @Parameter(description = "Number of items per page", example = "20")
+            @RequestParam(defaultValue = "20") int size,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+
+        page = Math.max(0, page);
+        size = Math.min(Math.max(1, size), MAX_PAGE_SIZE);
+
+        Optional<QueryResultPage> resultPage = resultSnapshotService.page(snapshotId, PageRequest.of(page, size));
+        if (resultPage.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        if (ColumnarCborEncoder.isRequested(accept)) {
+            StreamingResponseBody body = out -> columnarCborEncoder.encode(resultPage.get(), null, null, null, out);
+            return ResponseEntity.ok()
+                    .contentType(ColumnarCborEncoder.MEDIA_TYPE)
+                    .body(body);
+        }
+        return ResponseEntity.ok(queryExecutionService.toResponse(resultPage.get()));
+    }
+
     @Operation(summary = "Get query history with pagination")
     @GetMapping("/history")
     public ResponseEntity<Page<QueryHistory>> getQueryHistory(
@@ -101,6 +196,30 @@ public class QueryController {
                 .orElse(ResponseEntity.notFound().build());
     }
 
+    @Operation(summary = "Get the conversation of a query",
+            description = "The queries it followed up on, oldest first, and the query itself")
+    @GetMapping("/session/{queryId}")
+    public ResponseEntity<List<QueryHistory>> getSession(
+            @Parameter(description = "ID of the last query of the conversation")
+            @PathVariable UUID queryId) {
+
+        List<QueryHistory> session = queryHistoryService.getSession(queryId);
+        return session.isEmpty() ? ResponseEntity.notFound().build() : ResponseEntity.ok(session);
+    }
+
+    @Operation(summary = "Get the execution plan captured for a slow query",
+            description = "The EXPLAIN ANALYZE tree with the full scans, filesorts and temporary tables " +
+                    "that took the most time listed first as hotspots")
+    @GetMapping("/plan/{queryId}")
+    public ResponseEntity<ExecutionPlan> getExecutionPlan(
+            @Parameter(description = "ID of the query")
+            @PathVariable UUID queryId) {
+
+        return slowQueryCaptureService.getPlan(queryId)
+                .map(ResponseEntity::ok)
+                .orElse(ResponseEntity.notFound().build());
+    }
+
     @Operation(summary = "Get recent queries with pagination")
     @GetMapping("/recent")
     public ResponseEntity<Page<QueryHistory>> getRecentQueries(
@@ -4,6 +4,7 @@ package com.ai.texttosql.controller;
 import com.ai.texttosql.model.SchemaInfo;
 import com.ai.texttosql.service.SchemaAnalysisService;
 import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.ResponseEntity;
@@ -20,13 +21,18 @@ public class SchemaController {
 
     @GetMapping("/tables")
     @Operation(summary = "Get all table names in the database")
-    public ResponseEntity<List<String>> getAllTableNames() {
-        return ResponseEntity.ok(schemaAnalysisService.getAllTableNames());
+    public ResponseEntity<List<String>> getAllTableNames(
+            @Parameter(description = "Target data source; the application database when omitted")
+            @RequestParam(required = false) String dataSource) {
+        return ResponseEntity.ok(schemaAnalysisService.getAllTableNames(dataSource));
     }
 
     @GetMapping("/table/{tableName}")
     @Operation(summary = "Get schema information for a specific table")
-    public ResponseEntity<SchemaInfo> getTableSchema(@PathVariable String tableName) {
-        return ResponseEntity.ok(schemaAnalysisService.getTableSchema(tableName));
+    public ResponseEntity<SchemaInfo> getTableSchema(
+            @PathVariable String tableName,
+            @Parameter(description = "Target data source; the application database when omitted")
+            @RequestParam(required = false) String dataSource) {
+        return ResponseEntity.ok(schemaAnalysisService.getTableSchema(dataSource, tableName));
     }
 }
\ No newline at end of file
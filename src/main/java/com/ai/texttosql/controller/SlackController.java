@@ -1,12 +1,23 @@
 package com.ai.texttosql.controller;
 
+import com.ai.texttosql.config.TargetDataSourceRegistry;
 import com.ai.texttosql.model.QueryRequest;
 import com.ai.texttosql.model.QueryResponse;
+import com.ai.texttosql.model.QueryWatch;
+import com.ai.texttosql.service.CancellationToken;
+import com.ai.texttosql.service.LlmScheduler;
+import com.ai.texttosql.service.QueryCancellationService;
 import com.ai.texttosql.service.QueryExecutionService;
 import com.ai.texttosql.service.QueryHistoryService;
+import com.ai.texttosql.service.QueryWatchService;
+import com.ai.texttosql.service.SlackFileUploader;
+import com.ai.texttosql.service.SlackRequestDeduplicator;
+import com.ai.texttosql.service.SlackResultRenderer;
 import com.ai.texttosql.service.TextToSqlService;
 import jakarta.annotation.PostConstruct;
 import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
@@ -14,26 +25,62 @@ import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/api/v1/slack")
 public class SlackController {
 
+    private static final String HEADER_RETRY_NUM = "X-Slack-Retry-Num";
+    private static final String UUID_PATTERN = "([0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12})";
+    // "watch <query id> <cron> [tz=<zone>]", "unwatch <watch id>" and "watches"; anything else is a question
+    private static final Pattern WATCH_COMMAND = Pattern.compile("(?i)^watch\\s+" + UUID_PATTERN + "\\s+(.+?)(?:\\s+tz=(\\S+))?$");
+    private static final Pattern UNWATCH_COMMAND = Pattern.compile("(?i)^unwatch\\s+" + UUID_PATTERN + "$");
+    private static final Pattern WATCHES_COMMAND = Pattern.compile("(?i)^watches$");
+
     private final TextToSqlService textToSqlService;
     private final QueryExecutionService queryExecutionService;
     private final QueryHistoryService queryHistoryService;
+    private final SlackResultRenderer slackResultRenderer;
+    private final SlackFileUploader slackFileUploader;
+    private final QueryCancellationService queryCancellationService;
+    private final SlackRequestDeduplicator slackRequestDeduplicator;
+    private final QueryWatchService queryWatchService;
     private ExecutorService executor;
     private final HttpClient httpClient;
 
+    @Value("${app.slack.page-size:25}")
+    private int slackPageSize;
+
+    @Value("${app.slack.file-upload-threshold:500}")
+    private long fileUploadThreshold;
+
+    // Slack stops accepting messages on a response_url after 30 minutes
+    @Value("${app.slack.response-url-ttl:30m}")
+    private Duration responseUrlTtl;
+
     public SlackController(TextToSqlService textToSqlService, 
                          QueryExecutionService queryExecutionService, 
-                         QueryHistoryService queryHistoryService) {
+                         QueryHistoryService queryHistoryService,
+                         SlackResultRenderer slackResultRenderer,
+                         SlackFileUploader slackFileUploader,
+                         QueryCancellationService queryCancellationService,
+                         SlackRequestDeduplicator slackRequestDeduplicator,
+                         QueryWatchService queryWatchService) {
         this.textToSqlService = textToSqlService;
         this.queryExecutionService = queryExecutionService;
         this.queryHistoryService = queryHistoryService;
+        this.slackResultRenderer = slackResultRenderer;
+        this.slackFileUploader = slackFileUploader;
+        this.queryCancellationService = queryCancellationService;
+        this.slackRequestDeduplicator = slackRequestDeduplicator;
+        this.queryWatchService = queryWatchService;
         this.httpClient = HttpClient.newHttpClient();
     }
 
@@ -43,7 +90,9 @@ public class SlackController {
     }
 
     @PostMapping("/ask")
-    public ResponseEntity<Map<String, Object>> handleSlashCommand(@RequestParam Map<String, String> payload) {
+    public ResponseEntity<Map<String, Object>> handleSlashCommand(
+            @RequestParam Map<String, String> payload,
+            @RequestHeader(value = HEADER_RETRY_NUM, required = false) String retryNum) {
         String userInput = payload.get("text");
         String responseUrl = payload.get("response_url");
         String userId = payload.get("user_id");
@@ -55,18 +104,91 @@ public class SlackController {
             ));
         }
 
+        Runnable watchCommand = watchCommand(userInput.strip(), payload.get("channel_id"), userId, responseUrl);
+
         // Acknowledge immediately
         Map<String, Object> ackResponse = Map.of(
             "response_type", "ephemeral",
-            "text", "🔍 Processing your query. This might take a moment..."
+            "text", watchCommand != null ? "⏳ Updating watches..." : "🔍 Processing your query. This might take a moment..."
         );
 
+        // A retry of a command that is already being processed only gets the acknowledgement again
+        String identity = SlackRequestDeduplicator.identity(
+                payload.get("trigger_id"), responseUrl, new TreeMap<>(payload).toString());
+        Optional<String> original = slackRequestDeduplicator.register(
+                "command", identity, new JSONObject(ackResponse).toString(), retryNum);
+        if (original.isPresent()) {
+            return ResponseEntity.ok(new JSONObject(original.get()).toMap());
+        }
+
         // Process in background
-        executor.submit(() -> processQueryAsync(userInput, responseUrl, userId));
+        if (watchCommand != null) {
+            executor.submit(watchCommand);
+        } else {
+            executor.submit(() -> withResponseUrlDeadline(userId, () -> processQueryAsync(userInput, responseUrl, userId)));
+        }
         
         return ResponseEntity.ok(ackResponse);
     }
 
+    /**
+     * The work for a {@code watch}, {@code unwatch} or {@code watches} command, or {@code null}
+     * when the text is a question.
+     */
+    private Runnable watchCommand(String text, String channelId, String userId, String responseUrl) {
+        Matcher watch = WATCH_COMMAND.matcher(text);
+        Matcher unwatch = UNWATCH_COMMAND.matcher(text);
+        if (!watch.matches() && !unwatch.matches() && !WATCHES_COMMAND.matcher(text).matches()) {
+            return null;
+        }
+        return () -> {
+            String reply;
+            try {
+                if (channelId == null || channelId.isBlank()) {
+                    // Without a channel a command would reach every channel's watches
+                    reply = "❌ Watches belong to a channel. Run this command from the channel whose watches you mean.";
+                } else if (watch.matches()) {
+                    QueryWatch created = queryWatchService.create(UUID.fromString(watch.group(1)), channelId,
+                            watch.group(2), watch.group(3), userId);
+                    reply = "👀 Watching query `" + created.getQueryId() + "` on `" + created.getSchedule() + "` ("
+                            + created.getTimeZone() + "). Changes will be posted to this channel.\nWatch ID: `"
+                            + created.getId() + "`";
+                } else if (unwatch.matches()) {
+                    queryWatchService.delete(UUID.fromString(unwatch.group(1)), channelId);
+                    reply = "🛑 Stopped watch `" + unwatch.group(1) + "`.";
+                } else {
+                    List<QueryWatch> watches = queryWatchService.list(channelId);
+                    reply = watches.isEmpty() ? "No watches in this channel." : watches.stream()
+                            .map(w -> "• `" + w.getId() + "` query `" + w.getQueryId() + "` on `" + w.getSchedule()
+                                    + "` (" + w.getTimeZone() + "), next run " + w.getNextRunAt()
+                                    + (w.getLastError() != null ? " ⚠️ " + w.getLastError() : ""))
+                            .collect(Collectors.joining("\n"));
+                }
+            } catch (Exception e) {
+                reply = "❌ " + e.getMessage();
+            }
+            sendSlackResponse(responseUrl, Map.of(
+                    "response_type", "ephemeral",
+                    "replace_original", true,
+                    "text", reply
+            ));
+        };
+    }
+
+    /**
+     * Aborts the work once its response_url can no longer be answered. Model calls are made for
+     * the Slack user, whom the scheduler treats as interactive.
+     */
+    private void withResponseUrlDeadline(String userId, Runnable work) {
+        CancellationToken token = queryCancellationService.open(responseUrlTtl);
+        try (CancellationToken.Scope ignored = token.activate();
+             CancellationToken.Scope ignoredCaller = LlmScheduler.Caller.slackUser(userId).bind()) {
+            work.run();
+        } finally {
+            token.close();
+        }
+    }
+
     private void processQueryAsync(String userInput, String responseUrl, String userId) {
         try {
             QueryRequest request = new QueryRequest();
@@ -76,10 +198,7 @@ public class SlackController {
 
             QueryResponse response = textToSqlService.generateSqlQuery(request);
 
-            JSONObject buttonPayload = new JSONObject(Map.of(
-                    "sql", response.getGeneratedSql(),
-                    "nlq", response.getNaturalLanguageQuery()
-            ));
+            JSONObject buttonPayload = pagePayload(response.getGeneratedSql(), response.getNaturalLanguageQuery(), 0);
 
             Map<String, Object> slackResponse = Map.of(
                     "response_type", "in_channel",
@@ -113,7 +232,9 @@ public class SlackController {
     }
 
     @PostMapping("/interact")
-    public ResponseEntity<String> handleSlackInteraction(@RequestParam("payload") String rawPayload) {
+    public ResponseEntity<String> handleSlackInteraction(
+            @RequestParam("payload") String rawPayload,
+            @RequestHeader(value = HEADER_RETRY_NUM, required = false) String retryNum) {
         try {
             JSONObject payload = new JSONObject(rawPayload);
             JSONObject actionPayload = new JSONObject(
@@ -121,8 +242,18 @@ public class SlackController {
             );
             String sql = actionPayload.getString("sql");
             String nlq = actionPayload.getString("nlq");
+            int page = Math.max(0, actionPayload.optInt("page", 0));
             String userId = payload.getJSONObject("user").getString("id");
             String responseUrl = payload.getString("response_url");
+            JSONObject channel = payload.optJSONObject("channel");
+            String channelId = channel != null ? channel.optString("id", null) : null;
+
+            // The acknowledgement goes to the response_url, so a retry is answered with an empty body
+            String identity = SlackRequestDeduplicator.identity(
+                    payload.optString("trigger_id", null), responseUrl + "#" + actionTs(payload), rawPayload);
+            if (slackRequestDeduplicator.register("interaction", identity, "", retryNum).isPresent()) {
+                return ResponseEntity.ok().build();
+            }
 
             // Acknowledge immediately
             Map<String, Object> ackResponse = Map.of(
@@ -133,7 +264,8 @@ public class SlackController {
             sendSlackResponse(responseUrl, ackResponse);
 
             // Process in background
-            executor.submit(() -> runAndPostResult(sql, nlq, userId, responseUrl));
+            executor.submit(() -> withResponseUrlDeadline(userId,
+                    () -> runAndPostResult(sql, nlq, userId, responseUrl, page, channelId)));
             
             return ResponseEntity.ok().build();
             
@@ -142,38 +274,70 @@ public class SlackController {
         }
     }
 
-    private void runAndPostResult(String sql, String nlq, String userId, String responseUrl) {
+    /**
+     * When the clicked button was pressed; a message's buttons share its response_url.
+     */
+    private static String actionTs(JSONObject payload) {
+        return payload.getJSONArray("actions").getJSONObject(0).optString("action_ts", "");
+    }
+
+    private void runAndPostResult(String sql, String nlq, String userId, String responseUrl,
+                                  int page, String channelId) {
         try {
-            QueryResponse executionResponse = queryExecutionService.executeQuery(sql);
+            QueryResponse executionResponse = queryExecutionService.executeQuery(sql, PageRequest.of(page, slackPageSize));
             executionResponse.setNaturalLanguageQuery(nlq);
             executionResponse.setExplanation(executionResponse.getExplanation());
 
-            queryHistoryService.saveQuery(executionResponse, userId);
+            // Paging through a result is not a new query
+            if (page == 0) {
+                queryHistoryService.saveQuery(executionResponse, TargetDataSourceRegistry.DEFAULT, userId);
+            }
 
-            String resultMarkdown = formatResultsAsMarkdown(executionResponse.getResults());
+            QueryResponse.PageInfo pageInfo = executionResponse.getPage();
+            boolean uploadFullResult = page == 0 && channelId != null && slackFileUploader.isEnabled()
+                    && pageInfo.getTotalElements() > fileUploadThreshold;
 
-            String execSummary = String.format("*Status:* %s  |  *Rows:* %d  |  *Time:* %d ms",
+            String execSummary = String.format("*Status:* %s  |  *Rows:* %d of %d  |  *Page:* %d/%d  |  *Time:* %d ms",
                     executionResponse.getExecutionMetrics().getStatus(),
                     executionResponse.getExecutionMetrics().getResultCount(),
+                    pageInfo.getTotalElements(),
+                    page + 1,
+                    Math.max(1, pageInfo.getTotalPages()),
                     executionResponse.getExecutionMetrics().getExecutionTimeMs()
             );
 
-            Map<String, Object> response = Map.of(
-                    "response_type", "ephemeral",
-                    "replace_original", true,
-                    "blocks", List.of(
-                            Map.of("type", "section", "text",
-                                    Map.of("type", "mrkdwn", "text", "*▶️ Query Executed by <@" + userId + ">*" +
-                                            "\n*📝 SQL:*\n```sql\n" + sql + "\n```")),
-                            Map.of("type", "context", "elements", List.of(
-                                    Map.of("type", "mrkdwn", "text", execSummary)
-                            )),
-                            Map.of("type", "section", "text",
-                                    Map.of("type", "mrkdwn", "text", "*🧪 Results:*\n" + resultMarkdown))
-                    )
-            );
+            List<Map<String, Object>> blocks = new ArrayList<>();
+            blocks.add(Map.of("type", "section", "text",
+                    Map.of("type", "mrkdwn", "text", "*▶️ Query Executed by <@" + userId + ">*" +
+                            "\n*📝 SQL:*\n```sql\n" + sql + "\n```")));
+            blocks.add(Map.of("type", "context", "elements", List.of(
+                    Map.of("type", "mrkdwn", "text", execSummary)
+            )));
+            if (uploadFullResult) {
+                blocks.add(Map.of("type", "context", "elements", List.of(
+                        Map.of("type", "mrkdwn", "text", "📎 The full result is being uploaded to this channel as a CSV file.")
+                )));
+            }
+            for (String chunk : slackResultRenderer.renderTableChunks(executionResponse.getResults())) {
+                blocks.add(Map.of("type", "section", "text", Map.of("type", "mrkdwn", "text", chunk)));
+            }
+            List<Map<String, Object>> pageButtons = pageButtons(sql, nlq, page, pageInfo.getTotalPages());
+            if (!pageButtons.isEmpty()) {
+                blocks.add(Map.of("type", "actions", "elements", pageButtons));
+            }
 
-            sendSlackResponse(responseUrl, response);
+            List<List<Map<String, Object>>> messages = slackResultRenderer.splitIntoMessages(blocks);
+            for (int i = 0; i < messages.size(); i++) {
+                sendSlackResponse(responseUrl, Map.of(
+                        "response_type", "ephemeral",
+                        "replace_original", i == 0,
+                        "blocks", messages.get(i)
+                ));
+            }
+
+            if (uploadFullResult) {
+                slackFileUploader.uploadQueryResult(channelId, sql, nlq);
+            }
 
         } catch (Exception e) {
             Map<String, Object> errorResponse = Map.of(
@@ -185,33 +349,29 @@ public class SlackController {
         }
     }
 
-    private String formatResultsAsMarkdown(List<Map<String, Object>> results) {
-        if (results == null || results.isEmpty()) {
-            return "```\nNo results found.\n```";
+    private List<Map<String, Object>> pageButtons(String sql, String nlq, int page, int totalPages) {
+        List<Map<String, Object>> buttons = new ArrayList<>();
+        if (page > 0) {
+            buttons.add(Map.of("type", "button",
+                    "text", Map.of("type", "plain_text", "text", "◀️ Previous page"),
+                    "value", pagePayload(sql, nlq, page - 1).toString(),
+                    "action_id", "run_query_prev"));
         }
-
-        StringBuilder sb = new StringBuilder("```\n");
-        
-        // Get column names from first row
-        if (!results.isEmpty()) {
-            List<String> columns = new ArrayList<>(results.get(0).keySet());
-            // Add header
-            sb.append(String.join(" | ", columns)).append("\n");
-            sb.append("-".repeat(columns.stream().mapToInt(String::length).sum() + (columns.size() - 1) * 3)).append("\n");
-            
-            // Add rows
-            for (Map<String, Object> row : results) {
-                List<String> values = new ArrayList<>();
-                for (String col : columns) {
-                    Object value = row.get(col);
-                    values.add(value != null ? value.toString() : "NULL");
-                }
-                sb.append(String.join(" | ", values)).append("\n");
-            }
+        if (page + 1 < totalPages) {
+            buttons.add(Map.of("type", "button",
+                    "text", Map.of("type", "plain_text", "text", "Next page ▶️"),
+                    "value", pagePayload(sql, nlq, page + 1).toString(),
+                    "action_id", "run_query_next"));
         }
-        
-        sb.append("```");
-        return sb.toString();
+        return buttons;
+    }
+
+    private JSONObject pagePayload(String sql, String nlq, int page) {
+        return new JSONObject(Map.of(
+                "sql", sql,
+                "nlq", nlq,
+                "page", page
+        ));
     }
 
     private void sendSlackResponse(String responseUrl, Map<String, Object> response) {
@@ -0,0 +1,53 @@
+package com.ai.texttosql.controller;
+
+import com.ai.texttosql.model.QueryWatch;
+import com.ai.texttosql.model.WatchRequest;
+import com.ai.texttosql.service.QueryWatchService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.UUID;
+
+@Tag(name = "Watch API", description = "APIs for re-running saved queries on a schedule and posting their changes to Slack")
+@RestController
+@RequestMapping("/api/v1/watch")
+@RequiredArgsConstructor
+public class WatchController {
+
+    private final QueryWatchService queryWatchService;
+
+    @Operation(summary = "Watch a saved query",
+            description = "Runs the query's SQL on the schedule and posts added, changed and removed rows to the channel")
+    @PostMapping
+    public ResponseEntity<QueryWatch> createWatch(@Validated @RequestBody WatchRequest request) {
+        QueryWatch watch = queryWatchService.create(request.getQueryId(), request.getChannelId(),
+                request.getSchedule(), request.getTimeZone(),
+                request.getCreatedBy() != null ? request.getCreatedBy() : "api");
+        return ResponseEntity.status(HttpStatus.CREATED).body(watch);
+    }
+
+    @Operation(summary = "List watches")
+    @GetMapping
+    public ResponseEntity<List<QueryWatch>> listWatches(
+            @Parameter(description = "Slack channel ID; all watches when omitted")
+            @RequestParam(required = false) String channelId) {
+        return ResponseEntity.ok(queryWatchService.list(channelId));
+    }
+
+    @Operation(summary = "Stop watching a query")
+    @DeleteMapping("/{watchId}")
+    public ResponseEntity<Void> deleteWatch(
+            @PathVariable UUID watchId,
+            @Parameter(description = "Slack channel ID the watch must belong to; any channel when omitted")
+            @RequestParam(required = false) String channelId) {
+        queryWatchService.delete(watchId, channelId);
+        return ResponseEntity.noContent().build();
+    }
+}
@@ -0,0 +1,12 @@
+package com.ai.texttosql.exception;
+
+/**
+ * Exception thrown when a question is not admitted to the model because too many questions of
+ * the same caller are waiting, or it waited for too long.
+ */
+public class GenerationRejectedException extends RuntimeException {
+
+    public GenerationRejectedException(String message) {
+        super(message);
+    }
+}
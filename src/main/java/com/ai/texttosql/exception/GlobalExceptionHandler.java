@@ -29,6 +29,20 @@ public class GlobalExceptionHandler {
         return ResponseEntity.badRequest().body(response);
     }
 
+    @ExceptionHandler(QueryCancelledException.class)
+    public ResponseEntity<QueryResponse> handleQueryCancelled(QueryCancelledException ex) {
+        QueryResponse response = new QueryResponse();
+        response.setError(ex.getMessage());
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(response);
+    }
+
+    @ExceptionHandler(GenerationRejectedException.class)
+    public ResponseEntity<QueryResponse> handleGenerationRejected(GenerationRejectedException ex) {
+        QueryResponse response = new QueryResponse();
+        response.setError(ex.getMessage());
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).body(response);
+    }
+
     @ExceptionHandler(DataAccessException.class)
     public ResponseEntity<QueryResponse> handleDataAccessException(DataAccessException ex) {
         QueryResponse response = new QueryResponse();
@@ -43,6 +57,13 @@ public class GlobalExceptionHandler {
         return ResponseEntity.status(HttpStatus.NOT_FOUND).body(response);
     }
 
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<QueryResponse> handleIllegalArgument(IllegalArgumentException ex) {
+        QueryResponse response = new QueryResponse();
+        response.setError(ex.getMessage());
+        return ResponseEntity.badRequest().body(response);
+    }
+
     @ExceptionHandler(AccessDeniedException.class)
     public ResponseEntity<QueryResponse> handleAccessDenied(AccessDeniedException ex) {
         QueryResponse response = new QueryResponse();
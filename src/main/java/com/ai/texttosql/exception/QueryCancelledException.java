@@ -0,0 +1,18 @@
+package com.ai.texttosql.exception;
+
+import lombok.Getter;
+
+/**
+ * Exception thrown when a request is cancelled because its client went away or its deadline
+ * passed.
+ */
+@Getter
+public class QueryCancelledException extends RuntimeException {
+
+    private final String reason;
+
+    public QueryCancelledException(String reason) {
+        super("Query cancelled (" + reason + ")");
+        this.reason = reason;
+    }
+}
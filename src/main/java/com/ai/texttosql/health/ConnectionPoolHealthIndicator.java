@@ -0,0 +1,52 @@
+package com.ai.texttosql.health;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+
+/**
+ * Saturation of the application connection pool: the share of connections in use and the
+ * number of threads waiting for one. A saturated pool is reported as {@code OUT_OF_SERVICE}.
+ */
+@Component
+@RequiredArgsConstructor
+public class ConnectionPoolHealthIndicator implements HealthIndicator {
+
+    private final DataSource dataSource;
+    private final HealthThresholds thresholds;
+
+    @Override
+    public Health health() {
+        if (!(dataSource instanceof HikariDataSource hikari) || hikari.getHikariPoolMXBean() == null) {
+            return Health.unknown().withDetail("reason", "Pool not started").build();
+        }
+        HikariPoolMXBean pool = hikari.getHikariPoolMXBean();
+        double saturation = saturation(hikari);
+        Health.Builder builder = saturation >= thresholds.getPoolSaturationHigh() && pool.getThreadsAwaitingConnection() > 0
+                ? Health.outOfService()
+                : Health.up();
+        return builder
+                .withDetail("active", pool.getActiveConnections())
+                .withDetail("idle", pool.getIdleConnections())
+                .withDetail("max", hikari.getMaximumPoolSize())
+                .withDetail("awaiting", pool.getThreadsAwaitingConnection())
+                .withDetail("saturation", Math.round(saturation * 100) / 100.0)
+                .build();
+    }
+
+    /**
+     * Share of the pool in use, counting waiting threads as demand beyond the pool size.
+     */
+    static double saturation(HikariDataSource hikari) {
+        HikariPoolMXBean pool = hikari.getHikariPoolMXBean();
+        if (pool == null) {
+            return 0;
+        }
+        return (double) (pool.getActiveConnections() + pool.getThreadsAwaitingConnection()) / hikari.getMaximumPoolSize();
+    }
+}
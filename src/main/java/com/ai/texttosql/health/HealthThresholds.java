@@ -0,0 +1,28 @@
+package com.ai.texttosql.health;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Limits used by the health indicators and by {@link LoadSheddingMonitor}. Each overload
+ * signal has a high watermark that trips shedding and a lower one that must be reached
+ * before traffic is accepted again.
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "app.health")
+public class HealthThresholds {
+
+    private double poolSaturationHigh = 0.9;
+    private double poolSaturationLow = 0.6;
+    private int ollamaQueuedHigh = 8;
+    private int ollamaQueuedLow = 4;
+    private int tripAfterSamples = 3;
+    private int recoverAfterSamples = 6;
+    private Duration ollamaTimeout = Duration.ofSeconds(2);
+    private Duration redisLatencyWarn = Duration.ofMillis(50);
+    private Duration schemaMaxAge = Duration.ofHours(1);
+}
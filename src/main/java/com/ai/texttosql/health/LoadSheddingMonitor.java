@@ -0,0 +1,121 @@
+package com.ai.texttosql.health;
+
+import com.ai.texttosql.config.OllamaClient;
+import com.ai.texttosql.service.LlmScheduler;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Takes the instance out of rotation while it is overloaded.
+ * <p>
+ * Every sample checks connection pool saturation, the number of model calls waiting in the
+ * {@link LlmScheduler} and whether Ollama is reachable at all. After {@code trip-after-samples}
+ * consecutive overloaded samples the readiness state changes to {@code REFUSING_TRAFFIC}, which
+ * the readiness probe reports as {@code OUT_OF_SERVICE}; it changes back only after
+ * {@code recover-after-samples} consecutive samples with every signal below its low watermark, so
+ * a node hovering around a limit does not flap in and out of the load balancer.
+ */
+@Slf4j
+@Component
+public class LoadSheddingMonitor {
+
+    private final DataSource dataSource;
+    private final OllamaClient ollamaClient;
+    private final LlmScheduler llmScheduler;
+    private final HealthThresholds thresholds;
+    private final ApplicationEventPublisher eventPublisher;
+    private final MeterRegistry meterRegistry;
+
+    private volatile boolean armed;
+    private volatile boolean shedding;
+    private int overloadedSamples;
+    private int healthySamples;
+
+    public LoadSheddingMonitor(DataSource dataSource,
+                               OllamaClient ollamaClient,
+                               LlmScheduler llmScheduler,
+                               HealthThresholds thresholds,
+                               ApplicationEventPublisher eventPublisher,
+                               MeterRegistry meterRegistry) {
+        this.dataSource = dataSource;
+        this.ollamaClient = ollamaClient;
+        this.llmScheduler = llmScheduler;
+        this.thresholds = thresholds;
+        this.eventPublisher = eventPublisher;
+        this.meterRegistry = meterRegistry;
+        meterRegistry.gauge("health.load.shedding", this, monitor -> monitor.shedding ? 1 : 0);
+    }
+
+    /**
+     * Sampling starts once the application has reported ready for the first time, so that
+     * shedding never overrides the startup warm-up.
+     */
+    @EventListener
+    public void onReadinessChange(AvailabilityChangeEvent<ReadinessState> event) {
+        if (event.getState() == ReadinessState.ACCEPTING_TRAFFIC) {
+            armed = true;
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${app.health.sample-interval-ms:5000}")
+    public synchronized void sample() {
+        if (!armed) {
+            return;
+        }
+
+        List<String> overloaded = new ArrayList<>();
+        boolean belowLowWatermarks = true;
+
+        double saturation = dataSource instanceof HikariDataSource hikari
+                ? ConnectionPoolHealthIndicator.saturation(hikari) : 0;
+        if (saturation >= thresholds.getPoolSaturationHigh()) {
+            overloaded.add("connection pool " + Math.round(saturation * 100) + "% saturated");
+        }
+        belowLowWatermarks &= saturation < thresholds.getPoolSaturationLow();
+
+        int queued = llmScheduler.getQueued();
+        if (queued >= thresholds.getOllamaQueuedHigh()) {
+            overloaded.add(queued + " model calls queued");
+        }
+        belowLowWatermarks &= queued < thresholds.getOllamaQueuedLow();
+
+        if (!ollamaClient.isReachable(thresholds.getOllamaTimeout())) {
+            overloaded.add("Ollama unreachable");
+            belowLowWatermarks = false;
+        }
+
+        if (!overloaded.isEmpty()) {
+            overloadedSamples++;
+            healthySamples = 0;
+        } else if (belowLowWatermarks) {
+            healthySamples++;
+            overloadedSamples = 0;
+        } else {
+            overloadedSamples = 0;
+            healthySamples = 0;
+        }
+
+        if (!shedding && overloadedSamples >= thresholds.getTripAfterSamples()) {
+            shedding = true;
+            meterRegistry.counter("health.load.shedding.transitions", "state", "refusing").increment();
+            log.warn("Refusing traffic: {}", String.join(", ", overloaded));
+            AvailabilityChangeEvent.publish(eventPublisher, this, ReadinessState.REFUSING_TRAFFIC);
+        } else if (shedding && healthySamples >= thresholds.getRecoverAfterSamples()) {
+            shedding = false;
+            meterRegistry.counter("health.load.shedding.transitions", "state", "accepting").increment();
+            log.info("Load is back below the low watermarks; accepting traffic again");
+            AvailabilityChangeEvent.publish(eventPublisher, this, ReadinessState.ACCEPTING_TRAFFIC);
+        }
+    }
+}
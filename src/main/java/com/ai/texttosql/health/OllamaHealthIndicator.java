@@ -0,0 +1,35 @@
+package com.ai.texttosql.health;
+
+import com.ai.texttosql.config.OllamaClient;
+import com.ai.texttosql.service.LlmScheduler;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reachability of Ollama and the number of model calls waiting for it in the {@link LlmScheduler}.
+ */
+@Component
+@RequiredArgsConstructor
+public class OllamaHealthIndicator implements HealthIndicator {
+
+    private final OllamaClient ollamaClient;
+    private final LlmScheduler llmScheduler;
+    private final HealthThresholds thresholds;
+
+    @Override
+    public Health health() {
+        int inFlight = ollamaClient.getInFlightRequests();
+        int queued = llmScheduler.getQueued();
+        if (!ollamaClient.isReachable(thresholds.getOllamaTimeout())) {
+            return Health.down().withDetail("inFlight", inFlight).withDetail("queued", queued).build();
+        }
+        Health.Builder builder = queued >= thresholds.getOllamaQueuedHigh() ? Health.outOfService() : Health.up();
+        return builder
+                .withDetail("inFlight", inFlight)
+                .withDetail("queued", queued)
+                .withDetail("maxQueued", thresholds.getOllamaQueuedHigh())
+                .build();
+    }
+}
@@ -0,0 +1,41 @@
+package com.ai.texttosql.health;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Round-trip latency of a Redis {@code PING}. Registered as {@code redis}, in place of Spring
+ * Boot's indicator, which only reports whether Redis answered.
+ */
+@Component("redisHealthIndicator")
+@RequiredArgsConstructor
+public class RedisLatencyHealthIndicator implements HealthIndicator {
+
+    private final ObjectProvider<RedisConnectionFactory> connectionFactory;
+    private final HealthThresholds thresholds;
+
+    @Override
+    public Health health() {
+        RedisConnectionFactory factory = connectionFactory.getIfAvailable();
+        if (factory == null) {
+            return Health.unknown().withDetail("reason", "Redis is not configured").build();
+        }
+
+        long start = System.nanoTime();
+        try (RedisConnection connection = factory.getConnection()) {
+            connection.ping();
+            long latencyMs = (System.nanoTime() - start) / 1_000_000;
+            return Health.up()
+                    .withDetail("latencyMs", latencyMs)
+                    .withDetail("slow", latencyMs > thresholds.getRedisLatencyWarn().toMillis())
+                    .build();
+        } catch (Exception e) {
+            return Health.down(e).build();
+        }
+    }
+}
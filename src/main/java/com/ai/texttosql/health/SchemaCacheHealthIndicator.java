@@ -0,0 +1,43 @@
+package com.ai.texttosql.health;
+
+import com.ai.texttosql.config.TargetDataSourceRegistry;
+import com.ai.texttosql.service.SchemaPromptCompiler;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Age of the schema context used in prompts, per data source. Prompts built from a context
+ * older than {@code app.health.schema-max-age} may miss recent schema changes.
+ */
+@Component
+@RequiredArgsConstructor
+public class SchemaCacheHealthIndicator implements HealthIndicator {
+
+    private final SchemaPromptCompiler schemaPromptCompiler;
+    private final HealthThresholds thresholds;
+
+    @Override
+    public Health health() {
+        Map<String, Instant> compiledAt = schemaPromptCompiler.getCompiledAt();
+        if (!compiledAt.containsKey(TargetDataSourceRegistry.DEFAULT)) {
+            return Health.unknown().withDetail("reason", "Schema context not built yet").build();
+        }
+
+        Instant now = Instant.now();
+        Map<String, Long> ageSeconds = new LinkedHashMap<>();
+        compiledAt.forEach((dataSource, at) -> ageSeconds.put(dataSource, Duration.between(at, now).toSeconds()));
+        long defaultAge = ageSeconds.get(TargetDataSourceRegistry.DEFAULT);
+
+        return Health.up()
+                .withDetail("ageSeconds", ageSeconds)
+                .withDetail("stale", defaultAge > thresholds.getSchemaMaxAge().toSeconds())
+                .build();
+    }
+}
@@ -0,0 +1,56 @@
+package com.ai.texttosql.interceptor;
+
+import com.ai.texttosql.service.CancellationToken;
+import com.ai.texttosql.service.QueryCancellationService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+
+import java.time.Duration;
+
+/**
+ * Gives every API request a deadline, after which its model call and SQL statement are
+ * aborted, see {@link CancellationToken}.
+ */
+@Component
+@RequiredArgsConstructor
+public class CancellationInterceptor implements AsyncHandlerInterceptor {
+
+    private static final String TOKEN_ATTRIBUTE = CancellationInterceptor.class.getName() + ".token";
+    private static final String SCOPE_ATTRIBUTE = CancellationInterceptor.class.getName() + ".scope";
+
+    private final QueryCancellationService queryCancellationService;
+
+    @Value("${app.cancellation.request-timeout:5m}")
+    private Duration requestTimeout;
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        CancellationToken token = queryCancellationService.open(requestTimeout);
+        request.setAttribute(TOKEN_ATTRIBUTE, token);
+        request.setAttribute(SCOPE_ATTRIBUTE, token.activate());
+        return true;
+    }
+
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        // Streaming handlers manage their own tokens
+        afterCompletion(request, response, handler, null);
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        CancellationToken.Scope scope = (CancellationToken.Scope) request.getAttribute(SCOPE_ATTRIBUTE);
+        if (scope != null) {
+            scope.close();
+            request.removeAttribute(SCOPE_ATTRIBUTE);
+        }
+        CancellationToken token = (CancellationToken) request.getAttribute(TOKEN_ATTRIBUTE);
+        if (token != null) {
+            token.close();
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package com.ai.texttosql.interceptor;
 
 import com.ai.texttosql.config.RateLimitConfig;
+import com.ai.texttosql.service.CancellationToken;
+import com.ai.texttosql.service.LlmScheduler;
 import io.github.bucket4j.Bucket;
 import io.github.bucket4j.ConsumptionProbe;
 import jakarta.servlet.http.HttpServletRequest;
@@ -8,17 +10,18 @@ import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Component;
-import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
 
 import java.util.concurrent.TimeUnit;
 
 @Component
 @RequiredArgsConstructor
-public class RateLimitInterceptor implements HandlerInterceptor {
+public class RateLimitInterceptor implements AsyncHandlerInterceptor {
 
     private static final String HEADER_API_KEY = "X-API-Key";
     private static final String HEADER_LIMIT_REMAINING = "X-Rate-Limit-Remaining";
     private static final String HEADER_RETRY_AFTER = "X-Rate-Limit-Retry-After-Seconds";
+    private static final String CALLER_SCOPE_ATTRIBUTE = RateLimitInterceptor.class.getName() + ".caller";
 
     private final RateLimitConfig rateLimitConfig;
 
@@ -37,6 +40,8 @@ public class RateLimitInterceptor implements HandlerInterceptor {
         if (probe.isConsumed()) {
             // Add rate limit headers to the response
             response.addHeader(HEADER_LIMIT_REMAINING, String.valueOf(probe.getRemainingTokens()));
+            // Model calls of the request are scheduled fairly per API key
+            request.setAttribute(CALLER_SCOPE_ATTRIBUTE, LlmScheduler.Caller.apiKey(apiKey).bind());
             return true;
         } else {
             // Calculate how many seconds until the next refill
@@ -49,4 +54,18 @@ public class RateLimitInterceptor implements HandlerInterceptor {
             return false;
         }
     }
+
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        afterCompletion(request, response, handler, null);
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        CancellationToken.Scope scope = (CancellationToken.Scope) request.getAttribute(CALLER_SCOPE_ATTRIBUTE);
+        if (scope != null) {
+            scope.close();
+            request.removeAttribute(CALLER_SCOPE_ATTRIBUTE);
+        }
+    }
 }
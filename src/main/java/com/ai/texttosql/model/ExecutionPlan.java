@@ -0,0 +1,81 @@
+package com.ai.texttosql.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The {@code EXPLAIN ANALYZE} plan captured for a slow query, as a tree of iterators with the
+ * operations that usually drive the cost picked out.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ExecutionPlan {
+
+    // Kinds of hotspots
+    public static final String FULL_SCAN = "FULL_SCAN";
+    public static final String FULL_INDEX_SCAN = "FULL_INDEX_SCAN";
+    public static final String FILESORT = "FILESORT";
+    public static final String TEMPORARY_TABLE = "TEMPORARY_TABLE";
+
+    private UUID queryId;
+    private String generatedSql;
+    private Long executionTimeMs;
+    private Instant capturedAt;
+    private Node root;
+    /**
+     * Full scans, filesorts and temporary tables of the plan, the most expensive first.
+     */
+    private List<Hotspot> hotspots;
+    /**
+     * The plan as MySQL printed it.
+     */
+    private String text;
+
+    @Data
+    @Builder
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Node {
+        private String operation;
+        /**
+         * One of the hotspot kinds, or {@code null} for other operations.
+         */
+        private String kind;
+        private Double estimatedCost;
+        private Double estimatedRows;
+        /**
+         * Time until the last row, over all loops, including the operations below.
+         */
+        private Double actualTimeMs;
+        /**
+         * Rows returned over all loops.
+         */
+        private Double actualRows;
+        private Long loops;
+        @Builder.Default
+        private List<Node> children = new ArrayList<>();
+    }
+
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class Hotspot {
+        private String kind;
+        private String operation;
+        private Double actualTimeMs;
+        private Double actualRows;
+        /**
+         * Share of the whole query's time spent in this operation and the ones below it.
+         */
+        private Double timeShare;
+    }
+}
@@ -0,0 +1,56 @@
+package com.ai.texttosql.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * An index the generated workload would use, with the queries it serves.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class IndexRecommendation {
+
+    private String table;
+    private List<String> columns;
+    private String ddl;
+    /**
+     * What the index serves: {@code filter}, {@code join}, {@code order} or {@code group}.
+     */
+    private Set<String> reasons;
+    /**
+     * Distinct generated statements the index serves.
+     */
+    private int statements;
+    private long executions;
+    /**
+     * Summed execution time of the statements the index serves.
+     */
+    private long workloadTimeMs;
+    /**
+     * The most expensive statement the index serves.
+     */
+    private String exampleSql;
+
+    /**
+     * Whether MySQL chose the index on a sampled copy of the table; {@code null} when not checked.
+     */
+    private Boolean validated;
+    private String validation;
+    /**
+     * Rows MySQL estimated to read from the table for the checked statements, without and with
+     * the index.
+     */
+    private Long estimatedRowsBefore;
+    private Long estimatedRowsAfter;
+    /**
+     * Workload time saved if reads shrink as estimated; {@code null} when not checked.
+     */
+    private Long estimatedSavingMs;
+}
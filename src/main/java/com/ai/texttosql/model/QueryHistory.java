@@ -1,6 +1,7 @@
 
 package com.ai.texttosql.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.*;
 import lombok.Data;
 import org.hibernate.annotations.CreationTimestamp;
@@ -27,9 +28,21 @@ public class QueryHistory {
     @Column(name = "generated_sql", nullable = false, columnDefinition = "TEXT")
     private String generatedSql;
 
+    /**
+     * The data source the SQL ran against, {@code default} for the application database.
+     */
+    @Column(name = "data_source", nullable = false, length = 64)
+    private String dataSource;
+
     @Column(name = "explanation", columnDefinition = "TEXT")
     private String explanation;
 
+    /**
+     * The query this one is a follow-up of; following these links back gives the session.
+     */
+    @Column(name = "parent_query_id", columnDefinition = "BINARY(16)")
+    private UUID parentQueryId;
+
     @Column(name = "user_id", nullable = false)
     private String userId;
 
@@ -49,4 +62,15 @@ public class QueryHistory {
     @JdbcTypeCode(SqlTypes.JSON)
     @Column(name = "execution_metrics", columnDefinition = "json")
     private Map<String, Object> executionMetrics;
+
+    /**
+     * {@code EXPLAIN ANALYZE} output captured when the query was slow; served analyzed by
+     * {@code /api/v1/query/plan/{queryId}} rather than with every history entry.
+     */
+    @JsonIgnore
+    @Column(name = "execution_plan", columnDefinition = "MEDIUMTEXT")
+    private String executionPlan;
+
+    @Column(name = "plan_captured_at")
+    private Instant planCapturedAt;
 }
@@ -4,6 +4,8 @@ package com.ai.texttosql.model;
 import jakarta.validation.constraints.NotBlank;
 import lombok.Data;
 
+import java.util.UUID;
+
 @Data
 public class QueryRequest {
     @NotBlank(message = "Natural language query cannot be blank")
@@ -12,4 +14,21 @@ public class QueryRequest {
     private boolean explainQuery = true;
     private boolean validateQuery = true;
     private boolean includeSchemaContext = true;
+
+    /**
+     * Generate several candidate statements and keep the one with the cheapest plan, at the cost
+     * of extra model calls; meant for complex questions.
+     */
+    private boolean multiCandidate;
+
+    /**
+     * History ID of the query this one refines, e.g. "now only for 2024". The previous SQL is
+     * edited instead of generating from scratch.
+     */
+    private UUID previousQueryId;
+
+    /**
+     * Name of a target from {@code app.datasources.targets}; the application database when empty.
+     */
+    private String dataSource;
 }
\ No newline at end of file
@@ -8,12 +8,21 @@ import lombok.NoArgsConstructor;
 import java.time.Instant;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 
 @Data
 @Builder
 @NoArgsConstructor
 @AllArgsConstructor
 public class QueryResponse {
+    /**
+     * History ID of the executed query, to refer to in a follow-up.
+     */
+    private UUID queryId;
+    /**
+     * History ID of the query this one refines.
+     */
+    private UUID previousQueryId;
     private String naturalLanguageQuery;
     private String generatedSql;
     private List<Map<String, Object>> results;
@@ -22,6 +31,11 @@ public class QueryResponse {
     private Instant timestamp;
     private PageInfo page;
     private ExecutionMetrics executionMetrics;
+    /**
+     * True for an estimate computed from part of the data, which is followed by the exact answer.
+     */
+    private boolean approximate;
+    private Approximation approximation;
 
     @Data
     @Builder
@@ -32,6 +46,14 @@ public class QueryResponse {
         private int pageSize;
         private long totalElements;
         private int totalPages;
+        /**
+         * Opaque position after this page, set when the query is paged by key and more rows follow.
+         */
+        private String continuationToken;
+        /**
+         * ID of the result snapshot this page was served from, for requesting further pages of it.
+         */
+        private String snapshotId;
 
         public PageInfo(int pageNumber, int pageSize, long totalElements) {
             this.pageNumber = pageNumber;
@@ -60,4 +82,29 @@ public class QueryResponse {
             this.queryType = "SELECT"; // Default, can be overridden
         }
     }
-}
\ No newline at end of file
+
+    @Data
+    @Builder
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Approximation {
+        /**
+         * Share of the data the estimate was computed from.
+         */
+        private double sampledFraction;
+        private double confidenceLevel;
+        /**
+         * One entry per result row, mapping each estimated column to its confidence interval.
+         * Columns without an entry are exact or cannot be bounded (MIN, MAX).
+         */
+        private List<Map<String, ErrorBound>> errorBounds;
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class ErrorBound {
+        private double lower;
+        private double upper;
+    }
+}
@@ -0,0 +1,33 @@
+package com.ai.texttosql.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * One page of query results as raw row arrays, before conversion to per-row maps.
+ * Used by encoders that write rows straight to the response.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class QueryResultPage {
+    private String generatedSql;
+    private List<Object[]> rows;
+    private Instant timestamp;
+    private QueryResponse.PageInfo page;
+    private QueryResponse.ExecutionMetrics executionMetrics;
+
+    public int getColumnCount() {
+        return rows == null || rows.isEmpty() ? 0 : rows.get(0).length;
+    }
+
+    public static String columnName(int index) {
+        return "column_" + (index + 1);
+    }
+}
@@ -0,0 +1,85 @@
+package com.ai.texttosql.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import jakarta.persistence.*;
+import lombok.Data;
+import org.hibernate.annotations.CreationTimestamp;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * A saved query that is run again on a schedule, with its changes posted to a Slack channel.
+ */
+@Data
+@Entity
+@Table(name = "query_watches")
+public class QueryWatch {
+
+    public static final String ACTIVE = "ACTIVE";
+    public static final String PAUSED = "PAUSED";
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.UUID)
+    @Column(name = "id", columnDefinition = "BINARY(16)")
+    private UUID id;
+
+    /**
+     * The history entry whose SQL is watched.
+     */
+    @Column(name = "query_id", nullable = false, columnDefinition = "BINARY(16)")
+    private UUID queryId;
+
+    @Column(name = "channel_id", nullable = false)
+    private String channelId;
+
+    @Column(name = "created_by", nullable = false)
+    private String createdBy;
+
+    /**
+     * Spring cron expression such as {@code 0 0 8 * * MON-FRI} or {@code @daily}.
+     */
+    @Column(name = "schedule", nullable = false)
+    private String schedule;
+
+    @Column(name = "time_zone", nullable = false)
+    private String timeZone;
+
+    @Column(name = "status", nullable = false)
+    private String status;
+
+    @Column(name = "next_run_at", nullable = false)
+    private Instant nextRunAt;
+
+    @Column(name = "last_run_at")
+    private Instant lastRunAt;
+
+    @Column(name = "last_error")
+    private String lastError;
+
+    @JsonIgnore
+    @Column(name = "state_format")
+    private String stateFormat;
+
+    /**
+     * Hashes of the rows of the last result; kept out of responses.
+     */
+    @JsonIgnore
+    @Column(name = "row_state", columnDefinition = "MEDIUMBLOB")
+    private byte[] rowState;
+
+    @Column(name = "row_count")
+    private Integer rowCount;
+
+    @JsonIgnore
+    @Column(name = "watermark")
+    private Long watermark;
+
+    @JsonIgnore
+    @Column(name = "incremental_runs", nullable = false)
+    private int incrementalRuns;
+
+    @CreationTimestamp
+    @Column(name = "created_at")
+    private Instant createdAt;
+}
@@ -0,0 +1,29 @@
+package com.ai.texttosql.model;
+
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import lombok.Data;
+
+import java.util.UUID;
+
+@Data
+public class WatchRequest {
+    @NotNull(message = "Query ID is required")
+    private UUID queryId;
+
+    @NotBlank(message = "Slack channel ID cannot be blank")
+    private String channelId;
+
+    /**
+     * Spring cron expression such as {@code 0 0 8 * * MON-FRI} or {@code @daily}.
+     */
+    @NotBlank(message = "Schedule cannot be blank")
+    private String schedule;
+
+    /**
+     * Zone the schedule is read in; {@code app.watch.default-time-zone} when empty.
+     */
+    private String timeZone;
+
+    private String createdBy;
+}
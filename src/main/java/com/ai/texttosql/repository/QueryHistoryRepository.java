@@ -4,10 +4,14 @@ import com.ai.texttosql.model.QueryHistory;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Instant;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -35,4 +39,53 @@ public interface QueryHistoryRepository extends JpaRepository<QueryHistory, UUID
      */
     @Query("SELECT q FROM QueryHistory q ORDER BY q.timestamp DESC")
     Page<QueryHistory> findRecentQueries(Pageable pageable);
-}
\ No newline at end of file
+
+    /**
+     * Most frequently asked questions on a data source since the given instant, grouped
+     * case-insensitively. Follow-ups are left out, as they only make sense together with the query
+     * they refine. Each row is {@code [question, count]}.
+     */
+    @Query("SELECT LOWER(TRIM(q.naturalLanguageQuery)), COUNT(q) FROM QueryHistory q " +
+            "WHERE q.timestamp >= :since AND q.dataSource = :dataSource AND q.parentQueryId IS NULL " +
+            "GROUP BY LOWER(TRIM(q.naturalLanguageQuery)) ORDER BY COUNT(q) DESC")
+    List<Object[]> findMostFrequentQuestions(@Param("dataSource") String dataSource, @Param("since") Instant since,
+                                             Pageable pageable);
+
+    /**
+     * Most frequently executed successful SQL statements on a data source since the given instant,
+     * follow-ups left out. Each row is {@code [sql, count]}.
+     */
+    @Query("SELECT q.generatedSql, COUNT(q) FROM QueryHistory q " +
+            "WHERE q.timestamp >= :since AND q.dataSource = :dataSource AND q.status = 'SUCCESS' " +
+            "AND q.parentQueryId IS NULL GROUP BY q.generatedSql ORDER BY COUNT(q) DESC")
+    List<Object[]> findMostFrequentSql(@Param("dataSource") String dataSource, @Param("since") Instant since,
+                                       Pageable pageable);
+
+    /**
+     * Successful SQL statements on a data source since the given instant by their summed execution
+     * time, follow-ups left out. Each row is {@code [sql, count, total execution time in ms]}.
+     */
+    @Query("SELECT q.generatedSql, COUNT(q), COALESCE(SUM(q.executionTimeMillis), 0) FROM QueryHistory q " +
+            "WHERE q.timestamp >= :since AND q.dataSource = :dataSource AND q.status = 'SUCCESS' " +
+            "AND q.parentQueryId IS NULL GROUP BY q.generatedSql " +
+            "ORDER BY COALESCE(SUM(q.executionTimeMillis), 0) DESC, COUNT(q) DESC")
+    List<Object[]> findMostExpensiveSql(@Param("dataSource") String dataSource, @Param("since") Instant since,
+                                        Pageable pageable);
+
+    /**
+     * Question and SQL of recent successful queries on a data source that are not follow-ups, most
+     * recent first. Each row is {@code [question, sql]}.
+     */
+    @Query("SELECT q.naturalLanguageQuery, q.generatedSql FROM QueryHistory q " +
+            "WHERE q.dataSource = :dataSource AND q.status = 'SUCCESS' AND q.parentQueryId IS NULL " +
+            "ORDER BY q.timestamp DESC")
+    List<Object[]> findRecentSuccessfulQuestions(@Param("dataSource") String dataSource, Pageable pageable);
+
+    /**
+     * Stores the execution plan captured for a query after it was saved.
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE QueryHistory q SET q.executionPlan = :plan, q.planCapturedAt = :capturedAt WHERE q.id = :id")
+    int updateExecutionPlan(@Param("id") UUID id, @Param("plan") String plan, @Param("capturedAt") Instant capturedAt);
+}
@@ -0,0 +1,60 @@
+package com.ai.texttosql.repository;
+
+import com.ai.texttosql.model.QueryWatch;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+@Repository
+public interface QueryWatchRepository extends JpaRepository<QueryWatch, UUID> {
+
+    /**
+     * Find the watches of a channel, oldest first
+     */
+    List<QueryWatch> findByChannelIdOrderByCreatedAtAsc(String channelId);
+
+    /**
+     * Active watches whose next run is due, the longest overdue first.
+     */
+    @Query("SELECT w FROM QueryWatch w WHERE w.status = 'ACTIVE' AND w.nextRunAt <= :now ORDER BY w.nextRunAt")
+    List<QueryWatch> findDue(@Param("now") Instant now, Pageable pageable);
+
+    /**
+     * Moves a due watch on to its next run, unless another instance already did.
+     *
+     * @return 1 when this caller claimed the run
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE QueryWatch w SET w.nextRunAt = :next WHERE w.id = :id AND w.nextRunAt = :due")
+    int claim(@Param("id") UUID id, @Param("due") Instant due, @Param("next") Instant next);
+
+    /**
+     * Stores the outcome of a run without touching the schedule, which may have changed meanwhile.
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE QueryWatch w SET w.lastRunAt = :lastRunAt, w.lastError = :lastError, w.stateFormat = :stateFormat, " +
+            "w.rowState = :rowState, w.rowCount = :rowCount, w.watermark = :watermark, w.incrementalRuns = :incrementalRuns " +
+            "WHERE w.id = :id")
+    int updateState(@Param("id") UUID id, @Param("lastRunAt") Instant lastRunAt, @Param("lastError") String lastError,
+                    @Param("stateFormat") String stateFormat, @Param("rowState") byte[] rowState,
+                    @Param("rowCount") Integer rowCount, @Param("watermark") Long watermark,
+                    @Param("incrementalRuns") int incrementalRuns);
+
+    /**
+     * Records a failed run, keeping the state of the last successful one.
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE QueryWatch w SET w.lastRunAt = :lastRunAt, w.lastError = :lastError WHERE w.id = :id")
+    int updateError(@Param("id") UUID id, @Param("lastRunAt") Instant lastRunAt, @Param("lastError") String lastError);
+}
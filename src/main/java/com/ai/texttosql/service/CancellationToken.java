@@ -0,0 +1,176 @@
+package com.ai.texttosql.service;
+
+import com.ai.texttosql.exception.QueryCancelledException;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.function.Consumer;
+
+/**
+ * Cancellation signal and deadline of one request, carried through generation and execution.
+ * <p>
+ * The token of the current request is bound to the thread with {@link #activate()}. Blocking
+ * work looks it up with {@link #current()} and registers a callback that aborts it, e.g. by
+ * disposing the Ollama subscription or killing the running statement. The callback runs once
+ * when the token is cancelled, either explicitly on disconnect or when the deadline passes.
+ * Tokens are created by {@link QueryCancellationService}.
+ */
+@Slf4j
+public final class CancellationToken {
+
+    public static final String DEADLINE = "deadline";
+    public static final String DISCONNECT = "disconnect";
+
+    private static final ThreadLocal<CancellationToken> CURRENT = new ThreadLocal<>();
+
+    private final Instant deadline;
+    private final List<Registration> registrations = new CopyOnWriteArrayList<>();
+    private final Consumer<String> onCancelled;
+    private volatile String reason;
+    private volatile ScheduledFuture<?> deadlineTimer;
+    private volatile boolean closed;
+
+    CancellationToken(Instant deadline, Consumer<String> onCancelled) {
+        this.deadline = deadline;
+        this.onCancelled = onCancelled;
+    }
+
+    /**
+     * The token bound to the calling thread, or {@code null} outside of a cancellable request.
+     */
+    public static CancellationToken current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Binds the token to the calling thread until the returned scope is closed.
+     */
+    public Scope activate() {
+        CancellationToken previous = CURRENT.get();
+        CURRENT.set(this);
+        return () -> {
+            if (previous != null) {
+                CURRENT.set(previous);
+            } else {
+                CURRENT.remove();
+            }
+        };
+    }
+
+    /**
+     * Cancels the request and runs the registered callbacks; later calls have no effect.
+     */
+    public void cancel(String reason) {
+        synchronized (this) {
+            if (this.reason != null || closed) {
+                return;
+            }
+            this.reason = reason;
+        }
+        log.info("Cancelling request ({})", reason);
+        onCancelled.accept(reason);
+        for (Registration registration : registrations) {
+            registration.fire();
+        }
+        registrations.clear();
+    }
+
+    public boolean isCancelled() {
+        return reason != null;
+    }
+
+    /**
+     * Why the request was cancelled, {@link #DEADLINE} or {@link #DISCONNECT}, or {@code null}.
+     */
+    public String getReason() {
+        return reason;
+    }
+
+    public void throwIfCancelled() {
+        if (reason != null) {
+            throw new QueryCancelledException(reason);
+        }
+    }
+
+    /**
+     * Time left until the deadline, never negative.
+     */
+    public Duration remaining() {
+        Duration remaining = Duration.between(Instant.now(), deadline);
+        return remaining.isNegative() ? Duration.ZERO : remaining;
+    }
+
+    /**
+     * Runs {@code callback} when the token is cancelled, or right away if it already is.
+     * Closing the registration waits for a callback that is running, so that nothing is
+     * aborted after the work it was registered for has finished.
+     */
+    public Registration onCancel(Runnable callback) {
+        Registration registration = new Registration(callback);
+        registrations.add(registration);
+        if (reason != null) {
+            registration.fire();
+        }
+        return registration;
+    }
+
+    /**
+     * Stops the deadline timer once the request is done; the token can no longer be cancelled.
+     */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        ScheduledFuture<?> timer = deadlineTimer;
+        if (timer != null) {
+            timer.cancel(false);
+        }
+        registrations.forEach(Registration::close);
+        registrations.clear();
+    }
+
+    void setDeadlineTimer(ScheduledFuture<?> deadlineTimer) {
+        this.deadlineTimer = deadlineTimer;
+    }
+
+    /**
+     * Restores the previous binding of the thread when closed.
+     */
+    @FunctionalInterface
+    public interface Scope extends AutoCloseable {
+
+        @Override
+        void close();
+    }
+
+    public final class Registration implements AutoCloseable {
+
+        private Runnable callback;
+
+        private Registration(Runnable callback) {
+            this.callback = callback;
+        }
+
+        private synchronized void fire() {
+            if (callback == null) {
+                return;
+            }
+            try {
+                callback.run();
+            } catch (Exception e) {
+                log.warn("Cancellation callback failed: {}", e.getMessage());
+            }
+            callback = null;
+        }
+
+        @Override
+        public synchronized void close() {
+            callback = null;
+            registrations.remove(this);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.ai.texttosql.service;
+
+import com.ai.texttosql.model.QueryResponse;
+import com.ai.texttosql.model.QueryResultPage;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.StreamWriteFeature;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes a result page as CBOR in a columnar layout: one array of values per column
+ * instead of one map per row, so column names are written once.
+ * <p>
+ * Rows are streamed from the raw {@link QueryResultPage} arrays straight to the output,
+ * without going through the per-row maps used by the JSON response.
+ */
+@Component
+public class ColumnarCborEncoder {
+
+    public static final String MEDIA_TYPE_VALUE = "application/cbor";
+    public static final MediaType MEDIA_TYPE = MediaType.parseMediaType(MEDIA_TYPE_VALUE);
+
+    private final CBORFactory cborFactory = CBORFactory.builder()
+            .disable(StreamWriteFeature.AUTO_CLOSE_TARGET)
+            .build();
+    private final Timer encodeTimer;
+    private final DistributionSummary encodedBytes;
+
+    public ColumnarCborEncoder(MeterRegistry meterRegistry) {
+        this.encodeTimer = Timer.builder("query.result.encode.time")
+                .description("Time taken to encode a result page")
+                .tag("format", "cbor")
+                .register(meterRegistry);
+        this.encodedBytes = DistributionSummary.builder("query.result.encoded.bytes")
+                .description("Encoded size of a result page")
+                .baseUnit("bytes")
+                .tag("format", "cbor")
+                .register(meterRegistry);
+    }
+
+    /**
+     * True when the Accept header asks for CBOR at least as strongly as for JSON.
+     */
+    public static boolean isRequested(String acceptHeader) {
+        if (acceptHeader == null || acceptHeader.isBlank()) {
+            return false;
+        }
+        double cbor = 0;
+        double json = 0;
+        for (MediaType type : MediaType.parseMediaTypes(acceptHeader)) {
+            if (MEDIA_TYPE.equalsTypeAndSubtype(type)) {
+                cbor = Math.max(cbor, type.getQualityValue());
+            } else if (MediaType.APPLICATION_JSON.equalsTypeAndSubtype(type)) {
+                json = Math.max(json, type.getQualityValue());
+            }
+        }
+        return cbor > 0 && cbor >= json;
+    }
+
+    /**
+     * @param queryId history ID of the executed query, for follow-ups; null for pages that were
+     *                not saved to the history, such as further pages of a snapshot
+     */
+    public void encode(QueryResultPage resultPage, UUID queryId, String naturalLanguageQuery, String explanation,
+                       OutputStream outputStream) throws IOException {
+        long start = System.nanoTime();
+        CountingOutputStream out = new CountingOutputStream(outputStream);
+
+        try (JsonGenerator generator = cborFactory.createGenerator(out)) {
+            generator.writeStartObject();
+            generator.writeStringField("queryId", queryId != null ? queryId.toString() : null);
+            generator.writeStringField("naturalLanguageQuery", naturalLanguageQuery);
+            generator.writeStringField("generatedSql", resultPage.getGeneratedSql());
+            generator.writeStringField("explanation", explanation);
+            generator.writeStringField("timestamp",
+                    resultPage.getTimestamp() != null ? resultPage.getTimestamp().toString() : null);
+            writePage(generator, resultPage.getPage());
+            writeExecutionMetrics(generator, resultPage.getExecutionMetrics());
+            writeColumns(generator, resultPage);
+            generator.writeEndObject();
+        }
+
+        if (!StartupWarmupService.isWarmingUp()) {
+            encodeTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            encodedBytes.record(out.getCount());
+        }
+    }
+
+    private void writeColumns(JsonGenerator generator, QueryResultPage resultPage) throws IOException {
+        List<Object[]> rows = resultPage.getRows() != null ? resultPage.getRows() : List.of();
+        int columnCount = resultPage.getColumnCount();
+
+        generator.writeArrayFieldStart("columns");
+        for (int column = 0; column < columnCount; column++) {
+            generator.writeString(QueryResultPage.columnName(column));
+        }
+        generator.writeEndArray();
+
+        generator.writeNumberField("rowCount", rows.size());
+
+        generator.writeArrayFieldStart("data");
+        for (int column = 0; column < columnCount; column++) {
+            generator.writeStartArray(null, rows.size());
+            for (Object[] row : rows) {
+                writeValue(generator, column < row.length ? row[column] : null);
+            }
+            generator.writeEndArray();
+        }
+        generator.writeEndArray();
+    }
+
+    private void writePage(JsonGenerator generator, QueryResponse.PageInfo page) throws IOException {
+        if (page == null) {
+            return;
+        }
+        generator.writeObjectFieldStart("page");
+        generator.writeNumberField("pageNumber", page.getPageNumber());
+        generator.writeNumberField("pageSize", page.getPageSize());
+        generator.writeNumberField("totalElements", page.getTotalElements());
+        generator.writeNumberField("totalPages", page.getTotalPages());
+        if (page.getContinuationToken() != null) {
+            generator.writeStringField("continuationToken", page.getContinuationToken());
+        }
+        if (page.getSnapshotId() != null) {
+            generator.writeStringField("snapshotId", page.getSnapshotId());
+        }
+        generator.writeEndObject();
+    }
+
+    private void writeExecutionMetrics(JsonGenerator generator, QueryResponse.ExecutionMetrics metrics) throws IOException {
+        if (metrics == null) {
+            return;
+        }
+        generator.writeObjectFieldStart("executionMetrics");
+        generator.writeNumberField("executionTimeMs", metrics.getExecutionTimeMs());
+        generator.writeNumberField("resultCount", metrics.getResultCount());
+        generator.writeStringField("status", metrics.getStatus());
+        generator.writeEndObject();
+    }
+
+    private void writeValue(JsonGenerator generator, Object value) throws IOException {
+        if (value == null) {
+            generator.writeNull();
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            generator.writeNumber(((Number) value).longValue());
+        } else if (value instanceof BigInteger bigInteger) {
+            generator.writeNumber(bigInteger);
+        } else if (value instanceof BigDecimal bigDecimal) {
+            generator.writeNumber(bigDecimal);
+        } else if (value instanceof Double || value instanceof Float) {
+            generator.writeNumber(((Number) value).doubleValue());
+        } else if (value instanceof Boolean bool) {
+            generator.writeBoolean(bool);
+        } else if (value instanceof byte[] bytes) {
+            generator.writeString(new String(bytes, StandardCharsets.UTF_8));
+        } else if (value instanceof java.sql.Timestamp timestamp) {
+            generator.writeString(timestamp.toInstant().toString());
+        } else {
+            generator.writeString(value.toString());
+        }
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
+}
@@ -0,0 +1,363 @@
+package com.ai.texttosql.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * File format of a result snapshot.
+ * <p>
+ * Rows are cut into blocks of a fixed number of rows. Each block is written column by column,
+ * so that similar values sit next to each other, and then deflated. An index of block offsets
+ * at the end of the file lets a reader map the file and inflate only the blocks a page needs.
+ * <pre>
+ * header  magic (int), version (int), columns (int), rows per block (int), rows (long), index offset (long)
+ * blocks  deflated column-major values, each prefixed with a type tag
+ * index   per block: offset (long), deflated length (int), inflated length (int)
+ * </pre>
+ */
+final class ColumnarSnapshotFile {
+
+    private static final int MAGIC = 0x54325153;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 32;
+
+    private static final byte NULL = 0;
+    private static final byte INT = 1;
+    private static final byte LONG = 2;
+    private static final byte DOUBLE = 3;
+    private static final byte FLOAT = 4;
+    private static final byte DECIMAL = 5;
+    private static final byte BIG_INTEGER = 6;
+    private static final byte STRING = 7;
+    private static final byte BOOLEAN = 8;
+    private static final byte BYTES = 9;
+    private static final byte TIMESTAMP = 10;
+    private static final byte SQL_DATE = 11;
+    private static final byte SQL_TIME = 12;
+    private static final byte LOCAL_DATE_TIME = 13;
+    private static final byte LOCAL_DATE = 14;
+    private static final byte LOCAL_TIME = 15;
+    private static final byte INSTANT = 16;
+
+    private ColumnarSnapshotFile() {
+    }
+
+    /**
+     * Thrown when a snapshot would grow beyond the size it is allowed to take on disk.
+     */
+    static class TooLargeException extends IOException {
+        TooLargeException(String message) {
+            super(message);
+        }
+    }
+
+    static final class Writer implements Closeable {
+
+        private final FileChannel channel;
+        private final int blockRows;
+        private final long maxBytes;
+        private final List<Object[]> block;
+        private final List<long[]> index = new ArrayList<>();
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        private int columns = -1;
+        private long rows;
+        private long inflatedBytes;
+
+        Writer(Path path, int blockRows, long maxBytes) throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            this.blockRows = blockRows;
+            this.maxBytes = maxBytes;
+            this.block = new ArrayList<>(blockRows);
+            channel.position(HEADER_BYTES);
+        }
+
+        void append(Object[] row) throws IOException {
+            if (columns < 0) {
+                columns = row.length;
+            }
+            block.add(row);
+            rows++;
+            if (block.size() == blockRows) {
+                flushBlock();
+            }
+        }
+
+        /**
+         * Writes the last block, the index and the header.
+         *
+         * @return the size of the file in bytes
+         */
+        long finish() throws IOException {
+            flushBlock();
+            long indexOffset = channel.position();
+            ByteBuffer indexBuffer = ByteBuffer.allocate(index.size() * 16);
+            for (long[] entry : index) {
+                indexBuffer.putLong(entry[0]).putInt((int) entry[1]).putInt((int) entry[2]);
+            }
+            writeFully(indexBuffer.flip());
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES)
+                    .putInt(MAGIC)
+                    .putInt(VERSION)
+                    .putInt(Math.max(columns, 0))
+                    .putInt(blockRows)
+                    .putLong(rows)
+                    .putLong(indexOffset)
+                    .flip();
+            channel.write(header, 0);
+            return channel.size();
+        }
+
+        long rows() {
+            return rows;
+        }
+
+        long inflatedBytes() {
+            return inflatedBytes;
+        }
+
+        @Override
+        public void close() throws IOException {
+            deflater.end();
+            channel.close();
+        }
+
+        private void flushBlock() throws IOException {
+            if (block.isEmpty()) {
+                return;
+            }
+            ByteArrayOutputStream raw = new ByteArrayOutputStream(block.size() * columns * 8);
+            DataOutputStream out = new DataOutputStream(raw);
+            for (int column = 0; column < columns; column++) {
+                for (Object[] row : block) {
+                    writeValue(out, column < row.length ? row[column] : null);
+                }
+            }
+            byte[] inflated = raw.toByteArray();
+
+            deflater.reset();
+            deflater.setInput(inflated);
+            deflater.finish();
+            ByteArrayOutputStream deflated = new ByteArrayOutputStream(inflated.length / 4 + 64);
+            byte[] chunk = new byte[8192];
+            while (!deflater.finished()) {
+                deflated.write(chunk, 0, deflater.deflate(chunk));
+            }
+
+            long offset = channel.position();
+            if (offset + deflated.size() + (index.size() + 1) * 16L > maxBytes) {
+                throw new TooLargeException("Snapshot exceeds " + maxBytes + " bytes after " + rows + " rows");
+            }
+            writeFully(ByteBuffer.wrap(deflated.toByteArray()));
+            index.add(new long[]{offset, deflated.size(), inflated.length});
+            inflatedBytes += inflated.length;
+            block.clear();
+        }
+
+        private void writeFully(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    static final class Reader {
+
+        private final MappedByteBuffer buffer;
+        private final int columns;
+        private final int blockRows;
+        private final long rows;
+        private final long[] offsets;
+        private final int[] deflatedLengths;
+        private final int[] inflatedLengths;
+
+        private Reader(MappedByteBuffer buffer) throws IOException {
+            this.buffer = buffer;
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("Not a result snapshot file");
+            }
+            this.columns = buffer.getInt(8);
+            this.blockRows = buffer.getInt(12);
+            this.rows = buffer.getLong(16);
+            int indexOffset = (int) buffer.getLong(24);
+
+            int blocks = (int) ((rows + blockRows - 1) / blockRows);
+            this.offsets = new long[blocks];
+            this.deflatedLengths = new int[blocks];
+            this.inflatedLengths = new int[blocks];
+            for (int b = 0; b < blocks; b++) {
+                int entry = indexOffset + b * 16;
+                offsets[b] = buffer.getLong(entry);
+                deflatedLengths[b] = buffer.getInt(entry + 8);
+                inflatedLengths[b] = buffer.getInt(entry + 12);
+            }
+        }
+
+        /**
+         * Maps a finished snapshot file read-only. The mapping stays valid after the file is deleted.
+         */
+        static Reader open(Path path) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                return new Reader(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            }
+        }
+
+        long rows() {
+            return rows;
+        }
+
+        int blockRows() {
+            return blockRows;
+        }
+
+        /**
+         * Inflates one block into its rows.
+         */
+        Object[][] readBlock(int block) {
+            byte[] inflated = new byte[inflatedLengths[block]];
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(buffer.slice((int) offsets[block], deflatedLengths[block]));
+                int read = 0;
+                while (read < inflated.length && !inflater.finished()) {
+                    read += inflater.inflate(inflated, read, inflated.length - read);
+                }
+            } catch (DataFormatException e) {
+                throw new IllegalStateException("Corrupt snapshot block " + block, e);
+            } finally {
+                inflater.end();
+            }
+
+            int blockSize = (int) Math.min(blockRows, rows - (long) block * blockRows);
+            Object[][] blockValues = new Object[blockSize][columns];
+            ByteBuffer in = ByteBuffer.wrap(inflated);
+            for (int column = 0; column < columns; column++) {
+                for (int row = 0; row < blockSize; row++) {
+                    blockValues[row][column] = readValue(in);
+                }
+            }
+            return blockValues;
+        }
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            out.writeByte(INT);
+            out.writeInt(((Number) value).intValue());
+        } else if (value instanceof Long number) {
+            out.writeByte(LONG);
+            out.writeLong(number);
+        } else if (value instanceof Double number) {
+            out.writeByte(DOUBLE);
+            out.writeDouble(number);
+        } else if (value instanceof Float number) {
+            out.writeByte(FLOAT);
+            out.writeFloat(number);
+        } else if (value instanceof BigDecimal number) {
+            out.writeByte(DECIMAL);
+            out.writeInt(number.scale());
+            writeBytes(out, number.unscaledValue().toByteArray());
+        } else if (value instanceof BigInteger number) {
+            out.writeByte(BIG_INTEGER);
+            writeBytes(out, number.toByteArray());
+        } else if (value instanceof Boolean bool) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean(bool);
+        } else if (value instanceof byte[] bytes) {
+            out.writeByte(BYTES);
+            writeBytes(out, bytes);
+        } else if (value instanceof Timestamp timestamp) {
+            out.writeByte(TIMESTAMP);
+            out.writeLong(timestamp.getTime());
+            out.writeInt(timestamp.getNanos());
+        } else if (value instanceof java.sql.Date date) {
+            out.writeByte(SQL_DATE);
+            out.writeLong(date.toLocalDate().toEpochDay());
+        } else if (value instanceof java.sql.Time time) {
+            out.writeByte(SQL_TIME);
+            out.writeLong(time.toLocalTime().toNanoOfDay());
+        } else if (value instanceof LocalDateTime dateTime) {
+            out.writeByte(LOCAL_DATE_TIME);
+            out.writeLong(dateTime.toEpochSecond(ZoneOffset.UTC));
+            out.writeInt(dateTime.getNano());
+        } else if (value instanceof LocalDate date) {
+            out.writeByte(LOCAL_DATE);
+            out.writeLong(date.toEpochDay());
+        } else if (value instanceof LocalTime time) {
+            out.writeByte(LOCAL_TIME);
+            out.writeLong(time.toNanoOfDay());
+        } else if (value instanceof Instant instant) {
+            out.writeByte(INSTANT);
+            out.writeLong(instant.getEpochSecond());
+            out.writeInt(instant.getNano());
+        } else {
+            out.writeByte(STRING);
+            writeBytes(out, value.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static Object readValue(ByteBuffer in) {
+        byte tag = in.get();
+        return switch (tag) {
+            case NULL -> null;
+            case INT -> in.getInt();
+            case LONG -> in.getLong();
+            case DOUBLE -> in.getDouble();
+            case FLOAT -> in.getFloat();
+            case DECIMAL -> {
+                int scale = in.getInt();
+                yield new BigDecimal(new BigInteger(readBytes(in)), scale);
+            }
+            case BIG_INTEGER -> new BigInteger(readBytes(in));
+            case STRING -> new String(readBytes(in), StandardCharsets.UTF_8);
+            case BOOLEAN -> in.get() != 0;
+            case BYTES -> readBytes(in);
+            case TIMESTAMP -> {
+                Timestamp timestamp = new Timestamp(in.getLong());
+                timestamp.setNanos(in.getInt());
+                yield timestamp;
+            }
+            case SQL_DATE -> java.sql.Date.valueOf(LocalDate.ofEpochDay(in.getLong()));
+            case SQL_TIME -> java.sql.Time.valueOf(LocalTime.ofNanoOfDay(in.getLong()));
+            case LOCAL_DATE_TIME -> LocalDateTime.ofEpochSecond(in.getLong(), in.getInt(), ZoneOffset.UTC);
+            case LOCAL_DATE -> LocalDate.ofEpochDay(in.getLong());
+            case LOCAL_TIME -> LocalTime.ofNanoOfDay(in.getLong());
+            case INSTANT -> Instant.ofEpochSecond(in.getLong(), in.getInt());
+            default -> throw new IllegalStateException("Unknown snapshot value tag " + tag);
+        };
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return bytes;
+    }
+}
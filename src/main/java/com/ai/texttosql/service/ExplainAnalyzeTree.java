@@ -0,0 +1,141 @@
+package com.ai.texttosql.service;
+
+import com.ai.texttosql.model.ExecutionPlan;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads the tree that MySQL's {@code EXPLAIN ANALYZE} prints, one iterator per line:
+ * <pre>
+ * -&gt; Sort: revenue DESC  (actual time=52.1..52.3 rows=12 loops=1)
+ *     -&gt; Table scan on &lt;temporary&gt;  (actual time=52.0..52.0 rows=12 loops=1)
+ *         -&gt; Aggregate using temporary table  (actual time=51.9..51.9 rows=12 loops=1)
+ *             -&gt; Table scan on o  (cost=1025 rows=10000) (actual time=0.1..31.2 rows=10000 loops=1)
+ * </pre>
+ * Children are indented by four more spaces than their parent. Lines of an operation that is
+ * too long for one line continue without an arrow.
+ */
+final class ExplainAnalyzeTree {
+
+    private static final String NUMBER = "(\\d+(?:\\.\\d+)?(?:e[+-]?\\d+)?)";
+    private static final Pattern LINE = Pattern.compile("^(\\s*)->\\s*(.*)$");
+    private static final Pattern ESTIMATE = Pattern.compile(
+            "\\(cost=" + NUMBER + "(?:\\.\\." + NUMBER + ")?\\s+rows=" + NUMBER + "\\)");
+    private static final Pattern ACTUAL = Pattern.compile(
+            "\\(actual time=" + NUMBER + "\\.\\." + NUMBER + "\\s+rows=" + NUMBER + "\\s+loops=(\\d+)\\)");
+    private static final Pattern ANNOTATIONS = Pattern.compile("\\s*\\((?:cost=|actual time=|never executed)[^)]*\\)");
+
+    private ExplainAnalyzeTree() {
+    }
+
+    /**
+     * The root of the plan, or {@code null} when the text holds no iterator.
+     */
+    static ExecutionPlan.Node parse(String text) {
+        ExecutionPlan.Node root = null;
+        Deque<ExecutionPlan.Node> parents = new ArrayDeque<>();
+        Deque<Integer> depths = new ArrayDeque<>();
+        ExecutionPlan.Node last = null;
+        StringBuilder lastLine = null;
+        for (String line : text.split("\\R")) {
+            Matcher matcher = LINE.matcher(line);
+            if (!matcher.matches()) {
+                if (last != null && !line.isBlank()) {
+                    lastLine.append(' ').append(line.strip());
+                    describe(last, lastLine.toString());
+                }
+                continue;
+            }
+            int depth = matcher.group(1).length();
+            while (!depths.isEmpty() && depths.peek() >= depth) {
+                depths.pop();
+                parents.pop();
+            }
+            ExecutionPlan.Node node = new ExecutionPlan.Node();
+            lastLine = new StringBuilder(matcher.group(2));
+            describe(node, lastLine.toString());
+            if (parents.isEmpty()) {
+                if (root != null) {
+                    // Several top-level iterators only happen for output we do not understand
+                    break;
+                }
+                root = node;
+            } else {
+                parents.peek().getChildren().add(node);
+            }
+            parents.push(node);
+            depths.push(depth);
+            last = node;
+        }
+        return root;
+    }
+
+    /**
+     * The full scans, filesorts and temporary tables below {@code root}, the slowest first.
+     */
+    static List<ExecutionPlan.Hotspot> hotspots(ExecutionPlan.Node root) {
+        List<ExecutionPlan.Hotspot> hotspots = new ArrayList<>();
+        if (root == null) {
+            return hotspots;
+        }
+        Double total = root.getActualTimeMs();
+        Deque<ExecutionPlan.Node> pending = new ArrayDeque<>();
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            ExecutionPlan.Node node = pending.pop();
+            if (node.getKind() != null) {
+                Double share = total != null && total > 0 && node.getActualTimeMs() != null
+                        ? Math.min(1.0, node.getActualTimeMs() / total)
+                        : null;
+                hotspots.add(new ExecutionPlan.Hotspot(node.getKind(), node.getOperation(), node.getActualTimeMs(),
+                        node.getActualRows(), share));
+            }
+            node.getChildren().forEach(pending::push);
+        }
+        hotspots.sort(Comparator.comparing(ExecutionPlan.Hotspot::getActualTimeMs,
+                Comparator.nullsLast(Comparator.reverseOrder())));
+        return hotspots;
+    }
+
+    private static void describe(ExecutionPlan.Node node, String line) {
+        Matcher estimate = ESTIMATE.matcher(line);
+        if (estimate.find()) {
+            node.setEstimatedCost(Double.parseDouble(estimate.group(2) != null ? estimate.group(2) : estimate.group(1)));
+            node.setEstimatedRows(Double.parseDouble(estimate.group(3)));
+        }
+        Matcher actual = ACTUAL.matcher(line);
+        if (actual.find()) {
+            // Times and rows are averages per loop
+            long loops = Long.parseLong(actual.group(4));
+            node.setActualTimeMs(Double.parseDouble(actual.group(2)) * loops);
+            node.setActualRows(Double.parseDouble(actual.group(3)) * loops);
+            node.setLoops(loops);
+        }
+        String operation = ANNOTATIONS.matcher(line).replaceAll("").strip();
+        node.setOperation(operation);
+        node.setKind(kind(operation));
+    }
+
+    private static String kind(String operation) {
+        if (operation.startsWith("Table scan on ")) {
+            // Reading back a temporary table is part of the operation that filled it
+            return operation.startsWith("Table scan on <") ? null : ExecutionPlan.FULL_SCAN;
+        }
+        if (operation.startsWith("Index scan on ")) {
+            return ExecutionPlan.FULL_INDEX_SCAN;
+        }
+        if (operation.startsWith("Sort") || operation.contains("filesort")) {
+            return ExecutionPlan.FILESORT;
+        }
+        if (operation.contains("temporary") || operation.startsWith("Materialize")) {
+            return ExecutionPlan.TEMPORARY_TABLE;
+        }
+        return null;
+    }
+}
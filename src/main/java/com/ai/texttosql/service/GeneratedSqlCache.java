@@ -0,0 +1,80 @@
+package com.ai.texttosql.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Optional;
+
+/**
+ * Cache of generated SQL keyed by the normalized natural language question.
+ * <p>
+ * Entries are either stored after a user request or put there ahead of demand by
+ * {@link PopularQuestionWarmer}; hits on warmed entries are counted as saved generations.
+ */
+@Component
+public class GeneratedSqlCache {
+
+    private final Cache<String, Entry> cache;
+    private final MeterRegistry meterRegistry;
+
+    public GeneratedSqlCache(MeterRegistry meterRegistry,
+                             @Value("${app.sql-cache.maximum-size:1000}") long maximumSize,
+                             @Value("${app.sql-cache.expire-after-write-minutes:360}") long expireAfterWriteMinutes) {
+        this.meterRegistry = meterRegistry;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(Duration.ofMinutes(expireAfterWriteMinutes))
+                .build();
+        meterRegistry.gauge("query.sql.cache.size", cache, Cache::estimatedSize);
+    }
+
+    public Optional<String> get(String naturalLanguageQuery) {
+        Entry entry = cache.getIfPresent(normalize(naturalLanguageQuery));
+        if (entry == null) {
+            meterRegistry.counter("query.sql.cache", "result", "miss").increment();
+            return Optional.empty();
+        }
+        meterRegistry.counter("query.sql.cache", "result", "hit").increment();
+        if (entry.warmed()) {
+            meterRegistry.counter("query.warmer.saved.requests").increment();
+        }
+        return Optional.of(entry.sql());
+    }
+
+    public void put(String naturalLanguageQuery, String sql) {
+        cache.put(normalize(naturalLanguageQuery), new Entry(sql, false));
+    }
+
+    public void putWarmed(String naturalLanguageQuery, String sql) {
+        cache.put(normalize(naturalLanguageQuery), new Entry(sql, true));
+    }
+
+    public boolean contains(String naturalLanguageQuery) {
+        return cache.getIfPresent(normalize(naturalLanguageQuery)) != null;
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * Case, whitespace and trailing punctuation do not change the meaning of a question.
+     */
+    public static String normalize(String naturalLanguageQuery) {
+        if (naturalLanguageQuery == null) {
+            return "";
+        }
+        return naturalLanguageQuery.trim()
+                .toLowerCase(Locale.ROOT)
+                .replaceAll("\\s+", " ")
+                .replaceAll("[\\s?!.;]+$", "");
+    }
+
+    private record Entry(String sql, boolean warmed) {
+    }
+}
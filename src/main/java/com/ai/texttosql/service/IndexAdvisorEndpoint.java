@@ -0,0 +1,41 @@
+package com.ai.texttosql.service;
+
+import com.ai.texttosql.model.IndexRecommendation;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Actuator endpoint at {@code /management/indexadvisor} listing the indexes the generated
+ * workload would use, see {@link IndexAdvisorService}.
+ */
+@Component
+@Endpoint(id = "indexadvisor")
+@RequiredArgsConstructor
+public class IndexAdvisorEndpoint {
+
+    private static final int DEFAULT_LIMIT = 20;
+
+    private final IndexAdvisorService indexAdvisorService;
+
+    /**
+     * @param limit    number of recommendations, 20 by default
+     * @param validate whether to check the top recommendations with {@code EXPLAIN} on sampled
+     *                 copies of their tables, false by default
+     */
+    @ReadOperation
+    public List<IndexRecommendation> recommendations(@Nullable Integer limit, @Nullable Boolean validate) {
+        List<IndexRecommendation> recommendations = indexAdvisorService.recommend(Boolean.TRUE.equals(validate));
+        return recommendations.subList(0, Math.min(limit != null ? limit : DEFAULT_LIMIT, recommendations.size()));
+    }
+
+    @DeleteOperation
+    public void reset() {
+        indexAdvisorService.reset();
+    }
+}
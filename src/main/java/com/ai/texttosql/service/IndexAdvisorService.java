@@ -0,0 +1,468 @@
+package com.ai.texttosql.service;
+
+import com.ai.texttosql.config.TargetDataSourceRegistry;
+import com.ai.texttosql.model.IndexRecommendation;
+import com.ai.texttosql.model.SchemaInfo;
+import com.ai.texttosql.repository.QueryHistoryRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Recommends indexes for the application database from the generated SQL in the query history.
+ * <p>
+ * The successful statements of the last {@code app.index-advisor.lookback-days} are read for
+ * their predicates, join keys and sort columns, see {@link IndexCandidates}. Candidates that an
+ * existing index already serves are dropped, and the rest are merged into as few indexes as
+ * serve them all, ranked by the summed execution time of the statements they serve.
+ * <p>
+ * MySQL has no hypothetical indexes, so on request the top {@code app.index-advisor.validate-limit}
+ * recommendations are checked on a copy of their table, named with
+ * {@code app.index-advisor.table-prefix} and holding at most {@code app.index-advisor.sample-rows}
+ * rows taken from across the table's key range: the most expensive statements are explained against the copy without and with the index,
+ * and a recommendation holds when MySQL chooses the index. The estimated saving assumes the
+ * statements' time shrinks with the rows read from the table.
+ */
+@Slf4j
+@Service
+public class IndexAdvisorService {
+
+    private static final String LOCK_NAME = "text_to_sql.index_advisor";
+    private static final String CANDIDATE_INDEX = "index_advisor_candidate";
+    private static final int MAX_IDENTIFIER_LENGTH = 64;
+    private static final int SAMPLE_RANGES = 20;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final SchemaAnalysisService schemaAnalysisService;
+    private final QueryHistoryRepository queryHistoryRepository;
+    private final MeterRegistry meterRegistry;
+    private final Cache<Boolean, List<IndexRecommendation>> recommendations;
+
+    private final Duration lookback;
+    private final int historyLimit;
+    private final int maxColumns;
+    private final String tablePrefix;
+    private final long sampleRows;
+    private final int validateLimit;
+    private final int statementsPerCheck;
+    private final Duration statementTimeout;
+
+    public IndexAdvisorService(JdbcTemplate jdbcTemplate,
+                               SchemaAnalysisService schemaAnalysisService,
+                               QueryHistoryRepository queryHistoryRepository,
+                               MeterRegistry meterRegistry,
+                               @Value("${app.index-advisor.lookback-days:14}") int lookbackDays,
+                               @Value("${app.index-advisor.history-limit:500}") int historyLimit,
+                               @Value("${app.index-advisor.max-columns:4}") int maxColumns,
+                               @Value("${app.index-advisor.table-prefix:index_advisor_}") String tablePrefix,
+                               @Value("${app.index-advisor.sample-rows:100000}") long sampleRows,
+                               @Value("${app.index-advisor.validate-limit:10}") int validateLimit,
+                               @Value("${app.index-advisor.statements-per-check:5}") int statementsPerCheck,
+                               @Value("${app.index-advisor.statement-timeout:60s}") Duration statementTimeout,
+                               @Value("${app.index-advisor.cache-ttl:15m}") Duration cacheTtl) {
+        if (!tablePrefix.matches("\\w+")) {
+            throw new IllegalArgumentException("app.index-advisor.table-prefix must be a plain identifier: " + tablePrefix);
+        }
+        this.jdbcTemplate = jdbcTemplate;
+        this.schemaAnalysisService = schemaAnalysisService;
+        this.queryHistoryRepository = queryHistoryRepository;
+        this.meterRegistry = meterRegistry;
+        this.lookback = Duration.ofDays(lookbackDays);
+        this.historyLimit = historyLimit;
+        this.maxColumns = maxColumns;
+        this.tablePrefix = tablePrefix;
+        this.sampleRows = sampleRows;
+        this.validateLimit = validateLimit;
+        this.statementsPerCheck = statementsPerCheck;
+        this.statementTimeout = statementTimeout;
+        this.recommendations = Caffeine.newBuilder().expireAfterWrite(cacheTtl).build();
+    }
+
+    /**
+     * The recommended indexes, the most valuable first.
+     *
+     * @param validate whether to check the top recommendations on sampled copies of their tables
+     */
+    public List<IndexRecommendation> recommend(boolean validate) {
+        return recommendations.get(validate, this::analyze);
+    }
+
+    /**
+     * Forgets the cached recommendations, so that the next request analyzes the history again.
+     */
+    public void reset() {
+        recommendations.invalidateAll();
+    }
+
+    private List<IndexRecommendation> analyze(boolean validate) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        List<Draft> drafts = mine();
+        drafts.sort(Comparator.comparingLong((Draft draft) -> draft.workloadTimeMs)
+                .thenComparingLong(draft -> draft.executions).reversed());
+        if (validate && !drafts.isEmpty()) {
+            validate(drafts.subList(0, Math.min(validateLimit, drafts.size())));
+            // Confirmed recommendations by their estimated saving, then unchecked ones, then rejected ones
+            drafts.sort(Comparator.comparingInt(Draft::rank)
+                    .thenComparing(Comparator.comparingLong(Draft::value).reversed()));
+        }
+        sample.stop(meterRegistry.timer("index.advisor.time", "validated", String.valueOf(validate)));
+        log.info("Index advisor found {} recommendations", drafts.size());
+        return drafts.stream().map(Draft::toRecommendation).toList();
+    }
+
+    private List<Draft> mine() {
+        Function<String, SchemaInfo> schemas = schemas();
+        List<Draft> drafts = new ArrayList<>();
+        for (Object[] row : queryHistoryRepository.findMostExpensiveSql(TargetDataSourceRegistry.DEFAULT,
+                Instant.now().minus(lookback), PageRequest.of(0, historyLimit))) {
+            String sql = (String) row[0];
+            long executions = ((Number) row[1]).longValue();
+            long timeMs = ((Number) row[2]).longValue();
+            List<IndexCandidates.Candidate> candidates;
+            try {
+                candidates = IndexCandidates.of(sql, schemas, maxColumns);
+            } catch (Exception e) {
+                log.debug("No index candidates for '{}': {}", sql, e.getMessage());
+                continue;
+            }
+            for (IndexCandidates.Candidate candidate : candidates) {
+                if (!IndexCandidates.indexed(schemas.apply(candidate.table()), candidate)) {
+                    place(drafts, candidate).add(candidate, sql, executions, timeMs);
+                }
+            }
+        }
+        return drafts;
+    }
+
+    /**
+     * The recommendation that serves a candidate, widened to serve it if need be, or a new one.
+     */
+    private Draft place(List<Draft> drafts, IndexCandidates.Candidate candidate) {
+        for (Draft draft : drafts) {
+            if (draft.table().equals(candidate.table()) && candidate.servedBy(draft.candidate.columns())) {
+                return draft;
+            }
+        }
+        for (Draft draft : drafts) {
+            IndexCandidates.Candidate merged = draft.candidate.merge(candidate);
+            if (merged != null && merged.columns().size() <= maxColumns && draft.servedBy(merged)) {
+                draft.candidate = merged;
+                return draft;
+            }
+        }
+        Draft draft = new Draft(candidate);
+        drafts.add(draft);
+        return draft;
+    }
+
+    private void validate(List<Draft> drafts) {
+        try {
+            // The named lock belongs to the connection, so it is taken and released on the same one
+            jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+                if (!lock(connection, "SELECT GET_LOCK(?, 0)")) {
+                    drafts.forEach(draft -> draft.validation = "Not checked: another check is running");
+                    return null;
+                }
+                try {
+                    Map<String, List<Draft>> byTable = drafts.stream()
+                            .collect(Collectors.groupingBy(Draft::table, LinkedHashMap::new, Collectors.toList()));
+                    for (Map.Entry<String, List<Draft>> table : byTable.entrySet()) {
+                        validateTable(connection, table.getKey(), table.getValue());
+                    }
+                } finally {
+                    lock(connection, "SELECT RELEASE_LOCK(?)");
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            log.warn("Could not check index recommendations: {}", e.getMessage());
+        }
+    }
+
+    private void validateTable(Connection connection, String table, List<Draft> drafts) {
+        String copy = tablePrefix + table;
+        if (copy.length() > MAX_IDENTIFIER_LENGTH) {
+            drafts.forEach(draft -> draft.validation = "Not checked: the table name is too long for a copy");
+            return;
+        }
+        try (Statement statement = connection.createStatement()) {
+            statement.setQueryTimeout((int) Math.max(1, statementTimeout.toSeconds()));
+            try {
+                statement.execute("DROP TABLE IF EXISTS " + quote(copy));
+                statement.execute("CREATE TABLE " + quote(copy) + " LIKE " + quote(table));
+                copySample(connection, statement, table, copy);
+                statement.execute("ANALYZE TABLE " + quote(copy));
+                for (Draft draft : drafts) {
+                    check(statement, table, copy, draft);
+                }
+            } finally {
+                statement.execute("DROP TABLE IF EXISTS " + quote(copy));
+            }
+        } catch (SQLException e) {
+            log.warn("Could not check index recommendations on {}: {}", table, e.getMessage());
+            drafts.stream().filter(draft -> draft.validated == null)
+                    .forEach(draft -> draft.validation = "Not checked: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Fills the copy with at most sample-rows rows of the table. The rows are read at READ COMMITTED,
+     * where INSERT ... SELECT takes no locks on the rows it reads as it would at REPEATABLE READ.
+     * With an integer primary key the rows come from {@value #SAMPLE_RANGES} key ranges spread over
+     * the whole table, each copied by its own statement, rather than being the first rows.
+     */
+    private void copySample(Connection connection, Statement statement, String table, String copy) throws SQLException {
+        int isolation = connection.getTransactionIsolation();
+        connection.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+        try {
+            String key = integerPrimaryKey(table);
+            long[] range = key != null ? keyRange(statement, table, key) : null;
+            long span = range != null ? range[1] - range[0] : -1;
+            if (span < 0) {
+                // No usable key, an empty table, or a range too wide to split in a long
+                statement.execute("INSERT INTO " + quote(copy) + " SELECT * FROM " + quote(table) + " LIMIT " + sampleRows);
+                return;
+            }
+            long width = span / SAMPLE_RANGES + 1;
+            long rowsPerRange = Math.max(1, sampleRows / SAMPLE_RANGES);
+            for (long from = range[0]; from <= range[1] && from >= range[0]; from += width) {
+                long to = range[1] - from < width ? range[1] : from + width - 1;
+                statement.execute("INSERT INTO " + quote(copy) + " SELECT * FROM " + quote(table)
+                        + " WHERE " + quote(key) + " BETWEEN " + from + " AND " + to
+                        + " ORDER BY " + quote(key) + " LIMIT " + rowsPerRange);
+            }
+        } finally {
+            connection.setTransactionIsolation(isolation);
+        }
+    }
+
+    /**
+     * The single integer primary key column of a table, or {@code null} when it has none.
+     */
+    private String integerPrimaryKey(String table) {
+        try {
+            List<SchemaInfo.ColumnInfo> primaryKey = schemaAnalysisService
+                    .getTableSchema(TargetDataSourceRegistry.DEFAULT, table).getColumns().stream()
+                    .filter(SchemaInfo.ColumnInfo::isPrimaryKey)
+                    .toList();
+            if (primaryKey.size() == 1 && primaryKey.get(0).getType().toLowerCase(Locale.ROOT).contains("int")) {
+                return primaryKey.get(0).getName();
+            }
+        } catch (Exception e) {
+            log.debug("No primary key to sample {} by: {}", table, e.getMessage());
+        }
+        return null;
+    }
+
+    private static long[] keyRange(Statement statement, String table, String key) throws SQLException {
+        try (ResultSet rs = statement.executeQuery(
+                "SELECT MIN(" + quote(key) + "), MAX(" + quote(key) + ") FROM " + quote(table))) {
+            return rs.next() && rs.getObject(1) != null ? new long[]{rs.getLong(1), rs.getLong(2)} : null;
+        }
+    }
+
+    /**
+     * Explains the most expensive statements of a recommendation against the copy of its table,
+     * without and with the index.
+     */
+    private void check(Statement statement, String table, String copy, Draft draft) throws SQLException {
+        List<Map.Entry<String, Long>> statements = draft.statements.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                .limit(statementsPerCheck)
+                .toList();
+        List<IndexCandidates.Rewrite> rewrites = statements.stream()
+                .map(entry -> IndexCandidates.onTable(entry.getKey(), table, copy))
+                .toList();
+        Explained[] before = new Explained[rewrites.size()];
+        for (int i = 0; i < rewrites.size(); i++) {
+            before[i] = explain(statement, rewrites.get(i));
+        }
+
+        statement.execute("ALTER TABLE " + quote(copy) + " ADD INDEX " + quote(CANDIDATE_INDEX) + " ("
+                + draft.candidate.columns().stream().map(IndexAdvisorService::quote).collect(Collectors.joining(", ")) + ")");
+        try {
+            statement.execute("ANALYZE TABLE " + quote(copy));
+            long rowsBefore = 0;
+            long rowsAfter = 0;
+            double saving = 0;
+            int checked = 0;
+            int chosen = 0;
+            for (int i = 0; i < rewrites.size(); i++) {
+                Explained after = explain(statement, rewrites.get(i));
+                if (before[i] == null || after == null) {
+                    continue;
+                }
+                checked++;
+                rowsBefore += before[i].rows();
+                rowsAfter += after.rows();
+                if (after.usesCandidate()) {
+                    chosen++;
+                    double remaining = before[i].rows() > 0 ? Math.min(1.0, (double) after.rows() / before[i].rows()) : 1.0;
+                    saving += statements.get(i).getValue() * (1 - remaining);
+                }
+            }
+            if (checked == 0) {
+                draft.validation = "Not checked: none of its statements could be explained";
+                return;
+            }
+            draft.validated = chosen > 0;
+            draft.validation = chosen > 0
+                    ? "Chosen by MySQL for " + chosen + " of " + checked + " checked statements"
+                    : "Not chosen by MySQL for any of " + checked + " checked statements";
+            draft.rowsBefore = rowsBefore;
+            draft.rowsAfter = rowsAfter;
+            draft.savingMs = Math.round(saving);
+        } finally {
+            statement.execute("ALTER TABLE " + quote(copy) + " DROP INDEX " + quote(CANDIDATE_INDEX));
+        }
+    }
+
+    private record Explained(long rows, boolean usesCandidate) {
+    }
+
+    /**
+     * The rows MySQL estimates to read from the copy, or {@code null} when the statement cannot
+     * be explained.
+     */
+    private static Explained explain(Statement statement, IndexCandidates.Rewrite rewrite) {
+        if (rewrite == null) {
+            return null;
+        }
+        try (ResultSet rs = statement.executeQuery("EXPLAIN " + rewrite.sql())) {
+            long rows = 0;
+            boolean usesCandidate = false;
+            while (rs.next()) {
+                String table = rs.getString("table");
+                if (table != null && rewrite.qualifiers().contains(table.toLowerCase(Locale.ROOT))) {
+                    rows += rs.getLong("rows");
+                    usesCandidate |= CANDIDATE_INDEX.equals(rs.getString("key"));
+                }
+            }
+            return new Explained(rows, usesCandidate);
+        } catch (SQLException e) {
+            log.debug("Could not explain '{}': {}", rewrite.sql(), e.getMessage());
+            return null;
+        }
+    }
+
+    private Function<String, SchemaInfo> schemas() {
+        Map<String, String> tables = schemaAnalysisService.getAllTableNames(TargetDataSourceRegistry.DEFAULT).stream()
+                .collect(Collectors.toMap(name -> name.toLowerCase(Locale.ROOT), name -> name, (a, b) -> a));
+        return name -> {
+            String table = tables.get(name.toLowerCase(Locale.ROOT));
+            return table != null ? schemaAnalysisService.getTableSchema(TargetDataSourceRegistry.DEFAULT, table) : null;
+        };
+    }
+
+    private static boolean lock(Connection connection, String sql) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setString(1, LOCK_NAME);
+            try (ResultSet rs = statement.executeQuery()) {
+                return rs.next() && rs.getInt(1) == 1;
+            }
+        }
+    }
+
+    private static String quote(String identifier) {
+        return "`" + identifier + "`";
+    }
+
+    /**
+     * A recommendation while it is being put together: its columns so far, the candidates and
+     * statements it serves, and what its check found.
+     */
+    private static final class Draft {
+
+        private IndexCandidates.Candidate candidate;
+        private final List<IndexCandidates.Candidate> served = new ArrayList<>();
+        private final Set<String> reasons = new TreeSet<>();
+        private final Map<String, Long> statements = new LinkedHashMap<>();
+        private long executions;
+        private long workloadTimeMs;
+        private Boolean validated;
+        private String validation;
+        private Long rowsBefore;
+        private Long rowsAfter;
+        private Long savingMs;
+
+        Draft(IndexCandidates.Candidate candidate) {
+            this.candidate = candidate;
+        }
+
+        String table() {
+            return candidate.table();
+        }
+
+        void add(IndexCandidates.Candidate candidate, String sql, long executions, long timeMs) {
+            served.add(candidate);
+            reasons.add(candidate.reason());
+            if (statements.putIfAbsent(sql, timeMs) == null) {
+                this.executions += executions;
+                this.workloadTimeMs += timeMs;
+            }
+        }
+
+        /**
+         * Whether a widened index still serves every candidate this one does.
+         */
+        boolean servedBy(IndexCandidates.Candidate widened) {
+            return served.stream().allMatch(candidate -> candidate.servedBy(widened.columns()));
+        }
+
+        int rank() {
+            return validated == null ? 1 : validated ? 0 : 2;
+        }
+
+        long value() {
+            return savingMs != null && Boolean.TRUE.equals(validated) ? savingMs : workloadTimeMs;
+        }
+
+        IndexRecommendation toRecommendation() {
+            String name = ("idx_" + table() + "_" + String.join("_", candidate.columns()));
+            if (name.length() > MAX_IDENTIFIER_LENGTH) {
+                name = name.substring(0, MAX_IDENTIFIER_LENGTH);
+            }
+            return IndexRecommendation.builder()
+                    .table(table())
+                    .columns(candidate.columns())
+                    .ddl("CREATE INDEX " + quote(name) + " ON " + quote(table()) + " ("
+                            + candidate.columns().stream().map(IndexAdvisorService::quote).collect(Collectors.joining(", ")) + ")")
+                    .reasons(reasons)
+                    .statements(statements.size())
+                    .executions(executions)
+                    .workloadTimeMs(workloadTimeMs)
+                    .exampleSql(statements.entrySet().stream().max(Map.Entry.comparingByValue()).map(Map.Entry::getKey).orElse(null))
+                    .validated(validated)
+                    .validation(validation)
+                    .estimatedRowsBefore(rowsBefore)
+                    .estimatedRowsAfter(rowsAfter)
+                    .estimatedSavingMs(savingMs)
+                    .build();
+        }
+    }
+}
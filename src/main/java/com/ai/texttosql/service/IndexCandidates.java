@@ -0,0 +1,508 @@
+package com.ai.texttosql.service;
+
+import com.ai.texttosql.model.SchemaInfo;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The indexes that would serve one generated statement, read from its predicates, join keys,
+ * ORDER BY and GROUP BY.
+ * <p>
+ * Each candidate follows the usual rule for composite indexes: the columns compared for equality
+ * first, in any order, then either the columns the statement sorts or groups by, when they all
+ * belong to the table, or a single column compared by range, which ends what an index can seek
+ * on. Predicates that wrap the column in a function, compare it with {@code <>}, or sit below an
+ * {@code OR} cannot use an index and are ignored.
+ */
+final class IndexCandidates {
+
+    static final String FILTER = "filter";
+    static final String JOIN = "join";
+    static final String ORDER = "order";
+    static final String GROUP = "group";
+
+    /**
+     * Columns of an index for {@code table}. The first {@code equalityColumns} may be in any
+     * order; the rest are positional.
+     */
+    record Candidate(String table, List<String> columns, int equalityColumns, String reason) {
+
+        Set<String> equality() {
+            return new HashSet<>(columns.subList(0, equalityColumns));
+        }
+
+        List<String> suffix() {
+            return columns.subList(equalityColumns, columns.size());
+        }
+
+        /**
+         * Whether an index with these columns, in this order, serves the candidate as well.
+         */
+        boolean servedBy(List<String> indexColumns) {
+            List<String> index = indexColumns.stream().map(column -> column.toLowerCase(Locale.ROOT)).toList();
+            return index.size() >= columns.size()
+                    && new HashSet<>(index.subList(0, equalityColumns)).equals(equality())
+                    && index.subList(equalityColumns, columns.size()).equals(suffix());
+        }
+
+        /**
+         * One index that serves both candidates, or {@code null} when there is none.
+         */
+        Candidate merge(Candidate other) {
+            if (!table.equals(other.table)) {
+                return null;
+            }
+            Candidate merged = absorb(this, other);
+            return merged != null ? merged : absorb(other, this);
+        }
+
+        private static Candidate absorb(Candidate wide, Candidate narrow) {
+            if (!wide.equality().containsAll(narrow.equality())) {
+                return null;
+            }
+            if (narrow.suffix().isEmpty()) {
+                // The narrow one's columns lead, the wide one's other equality columns follow
+                List<String> columns = new ArrayList<>(narrow.columns);
+                wide.columns.subList(0, wide.equalityColumns).stream().filter(column -> !columns.contains(column)).forEach(columns::add);
+                columns.addAll(wide.suffix());
+                return new Candidate(wide.table, List.copyOf(columns), narrow.equalityColumns, wide.reason);
+            }
+            if (wide.equality().equals(narrow.equality()) && startsWith(wide.suffix(), narrow.suffix())) {
+                return wide;
+            }
+            return null;
+        }
+    }
+
+    private static final Set<String> UNINDEXABLE_TYPES = Set.of(
+            "text", "tinytext", "mediumtext", "longtext", "blob", "tinyblob", "mediumblob", "longblob", "json", "geometry");
+    private static final String COLUMN = "((?:`?\\w+`?\\s*\\.\\s*)?`?\\w+`?)";
+    private static final Pattern COLUMN_REFERENCE = Pattern.compile("^(?:`?(\\w+)`?\\s*\\.\\s*)?`?(\\w+)`?$");
+    private static final Pattern COMPARISON = Pattern.compile("(?s)^(.+?)\\s*(<=>|<=|>=|<>|!=|=|<|>)\\s*(.+)$");
+    private static final Pattern BETWEEN = Pattern.compile("(?is)^" + COLUMN + "\\s+BETWEEN\\s+.+$");
+    private static final Pattern IN_LIST = Pattern.compile("(?is)^" + COLUMN + "\\s+IN\\s*\\(.+\\)$");
+    private static final Pattern IS_NULL = Pattern.compile("(?i)^" + COLUMN + "\\s+IS\\s+NULL$");
+    private static final Pattern LIKE = Pattern.compile("(?is)^" + COLUMN + "\\s+LIKE\\s+'(.*)'$");
+    private static final Pattern ORDER_ITEM = Pattern.compile("(?i)^" + COLUMN + "(?:\\s+(ASC|DESC))?$");
+    private static final Pattern REFERENCE = Pattern.compile("(?<![\\w.`$@])`?(\\w+)`?(?:\\s*\\.\\s*`?(\\w+)`?)?(?![\\w`]|\\s*[.(])");
+    private static final Pattern WORD = Pattern.compile("(?i)\\b(AND|OR|BETWEEN|XOR)\\b");
+
+    private final Map<String, KeysetPaginator.TableRef> byQualifier = new LinkedHashMap<>();
+    private final List<KeysetPaginator.TableRef> tables;
+    private final Map<KeysetPaginator.TableRef, Set<String>> equalities = new LinkedHashMap<>();
+    private final Map<KeysetPaginator.TableRef, Set<String>> ranges = new LinkedHashMap<>();
+    private final Map<KeysetPaginator.TableRef, Set<String>> joins = new LinkedHashMap<>();
+
+    private IndexCandidates(List<KeysetPaginator.TableRef> tables) {
+        this.tables = tables;
+        for (KeysetPaginator.TableRef table : tables) {
+            byQualifier.put((table.alias() != null ? table.alias() : table.table()).toLowerCase(Locale.ROOT), table);
+            equalities.put(table, new LinkedHashSet<>());
+            ranges.put(table, new LinkedHashSet<>());
+            joins.put(table, new LinkedHashSet<>());
+        }
+    }
+
+    /**
+     * The candidate indexes of a single SELECT statement, none when it cannot be read.
+     *
+     * @param schemas    the schema of each table by name, or {@code null} for unknown tables
+     * @param maxColumns the most columns of one index
+     */
+    static List<Candidate> of(String sql, Function<String, SchemaInfo> schemas, int maxColumns) {
+        String statement = sql.strip().replaceAll(";\\s*$", "");
+        SqlClauses clauses = SqlClauses.parse(statement);
+        if (clauses.isCompound() || clauses.start(SqlClauses.SELECT) != 0 || !clauses.has(SqlClauses.FROM)) {
+            return List.of();
+        }
+        List<KeysetPaginator.TableRef> tables = parseFrom(clauses.body(SqlClauses.FROM), schemas);
+        if (tables == null) {
+            return List.of();
+        }
+        String masked = maskLiterals(statement);
+        IndexCandidates scan = new IndexCandidates(tables);
+        if (clauses.has(SqlClauses.WHERE)) {
+            scan.predicates(statement, masked, clauses.bodyStart(SqlClauses.WHERE), clauses.end(SqlClauses.WHERE), null);
+        }
+        for (KeysetPaginator.TableRef table : tables) {
+            if (table.on() != null) {
+                String on = table.on().strip();
+                scan.predicates(on, maskLiterals(on), 0, on.length(), table);
+            }
+        }
+        List<String> orderBy = clauses.has(SqlClauses.ORDER_BY) ? scan.sortColumns(clauses.body(SqlClauses.ORDER_BY)) : null;
+        List<String> groupBy = clauses.has(SqlClauses.GROUP_BY) ? scan.sortColumns(clauses.body(SqlClauses.GROUP_BY)) : null;
+        return scan.candidates(orderBy, groupBy, maxColumns);
+    }
+
+    /**
+     * A statement rewritten by {@link #onTable}, with the names the rewritten table goes by in it.
+     */
+    record Rewrite(String sql, Set<String> qualifiers) {
+    }
+
+    /**
+     * The statement with {@code table} read from {@code replacement} instead, under its old name
+     * where it had no alias, so that the rest of the statement still refers to it.
+     */
+    static Rewrite onTable(String sql, String table, String replacement) {
+        String statement = sql.strip().replaceAll(";\\s*$", "");
+        SqlClauses clauses = SqlClauses.parse(statement);
+        if (clauses.isCompound() || !clauses.has(SqlClauses.FROM)) {
+            return null;
+        }
+        List<String> parts = new ArrayList<>();
+        Set<String> qualifiers = new HashSet<>();
+        for (String part : KeysetPaginator.JOIN_SPLIT.split(clauses.body(SqlClauses.FROM))) {
+            String reference = part.strip();
+            Matcher matcher = KeysetPaginator.TABLE_REFERENCE.matcher(reference);
+            if (!matcher.matches()) {
+                return null;
+            }
+            if (matcher.group(2).equalsIgnoreCase(table)) {
+                int nameEnd = matcher.end(2) < reference.length() && reference.charAt(matcher.end(2)) == '`'
+                        ? matcher.end(2) + 1 : matcher.end(2);
+                reference = reference.substring(0, matcher.start(2)) + replacement + reference.substring(matcher.end(2), nameEnd)
+                        + (matcher.group(3) == null ? " AS `" + matcher.group(2) + "`" : "") + reference.substring(nameEnd);
+                qualifiers.add((matcher.group(3) != null ? matcher.group(3) : matcher.group(2)).toLowerCase(Locale.ROOT));
+            }
+            parts.add(reference);
+        }
+        if (qualifiers.isEmpty()) {
+            return null;
+        }
+        return new Rewrite(statement.substring(0, clauses.bodyStart(SqlClauses.FROM)) + " " + String.join(" ", parts) + " "
+                + statement.substring(clauses.end(SqlClauses.FROM)), qualifiers);
+    }
+
+    private List<Candidate> candidates(List<String> orderBy, List<String> groupBy, int maxColumns) {
+        List<Candidate> candidates = new ArrayList<>();
+        for (int i = 0; i < tables.size(); i++) {
+            KeysetPaginator.TableRef table = tables.get(i);
+            List<String> equality = new ArrayList<>(equalities.get(table));
+            Set<String> range = ranges.get(table);
+            range.removeAll(equality);
+
+            // Only the rows of the first table can come out of an index already sorted or grouped
+            List<String> suffix = List.of();
+            String reason = FILTER;
+            if (i == 0 && orderBy != null && !orderBy.isEmpty() && orderBy.get(0).startsWith(qualifier(table))) {
+                suffix = columns(orderBy, table);
+                reason = ORDER;
+            } else if (i == 0 && groupBy != null && !groupBy.isEmpty() && groupBy.get(0).startsWith(qualifier(table))) {
+                suffix = columns(groupBy, table);
+                reason = GROUP;
+            }
+            if (suffix != null) {
+                suffix = suffix.stream().filter(column -> !equality.contains(column)).toList();
+            }
+            if (!range.isEmpty() && (suffix == null || suffix.isEmpty() || !suffix.get(0).equals(range.iterator().next()))) {
+                suffix = List.of(range.iterator().next());
+                reason = FILTER;
+            }
+            if (suffix == null) {
+                suffix = List.of();
+            }
+            if (!equality.isEmpty() || !suffix.isEmpty()) {
+                add(candidates, table, equality, suffix, equality.isEmpty() ? reason : FILTER, maxColumns);
+            }
+            // A lookup on a key that is already indexed, such as a foreign key, needs no other index
+            if (i > 0 && !joins.get(table).isEmpty()
+                    && !indexed(table.schema(), new Candidate(table.table(), List.copyOf(joins.get(table)), joins.get(table).size(), JOIN))) {
+                List<String> lookup = new ArrayList<>(joins.get(table));
+                equality.stream().filter(column -> !lookup.contains(column)).forEach(lookup::add);
+                add(candidates, table, lookup, range.isEmpty() ? List.of() : List.of(range.iterator().next()), JOIN, maxColumns);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Whether an existing index of the table serves a candidate.
+     */
+    static boolean indexed(SchemaInfo schema, Candidate candidate) {
+        return schema != null && schema.getIndexes() != null
+                && schema.getIndexes().stream().anyMatch(index -> candidate.servedBy(index.getColumns()));
+    }
+
+    /**
+     * Adds a candidate, cut short before its first column that cannot be indexed as a whole.
+     */
+    private static void add(List<Candidate> candidates, KeysetPaginator.TableRef table, List<String> equality,
+                            List<String> suffix, String reason, int maxColumns) {
+        List<String> columns = new ArrayList<>(equality.stream().sorted().toList());
+        columns.addAll(suffix);
+        int usable = 0;
+        while (usable < columns.size() && usable < maxColumns && indexable(table, columns.get(usable))) {
+            usable++;
+        }
+        if (usable == 0) {
+            return;
+        }
+        Candidate candidate = new Candidate(table.table(), List.copyOf(columns.subList(0, usable)),
+                Math.min(equality.size(), usable), reason);
+        if (!candidates.contains(candidate)) {
+            candidates.add(candidate);
+        }
+    }
+
+    /**
+     * Reads the conjuncts of a WHERE or ON clause between {@code start} and {@code end}.
+     *
+     * @param joined the table whose ON clause this is, or {@code null} for the WHERE clause
+     */
+    private void predicates(String text, String masked, int start, int end, KeysetPaginator.TableRef joined) {
+        for (int[] conjunct : conjuncts(masked, start, end)) {
+            String original = text.substring(conjunct[0], conjunct[1]).strip();
+            String plain = masked.substring(conjunct[0], conjunct[1]).strip();
+            if (plain.startsWith("(") && closingParenthesis(plain, 0) == plain.length() - 1) {
+                int offset = masked.indexOf('(', conjunct[0]) + 1;
+                predicates(text, masked, offset, offset + plain.length() - 2, joined);
+                continue;
+            }
+            predicate(original, plain, joined);
+        }
+    }
+
+    private void predicate(String original, String plain, KeysetPaginator.TableRef joined) {
+        Matcher matcher;
+        if ((matcher = IS_NULL.matcher(plain)).matches() || (matcher = IN_LIST.matcher(plain)).matches()) {
+            record(equalities, matcher.group(1), joined);
+        } else if ((matcher = BETWEEN.matcher(plain)).matches()) {
+            record(ranges, matcher.group(1), joined);
+        } else if ((matcher = LIKE.matcher(plain)).matches()) {
+            // Only a pattern with a fixed beginning is a range of the index
+            Matcher pattern = LIKE.matcher(original);
+            if (pattern.matches() && !pattern.group(2).isEmpty() && pattern.group(2).charAt(0) != '%' && pattern.group(2).charAt(0) != '_') {
+                record(ranges, matcher.group(1), joined);
+            }
+        } else if ((matcher = COMPARISON.matcher(plain)).matches()) {
+            String operator = matcher.group(2);
+            if (operator.equals("<>") || operator.equals("!=")) {
+                return;
+            }
+            Column left = resolve(matcher.group(1).strip());
+            Column right = resolve(matcher.group(3).strip());
+            if (left != null && right != null) {
+                if ((operator.equals("=") || operator.equals("<=>")) && left.table() != right.table()) {
+                    joins.get(left.table()).add(left.name());
+                    joins.get(right.table()).add(right.name());
+                }
+                return;
+            }
+            Column column = left != null ? left : right;
+            String value = left != null ? matcher.group(3) : matcher.group(1);
+            if (column == null || referencesColumn(value)) {
+                return;
+            }
+            boolean equality = operator.equals("=") || operator.equals("<=>");
+            if (joined == null || joined == column.table()) {
+                (equality ? equalities : ranges).get(column.table()).add(column.name());
+            }
+        }
+    }
+
+    private void record(Map<KeysetPaginator.TableRef, Set<String>> target, String reference, KeysetPaginator.TableRef joined) {
+        Column column = resolve(reference.strip());
+        if (column != null && (joined == null || joined == column.table())) {
+            target.get(column.table()).add(column.name());
+        }
+    }
+
+    /**
+     * The ORDER BY or GROUP BY items as qualified column names, or {@code null} unless all are
+     * plain columns sorted the same way.
+     */
+    private List<String> sortColumns(String body) {
+        List<String> columns = new ArrayList<>();
+        String direction = null;
+        for (String item : SqlClauses.splitTopLevel(body)) {
+            Matcher matcher = ORDER_ITEM.matcher(item.strip());
+            if (!matcher.matches()) {
+                return null;
+            }
+            String itemDirection = matcher.group(2) != null ? matcher.group(2).toUpperCase(Locale.ROOT) : "ASC";
+            if (direction != null && !direction.equals(itemDirection)) {
+                return null;
+            }
+            direction = itemDirection;
+            Column column = resolve(matcher.group(1));
+            if (column == null) {
+                return null;
+            }
+            columns.add(qualifier(column.table()) + column.name());
+        }
+        return columns;
+    }
+
+    /**
+     * The columns of {@code table} among qualified names, or {@code null} unless all are its own.
+     */
+    private static List<String> columns(List<String> qualified, KeysetPaginator.TableRef table) {
+        String prefix = qualifier(table);
+        if (!qualified.stream().allMatch(name -> name.startsWith(prefix))) {
+            return null;
+        }
+        return qualified.stream().map(name -> name.substring(prefix.length())).distinct().toList();
+    }
+
+    private static String qualifier(KeysetPaginator.TableRef table) {
+        return (table.alias() != null ? table.alias() : table.table()).toLowerCase(Locale.ROOT) + ".";
+    }
+
+    private record Column(KeysetPaginator.TableRef table, String name) {
+    }
+
+    /**
+     * The table column an expression is, if it is a plain column reference.
+     */
+    private Column resolve(String expression) {
+        Matcher matcher = COLUMN_REFERENCE.matcher(expression);
+        if (!matcher.matches()) {
+            return null;
+        }
+        String name = matcher.group(2);
+        if (matcher.group(1) != null) {
+            KeysetPaginator.TableRef table = byQualifier.get(matcher.group(1).toLowerCase(Locale.ROOT));
+            SchemaInfo.ColumnInfo column = table != null ? table.column(name) : null;
+            return column != null ? new Column(table, column.getName().toLowerCase(Locale.ROOT)) : null;
+        }
+        List<KeysetPaginator.TableRef> owners = tables.stream().filter(table -> table.column(name) != null).toList();
+        return owners.size() == 1
+                ? new Column(owners.get(0), owners.get(0).column(name).getName().toLowerCase(Locale.ROOT))
+                : null;
+    }
+
+    private boolean referencesColumn(String expression) {
+        Matcher matcher = REFERENCE.matcher(expression);
+        while (matcher.find()) {
+            String reference = matcher.group(2) != null ? matcher.group(1) + "." + matcher.group(2) : matcher.group(1);
+            if (resolve(reference) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean indexable(KeysetPaginator.TableRef table, String name) {
+        SchemaInfo.ColumnInfo column = table.column(name);
+        return column != null && !UNINDEXABLE_TYPES.contains(column.getType().toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * The conjuncts between {@code start} and {@code end}, none when they are combined with a
+     * top-level {@code OR}, since the AND binds tighter and the remaining predicates do not apply
+     * to every row.
+     */
+    private static List<int[]> conjuncts(String masked, int start, int end) {
+        List<int[]> conjuncts = new ArrayList<>();
+        int depth = 0;
+        int conjunctStart = start;
+        boolean between = false;
+        int i = start;
+        while (i < end) {
+            char c = masked.charAt(i);
+            if (c == '\'' || c == '"' || c == '`') {
+                i = SqlClauses.skipQuoted(masked, i);
+                continue;
+            }
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (depth == 0 && Character.isLetter(c) && (i == 0 || !Character.isLetterOrDigit(masked.charAt(i - 1)))) {
+                Matcher word = WORD.matcher(masked).region(i, end);
+                if (word.lookingAt()) {
+                    String keyword = word.group(1).toUpperCase(Locale.ROOT);
+                    if (keyword.equals("OR") || keyword.equals("XOR")) {
+                        return List.of();
+                    } else if (keyword.equals("BETWEEN")) {
+                        between = true;
+                    } else if (between) {
+                        between = false;
+                    } else {
+                        conjuncts.add(new int[]{conjunctStart, i});
+                        conjunctStart = word.end();
+                    }
+                    i = word.end();
+                    continue;
+                }
+            }
+            i++;
+        }
+        conjuncts.add(new int[]{conjunctStart, end});
+        return conjuncts;
+    }
+
+    private static int closingParenthesis(String text, int open) {
+        int depth = 0;
+        for (int i = open; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\'' || c == '"' || c == '`') {
+                i = SqlClauses.skipQuoted(text, i) - 1;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')' && --depth == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean startsWith(List<String> list, List<String> prefix) {
+        return list.size() >= prefix.size() && list.subList(0, prefix.size()).equals(prefix);
+    }
+
+    private static List<KeysetPaginator.TableRef> parseFrom(String from, Function<String, SchemaInfo> schemas) {
+        List<KeysetPaginator.TableRef> tables = new ArrayList<>();
+        for (String part : KeysetPaginator.JOIN_SPLIT.split(from.strip())) {
+            if (part.contains(",") && !part.toUpperCase(Locale.ROOT).contains(" ON ")) {
+                return null;
+            }
+            Matcher matcher = KeysetPaginator.TABLE_REFERENCE.matcher(part.strip());
+            if (!matcher.matches()) {
+                return null;
+            }
+            String alias = matcher.group(3);
+            if (alias != null && KeysetPaginator.NOT_ALIASES.contains(alias.toUpperCase(Locale.ROOT))) {
+                return null;
+            }
+            SchemaInfo schema = schemas.apply(matcher.group(2));
+            if (schema == null || schema.getColumns() == null || schema.getColumns().isEmpty()) {
+                return null;
+            }
+            String joinType = matcher.group(1) != null ? matcher.group(1).toUpperCase(Locale.ROOT) : "";
+            tables.add(new KeysetPaginator.TableRef(schema.getTableName(), alias, schema,
+                    joinType.equals("LEFT") || joinType.equals("RIGHT"), matcher.group(4)));
+        }
+        return tables;
+    }
+
+    /**
+     * The statement with the contents of string literals blanked out, keeping every index.
+     */
+    private static String maskLiterals(String sql) {
+        StringBuilder masked = new StringBuilder(sql);
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (c == '\'' || c == '"') {
+                int end = SqlClauses.skipQuoted(sql, i);
+                for (int j = i + 1; j < end - 1; j++) {
+                    masked.setCharAt(j, ' ');
+                }
+                i = end - 1;
+            }
+        }
+        return masked.toString();
+    }
+}
@@ -0,0 +1,420 @@
+package com.ai.texttosql.service;
+
+import com.ai.texttosql.exception.QueryExecutionException;
+import com.ai.texttosql.model.SchemaInfo;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Rewrites generated queries into keyset (seek) form for pagination.
+ * <p>
+ * A query qualifies when it is a plain SELECT without grouping, DISTINCT, aggregates or its own
+ * LIMIT, ordered by non-null columns whose leading column is indexed, and whose joins are all
+ * lookups on a unique column of the joined table. The primary key of the first table is appended
+ * to the ORDER BY as a tie-breaker, which makes the order total. Each page then selects the sort
+ * key columns as well, and the next page continues after the last row's key with a
+ * {@code WHERE (k1 > ?) OR (k1 = ? AND k2 > ?) ...} predicate instead of an OFFSET.
+ * <p>
+ * The key of the last row travels to the client as an opaque continuation token, together with
+ * the total row count so that later pages do not re-run the COUNT.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class KeysetPaginator {
+
+    static final String KEY_ALIAS_PREFIX = "__keyset_";
+
+    static final Pattern TABLE_REFERENCE = Pattern.compile(
+            "(?i)^(?:(LEFT|RIGHT|INNER|CROSS|STRAIGHT_JOIN)\\s+(?:OUTER\\s+)?)?(?:JOIN\\s+)?`?(\\w+)`?(?:\\s+(?:AS\\s+)?`?(\\w+)`?)?(?:\\s+ON\\s+(.+))?$",
+            Pattern.DOTALL);
+    static final Pattern JOIN_SPLIT = Pattern.compile(
+            "(?i)(?<!\\b(?:LEFT|RIGHT|INNER|CROSS|OUTER))\\s+(?=(?:(?:LEFT|RIGHT|INNER|CROSS)\\s+(?:OUTER\\s+)?)?JOIN\\s)");
+    static final Pattern EQUALITY = Pattern.compile(
+            "`?(\\w+)`?\\.`?(\\w+)`?\\s*=\\s*`?(\\w+)`?\\.`?(\\w+)`?");
+    private static final Pattern ORDER_ITEM = Pattern.compile(
+            "(?i)^(?:`?(\\w+)`?\\.)?`?(\\w+)`?(?:\\s+(ASC|DESC))?$");
+    static final Pattern AGGREGATE = Pattern.compile(
+            "(?i)\\b(COUNT|SUM|AVG|MIN|MAX|GROUP_CONCAT|JSON_ARRAYAGG|JSON_OBJECTAGG|STD|STDDEV|VARIANCE)\\s*\\(");
+    static final Set<String> NOT_ALIASES = Set.of(
+            "ON", "USING", "WHERE", "LEFT", "RIGHT", "INNER", "CROSS", "JOIN", "NATURAL", "STRAIGHT_JOIN");
+
+    private final SchemaAnalysisService schemaAnalysisService;
+
+    /**
+     * Decides whether a statement can be paginated by key, and how.
+     */
+    public Optional<Plan> plan(String dataSource, String sql) {
+        try {
+            return Optional.ofNullable(buildPlan(dataSource, sql));
+        } catch (Exception e) {
+            log.debug("Keyset pagination not possible for '{}': {}", sql, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    private Plan buildPlan(String dataSource, String sql) {
+        SqlClauses clauses = SqlClauses.parse(sql);
+        if (clauses.isCompound() || clauses.start(SqlClauses.SELECT) != 0 || !clauses.has(SqlClauses.FROM)
+                || !clauses.has(SqlClauses.ORDER_BY) || clauses.has(SqlClauses.GROUP_BY) || clauses.has(SqlClauses.HAVING)
+                || clauses.has(SqlClauses.WINDOW) || clauses.has(SqlClauses.LIMIT) || clauses.has(SqlClauses.FOR)
+                || clauses.has(SqlClauses.INTO)) {
+            return null;
+        }
+
+        String selectList = clauses.body(SqlClauses.SELECT);
+        // An aggregate inside a subquery of the select list is evaluated per row and does not group
+        if (selectList.toUpperCase(Locale.ROOT).startsWith("DISTINCT")
+                || AGGREGATE.matcher(SqlOptimizer.maskSubqueries(selectList)).find()) {
+            return null;
+        }
+
+        List<TableRef> tables = parseFrom(dataSource, clauses.body(SqlClauses.FROM));
+        if (tables == null || !joinsPreserveRows(tables)) {
+            return null;
+        }
+
+        List<Key> keys = new ArrayList<>();
+        for (String item : SqlClauses.splitTopLevel(clauses.body(SqlClauses.ORDER_BY))) {
+            Matcher matcher = ORDER_ITEM.matcher(item);
+            if (!matcher.matches()) {
+                return null;
+            }
+            String qualifier = matcher.group(1);
+            String column = matcher.group(2);
+            if (qualifier == null && isSelectAlias(selectList, column)) {
+                return null;
+            }
+            TableRef table = resolve(tables, qualifier, column);
+            if (table == null || table.outer()) {
+                return null;
+            }
+            SchemaInfo.ColumnInfo info = table.column(column);
+            if (info == null || info.isNullable()) {
+                return null;
+            }
+            if (keys.isEmpty() && !info.isPrimaryKey() && !table.leadsIndex(column)) {
+                return null;
+            }
+            keys.add(new Key(table.qualifier() + "." + quoteIdentifier(info.getName()), table, info.getName(),
+                    "DESC".equalsIgnoreCase(matcher.group(3))));
+        }
+
+        // The primary key of the first table makes the order total
+        TableRef driving = tables.get(0);
+        List<String> primaryKey = driving.schema().getColumns().stream()
+                .filter(SchemaInfo.ColumnInfo::isPrimaryKey)
+                .map(SchemaInfo.ColumnInfo::getName)
+                .toList();
+        if (primaryKey.isEmpty()) {
+            return null;
+        }
+        List<Key> tieBreakers = new ArrayList<>();
+        for (String column : primaryKey) {
+            boolean present = keys.stream().anyMatch(k -> k.table() == driving && k.column().equalsIgnoreCase(column));
+            if (!present) {
+                tieBreakers.add(new Key(driving.qualifier() + "." + quoteIdentifier(column), driving, column, false));
+            }
+        }
+        keys.addAll(tieBreakers);
+
+        return new Plan(sql, keys, tieBreakers.size());
+    }
+
+    /**
+     * Encodes the position after {@code lastKey} as a continuation token for the statement.
+     *
+     * @return the token, or {@code null} when a key value has a type that cannot be encoded
+     */
+    public String encode(String sql, int nextPage, long total, Object[] lastKey) {
+        JSONArray values = new JSONArray();
+        for (Object value : lastKey) {
+            JSONArray typed = encodeValue(value);
+            if (typed == null) {
+                return null;
+            }
+            values.put(typed);
+        }
+        JSONObject token = new JSONObject()
+                .put("h", fingerprint(sql))
+                .put("p", nextPage)
+                .put("t", total)
+                .put("k", values);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    public Cursor decode(String sql, String continuationToken) {
+        try {
+            JSONObject token = new JSONObject(new String(Base64.getUrlDecoder().decode(continuationToken), StandardCharsets.UTF_8));
+            if (!fingerprint(sql).equals(token.getString("h"))) {
+                throw new QueryExecutionException("Continuation token belongs to a different query");
+            }
+            JSONArray values = token.getJSONArray("k");
+            List<Object> key = new ArrayList<>(values.length());
+            for (int i = 0; i < values.length(); i++) {
+                key.add(decodeValue(values.getJSONArray(i)));
+            }
+            return new Cursor(token.getInt("p"), token.getLong("t"), key);
+        } catch (QueryExecutionException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new QueryExecutionException("Invalid continuation token", e);
+        }
+    }
+
+    private List<TableRef> parseFrom(String dataSource, String from) {
+        List<TableRef> tables = new ArrayList<>();
+        Map<String, SchemaInfo> schemas = new LinkedHashMap<>();
+        for (String part : JOIN_SPLIT.split(from.trim())) {
+            if (part.contains(",") || part.contains("(") && !part.toUpperCase(Locale.ROOT).contains(" ON ")) {
+                return null;
+            }
+            Matcher matcher = TABLE_REFERENCE.matcher(part.trim());
+            if (!matcher.matches()) {
+                return null;
+            }
+            String joinType = matcher.group(1) != null ? matcher.group(1).toUpperCase(Locale.ROOT) : "";
+            if (!tables.isEmpty() && (joinType.equals("RIGHT") || joinType.equals("CROSS") || matcher.group(4) == null)) {
+                return null;
+            }
+            String table = matcher.group(2);
+            String alias = matcher.group(3);
+            if (alias != null && NOT_ALIASES.contains(alias.toUpperCase(Locale.ROOT))) {
+                return null;
+            }
+            SchemaInfo schema = schemas.computeIfAbsent(table, t -> schemaAnalysisService.getTableSchema(dataSource, t));
+            if (schema.getColumns() == null || schema.getColumns().isEmpty()) {
+                return null;
+            }
+            tables.add(new TableRef(table, alias, schema, joinType.equals("LEFT"), matcher.group(4)));
+        }
+        return tables;
+    }
+
+    /**
+     * True when every join matches at most one row of the joined table, so that the primary
+     * key of the first table is still unique in the result.
+     */
+    private static boolean joinsPreserveRows(List<TableRef> tables) {
+        for (int i = 1; i < tables.size(); i++) {
+            TableRef joined = tables.get(i);
+            boolean unique = false;
+            Matcher matcher = EQUALITY.matcher(joined.on());
+            while (matcher.find() && !unique) {
+                unique = joined.matches(matcher.group(1)) && joined.isUniqueColumn(matcher.group(2))
+                        || joined.matches(matcher.group(3)) && joined.isUniqueColumn(matcher.group(4));
+            }
+            if (!unique || joined.on().toUpperCase(Locale.ROOT).contains(" OR ")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static TableRef resolve(List<TableRef> tables, String qualifier, String column) {
+        if (qualifier != null) {
+            return tables.stream().filter(t -> t.matches(qualifier)).findFirst().orElse(null);
+        }
+        List<TableRef> candidates = tables.stream().filter(t -> t.column(column) != null).toList();
+        return candidates.size() == 1 ? candidates.get(0) : null;
+    }
+
+    private static boolean isSelectAlias(String selectList, String name) {
+        return Pattern.compile("(?i)\\bAS\\s+`?" + Pattern.quote(name) + "`?\\s*(,|$)").matcher(selectList).find();
+    }
+
+    private static String quoteIdentifier(String identifier) {
+        return "`" + identifier.replace("`", "``") + "`";
+    }
+
+    private static String fingerprint(String sql) {
+        return Integer.toHexString(sql.hashCode());
+    }
+
+    private static JSONArray encodeValue(Object value) {
+        if (value instanceof BigDecimal decimal) {
+            return new JSONArray().put("d").put(decimal.toPlainString());
+        }
+        if (value instanceof Long || value instanceof Integer || value instanceof Short
+                || value instanceof Byte || value instanceof BigInteger) {
+            return new JSONArray().put("n").put(value.toString());
+        }
+        if (value instanceof String string) {
+            return new JSONArray().put("s").put(string);
+        }
+        if (value instanceof Timestamp timestamp) {
+            return new JSONArray().put("t").put(timestamp.toLocalDateTime().toString());
+        }
+        if (value instanceof LocalDateTime dateTime) {
+            return new JSONArray().put("t").put(dateTime.toString());
+        }
+        if (value instanceof java.sql.Date date) {
+            return new JSONArray().put("D").put(date.toLocalDate().toString());
+        }
+        if (value instanceof LocalDate date) {
+            return new JSONArray().put("D").put(date.toString());
+        }
+        if (value instanceof Boolean bool) {
+            return new JSONArray().put("b").put(bool.toString());
+        }
+        return null;
+    }
+
+    private static Object decodeValue(JSONArray typed) {
+        String value = typed.getString(1);
+        return switch (typed.getString(0)) {
+            case "d" -> new BigDecimal(value);
+            case "n" -> new BigInteger(value).bitLength() < 64 ? (Object) Long.parseLong(value) : new BigInteger(value);
+            case "s" -> value;
+            case "t" -> LocalDateTime.parse(value);
+            case "D" -> LocalDate.parse(value);
+            case "b" -> Boolean.parseBoolean(value);
+            default -> throw new IllegalArgumentException("Unknown key type " + typed.getString(0));
+        };
+    }
+
+    /**
+     * Position of a continuation page: its number, the total carried over from the first page,
+     * and the sort key of the last row of the previous page.
+     */
+    public record Cursor(int page, long total, List<Object> key) {
+    }
+
+    record Key(String expression, TableRef table, String column, boolean descending) {
+    }
+
+    record TableRef(String table, String alias, SchemaInfo schema, boolean outer, String on) {
+
+        String qualifier() {
+            return quoteIdentifier(alias != null ? alias : table);
+        }
+
+        boolean matches(String name) {
+            return name.equalsIgnoreCase(alias != null ? alias : table);
+        }
+
+        SchemaInfo.ColumnInfo column(String name) {
+            return schema.getColumns().stream().filter(c -> c.getName().equalsIgnoreCase(name)).findFirst().orElse(null);
+        }
+
+        boolean leadsIndex(String name) {
+            return schema.getIndexes() != null && schema.getIndexes().stream()
+                    .anyMatch(index -> !index.getColumns().isEmpty() && index.getColumns().get(0).equalsIgnoreCase(name));
+        }
+
+        boolean isUniqueColumn(String name) {
+            long primaryKeyColumns = schema.getColumns().stream().filter(SchemaInfo.ColumnInfo::isPrimaryKey).count();
+            SchemaInfo.ColumnInfo column = column(name);
+            if (column != null && column.isPrimaryKey() && primaryKeyColumns == 1) {
+                return true;
+            }
+            return schema.getIndexes() != null && schema.getIndexes().stream()
+                    .anyMatch(index -> index.isUnique() && index.getColumns().size() == 1
+                            && index.getColumns().get(0).equalsIgnoreCase(name));
+        }
+    }
+
+    /**
+     * How to page one statement by key.
+     */
+    public static final class Plan {
+
+        private final String sql;
+        private final List<Key> keys;
+        private final int tieBreakers;
+
+        private Plan(String sql, List<Key> keys, int tieBreakers) {
+            this.sql = sql;
+            this.keys = keys;
+            this.tieBreakers = tieBreakers;
+        }
+
+        public int getKeyCount() {
+            return keys.size();
+        }
+
+        /**
+         * The statement for one page: the sort key columns appended to the select list, the
+         * tie-breakers appended to the ORDER BY and, after the first page, the seek predicate.
+         *
+         * @param parameterBase number of parameters the statement already has
+         * @param jdbcStyle     whether to use plain {@code ?} placeholders instead of {@code ?n}
+         * @return the statement and the parameters of the seek predicate, which follow the existing ones
+         */
+        public PageQuery pageQuery(Cursor cursor, int parameterBase, boolean jdbcStyle) {
+            SqlClauses clauses = SqlClauses.parse(sql);
+            StringBuilder rewritten = new StringBuilder(sql);
+            List<Object> parameters = new ArrayList<>();
+
+            if (tieBreakers > 0) {
+                StringBuilder orderBy = new StringBuilder();
+                for (Key key : keys.subList(keys.size() - tieBreakers, keys.size())) {
+                    orderBy.append(", ").append(key.expression());
+                }
+                rewritten.insert(clauses.end(SqlClauses.ORDER_BY), orderBy);
+            }
+
+            if (cursor != null) {
+                if (cursor.key().size() != keys.size()) {
+                    throw new QueryExecutionException("Continuation token does not match the query");
+                }
+                String predicate = seekPredicate(cursor.key(), parameters, parameterBase, jdbcStyle);
+                int orderBy = clauses.start(SqlClauses.ORDER_BY);
+                if (clauses.has(SqlClauses.WHERE)) {
+                    int whereBody = clauses.bodyStart(SqlClauses.WHERE);
+                    rewritten.replace(whereBody, orderBy,
+                            " (" + sql.substring(whereBody, orderBy).trim() + ") AND (" + predicate + ") ");
+                } else {
+                    rewritten.insert(orderBy, "WHERE " + predicate + " ");
+                }
+            }
+
+            StringBuilder keyColumns = new StringBuilder();
+            for (int i = 0; i < keys.size(); i++) {
+                keyColumns.append(", ").append(keys.get(i).expression()).append(" AS ").append(KEY_ALIAS_PREFIX).append(i);
+            }
+            rewritten.insert(clauses.start(SqlClauses.FROM), keyColumns.append(' '));
+
+            return new PageQuery(rewritten.toString(), parameters);
+        }
+
+        private String seekPredicate(List<Object> key, List<Object> parameters, int parameterBase, boolean jdbcStyle) {
+            List<String> alternatives = new ArrayList<>();
+            for (int i = 0; i < keys.size(); i++) {
+                List<String> terms = new ArrayList<>();
+                for (int j = 0; j <= i; j++) {
+                    Key k = keys.get(j);
+                    String operator = j < i ? " = " : k.descending() ? " < " : " > ";
+                    parameters.add(key.get(j));
+                    String placeholder = jdbcStyle ? "?" : "?" + (parameterBase + parameters.size());
+                    terms.add(k.expression() + operator + placeholder);
+                }
+                alternatives.add("(" + String.join(" AND ", terms) + ")");
+            }
+            return String.join(" OR ", alternatives);
+        }
+    }
+
+    public record PageQuery(String sql, List<Object> parameters) {
+    }
+}
@@ -0,0 +1,289 @@
+package com.ai.texttosql.service;
+
+import com.ai.texttosql.config.RateLimitConfig;
+import com.ai.texttosql.exception.GenerationRejectedException;
+import com.ai.texttosql.exception.QueryCancelledException;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Admits model calls to Ollama, at most {@code app.llm-scheduler.max-in-flight} at a time, and
+ * shares that capacity fairly between API keys.
+ * <p>
+ * Waiting calls are served by start-time fair queuing: each call gets a virtual finish tag of
+ * {@code max(virtual time, finish tag of the key's previous call) + 1 / weight}, and the call
+ * with the smallest tag goes next. A key looping over many questions therefore only advances
+ * its own tags, and keys with more weight, by {@link RateLimitConfig.PricingPlan}, are served
+ * proportionally more often. Interactive callers such as Slack can go ahead of all API traffic.
+ * A call gives up waiting when its request is cancelled or after
+ * {@code app.llm-scheduler.max-queue-time}.
+ */
+@Slf4j
+@Service
+public class LlmScheduler {
+
+    private static final ThreadLocal<Caller> CURRENT_CALLER = new ThreadLocal<>();
+
+    private final MeterRegistry meterRegistry;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition dispatched = lock.newCondition();
+    private final PriorityQueue<Ticket> waiting;
+    private final Map<String, Double> lastFinishTags = new HashMap<>();
+    private final Map<String, Integer> queuedPerKey = new HashMap<>();
+    private final AtomicInteger unscheduled = new AtomicInteger();
+    private double virtualTime;
+    private long sequence;
+    private int inFlight;
+
+    private final boolean enabled;
+    private final int maxInFlight;
+    private final int maxQueuedPerKey;
+    private final Duration maxQueueTime;
+    private final Map<RateLimitConfig.PricingPlan, Integer> weights;
+
+    public LlmScheduler(MeterRegistry meterRegistry,
+                        @Value("${app.llm-scheduler.enabled:true}") boolean enabled,
+                        @Value("${app.llm-scheduler.max-in-flight:2}") int maxInFlight,
+                        @Value("${app.llm-scheduler.max-queued-per-key:20}") int maxQueuedPerKey,
+                        @Value("${app.llm-scheduler.max-queue-time:2m}") Duration maxQueueTime,
+                        @Value("${app.llm-scheduler.prioritize-interactive:true}") boolean prioritizeInteractive,
+                        @Value("${app.llm-scheduler.weights.free:1}") int freeWeight,
+                        @Value("${app.llm-scheduler.weights.basic:2}") int basicWeight,
+                        @Value("${app.llm-scheduler.weights.premium:4}") int premiumWeight) {
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.maxInFlight = maxInFlight;
+        this.maxQueuedPerKey = maxQueuedPerKey;
+        this.maxQueueTime = maxQueueTime;
+        this.weights = Map.of(
+                RateLimitConfig.PricingPlan.FREE, freeWeight,
+                RateLimitConfig.PricingPlan.BASIC, basicWeight,
+                RateLimitConfig.PricingPlan.PREMIUM, premiumWeight);
+
+        Comparator<Ticket> fair = Comparator.<Ticket>comparingDouble(t -> t.finishTag).thenComparingLong(t -> t.sequence);
+        this.waiting = new PriorityQueue<>(prioritizeInteractive
+                ? Comparator.<Ticket, Boolean>comparing(t -> !t.caller.interactive()).thenComparing(fair)
+                : fair);
+        meterRegistry.gauge("llm.scheduler.queued", this, scheduler -> scheduler.size(false));
+        meterRegistry.gauge("llm.scheduler.in.flight", this, scheduler -> scheduler.size(true));
+    }
+
+    /**
+     * Runs a model call once the current {@link Caller} is admitted.
+     */
+    public <T> T call(Supplier<T> generation) {
+        if (!enabled) {
+            unscheduled.incrementAndGet();
+            try {
+                return generation.get();
+            } finally {
+                unscheduled.decrementAndGet();
+            }
+        }
+        admit(Caller.current());
+        try {
+            return generation.get();
+        } finally {
+            release();
+        }
+    }
+
+    private void admit(Caller caller) {
+        CancellationToken token = CancellationToken.current();
+        long start = System.nanoTime();
+        long maxWaitNanos = token != null
+                ? Math.min(maxQueueTime.toNanos(), token.remaining().toNanos())
+                : maxQueueTime.toNanos();
+
+        Ticket ticket;
+        lock.lock();
+        try {
+            if (queuedPerKey.getOrDefault(caller.key(), 0) >= maxQueuedPerKey) {
+                meterRegistry.counter("llm.scheduler.rejected", "reason", "queue_full").increment();
+                throw new GenerationRejectedException("Too many questions of this API key are waiting for the model");
+            }
+            double startTag = Math.max(virtualTime, lastFinishTags.getOrDefault(caller.key(), 0.0));
+            ticket = new Ticket(caller, startTag, startTag + 1.0 / weights.get(caller.plan()), sequence++);
+            lastFinishTags.put(caller.key(), ticket.finishTag);
+            queuedPerKey.merge(caller.key(), 1, Integer::sum);
+            waiting.add(ticket);
+            dispatch();
+        } finally {
+            lock.unlock();
+        }
+
+        // Cancellation wakes the waiting thread up instead of leaving it to the timeout
+        try (CancellationToken.Registration ignored = token != null ? token.onCancel(this::wakeUp) : null) {
+            awaitTurn(ticket, token, start + maxWaitNanos);
+        }
+        meterRegistry.timer("llm.scheduler.queue.time", "plan", caller.plan().name(),
+                        "class", caller.interactive() ? "interactive" : "batch")
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    private void awaitTurn(Ticket ticket, CancellationToken token, long deadline) {
+        lock.lock();
+        try {
+            while (!ticket.admitted) {
+                long remaining = deadline - System.nanoTime();
+                boolean cancelled = token != null && token.isCancelled();
+                if (cancelled || remaining <= 0) {
+                    waiting.remove(ticket);
+                    dequeued(ticket.caller.key());
+                    meterRegistry.counter("llm.scheduler.rejected", "reason", cancelled ? "cancelled" : "timeout").increment();
+                    if (cancelled) {
+                        throw new QueryCancelledException(token.getReason());
+                    }
+                    throw new GenerationRejectedException("Timed out waiting for the model");
+                }
+                dispatched.awaitNanos(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (!ticket.admitted) {
+                waiting.remove(ticket);
+                dequeued(ticket.caller.key());
+            } else {
+                release();
+            }
+            throw new GenerationRejectedException("Interrupted while waiting for the model");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release() {
+        lock.lock();
+        try {
+            inFlight--;
+            dispatch();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Admits waiting calls while there is capacity; called with the lock held.
+     */
+    private void dispatch() {
+        boolean admitted = false;
+        while (inFlight < maxInFlight && !waiting.isEmpty()) {
+            Ticket next = waiting.poll();
+            next.admitted = true;
+            inFlight++;
+            virtualTime = Math.max(virtualTime, next.startTag);
+            dequeued(next.caller.key());
+            admitted = true;
+        }
+        if (admitted) {
+            dispatched.signalAll();
+        }
+    }
+
+    private void dequeued(String key) {
+        if (queuedPerKey.merge(key, -1, Integer::sum) <= 0) {
+            queuedPerKey.remove(key);
+        }
+        // Finish tags in the past no longer matter, since virtual time is ahead of them
+        if (lastFinishTags.size() > 1000) {
+            lastFinishTags.values().removeIf(finishTag -> finishTag <= virtualTime);
+        }
+    }
+
+    private void wakeUp() {
+        lock.lock();
+        try {
+            dispatched.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Model calls waiting for their turn, the load signal for health and load shedding. With the
+     * scheduler disabled calls queue inside Ollama instead, so every call made counts.
+     */
+    public int getQueued() {
+        return enabled ? size(false) : unscheduled.get();
+    }
+
+    private int size(boolean running) {
+        lock.lock();
+        try {
+            return running ? inFlight : waiting.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Who a model call is made for: the API key, or Slack user, whose calls are queued together,
+     * its plan, and whether someone is waiting for the answer interactively.
+     */
+    public record Caller(String key, RateLimitConfig.PricingPlan plan, boolean interactive) {
+
+        public static final Caller ANONYMOUS = new Caller("anonymous", RateLimitConfig.PricingPlan.FREE, false);
+
+        public static Caller apiKey(String apiKey) {
+            return apiKey == null || apiKey.isEmpty()
+                    ? ANONYMOUS
+                    : new Caller("key:" + apiKey, RateLimitConfig.PricingPlan.resolvePlanFromApiKey(apiKey), false);
+        }
+
+        public static Caller slackUser(String userId) {
+            return new Caller("slack:" + userId, RateLimitConfig.PricingPlan.FREE, true);
+        }
+
+        /**
+         * The caller bound to the calling thread, {@link #ANONYMOUS} when there is none.
+         */
+        public static Caller current() {
+            Caller caller = CURRENT_CALLER.get();
+            return caller != null ? caller : ANONYMOUS;
+        }
+
+        /**
+         * Binds the caller to the calling thread until the returned scope is closed.
+         */
+        public CancellationToken.Scope bind() {
+            Caller previous = CURRENT_CALLER.get();
+            CURRENT_CALLER.set(this);
+            return () -> {
+                if (previous != null) {
+                    CURRENT_CALLER.set(previous);
+                } else {
+                    CURRENT_CALLER.remove();
+                }
+            };
+        }
+    }
+
+    private static final class Ticket {
+
+        private final Caller caller;
+        private final double startTag;
+        private final double finishTag;
+        private final long sequence;
+        private boolean admitted;
+
+        private Ticket(Caller caller, double startTag, double finishTag, long sequence) {
+            this.caller = caller;
+            this.startTag = startTag;
+            this.finishTag = finishTag;
+            this.sequence = sequence;
+        }
+    }
+}
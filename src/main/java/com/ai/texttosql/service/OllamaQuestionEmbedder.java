@@ -0,0 +1,17 @@
+package com.ai.texttosql.service;
+
+import com.ai.texttosql.config.OllamaClient;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+@Component
+@RequiredArgsConstructor
+public class OllamaQuestionEmbedder implements QuestionEmbedder {
+
+    private final OllamaClient ollamaClient;
+
+    @Override
+    public float[] embed(String text) {
+        return ollamaClient.embed(text);
+    }
+}
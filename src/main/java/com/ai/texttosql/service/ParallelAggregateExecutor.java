@@ -0,0 +1,272 @@
+package com.ai.texttosql.service;
+
+import com.ai.texttosql.config.TargetDataSourceRegistry;
+import com.ai.texttosql.exception.QueryExecutionException;
+import com.ai.texttosql.model.SchemaInfo;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs large aggregate queries as partial aggregates over primary key ranges in parallel.
+ * <p>
+ * MySQL runs one statement on one core. A statement that {@link PartitionedAggregate} can split
+ * and whose first table has an integer primary key spanning at least
+ * {@code app.parallel-aggregate.min-key-span} values is instead run as up to
+ * {@code app.parallel-aggregate.partitions} range statements, each on its own pooled connection
+ * and virtual thread, and their results are merged. The connections come out of a budget of
+ * {@code app.parallel-aggregate.max-connections} shared by all requests; a query that cannot get
+ * at least two of them, like one that cannot be split, runs serially. So does one where a single
+ * key range returns more than {@code app.parallel-aggregate.max-groups} groups: the other ranges
+ * are cancelled as soon as that is known rather than scanned to the end.
+ */
+@Slf4j
+@Service
+public class ParallelAggregateExecutor {
+
+    private final TargetDataSourceRegistry targetDataSources;
+    private final SchemaAnalysisService schemaAnalysisService;
+    private final MeterRegistry meterRegistry;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Semaphore connections;
+    private final Timer partitionTimer;
+    private final DistributionSummary partitionCount;
+    private final DistributionSummary speedup;
+
+    private final boolean enabled;
+    private final int partitions;
+    private final long minKeySpan;
+    private final int maxGroups;
+
+    public ParallelAggregateExecutor(TargetDataSourceRegistry targetDataSources,
+                                     SchemaAnalysisService schemaAnalysisService,
+                                     MeterRegistry meterRegistry,
+                                     @Value("${app.parallel-aggregate.enabled:true}") boolean enabled,
+                                     @Value("${app.parallel-aggregate.partitions:8}") int partitions,
+                                     @Value("${app.parallel-aggregate.max-connections:8}") int maxConnections,
+                                     @Value("${app.parallel-aggregate.min-key-span:200000}") long minKeySpan,
+                                     @Value("${app.parallel-aggregate.max-groups:10000}") int maxGroups) {
+        this.targetDataSources = targetDataSources;
+        this.schemaAnalysisService = schemaAnalysisService;
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.partitions = partitions;
+        this.minKeySpan = minKeySpan;
+        this.maxGroups = maxGroups;
+        this.connections = new Semaphore(maxConnections);
+        this.partitionTimer = Timer.builder("query.parallel.partition.time")
+                .description("Run time of one key range of a parallel aggregate")
+                .register(meterRegistry);
+        this.partitionCount = DistributionSummary.builder("query.parallel.partitions")
+                .description("Key ranges a parallel aggregate was split into")
+                .register(meterRegistry);
+        this.speedup = DistributionSummary.builder("query.parallel.speedup")
+                .description("Summed run time of the key ranges divided by the elapsed time of the parallel aggregate")
+                .register(meterRegistry);
+    }
+
+    /**
+     * All result rows of an aggregate statement, computed in parallel, or empty when the
+     * statement should run serially.
+     *
+     * @param sql a statement with its literals inline, since the range statements repeat some
+     *            expressions and positional parameters would not follow them
+     */
+    public Optional<List<Object[]>> execute(String dataSource, String sql) {
+        if (!enabled || partitions < 2) {
+            return Optional.empty();
+        }
+        Optional<PartitionedAggregate> parsed = PartitionedAggregate.parse(sql);
+        if (parsed.isEmpty()) {
+            return Optional.empty();
+        }
+        PartitionedAggregate aggregate = parsed.get();
+        JdbcTemplate jdbcTemplate = targetDataSources.jdbcTemplate(dataSource);
+        String primaryKey = numericPrimaryKey(dataSource, aggregate.getTable());
+        long[] keyRange = primaryKey != null ? keyRange(jdbcTemplate, aggregate.getTable(), primaryKey) : null;
+        if (keyRange == null || keyRange[1] - keyRange[0] < minKeySpan) {
+            return serial("small");
+        }
+
+        // Takes what is free of the connection budget rather than waiting for it
+        int acquired = 0;
+        while (acquired < partitions && connections.tryAcquire()) {
+            acquired++;
+        }
+        if (acquired < 2) {
+            connections.release(acquired);
+            return serial("no_capacity");
+        }
+        try {
+            return run(jdbcTemplate, aggregate, primaryKey, keyRange, acquired);
+        } finally {
+            connections.release(acquired);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private Optional<List<Object[]>> run(JdbcTemplate jdbcTemplate, PartitionedAggregate aggregate, String primaryKey,
+                                         long[] keyRange, int count) {
+        long start = System.nanoTime();
+        long width = (keyRange[1] - keyRange[0]) / count + 1;
+        CancellationToken token = CancellationToken.current();
+        CompletionService<List<Object[]>> completion = new ExecutorCompletionService<>(executor);
+        List<Statement> statements = new CopyOnWriteArrayList<>();
+        List<Future<List<Object[]>>> futures = new ArrayList<>(count);
+        long[] partitionNanos = new long[count];
+        for (int i = 0; i < count; i++) {
+            int partition = i;
+            long lower = keyRange[0] + i * width;
+            String rangeSql = aggregate.rangeSql(primaryKey, lower, Math.min(lower + width - 1, keyRange[1]));
+            Callable<List<Object[]>> task = () -> {
+                try (CancellationToken.Scope ignored = token != null ? token.activate() : null) {
+                    long partitionStart = System.nanoTime();
+                    List<Object[]> rows = query(jdbcTemplate, rangeSql, statements);
+                    partitionNanos[partition] = System.nanoTime() - partitionStart;
+                    partitionTimer.record(partitionNanos[partition], TimeUnit.NANOSECONDS);
+                    return rows;
+                }
+            };
+            futures.add(completion.submit(task));
+        }
+
+        PartitionedAggregate.Accumulator accumulator = aggregate.newAccumulator();
+        try {
+            // Ranges are merged as they finish, so that one cut short at max-groups stops the rest early
+            for (int i = 0; i < count; i++) {
+                List<Object[]> rows = completion.take().get();
+                if (rows.size() > maxGroups) {
+                    // The range was cut short, so the merged result would be incomplete
+                    futures.forEach(future -> future.cancel(true));
+                    cancel(statements);
+                    return serial("too_many_groups");
+                }
+                accumulator.add(rows);
+            }
+        } catch (ExecutionException e) {
+            futures.forEach(future -> future.cancel(true));
+            Throwable cause = e.getCause();
+            throw cause instanceof RuntimeException runtime ? runtime
+                    : new QueryExecutionException("Parallel aggregate failed: " + cause.getMessage(), cause);
+        } catch (InterruptedException e) {
+            futures.forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new QueryExecutionException("Interrupted while running a parallel aggregate", e);
+        }
+        long elapsed = System.nanoTime() - start;
+        long summed = 0;
+        for (long nanos : partitionNanos) {
+            summed += nanos;
+        }
+        partitionCount.record(count);
+        speedup.record((double) summed / Math.max(1, elapsed));
+        meterRegistry.counter("query.parallel", "outcome", "parallel").increment();
+        log.info("Ran aggregate on {} as {} key ranges in {} ms ({} ms summed)", aggregate.getTable(), count,
+                TimeUnit.NANOSECONDS.toMillis(elapsed), TimeUnit.NANOSECONDS.toMillis(summed));
+        return Optional.of(accumulator.result());
+    }
+
+    private List<Object[]> query(JdbcTemplate jdbcTemplate, String sql, List<Statement> statements) {
+        return jdbcTemplate.query(connection -> {
+            PreparedStatement statement = cancellable(connection.prepareStatement(sql));
+            statement.setMaxRows(maxGroups + 1);
+            statements.add(statement);
+            return statement;
+        }, (rs, rowNum) -> {
+            int columns = rs.getMetaData().getColumnCount();
+            Object[] row = new Object[columns];
+            for (int c = 0; c < columns; c++) {
+                row[c] = rs.getObject(c + 1);
+            }
+            return row;
+        });
+    }
+
+    /**
+     * Cancels the statement when the request is cancelled, since each range runs on its own
+     * connection.
+     */
+    private PreparedStatement cancellable(PreparedStatement statement) {
+        CancellationToken token = CancellationToken.current();
+        if (token != null) {
+            token.throwIfCancelled();
+            token.onCancel(() -> {
+                try {
+                    statement.cancel();
+                    meterRegistry.counter("query.cancelled.work", "stage", "execution").increment();
+                } catch (SQLException e) {
+                    log.debug("Could not cancel statement: {}", e.getMessage());
+                }
+            });
+        }
+        return statement;
+    }
+
+    /**
+     * Stops the range statements still running; interrupting their threads does not stop MySQL.
+     */
+    private static void cancel(List<Statement> statements) {
+        for (Statement statement : statements) {
+            try {
+                statement.cancel();
+            } catch (SQLException e) {
+                log.debug("Could not cancel statement: {}", e.getMessage());
+            }
+        }
+    }
+
+    private Optional<List<Object[]>> serial(String reason) {
+        meterRegistry.counter("query.parallel", "outcome", reason).increment();
+        return Optional.empty();
+    }
+
+    /**
+     * The single integer primary key column of a table, or {@code null} when it has none.
+     */
+    private String numericPrimaryKey(String dataSource, String table) {
+        try {
+            SchemaInfo schema = schemaAnalysisService.getTableSchema(dataSource, table);
+            List<SchemaInfo.ColumnInfo> primaryKey = schema.getColumns().stream()
+                    .filter(SchemaInfo.ColumnInfo::isPrimaryKey)
+                    .toList();
+            if (primaryKey.size() == 1 && primaryKey.get(0).getType().toLowerCase(Locale.ROOT).contains("int")) {
+                return primaryKey.get(0).getName();
+            }
+        } catch (Exception e) {
+            log.debug("No primary key for parallel execution on {}: {}", table, e.getMessage());
+        }
+        return null;
+    }
+
+    private static long[] keyRange(JdbcTemplate jdbcTemplate, String table, String primaryKey) {
+        return jdbcTemplate.query("SELECT MIN(`" + primaryKey + "`), MAX(`" + primaryKey + "`) FROM `" + table + "`",
+                rs -> rs.next() && rs.getObject(1) != null ? new long[]{rs.getLong(1), rs.getLong(2)} : null);
+    }
+}
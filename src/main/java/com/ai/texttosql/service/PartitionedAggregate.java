@@ -0,0 +1,556 @@
+package com.ai.texttosql.service;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An aggregate query split into the same query over disjoint primary key ranges of its first table.
+ * <p>
+ * Every row the query aggregates belongs to exactly one row of the first table, so the results of
+ * the ranges can be merged into the result of the whole query. Only COUNT, SUM, AVG, MIN and MAX
+ * directly in the select list are supported: AVG runs as SUM plus a hidden COUNT per range, and
+ * GROUP BY expressions that are not selected are carried in hidden columns so that groups can be
+ * matched across ranges. While only some ranges have been merged, COUNT, SUM and AVG can be
+ * estimated with a confidence interval by treating the merged ranges as a cluster sample.
+ */
+final class PartitionedAggregate {
+
+    /**
+     * Confidence level of the intervals around estimates.
+     */
+    static final double CONFIDENCE_LEVEL = 0.95;
+    // Two-sided quantile of the normal distribution for that level
+    private static final double Z = 1.959964;
+
+    private static final Pattern DRIVING_TABLE = Pattern.compile(
+            "(?i)^`?(\\w+)`?(?:\\s+(?:AS\\s+)?`?(\\w+)`?)?(?=\\s|,|$)");
+    private static final Pattern RIGHT_JOIN = Pattern.compile("(?i)\\bRIGHT\\s+(?:OUTER\\s+)?JOIN\\b");
+    private static final Pattern AGGREGATE_CALL = Pattern.compile("(?is)^(COUNT|SUM|AVG|MIN|MAX)\\s*\\((.*)\\)$");
+    private static final Pattern ANY_AGGREGATE = Pattern.compile(
+            "(?i)\\b(COUNT|SUM|AVG|MIN|MAX|GROUP_CONCAT|JSON_ARRAYAGG|JSON_OBJECTAGG|STD|STDDEV|STDDEV_POP|STDDEV_SAMP|VARIANCE|VAR_POP|VAR_SAMP|BIT_AND|BIT_OR|BIT_XOR)\\s*\\(");
+    private static final Pattern EXPLICIT_ALIAS = Pattern.compile("(?is)^(.+?)\\s+AS\\s+(`[^`]+`|\\w+)$");
+    private static final Pattern IMPLICIT_ALIAS = Pattern.compile("(?is)^(.*?[\\w)`'\"])\\s+(`[^`]+`|\\w+)$");
+    private static final Pattern ORDER_DIRECTION = Pattern.compile("(?is)^(.+?)\\s+(ASC|DESC)$");
+    private static final Set<String> NOT_ALIASES = Set.of(
+            "END", "NULL", "TRUE", "FALSE", "ASC", "DESC", "AND", "OR", "NOT", "XOR", "DIV", "MOD", "IS", "LIKE",
+            "IN", "BETWEEN", "THEN", "ELSE", "WHEN", "CASE", "INTERVAL", "BINARY", "DISTINCT", "ON", "USING",
+            "WHERE", "LEFT", "RIGHT", "INNER", "CROSS", "JOIN", "NATURAL", "STRAIGHT_JOIN", "OUTER");
+    private static final Set<String> OPERATORS = Set.of(
+            "AND", "OR", "NOT", "XOR", "DIV", "MOD", "IS", "LIKE", "IN", "BETWEEN", "THEN", "ELSE", "WHEN", "CASE",
+            "INTERVAL", "BINARY", "DISTINCT");
+
+    enum Kind { KEY, COUNT, SUM, AVG, MIN, MAX }
+
+    private record Item(String expression, String alias, Kind kind) {
+    }
+
+    private record Sort(int column, boolean descending) {
+    }
+
+    private final String table;
+    private final String qualifier;
+    private final String from;
+    private final String where;
+    private final String groupBy;
+    private final List<Item> items;
+    private final List<String> hiddenGroupExpressions;
+    private final int[] countColumnOfAverage;
+    private final int[] groupColumns;
+    private final List<Sort> orderBy;
+
+    private PartitionedAggregate(String table, String qualifier, String from, String where, String groupBy,
+                                 List<Item> items, List<String> hiddenGroupExpressions, int[] groupColumns,
+                                 List<Sort> orderBy) {
+        this.table = table;
+        this.qualifier = qualifier;
+        this.from = from;
+        this.where = where;
+        this.groupBy = groupBy;
+        this.items = items;
+        this.hiddenGroupExpressions = hiddenGroupExpressions;
+        this.groupColumns = groupColumns;
+        this.orderBy = orderBy;
+
+        this.countColumnOfAverage = new int[items.size()];
+        int next = items.size();
+        for (int i = 0; i < items.size(); i++) {
+            countColumnOfAverage[i] = items.get(i).kind() == Kind.AVG ? next++ : -1;
+        }
+    }
+
+    /**
+     * Decides whether a statement can be split by key range.
+     */
+    static Optional<PartitionedAggregate> parse(String sql) {
+        SqlClauses clauses = SqlClauses.parse(sql.trim().replaceAll(";\\s*$", ""));
+        if (clauses.isCompound() || clauses.start(SqlClauses.SELECT) != 0 || !clauses.has(SqlClauses.FROM)
+                || clauses.has(SqlClauses.HAVING) || clauses.has(SqlClauses.WINDOW) || clauses.has(SqlClauses.LIMIT)
+                || clauses.has(SqlClauses.FOR) || clauses.has(SqlClauses.INTO)) {
+            return Optional.empty();
+        }
+
+        String selectList = clauses.body(SqlClauses.SELECT);
+        if (selectList.toUpperCase(Locale.ROOT).matches("(?s)^(DISTINCT|DISTINCTROW|ALL|SQL_\\w+|HIGH_PRIORITY|STRAIGHT_JOIN)\\b.*")) {
+            return Optional.empty();
+        }
+
+        String from = clauses.body(SqlClauses.FROM);
+        Matcher driving = DRIVING_TABLE.matcher(from);
+        if (!driving.find() || RIGHT_JOIN.matcher(from).find()) {
+            return Optional.empty();
+        }
+        String alias = driving.group(2);
+        if (alias != null && NOT_ALIASES.contains(alias.toUpperCase(Locale.ROOT))) {
+            alias = null;
+        }
+
+        List<Item> items = new ArrayList<>();
+        boolean aggregated = false;
+        for (String part : SqlClauses.splitTopLevel(selectList)) {
+            Item item = parseItem(part);
+            if (item == null) {
+                return Optional.empty();
+            }
+            aggregated |= item.kind() != Kind.KEY;
+            items.add(item);
+        }
+        if (!aggregated) {
+            return Optional.empty();
+        }
+
+        String groupBy = null;
+        List<String> hidden = new ArrayList<>();
+        List<Integer> groupColumns = new ArrayList<>();
+        if (clauses.has(SqlClauses.GROUP_BY)) {
+            groupBy = clauses.body(SqlClauses.GROUP_BY);
+            if (groupBy.toUpperCase(Locale.ROOT).contains("ROLLUP")) {
+                return Optional.empty();
+            }
+            int averages = (int) items.stream().filter(item -> item.kind() == Kind.AVG).count();
+            for (String reference : SqlClauses.splitTopLevel(groupBy)) {
+                int column = resolve(items, reference);
+                if (column >= 0 && items.get(column).kind() != Kind.KEY) {
+                    return Optional.empty();
+                }
+                if (column < 0) {
+                    column = items.size() + averages + hidden.size();
+                    hidden.add(reference);
+                }
+                groupColumns.add(column);
+            }
+        } else if (items.stream().anyMatch(item -> item.kind() == Kind.KEY)) {
+            return Optional.empty();
+        }
+
+        List<Sort> orderBy = new ArrayList<>();
+        if (clauses.has(SqlClauses.ORDER_BY)) {
+            for (String reference : SqlClauses.splitTopLevel(clauses.body(SqlClauses.ORDER_BY))) {
+                boolean descending = false;
+                Matcher direction = ORDER_DIRECTION.matcher(reference);
+                if (direction.matches()) {
+                    reference = direction.group(1);
+                    descending = direction.group(2).equalsIgnoreCase("DESC");
+                }
+                int column = resolve(items, reference);
+                if (column < 0) {
+                    return Optional.empty();
+                }
+                orderBy.add(new Sort(column, descending));
+            }
+        }
+
+        return Optional.of(new PartitionedAggregate(driving.group(1), alias != null ? alias : driving.group(1), from,
+                clauses.has(SqlClauses.WHERE) ? clauses.body(SqlClauses.WHERE) : null, groupBy, items, hidden,
+                groupColumns.stream().mapToInt(Integer::intValue).toArray(), orderBy));
+    }
+
+    /**
+     * The first table of the FROM clause, whose primary key the ranges are taken over.
+     */
+    String getTable() {
+        return table;
+    }
+
+    int getColumnCount() {
+        return items.size();
+    }
+
+    /**
+     * The statement restricted to rows whose first-table key lies in {@code [from, to]}.
+     */
+    String rangeSql(String primaryKey, long from, long to) {
+        StringBuilder sql = new StringBuilder("SELECT ");
+        for (int i = 0; i < items.size(); i++) {
+            Item item = items.get(i);
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(item.kind() == Kind.AVG ? "SUM" + item.expression().substring(item.expression().indexOf('(')) : item.expression());
+            if (item.alias() != null) {
+                sql.append(" AS ").append(item.alias());
+            }
+        }
+        for (int i = 0; i < items.size(); i++) {
+            if (countColumnOfAverage[i] >= 0) {
+                String expression = items.get(i).expression();
+                sql.append(", COUNT").append(expression.substring(expression.indexOf('('))).append(" AS __avg_count_").append(i);
+            }
+        }
+        for (int i = 0; i < hiddenGroupExpressions.size(); i++) {
+            sql.append(", ").append(hiddenGroupExpressions.get(i)).append(" AS __group_").append(i);
+        }
+
+        String range = "`" + qualifier + "`.`" + primaryKey + "` BETWEEN " + from + " AND " + to;
+        sql.append(" FROM ").append(this.from)
+                .append(" WHERE ").append(where != null ? "(" + where + ") AND " + range : range);
+        if (groupBy != null) {
+            sql.append(" GROUP BY ").append(groupBy);
+        }
+        return sql.toString();
+    }
+
+    Accumulator newAccumulator() {
+        return new Accumulator();
+    }
+
+    /**
+     * Merges the results of ranges as they complete.
+     */
+    final class Accumulator {
+
+        private final Map<List<Object>, Group> groups = new LinkedHashMap<>();
+        private int ranges;
+
+        void add(List<Object[]> rows) {
+            ranges++;
+            for (Object[] row : rows) {
+                Object[] key = new Object[groupColumns.length];
+                for (int i = 0; i < groupColumns.length; i++) {
+                    Object value = row[groupColumns[i]];
+                    key[i] = value instanceof byte[] bytes ? new String(bytes) : value;
+                }
+                groups.computeIfAbsent(Arrays.asList(key), k -> new Group(row)).add(row);
+            }
+        }
+
+        int getRanges() {
+            return ranges;
+        }
+
+        int getGroupCount() {
+            return groups.size();
+        }
+
+        /**
+         * The exact result, once every range has been added.
+         */
+        List<Object[]> result() {
+            List<Object[]> rows = new ArrayList<>(groups.size());
+            for (Group group : groups.values()) {
+                rows.add(group.exact());
+            }
+            sort(rows);
+            return rows;
+        }
+
+        /**
+         * Estimates of the result from the ranges added so far, out of {@code totalRanges}.
+         */
+        List<Estimate> estimate(int totalRanges) {
+            List<Estimate> estimates = new ArrayList<>(groups.size());
+            for (Group group : groups.values()) {
+                estimates.add(group.estimate(ranges, totalRanges));
+            }
+            if (!orderBy.isEmpty()) {
+                estimates.sort((a, b) -> compareRows(a.values(), b.values()));
+            }
+            return estimates;
+        }
+    }
+
+    /**
+     * One estimated result row; {@code bounds[column]} is the confidence interval of an estimated
+     * column, or {@code null} for columns that are exact or cannot be bounded.
+     */
+    record Estimate(Object[] values, double[][] bounds) {
+    }
+
+    private final class Group {
+
+        private final Object[] keys;
+        private final Object[] totals;
+        private final long[] counts;
+        private final double[] sumY;
+        private final double[] sumYY;
+        private final double[] sumX;
+        private final double[] sumXX;
+        private final double[] sumXY;
+
+        private Group(Object[] firstRow) {
+            int columns = items.size();
+            this.keys = new Object[columns];
+            this.totals = new Object[columns];
+            this.counts = new long[columns];
+            this.sumY = new double[columns];
+            this.sumYY = new double[columns];
+            this.sumX = new double[columns];
+            this.sumXX = new double[columns];
+            this.sumXY = new double[columns];
+            for (int i = 0; i < columns; i++) {
+                if (items.get(i).kind() == Kind.KEY) {
+                    keys[i] = firstRow[i];
+                }
+            }
+        }
+
+        void add(Object[] row) {
+            for (int i = 0; i < items.size(); i++) {
+                Object value = row[i];
+                switch (items.get(i).kind()) {
+                    case KEY -> {
+                    }
+                    case COUNT, SUM -> {
+                        totals[i] = plus(totals[i], value);
+                        double y = toDouble(value);
+                        sumY[i] += y;
+                        sumYY[i] += y * y;
+                    }
+                    case AVG -> {
+                        totals[i] = plus(totals[i], value);
+                        long count = ((Number) row[countColumnOfAverage[i]]).longValue();
+                        counts[i] += count;
+                        double y = toDouble(value);
+                        sumY[i] += y;
+                        sumYY[i] += y * y;
+                        sumX[i] += count;
+                        sumXX[i] += (double) count * count;
+                        sumXY[i] += y * count;
+                    }
+                    case MIN -> totals[i] = value != null && (totals[i] == null || compare(value, totals[i]) < 0) ? value : totals[i];
+                    case MAX -> totals[i] = value != null && (totals[i] == null || compare(value, totals[i]) > 0) ? value : totals[i];
+                }
+            }
+        }
+
+        Object[] exact() {
+            Object[] row = new Object[items.size()];
+            for (int i = 0; i < row.length; i++) {
+                row[i] = switch (items.get(i).kind()) {
+                    case KEY -> keys[i];
+                    case COUNT -> totals[i] == null ? 0L : ((Number) totals[i]).longValue();
+                    case AVG -> average(totals[i], counts[i]);
+                    default -> totals[i];
+                };
+            }
+            return row;
+        }
+
+        Estimate estimate(int k, int n) {
+            Object[] values = new Object[items.size()];
+            double[][] bounds = new double[items.size()][];
+            double unsampled = 1 - (double) k / n;
+            for (int i = 0; i < values.length; i++) {
+                Kind kind = items.get(i).kind();
+                switch (kind) {
+                    case KEY -> values[i] = keys[i];
+                    case MIN, MAX -> values[i] = totals[i];
+                    case COUNT, SUM -> {
+                        double estimate = n * sumY[i] / k;
+                        values[i] = kind == Kind.COUNT ? (Object) Math.round(estimate) : (Object) estimate;
+                        if (k > 1) {
+                            double variance = Math.max(0, (sumYY[i] - sumY[i] * sumY[i] / k) / (k - 1));
+                            double margin = Z * n * Math.sqrt(unsampled * variance / k);
+                            // The rows counted so far are certain
+                            double lower = kind == Kind.COUNT ? Math.max(sumY[i], estimate - margin) : estimate - margin;
+                            bounds[i] = new double[]{lower, estimate + margin};
+                        }
+                    }
+                    case AVG -> {
+                        if (sumX[i] == 0) {
+                            continue;
+                        }
+                        double ratio = sumY[i] / sumX[i];
+                        values[i] = ratio;
+                        if (k > 1) {
+                            double meanX = sumX[i] / k;
+                            double residual = Math.max(0,
+                                    (sumYY[i] - 2 * ratio * sumXY[i] + ratio * ratio * sumXX[i]) / (k - 1));
+                            double margin = Z * Math.sqrt(unsampled * residual / (k * meanX * meanX));
+                            bounds[i] = new double[]{ratio - margin, ratio + margin};
+                        }
+                    }
+                }
+            }
+            return new Estimate(values, bounds);
+        }
+    }
+
+    private void sort(List<Object[]> rows) {
+        if (!orderBy.isEmpty()) {
+            rows.sort(this::compareRows);
+        }
+    }
+
+    private int compareRows(Object[] a, Object[] b) {
+        for (Sort sort : orderBy) {
+            Object x = a[sort.column()];
+            Object y = b[sort.column()];
+            // MySQL sorts NULL first in ascending order
+            int result = x == null ? (y == null ? 0 : -1) : y == null ? 1 : compare(x, y);
+            if (result != 0) {
+                return sort.descending() ? -result : result;
+            }
+        }
+        return 0;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static int compare(Object a, Object b) {
+        if (a instanceof Number x && b instanceof Number y) {
+            if (x instanceof Double || x instanceof Float || y instanceof Double || y instanceof Float) {
+                return Double.compare(x.doubleValue(), y.doubleValue());
+            }
+            return toBigDecimal(x).compareTo(toBigDecimal(y));
+        }
+        if (a instanceof Comparable comparable && a.getClass() == b.getClass()) {
+            return comparable.compareTo(b);
+        }
+        return Comparator.<String>naturalOrder().compare(String.valueOf(a), String.valueOf(b));
+    }
+
+    private static Object plus(Object total, Object value) {
+        if (value == null) {
+            return total;
+        }
+        if (total == null) {
+            return value instanceof Number number && !(number instanceof Double || number instanceof Float)
+                    ? toBigDecimal(number) : value;
+        }
+        if (total instanceof BigDecimal decimal && !(value instanceof Double || value instanceof Float)) {
+            return decimal.add(toBigDecimal((Number) value));
+        }
+        return ((Number) total).doubleValue() + ((Number) value).doubleValue();
+    }
+
+    private static Object average(Object sum, long count) {
+        if (sum == null || count == 0) {
+            return null;
+        }
+        if (sum instanceof BigDecimal decimal) {
+            // MySQL returns AVG of exact values with four more decimals than the input
+            return decimal.divide(BigDecimal.valueOf(count), decimal.scale() + 4, RoundingMode.HALF_UP);
+        }
+        return ((Number) sum).doubleValue() / count;
+    }
+
+    private static BigDecimal toBigDecimal(Number number) {
+        if (number instanceof BigDecimal decimal) {
+            return decimal;
+        }
+        if (number instanceof BigInteger integer) {
+            return new BigDecimal(integer);
+        }
+        if (number instanceof Double || number instanceof Float) {
+            return BigDecimal.valueOf(number.doubleValue());
+        }
+        return BigDecimal.valueOf(number.longValue());
+    }
+
+    private static double toDouble(Object value) {
+        return value == null ? 0 : ((Number) value).doubleValue();
+    }
+
+    private static Item parseItem(String part) {
+        String expression = part;
+        String alias = null;
+        Matcher explicit = EXPLICIT_ALIAS.matcher(part);
+        Matcher implicit = IMPLICIT_ALIAS.matcher(part);
+        if (explicit.matches()) {
+            expression = explicit.group(1).trim();
+            alias = explicit.group(2);
+        } else if (implicit.matches() && !NOT_ALIASES.contains(implicit.group(2).toUpperCase(Locale.ROOT))
+                && !OPERATORS.contains(lastWord(implicit.group(1)))) {
+            expression = implicit.group(1).trim();
+            alias = implicit.group(2);
+        }
+
+        if (expression.equals("*") || expression.endsWith(".*")) {
+            return null;
+        }
+        Matcher call = AGGREGATE_CALL.matcher(expression);
+        if (call.matches() && closesAtEnd(expression, expression.indexOf('('))) {
+            String argument = call.group(2).trim();
+            if (argument.toUpperCase(Locale.ROOT).startsWith("DISTINCT") || ANY_AGGREGATE.matcher(argument).find()) {
+                return null;
+            }
+            return new Item(expression, alias, Kind.valueOf(call.group(1).toUpperCase(Locale.ROOT)));
+        }
+        return ANY_AGGREGATE.matcher(expression).find() ? null : new Item(expression, alias, Kind.KEY);
+    }
+
+    /**
+     * Resolves a GROUP BY or ORDER BY item to a select list column by position, alias or expression.
+     */
+    private static int resolve(List<Item> items, String reference) {
+        String trimmed = reference.trim();
+        if (trimmed.matches("\\d+")) {
+            int position = Integer.parseInt(trimmed) - 1;
+            return position < items.size() ? position : -1;
+        }
+        String normalized = normalize(trimmed);
+        for (int i = 0; i < items.size(); i++) {
+            Item item = items.get(i);
+            if (item.alias() != null && normalize(item.alias()).equals(normalized)) {
+                return i;
+            }
+        }
+        int match = -1;
+        for (int i = 0; i < items.size(); i++) {
+            String expression = normalize(items.get(i).expression());
+            boolean same = expression.equals(normalized)
+                    || expression.endsWith("." + normalized) && normalized.matches("\\w+");
+            if (same) {
+                if (match >= 0) {
+                    return -1;
+                }
+                match = i;
+            }
+        }
+        return match;
+    }
+
+    private static boolean closesAtEnd(String expression, int open) {
+        int depth = 0;
+        for (int i = open; i < expression.length(); i++) {
+            char c = expression.charAt(i);
+            if (c == '(') {
+                depth++;
+            } else if (c == ')' && --depth == 0) {
+                return i == expression.length() - 1;
+            }
+        }
+        return false;
+    }
+
+    private static String lastWord(String text) {
+        String[] words = text.trim().split("\\s+");
+        return words[words.length - 1].toUpperCase(Locale.ROOT);
+    }
+
+    private static String normalize(String text) {
+        return text.replace("`", "").replaceAll("\\s+", " ").replaceAll("\\s*([(),])\\s*", "$1")
+                .trim().toLowerCase(Locale.ROOT);
+    }
+}
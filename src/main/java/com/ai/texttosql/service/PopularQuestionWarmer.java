@@ -0,0 +1,143 @@
+package com.ai.texttosql.service;
+
+import com.ai.texttosql.config.TargetDataSourceRegistry;
+import com.ai.texttosql.repository.QueryHistoryRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StopWatch;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Mines {@code query_history} for the most frequently asked questions and regenerates their
+ * SQL ahead of demand, so the first user after a deploy or cache flush does not wait for Ollama.
+ */
+@Slf4j
+@Service
+public class PopularQuestionWarmer {
+
+    private final QueryHistoryRepository queryHistoryRepository;
+    private final TextToSqlService textToSqlService;
+    private final QueryExecutionService queryExecutionService;
+    private final SchemaPromptCompiler schemaPromptCompiler;
+    private final GeneratedSqlCache generatedSqlCache;
+    private final MeterRegistry meterRegistry;
+    private final Timer warmerRunTimer;
+    private final AtomicInteger warmSetSize = new AtomicInteger();
+
+    @Value("${app.warmer.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.warmer.top-questions:200}")
+    private int topQuestions;
+
+    @Value("${app.warmer.lookback-days:14}")
+    private int lookbackDays;
+
+    @Value("${app.warmer.pre-execute:false}")
+    private boolean preExecute;
+
+    @Value("${app.warmer.pre-execute-page-size:20}")
+    private int preExecutePageSize;
+
+    public PopularQuestionWarmer(QueryHistoryRepository queryHistoryRepository,
+                                 TextToSqlService textToSqlService,
+                                 QueryExecutionService queryExecutionService,
+                                 SchemaPromptCompiler schemaPromptCompiler,
+                                 GeneratedSqlCache generatedSqlCache,
+                                 MeterRegistry meterRegistry) {
+        this.queryHistoryRepository = queryHistoryRepository;
+        this.textToSqlService = textToSqlService;
+        this.queryExecutionService = queryExecutionService;
+        this.schemaPromptCompiler = schemaPromptCompiler;
+        this.generatedSqlCache = generatedSqlCache;
+        this.meterRegistry = meterRegistry;
+        this.warmerRunTimer = Timer.builder("query.warmer.run.time")
+                .description("Time taken by one popular-question warm-up run")
+                .register(meterRegistry);
+        meterRegistry.gauge("query.warmer.warm.set.size", warmSetSize);
+    }
+
+    @Scheduled(initialDelayString = "${app.warmer.initial-delay-ms:60000}",
+            fixedDelayString = "${app.warmer.interval-ms:3600000}")
+    public void warm() {
+        if (!enabled) {
+            return;
+        }
+
+        StopWatch stopWatch = new StopWatch();
+        stopWatch.start();
+        int warmed = 0;
+        int failed = 0;
+
+        try {
+            // Build the schema context first so every generation below reuses the cached copy
+            schemaPromptCompiler.compileSchemaContext(TargetDataSourceRegistry.DEFAULT);
+
+            Instant since = Instant.now().minus(Duration.ofDays(lookbackDays));
+            for (String question : mostFrequentQuestions(since)) {
+                if (generatedSqlCache.contains(question)) {
+                    warmed++;
+                    continue;
+                }
+                try {
+                    String sql = textToSqlService.generateFreshSql(question);
+                    queryExecutionService.validateExecutable(sql);
+                    generatedSqlCache.putWarmed(question, sql);
+                    warmed++;
+                } catch (Exception e) {
+                    failed++;
+                    log.debug("Skipping warm-up of '{}': {}", question, e.getMessage());
+                }
+            }
+
+            if (preExecute) {
+                preExecuteFirstPages(since);
+            }
+        } catch (Exception e) {
+            log.error("Popular question warm-up failed: {}", e.getMessage(), e);
+        } finally {
+            stopWatch.stop();
+            warmSetSize.set(warmed);
+            warmerRunTimer.record(stopWatch.getTotalTimeMillis(), TimeUnit.MILLISECONDS);
+            meterRegistry.counter("query.warmer.failures").increment(failed);
+            log.info("Warmed {} popular questions ({} failed) in {} ms",
+                    warmed, failed, stopWatch.getTotalTimeMillis());
+        }
+    }
+
+    private Set<String> mostFrequentQuestions(Instant since) {
+        Set<String> questions = new LinkedHashSet<>();
+        for (Object[] row : queryHistoryRepository.findMostFrequentQuestions(TargetDataSourceRegistry.DEFAULT, since,
+                PageRequest.of(0, topQuestions))) {
+            String normalized = GeneratedSqlCache.normalize((String) row[0]);
+            if (!normalized.isEmpty()) {
+                questions.add(normalized);
+            }
+        }
+        return questions;
+    }
+
+    private void preExecuteFirstPages(Instant since) {
+        List<Object[]> statements = queryHistoryRepository.findMostFrequentSql(TargetDataSourceRegistry.DEFAULT, since,
+                PageRequest.of(0, topQuestions));
+        for (Object[] row : statements) {
+            try {
+                queryExecutionService.executeQuery((String) row[0], PageRequest.of(0, preExecutePageSize));
+            } catch (Exception e) {
+                log.debug("Skipping pre-execution of popular statement: {}", e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package com.ai.texttosql.service;
+
+import com.ai.texttosql.config.TargetDataSourceRegistry;
+import com.ai.texttosql.model.QueryRequest;
+import com.ai.texttosql.model.QueryResponse;
+import com.ai.texttosql.model.QueryResultPage;
+import com.ai.texttosql.model.SchemaInfo;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Answers aggregate questions progressively over server-sent events.
+ * <p>
+ * The generated statement is split into primary key ranges of its first table (see
+ * {@link PartitionedAggregate}), which are run in random order. After each range the merged
+ * results so far are scaled up to an estimate with a confidence interval and sent as an
+ * {@code estimate} event labeled {@link QueryResponse#isApproximate() approximate}; once every
+ * range has run, the merged results are the exact answer and are sent as the {@code result}
+ * event. Statements that cannot be split, and small tables, are run normally and only get the
+ * {@code result} event.
+ */
+@Slf4j
+@Service
+public class ProgressiveAggregateService {
+
+    public static final String ESTIMATE_EVENT = "estimate";
+    public static final String RESULT_EVENT = "result";
+    public static final String ERROR_EVENT = "error";
+
+    private final TextToSqlService textToSqlService;
+    private final QueryExecutionService queryExecutionService;
+    private final QueryHistoryService queryHistoryService;
+    private final SqlTemplateService sqlTemplateService;
+    private final SchemaAnalysisService schemaAnalysisService;
+    private final QueryCancellationService queryCancellationService;
+    private final MeterRegistry meterRegistry;
+    private final Timer firstEstimateTimer;
+    private final ExecutorService executor;
+
+    private final int ranges;
+    private final long minKeySpan;
+    private final long updateIntervalMs;
+    private final int maxGroups;
+    private final Duration timeout;
+
+    public ProgressiveAggregateService(TextToSqlService textToSqlService,
+                                       QueryExecutionService queryExecutionService,
+                                       QueryHistoryService queryHistoryService,
+                                       SqlTemplateService sqlTemplateService,
+                                       SchemaAnalysisService schemaAnalysisService,
+                                       QueryCancellationService queryCancellationService,
+                                       MeterRegistry meterRegistry,
+                                       @Value("${app.progressive.ranges:32}") int ranges,
+                                       @Value("${app.progressive.min-key-span:100000}") long minKeySpan,
+                                       @Value("${app.progressive.update-interval-ms:500}") long updateIntervalMs,
+                                       @Value("${app.progressive.max-groups:10000}") int maxGroups,
+                                       @Value("${app.progressive.timeout:10m}") Duration timeout,
+                                       @Value("${app.progressive.threads:4}") int threads) {
+        this.textToSqlService = textToSqlService;
+        this.queryExecutionService = queryExecutionService;
+        this.queryHistoryService = queryHistoryService;
+        this.sqlTemplateService = sqlTemplateService;
+        this.schemaAnalysisService = schemaAnalysisService;
+        this.queryCancellationService = queryCancellationService;
+        this.meterRegistry = meterRegistry;
+        this.ranges = ranges;
+        this.minKeySpan = minKeySpan;
+        this.updateIntervalMs = updateIntervalMs;
+        this.maxGroups = maxGroups;
+        this.timeout = timeout;
+        this.executor = Executors.newFixedThreadPool(threads);
+        this.firstEstimateTimer = Timer.builder("query.progressive.first.estimate.time")
+                .description("Time from request to the first approximate answer")
+                .register(meterRegistry);
+    }
+
+    public SseEmitter execute(QueryRequest request) {
+        SseEmitter emitter = new SseEmitter(timeout.toMillis());
+        // A client that goes away surfaces as an error of the emitter, which aborts the running range
+        CancellationToken token = queryCancellationService.open(timeout);
+        emitter.onTimeout(() -> token.cancel(CancellationToken.DEADLINE));
+        emitter.onError(e -> token.cancel(CancellationToken.DISCONNECT));
+        emitter.onCompletion(() -> token.cancel(CancellationToken.DISCONNECT));
+
+        long start = System.nanoTime();
+        LlmScheduler.Caller caller = LlmScheduler.Caller.current();
+        executor.execute(() -> {
+            try (CancellationToken.Scope ignored = token.activate();
+                 CancellationToken.Scope ignoredCaller = caller.bind()) {
+                QueryResponse sqlResponse = textToSqlService.generateSqlQuery(request);
+                QueryResponse result = run(request.getDataSource(), sqlResponse.getGeneratedSql(), start, emitter, token);
+                if (result == null) {
+                    meterRegistry.counter("query.progressive", "outcome", "cancelled").increment();
+                    return;
+                }
+                result.setNaturalLanguageQuery(request.getNaturalLanguageQuery());
+                result.setExplanation(sqlResponse.getExplanation());
+                result.setPreviousQueryId(request.getPreviousQueryId());
+                send(emitter, RESULT_EVENT, result);
+                // Completing the emitter must not count as the client going away
+                token.close();
+                emitter.complete();
+                queryHistoryService.saveQuery(result, request.getDataSource(), "system");
+            } catch (Exception e) {
+                if (token.isCancelled()) {
+                    meterRegistry.counter("query.progressive", "outcome", "cancelled").increment();
+                    return;
+                }
+                log.warn("Progressive execution failed: {}", e.getMessage());
+                meterRegistry.counter("query.progressive", "outcome", "failed").increment();
+                try {
+                    send(emitter, ERROR_EVENT, Map.of("error", String.valueOf(e.getMessage())));
+                    token.close();
+                    emitter.complete();
+                } catch (Exception sendFailure) {
+                    emitter.completeWithError(e);
+                }
+            } finally {
+                token.close();
+            }
+        });
+        return emitter;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Sends estimates while the ranges run and returns the exact answer, or {@code null} when the
+     * client went away first.
+     */
+    private QueryResponse run(String dataSource, String sqlQuery, long start, SseEmitter emitter,
+                              CancellationToken token) throws IOException {
+        Optional<PartitionedAggregate> aggregate = PartitionedAggregate.parse(sqlQuery);
+        String primaryKey = aggregate.map(a -> numericPrimaryKey(dataSource, a.getTable())).orElse(null);
+        long[] keyRange = primaryKey != null ? keyRange(dataSource, aggregate.get().getTable(), primaryKey) : null;
+        if (keyRange == null || keyRange[1] - keyRange[0] < minKeySpan) {
+            meterRegistry.counter("query.progressive", "outcome", "exact_only").increment();
+            return queryExecutionService.executeQuery(dataSource, sqlQuery, PageRequest.of(0, maxGroups));
+        }
+
+        // Range statements repeat some expressions, which only ordinal JPA parameters survive
+        boolean bindable = TargetDataSourceRegistry.isDefault(dataSource);
+        SqlTemplateService.PreparedSql preparedSql = sqlTemplateService.prepare(sqlQuery);
+        List<Object> parameters = bindable ? preparedSql.parameters() : List.of();
+        PartitionedAggregate prepared = PartitionedAggregate.parse(bindable ? preparedSql.sql() : sqlQuery).orElseThrow();
+
+        // Ranges run in random order so that every prefix of them is a sample of the whole table
+        long width = (keyRange[1] - keyRange[0]) / ranges + 1;
+        List<long[]> bounds = new ArrayList<>(ranges);
+        for (long lower = keyRange[0]; lower <= keyRange[1]; lower += width) {
+            bounds.add(new long[]{lower, Math.min(lower + width - 1, keyRange[1])});
+        }
+        Collections.shuffle(bounds);
+
+        PartitionedAggregate.Accumulator accumulator = prepared.newAccumulator();
+        long lastUpdate = 0;
+        boolean estimated = false;
+        for (long[] range : bounds) {
+            if (token.isCancelled()) {
+                return null;
+            }
+            accumulator.add(queryExecutionService.queryRows(dataSource,
+                    prepared.rangeSql(primaryKey, range[0], range[1]), parameters, maxGroups + 1));
+            if (accumulator.getGroupCount() > maxGroups) {
+                meterRegistry.counter("query.progressive", "outcome", "exact_only").increment();
+                return queryExecutionService.executeQuery(dataSource, sqlQuery, PageRequest.of(0, maxGroups));
+            }
+
+            long now = System.nanoTime();
+            boolean complete = accumulator.getRanges() == bounds.size();
+            if (!complete && accumulator.getRanges() > 1 && now - lastUpdate >= TimeUnit.MILLISECONDS.toNanos(updateIntervalMs)) {
+                send(emitter, ESTIMATE_EVENT, estimateResponse(sqlQuery, accumulator, bounds.size(), start));
+                meterRegistry.counter("query.progressive.estimates").increment();
+                if (!estimated) {
+                    firstEstimateTimer.record(now - start, TimeUnit.NANOSECONDS);
+                    estimated = true;
+                }
+                lastUpdate = now;
+            }
+        }
+
+        meterRegistry.counter("query.progressive", "outcome", "completed").increment();
+        List<Object[]> rows = accumulator.result();
+        QueryResultPage resultPage = QueryResultPage.builder()
+                .generatedSql(sqlQuery)
+                .rows(rows)
+                .timestamp(Instant.now())
+                .page(new QueryResponse.PageInfo(0, Math.max(1, rows.size()), rows.size()))
+                .executionMetrics(new QueryResponse.ExecutionMetrics(elapsedMs(start), rows.size(), "SUCCESS"))
+                .build();
+        return queryExecutionService.toResponse(resultPage);
+    }
+
+    private QueryResponse estimateResponse(String sqlQuery, PartitionedAggregate.Accumulator accumulator,
+                                           int totalRanges, long start) {
+        List<PartitionedAggregate.Estimate> estimates = accumulator.estimate(totalRanges);
+        List<Object[]> rows = new ArrayList<>(estimates.size());
+        List<Map<String, QueryResponse.ErrorBound>> errorBounds = new ArrayList<>(estimates.size());
+        for (PartitionedAggregate.Estimate estimate : estimates) {
+            rows.add(estimate.values());
+            Map<String, QueryResponse.ErrorBound> rowBounds = new LinkedHashMap<>();
+            for (int column = 0; column < estimate.bounds().length; column++) {
+                double[] bound = estimate.bounds()[column];
+                if (bound != null) {
+                    rowBounds.put(QueryResultPage.columnName(column), new QueryResponse.ErrorBound(bound[0], bound[1]));
+                }
+            }
+            errorBounds.add(rowBounds);
+        }
+
+        QueryResultPage resultPage = QueryResultPage.builder()
+                .generatedSql(sqlQuery)
+                .rows(rows)
+                .timestamp(Instant.now())
+                .executionMetrics(new QueryResponse.ExecutionMetrics(elapsedMs(start), rows.size(), "PARTIAL"))
+                .build();
+        QueryResponse response = queryExecutionService.toResponse(resultPage);
+        response.setApproximate(true);
+        response.setApproximation(QueryResponse.Approximation.builder()
+                .sampledFraction((double) accumulator.getRanges() / totalRanges)
+                .confidenceLevel(PartitionedAggregate.CONFIDENCE_LEVEL)
+                .errorBounds(errorBounds)
+                .build());
+        return response;
+    }
+
+    /**
+     * The single integer primary key column of a table, or {@code null} when it has none.
+     */
+    private String numericPrimaryKey(String dataSource, String table) {
+        try {
+            SchemaInfo schema = schemaAnalysisService.getTableSchema(dataSource, table);
+            List<SchemaInfo.ColumnInfo> primaryKey = schema.getColumns().stream()
+                    .filter(SchemaInfo.ColumnInfo::isPrimaryKey)
+                    .toList();
+            if (primaryKey.size() == 1 && primaryKey.get(0).getType().toLowerCase(Locale.ROOT).contains("int")) {
+                return primaryKey.get(0).getName();
+            }
+        } catch (Exception e) {
+            log.debug("No primary key for progressive execution on {}: {}", table, e.getMessage());
+        }
+        return null;
+    }
+
+    private long[] keyRange(String dataSource, String table, String primaryKey) {
+        List<Object[]> rows = queryExecutionService.queryRows(dataSource,
+                "SELECT MIN(`" + primaryKey + "`), MAX(`" + primaryKey + "`) FROM `" + table + "`", List.of(), 1);
+        if (rows.isEmpty() || rows.get(0)[0] == null) {
+            return null;
+        }
+        return new long[]{((Number) rows.get(0)[0]).longValue(), ((Number) rows.get(0)[1]).longValue()};
+    }
+
+    private static void send(SseEmitter emitter, String event, Object data) throws IOException {
+        emitter.send(SseEmitter.event().name(event).data(data));
+    }
+
+    private static long elapsedMs(long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+}
@@ -0,0 +1,46 @@
+package com.ai.texttosql.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates {@link CancellationToken}s and cancels them when their deadline passes.
+ */
+@Service
+public class QueryCancellationService {
+
+    private final MeterRegistry meterRegistry;
+    private final ScheduledExecutorService deadlines;
+
+    public QueryCancellationService(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        this.deadlines = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "query-deadlines");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * A token that cancels itself after {@code timeout}; close it when the request is done.
+     */
+    public CancellationToken open(Duration timeout) {
+        CancellationToken token = new CancellationToken(Instant.now().plus(timeout),
+                reason -> meterRegistry.counter("query.cancellations", "reason", reason).increment());
+        token.setDeadlineTimer(deadlines.schedule(() -> token.cancel(CancellationToken.DEADLINE),
+                timeout.toMillis(), TimeUnit.MILLISECONDS));
+        return token;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        deadlines.shutdownNow();
+    }
+}
@@ -1,37 +1,62 @@
 package com.ai.texttosql.service;
 
 import com.ai.texttosql.config.MetricsConfig;
+import com.ai.texttosql.config.TargetDataSourceRegistry;
+import com.ai.texttosql.exception.QueryCancelledException;
 import com.ai.texttosql.exception.QueryExecutionException;
 import com.ai.texttosql.model.QueryResponse;
+import com.ai.texttosql.model.QueryResultPage;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.PersistenceContext;
 import jakarta.persistence.Query;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.hibernate.jpa.HibernateHints;
+import org.json.JSONObject;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.StopWatch;
 
 import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.time.Instant;
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class QueryExecutionService {
 
+    // A composite registry without registries behind it records nothing
+    private static final MeterRegistry UNRECORDED = new CompositeMeterRegistry();
+
     @PersistenceContext
     private final EntityManager entityManager;
     private final MeterRegistry meterRegistry;
     private final Timer queryExecutionTimer;
+    private final SqlTemplateService sqlTemplateService;
+    private final TargetDataSourceRegistry targetDataSources;
+    private final KeysetPaginator keysetPaginator;
+    private final SqlStatementStats sqlStatementStats;
+    private final SummaryTableService summaryTableService;
+    private final ParallelAggregateExecutor parallelAggregateExecutor;
+    private final SlowQueryCaptureService slowQueryCaptureService;
 
     @Transactional(readOnly = true)
     public QueryResponse executeQuery(String sqlQuery) {
@@ -40,58 +65,395 @@ public class QueryExecutionService {
 
     @Transactional(readOnly = true)
     public QueryResponse executeQuery(String sqlQuery, Pageable pageable) {
+        return executeQuery(TargetDataSourceRegistry.DEFAULT, sqlQuery, pageable);
+    }
+
+    @Transactional(readOnly = true)
+    public QueryResponse executeQuery(String dataSource, String sqlQuery, Pageable pageable) {
+        return executeQuery(dataSource, sqlQuery, pageable, null);
+    }
+
+    /**
+     * Executes one page of a query. A continuation token from the {@link QueryResponse.PageInfo}
+     * of the previous page continues after that page by key; the page number is then taken
+     * from the token rather than from {@code pageable}.
+     */
+    @Transactional(readOnly = true)
+    public QueryResponse executeQuery(String dataSource, String sqlQuery, Pageable pageable, String continuationToken) {
+        return toResponse(executeQueryPage(dataSource, sqlQuery, pageable, continuationToken));
+    }
+
+    /**
+     * Converts a page of raw rows into a response with one map per row.
+     */
+    public QueryResponse toResponse(QueryResultPage resultPage) {
+        QueryResponse response = new QueryResponse();
+        response.setGeneratedSql(resultPage.getGeneratedSql());
+        response.setTimestamp(resultPage.getTimestamp());
+        response.setResults(convertResultsToMap(resultPage.getRows()));
+        response.setPage(resultPage.getPage());
+        response.setExecutionMetrics(resultPage.getExecutionMetrics());
+        return response;
+    }
+
+    /**
+     * Executes a query and returns the page as raw row arrays, without building per-row maps.
+     */
+    @Transactional(readOnly = true)
+    public QueryResultPage executeQueryPage(String sqlQuery, Pageable pageable) {
+        return executeQueryPage(TargetDataSourceRegistry.DEFAULT, sqlQuery, pageable, null);
+    }
+
+    /**
+     * Executes a query against a named data source, see {@link TargetDataSourceRegistry}.
+     */
+    @Transactional(readOnly = true)
+    public QueryResultPage executeQueryPage(String dataSource, String sqlQuery, Pageable pageable, String continuationToken) {
         StopWatch stopWatch = new StopWatch();
         stopWatch.start();
-        
-        QueryResponse response = new QueryResponse();
-        response.setGeneratedSql(sqlQuery);
-        response.setTimestamp(Instant.now());
 
-        try {
+        QueryResultPage resultPage = new QueryResultPage();
+        resultPage.setGeneratedSql(sqlQuery);
+        resultPage.setTimestamp(Instant.now());
+        long rowsReturned = -1;
+        String executedSql = sqlQuery;
+        CancellationToken token = CancellationToken.current();
+        // Synthetic warm-up executions are kept out of the metrics, statistics and plan capture
+        boolean recorded = !StartupWarmupService.isWarmingUp();
+        MeterRegistry meters = recorded ? meterRegistry : UNRECORDED;
+
+        try (CancellationToken.Registration ignored = killOnCancel(dataSource)) {
             validateSqlQuery(sqlQuery);
             log.info("Executing SQL query: {}", sqlQuery);
 
-            // Create count query for pagination
-            String countSql = "SELECT COUNT(*) FROM (" + sqlQuery + ") as count_query";
-            Query countQuery = entityManager.createNativeQuery(countSql);
-            long total = ((Number) countQuery.getSingleResult()).longValue();
-
-            // Create the main query with pagination
-            Query query = entityManager.createNativeQuery(sqlQuery);
-            query.setFirstResult((int) pageable.getOffset());
-            query.setMaxResults(pageable.getPageSize());
-            
-            // Execute query and process results
-            List<Object[]> results = query.getResultList();
-            List<Map<String, Object>> resultMaps = convertResultsToMap(results);
-
-            // Build response
-            response.setResults(resultMaps);
-            response.setPage(createPageInfo(pageable, total));
-            response.setExecutionMetrics(createExecutionMetrics(stopWatch, results.size(), "SUCCESS"));
+            // Aggregates that a summary table answers read from it instead, and literals from a
+            // known template are bound as prepared statement parameters
+            String routedSql = summaryTableService.route(dataSource, sqlQuery);
+            executedSql = routedSql;
+            SqlTemplateService.PreparedSql preparedSql = sqlTemplateService.prepare(routedSql);
+            boolean jdbcStyle = !TargetDataSourceRegistry.isDefault(dataSource);
+            String executableSql = jdbcStyle ? preparedSql.jdbcSql() : preparedSql.sql();
+
+            // Large aggregates are computed whole by key range in parallel and then paged in memory
+            Optional<List<Object[]>> parallelRows = continuationToken == null
+                    ? parallelAggregateExecutor.execute(dataSource, routedSql)
+                    : Optional.empty();
+
+            // Ordered queries are paged by key from the first page on; other pages use OFFSET
+            Optional<KeysetPaginator.Plan> keysetPlan = parallelRows.isEmpty() && (continuationToken != null || pageable.getOffset() == 0)
+                    ? keysetPaginator.plan(dataSource, executableSql)
+                    : Optional.empty();
+            if (continuationToken != null && keysetPlan.isEmpty()) {
+                throw new QueryExecutionException("This query cannot be continued with a token; request a page number instead");
+            }
+
+            List<Object[]> results;
+            QueryResponse.PageInfo pageInfo;
+            if (parallelRows.isPresent()) {
+                List<Object[]> rows = parallelRows.get();
+                int from = (int) Math.min(pageable.getOffset(), rows.size());
+                results = new ArrayList<>(rows.subList(from, Math.min(rows.size(), from + pageable.getPageSize())));
+                pageInfo = createPageInfo(pageable, rows.size());
+                meters.counter("query.pagination", "mode", "parallel").increment();
+            } else if (keysetPlan.isPresent()) {
+                KeysetPaginator.Plan plan = keysetPlan.get();
+                KeysetPaginator.Cursor cursor = continuationToken != null
+                        ? keysetPaginator.decode(sqlQuery, continuationToken)
+                        : null;
+                int pageNumber = cursor != null ? cursor.page() : 0;
+                long total = cursor != null ? cursor.total() : count(dataSource, executableSql, preparedSql.parameters());
+
+                KeysetPaginator.PageQuery pageQuery = plan.pageQuery(cursor, preparedSql.parameters().size(), jdbcStyle);
+                List<Object> parameters = new ArrayList<>(preparedSql.parameters());
+                parameters.addAll(pageQuery.parameters());
+
+                // One extra row tells whether there is a next page
+                List<Object[]> rows = fetch(dataSource, pageQuery.sql(), parameters, 0, pageable.getPageSize() + 1);
+                boolean hasNext = rows.size() > pageable.getPageSize();
+
+                // The trailing sort key columns are not part of the result
+                results = new ArrayList<>(Math.min(rows.size(), pageable.getPageSize()));
+                Object[] lastKey = null;
+                for (Object[] row : rows.subList(0, Math.min(rows.size(), pageable.getPageSize()))) {
+                    int width = row.length - plan.getKeyCount();
+                    results.add(Arrays.copyOf(row, width));
+                    lastKey = Arrays.copyOfRange(row, width, row.length);
+                }
+
+                pageInfo = new QueryResponse.PageInfo(pageNumber, pageable.getPageSize(), total);
+                if (hasNext && lastKey != null) {
+                    pageInfo.setContinuationToken(keysetPaginator.encode(sqlQuery, pageNumber + 1, total, lastKey));
+                }
+                meters.counter("query.pagination", "mode", "keyset").increment();
+            } else {
+                long total = count(dataSource, executableSql, preparedSql.parameters());
+                results = fetch(dataSource, executableSql, preparedSql.parameters(), pageable.getOffset(), pageable.getPageSize());
+                pageInfo = createPageInfo(pageable, total);
+                meters.counter("query.pagination", "mode", "offset").increment();
+            }
+
+            // Build response; the time is only known once the watch is stopped
+            stopWatch.stop();
+            resultPage.setRows(results);
+            resultPage.setPage(pageInfo);
+            resultPage.setExecutionMetrics(createExecutionMetrics(stopWatch, results.size(), "SUCCESS"));
 
             // Record successful execution
-            meterRegistry.counter("query.execution", "status", "success").increment();
-            
-            return response;
+            meters.counter("query.execution", "status", "success").increment();
+            rowsReturned = results.size();
+
+            return resultPage;
 
         } catch (Exception e) {
+            if (token != null && token.isCancelled()) {
+                meters.counter("query.execution", "status", "cancelled").increment();
+                throw new QueryCancelledException(token.getReason());
+            }
             log.error("Error executing SQL query: {}", sqlQuery, e);
-            response.setExecutionMetrics(createExecutionMetrics(stopWatch, 0, "FAILED"));
-            response.setError("Error executing query: " + e.getMessage());
-            
+
             // Record failed execution
-            meterRegistry.counter("query.execution", "status", "failed", "error", e.getClass().getSimpleName())
+            meters.counter("query.execution", "status", "failed", "error", e.getClass().getSimpleName())
                     .increment();
-                    
+
             throw new QueryExecutionException("Failed to execute query: " + e.getMessage(), e);
         } finally {
-            stopWatch.stop();
-            queryExecutionTimer.record(stopWatch.getTotalTimeMillis(), java.util.concurrent.TimeUnit.MILLISECONDS);
+            if (stopWatch.isRunning()) {
+                stopWatch.stop();
+            }
+            if (recorded) {
+                queryExecutionTimer.record(stopWatch.getTotalTimeMillis(), java.util.concurrent.TimeUnit.MILLISECONDS);
+                sqlStatementStats.record(sqlQuery, stopWatch.getTotalTimeNanos(), rowsReturned);
+                if (rowsReturned >= 0) {
+                    slowQueryCaptureService.recordExecution(dataSource, sqlQuery, executedSql, stopWatch.getTotalTimeMillis());
+                }
+            }
             log.debug("Query execution completed in {} ms", stopWatch.getTotalTimeMillis());
         }
     }
 
+    /**
+     * Streams up to {@code maxRows} rows of a query to the consumer straight from the
+     * result cursor, so memory stays bounded regardless of the result size.
+     *
+     * @return the number of rows streamed
+     */
+    @Transactional(readOnly = true)
+    public long streamQuery(String sqlQuery, int maxRows, Consumer<Object[]> rowConsumer) {
+        validateSqlQuery(sqlQuery);
+        log.info("Streaming SQL query: {}", sqlQuery);
+
+        SqlTemplateService.PreparedSql preparedSql = sqlTemplateService.prepare(
+                summaryTableService.route(TargetDataSourceRegistry.DEFAULT, sqlQuery));
+        Query query = createNativeQuery(preparedSql.sql(), preparedSql.parameters());
+        // MySQL Connector/J only streams row by row with this fetch size
+        query.setHint(HibernateHints.HINT_FETCH_SIZE, Integer.MIN_VALUE);
+        query.setMaxResults(maxRows);
+
+        long count = 0;
+        try (CancellationToken.Registration ignored = killOnCancel(TargetDataSourceRegistry.DEFAULT);
+             Stream<?> rows = query.getResultStream()) {
+            Iterator<?> iterator = rows.iterator();
+            while (iterator.hasNext()) {
+                Object row = iterator.next();
+                rowConsumer.accept(row instanceof Object[] array ? array : new Object[]{row});
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Streams a query from a named data source, see {@link #streamQuery(String, int, Consumer)}.
+     */
+    @Transactional(readOnly = true)
+    public long streamQuery(String dataSource, String sqlQuery, int maxRows, Consumer<Object[]> rowConsumer) {
+        if (TargetDataSourceRegistry.isDefault(dataSource)) {
+            return streamQuery(sqlQuery, maxRows, rowConsumer);
+        }
+        validateSqlQuery(sqlQuery);
+        log.info("Streaming SQL query from {}: {}", dataSource, sqlQuery);
+
+        SqlTemplateService.PreparedSql preparedSql = sqlTemplateService.prepare(sqlQuery);
+        long[] count = new long[1];
+        targetDataSources.jdbcTemplate(dataSource).query(connection -> {
+            PreparedStatement statement = cancellable(connection.prepareStatement(
+                    preparedSql.jdbcSql(), ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY));
+            // Only MySQL Connector/J needs the special fetch size to stream row by row
+            boolean mysql = connection.getMetaData().getDatabaseProductName().toLowerCase(Locale.ROOT).contains("mysql");
+            statement.setFetchSize(mysql ? Integer.MIN_VALUE : 1000);
+            statement.setMaxRows(maxRows);
+            for (int i = 0; i < preparedSql.parameters().size(); i++) {
+                statement.setObject(i + 1, preparedSql.parameters().get(i));
+            }
+            return statement;
+        }, (RowCallbackHandler) rs -> {
+            int columns = rs.getMetaData().getColumnCount();
+            Object[] row = new Object[columns];
+            for (int c = 0; c < columns; c++) {
+                row[c] = rs.getObject(c + 1);
+            }
+            rowConsumer.accept(row);
+            count[0]++;
+        });
+        return count[0];
+    }
+
+    /**
+     * Runs a statement that is already parameterized, see {@link SqlTemplateService#prepare}, and
+     * returns up to {@code maxRows} rows.
+     */
+    @Transactional(readOnly = true)
+    public List<Object[]> queryRows(String dataSource, String sqlQuery, List<Object> parameters, int maxRows) {
+        validateSqlQuery(sqlQuery);
+        try (CancellationToken.Registration ignored = killOnCancel(dataSource)) {
+            return fetch(dataSource, sqlQuery, parameters, 0, maxRows);
+        }
+    }
+
+    /**
+     * Checks that a statement passes the safety rules and that MySQL can plan it, without running it.
+     */
+    @Transactional(readOnly = true)
+    public void validateExecutable(String sqlQuery) {
+        validateSqlQuery(sqlQuery);
+        entityManager.createNativeQuery("EXPLAIN " + sqlQuery).getResultList();
+    }
+
+    /**
+     * Checks a statement against a named data source, see {@link #validateExecutable(String)}.
+     */
+    @Transactional(readOnly = true)
+    public void validateExecutable(String dataSource, String sqlQuery) {
+        if (TargetDataSourceRegistry.isDefault(dataSource)) {
+            validateExecutable(sqlQuery);
+            return;
+        }
+        validateSqlQuery(sqlQuery);
+        targetDataSources.jdbcTemplate(dataSource).queryForList("EXPLAIN " + sqlQuery);
+    }
+
+    /**
+     * The optimizer's estimated cost of a statement from {@code EXPLAIN FORMAT=JSON}, which also
+     * validates it like {@link #validateExecutable(String, String)}.
+     *
+     * @return the estimated cost, or {@link Double#NaN} when MySQL reports none for the plan
+     */
+    @Transactional(readOnly = true)
+    public double explainCost(String dataSource, String sqlQuery) {
+        validateSqlQuery(sqlQuery);
+        String explainSql = "EXPLAIN FORMAT=JSON " + sqlQuery;
+        Object plan = TargetDataSourceRegistry.isDefault(dataSource)
+                ? entityManager.createNativeQuery(explainSql).getSingleResult()
+                : targetDataSources.jdbcTemplate(dataSource).queryForObject(explainSql, String.class);
+        String json = plan instanceof byte[] bytes ? new String(bytes, StandardCharsets.UTF_8) : String.valueOf(plan);
+        JSONObject costInfo = new JSONObject(json).getJSONObject("query_block").optJSONObject("cost_info");
+        return costInfo != null ? costInfo.optDouble("query_cost", Double.NaN) : Double.NaN;
+    }
+
+    private long count(String dataSource, String sql, List<Object> parameters) {
+        String countSql = "SELECT COUNT(*) FROM (" + sql + ") as count_query";
+        if (TargetDataSourceRegistry.isDefault(dataSource)) {
+            return ((Number) createNativeQuery(countSql, parameters).getSingleResult()).longValue();
+        }
+        return targetDataSources.jdbcTemplate(dataSource).query(
+                connection -> bind(cancellable(connection.prepareStatement(countSql)), parameters),
+                rs -> rs.next() ? rs.getLong(1) : 0L);
+    }
+
+    private List<Object[]> fetch(String dataSource, String sql, List<Object> parameters, long offset, int limit) {
+        if (!TargetDataSourceRegistry.isDefault(dataSource)) {
+            return queryTargetPage(targetDataSources.jdbcTemplate(dataSource), sql, parameters, offset, limit);
+        }
+
+        // Hibernate appends its own LIMIT, which cannot follow one already in the statement
+        String pagedSql = SqlClauses.parse(sql).has(SqlClauses.LIMIT) ? "SELECT * FROM (" + sql + ") AS limited_query" : sql;
+        Query query = createNativeQuery(pagedSql, parameters);
+        query.setFirstResult((int) offset);
+        query.setMaxResults(limit);
+
+        // Single-column queries come back as bare values rather than arrays
+        return ((List<?>) query.getResultList()).stream()
+                .map(row -> row instanceof Object[] array ? array : new Object[]{row})
+                .collect(Collectors.toList());
+    }
+
+    private List<Object[]> queryTargetPage(JdbcTemplate jdbcTemplate, String sql, List<Object> parameters,
+                                           long offset, int limit) {
+        return jdbcTemplate.query(connection -> {
+            PreparedStatement statement = bind(cancellable(connection.prepareStatement(sql)), parameters);
+            statement.setMaxRows((int) offset + limit);
+            return statement;
+        }, rs -> {
+            List<Object[]> rows = new ArrayList<>();
+            int columns = rs.getMetaData().getColumnCount();
+            for (long skipped = 0; skipped < offset && rs.next(); skipped++) {
+                // Skip the rows of earlier pages
+            }
+            while (rs.next()) {
+                Object[] row = new Object[columns];
+                for (int c = 0; c < columns; c++) {
+                    row[c] = rs.getObject(c + 1);
+                }
+                rows.add(row);
+            }
+            return rows;
+        });
+    }
+
+    private static PreparedStatement bind(PreparedStatement statement, List<Object> parameters) throws SQLException {
+        for (int i = 0; i < parameters.size(); i++) {
+            statement.setObject(i + 1, parameters.get(i));
+        }
+        return statement;
+    }
+
+    /**
+     * Kills the statement running on the current JPA connection when the request is cancelled.
+     * Statements on target data sources are cancelled one by one instead, see
+     * {@link #cancellable(PreparedStatement)}, since each may run on a different pooled connection.
+     */
+    private CancellationToken.Registration killOnCancel(String dataSource) {
+        CancellationToken token = CancellationToken.current();
+        if (token == null || !TargetDataSourceRegistry.isDefault(dataSource)) {
+            return null;
+        }
+        token.throwIfCancelled();
+        // The transaction keeps the connection, so this is the one the statements will run on
+        long connectionId = ((Number) entityManager.createNativeQuery("SELECT CONNECTION_ID()").getSingleResult()).longValue();
+        return token.onCancel(() -> {
+            targetDataSources.jdbcTemplate(TargetDataSourceRegistry.DEFAULT).execute("KILL QUERY " + connectionId);
+            meterRegistry.counter("query.cancelled.work", "stage", "execution").increment();
+        });
+    }
+
+    /**
+     * Registers {@link Statement#cancel()} for when the request is cancelled; it has no effect
+     * once the statement has finished.
+     */
+    private PreparedStatement cancellable(PreparedStatement statement) {
+        CancellationToken token = CancellationToken.current();
+        if (token != null) {
+            token.throwIfCancelled();
+            token.onCancel(() -> {
+                try {
+                    statement.cancel();
+                    meterRegistry.counter("query.cancelled.work", "stage", "execution").increment();
+                } catch (SQLException e) {
+                    log.debug("Could not cancel statement: {}", e.getMessage());
+                }
+            });
+        }
+        return statement;
+    }
+
+    private Query createNativeQuery(String sql, List<Object> parameters) {
+        Query query = entityManager.createNativeQuery(sql);
+        for (int i = 0; i < parameters.size(); i++) {
+            query.setParameter(i + 1, parameters.get(i));
+        }
+        return query;
+    }
+
     private QueryResponse.PageInfo createPageInfo(Pageable pageable, long total) {
         return new QueryResponse.PageInfo(
                 pageable.getPageNumber(),
@@ -133,7 +495,7 @@ public class QueryExecutionService {
     private Map<String, Object> convertRowToMap(Object[] row) {
         Map<String, Object> rowMap = new LinkedHashMap<>();
         for (int i = 0; i < row.length; i++) {
-            rowMap.put("column_" + (i + 1), convertValue(row[i]));
+            rowMap.put(QueryResultPage.columnName(i), convertValue(row[i]));
         }
         return rowMap;
     }
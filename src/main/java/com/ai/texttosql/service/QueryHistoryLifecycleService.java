@@ -0,0 +1,272 @@
+package com.ai.texttosql.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps the partitioned {@code query_history} table bounded.
+ * <p>
+ * The table is range-partitioned by month (see V3 migration). This job creates the
+ * partitions for upcoming months ahead of time, and once a partition falls outside the
+ * retention window it is streamed to a gzip'd JSON-lines archive and dropped, which is a
+ * metadata-only operation instead of a row-by-row DELETE.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class QueryHistoryLifecycleService {
+
+    private static final String TABLE = "query_history";
+    private static final String FUTURE_PARTITION = "p_future";
+    private static final Pattern PARTITION_NAME = Pattern.compile("p_[a-z0-9_]+");
+    private static final DateTimeFormatter PARTITION_SUFFIX = DateTimeFormatter.ofPattern("yyyyMM");
+
+    private final JdbcTemplate jdbcTemplate;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${app.history.lifecycle.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.history.lifecycle.retention-months:6}")
+    private int retentionMonths;
+
+    @Value("${app.history.lifecycle.partitions-ahead:2}")
+    private int partitionsAhead;
+
+    @Value("${app.history.lifecycle.archive-dir:archive/query-history}")
+    private String archiveDir;
+
+    @Scheduled(cron = "${app.history.lifecycle.cron:0 30 2 * * *}")
+    public void runLifecycle() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            ensureFuturePartitions();
+            archiveAndDropExpiredPartitions();
+        } catch (Exception e) {
+            log.error("Query history lifecycle run failed: {}", e.getMessage(), e);
+            meterRegistry.counter("query.history.lifecycle", "status", "failed").increment();
+        }
+    }
+
+    /**
+     * Splits monthly partitions out of {@code p_future} so that the current month and the
+     * next {@code partitionsAhead} months each have their own partition.
+     */
+    public void ensureFuturePartitions() {
+        List<PartitionInfo> partitions = loadPartitions();
+        long highestBound = partitions.stream()
+                .filter(p -> !p.isMaxValue())
+                .mapToLong(PartitionInfo::upperBound)
+                .max()
+                .orElse(0L);
+
+        YearMonth current = YearMonth.now(ZoneOffset.UTC);
+        List<String> definitions = new ArrayList<>();
+        for (int i = 0; i <= partitionsAhead; i++) {
+            YearMonth month = current.plusMonths(i);
+            long bound = epochSecondsAt(month.plusMonths(1).atDay(1));
+            if (bound > highestBound) {
+                definitions.add("PARTITION " + partitionName(month) + " VALUES LESS THAN (" + bound + ")");
+                highestBound = bound;
+            }
+        }
+
+        if (definitions.isEmpty()) {
+            return;
+        }
+
+        definitions.add("PARTITION " + FUTURE_PARTITION + " VALUES LESS THAN MAXVALUE");
+        jdbcTemplate.execute("ALTER TABLE " + TABLE + " REORGANIZE PARTITION " + FUTURE_PARTITION
+                + " INTO (" + String.join(", ", definitions) + ")");
+        log.info("Created {} query_history partition(s) ahead of time", definitions.size() - 1);
+    }
+
+    /**
+     * Archives and drops every partition whose upper bound is older than the retention window.
+     */
+    public void archiveAndDropExpiredPartitions() {
+        long cutoff = epochSecondsAt(YearMonth.now(ZoneOffset.UTC).minusMonths(retentionMonths).atDay(1));
+
+        for (PartitionInfo partition : loadPartitions()) {
+            if (partition.isMaxValue() || partition.upperBound() > cutoff) {
+                continue;
+            }
+            long rows = archivePartition(partition.name());
+            jdbcTemplate.execute("ALTER TABLE " + TABLE + " DROP PARTITION " + partition.name());
+
+            meterRegistry.counter("query.history.partitions.dropped").increment();
+            meterRegistry.counter("query.history.rows.archived").increment(rows);
+            log.info("Archived {} rows and dropped query_history partition {}", rows, partition.name());
+        }
+    }
+
+    /**
+     * Streams one partition into {@code <archiveDir>/query_history-<partition>.jsonl.gz}.
+     * <p>
+     * SQL text and explanations are deduplicated: the first occurrence of a text is written as
+     * a {@code "text"} record with a numeric ref and later rows only carry the ref. Generated
+     * explanations repeat the SQL almost verbatim, so this removes most of the archive volume.
+     */
+    long archivePartition(String partitionName) {
+        requireValidPartitionName(partitionName);
+        Path dir = Paths.get(archiveDir);
+        Path target = dir.resolve(TABLE + "-" + partitionName + ".jsonl.gz");
+        Path temp = dir.resolve(target.getFileName() + ".tmp");
+
+        try {
+            Files.createDirectories(dir);
+            long rows;
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                    new GZIPOutputStream(Files.newOutputStream(temp)), StandardCharsets.UTF_8))) {
+                ArchiveEncoder encoder = new ArchiveEncoder(writer);
+                jdbcTemplate.query(con -> {
+                    PreparedStatement ps = con.prepareStatement(
+                            "SELECT id, natural_language_query, generated_sql, explanation, user_id, timestamp, " +
+                                    "execution_time_millis, result_count, status, execution_metrics " +
+                                    "FROM " + TABLE + " PARTITION (" + partitionName + ")",
+                            ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                    // MySQL Connector/J streams row by row only with this fetch size
+                    ps.setFetchSize(Integer.MIN_VALUE);
+                    return ps;
+                }, encoder::writeRow);
+                rows = encoder.getRowCount();
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return rows;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to archive partition " + partitionName, e);
+        }
+    }
+
+    private List<PartitionInfo> loadPartitions() {
+        return jdbcTemplate.query(
+                "SELECT partition_name, partition_description FROM information_schema.partitions " +
+                        "WHERE table_schema = DATABASE() AND table_name = ? AND partition_name IS NOT NULL " +
+                        "ORDER BY partition_ordinal_position",
+                (rs, rowNum) -> new PartitionInfo(rs.getString(1), rs.getString(2)),
+                TABLE);
+    }
+
+    private static String partitionName(YearMonth month) {
+        return "p_" + month.format(PARTITION_SUFFIX);
+    }
+
+    private static long epochSecondsAt(LocalDate date) {
+        return date.atStartOfDay(ZoneOffset.UTC).toEpochSecond();
+    }
+
+    private static void requireValidPartitionName(String partitionName) {
+        if (partitionName == null || !PARTITION_NAME.matcher(partitionName).matches()) {
+            throw new IllegalArgumentException("Invalid partition name: " + partitionName);
+        }
+    }
+
+    private record PartitionInfo(String name, String description) {
+
+        boolean isMaxValue() {
+            return "MAXVALUE".equalsIgnoreCase(description);
+        }
+
+        long upperBound() {
+            return Long.parseLong(description.trim());
+        }
+    }
+
+    private static class ArchiveEncoder {
+
+        private final Writer writer;
+        private final Map<String, Integer> textRefs = new HashMap<>();
+        private long rowCount;
+
+        ArchiveEncoder(Writer writer) {
+            this.writer = writer;
+        }
+
+        void writeRow(ResultSet rs) throws java.sql.SQLException {
+            JSONObject row = new JSONObject();
+            row.put("type", "row");
+            row.put("id", toUuid(rs.getBytes("id")));
+            row.put("naturalLanguageQuery", rs.getString("natural_language_query"));
+            row.put("sqlRef", ref(rs.getString("generated_sql")));
+            row.put("explanationRef", ref(rs.getString("explanation")));
+            row.put("userId", rs.getString("user_id"));
+            Timestamp timestamp = rs.getTimestamp("timestamp");
+            row.put("timestamp", timestamp != null ? timestamp.toInstant().toString() : JSONObject.NULL);
+            row.put("executionTimeMillis", rs.getObject("execution_time_millis"));
+            row.put("resultCount", rs.getObject("result_count"));
+            row.put("status", rs.getString("status"));
+            row.put("executionMetrics", rs.getString("execution_metrics"));
+            writeLine(row);
+            rowCount++;
+        }
+
+        long getRowCount() {
+            return rowCount;
+        }
+
+        private Object ref(String text) {
+            if (text == null) {
+                return JSONObject.NULL;
+            }
+            Integer existing = textRefs.get(text);
+            if (existing != null) {
+                return existing;
+            }
+            int ref = textRefs.size();
+            textRefs.put(text, ref);
+            writeLine(new JSONObject().put("type", "text").put("ref", ref).put("value", text));
+            return ref;
+        }
+
+        private void writeLine(JSONObject json) {
+            try {
+                writer.write(json.toString());
+                writer.write('\n');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private static String toUuid(byte[] bytes) {
+            if (bytes == null || bytes.length != 16) {
+                return null;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            return new UUID(buffer.getLong(), buffer.getLong()).toString();
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.ai.texttosql.service;
 
+import com.ai.texttosql.config.TargetDataSourceRegistry;
 import com.ai.texttosql.model.QueryHistory;
 import com.ai.texttosql.model.QueryResponse;
 import com.ai.texttosql.repository.QueryHistoryRepository;
@@ -20,18 +21,27 @@ import java.util.*;
 public class QueryHistoryService {
 
     private static final int MAX_RECENT_QUERIES = 50;
+    private static final int MAX_SESSION_LENGTH = 50;
     
     private final QueryHistoryRepository queryHistoryRepository;
+    private final SlowQueryCaptureService slowQueryCaptureService;
 
+    /**
+     * Saves an executed query.
+     *
+     * @param dataSource the data source its SQL ran against, the application database when null
+     */
     @Transactional
-    public QueryHistory saveQuery(QueryResponse queryResponse, String userId) {
+    public QueryHistory saveQuery(QueryResponse queryResponse, String dataSource, String userId) {
         try {
             QueryHistory queryHistory = new QueryHistory();
             queryHistory.setNaturalLanguageQuery(queryResponse.getNaturalLanguageQuery());
             queryHistory.setGeneratedSql(queryResponse.getGeneratedSql());
+            queryHistory.setDataSource(TargetDataSourceRegistry.resolveName(dataSource));
             queryHistory.setExplanation(queryResponse.getExplanation());
             queryHistory.setTimestamp(queryResponse.getTimestamp() != null ? queryResponse.getTimestamp() : Instant.now());
             queryHistory.setId(UUID.randomUUID());
+            queryHistory.setParentQueryId(queryResponse.getPreviousQueryId());
 
             // Extract execution metrics from the nested object
             if (queryResponse.getExecutionMetrics() != null) {
@@ -48,7 +58,9 @@ public class QueryHistoryService {
             }
 
             queryHistory.setUserId(userId);
-            return queryHistoryRepository.save(queryHistory);
+            QueryHistory saved = queryHistoryRepository.save(queryHistory);
+            slowQueryCaptureService.onSaved(saved.getId(), saved.getGeneratedSql());
+            return saved;
         } catch (Exception e) {
             log.error("Failed to save query history: {}", e.getMessage(), e);
             throw new RuntimeException("Failed to save query history", e);
@@ -65,6 +77,23 @@ public class QueryHistoryService {
         return queryHistoryRepository.findById(queryId);
     }
 
+    /**
+     * The conversation a query belongs to: the queries it followed up on, oldest first, and
+     * the query itself.
+     */
+    @Transactional(readOnly = true)
+    public List<QueryHistory> getSession(UUID queryId) {
+        LinkedList<QueryHistory> session = new LinkedList<>();
+        Set<UUID> seen = new HashSet<>();
+        Optional<QueryHistory> current = queryHistoryRepository.findById(queryId);
+        while (current.isPresent() && seen.add(current.get().getId()) && session.size() < MAX_SESSION_LENGTH) {
+            session.addFirst(current.get());
+            UUID parentId = current.get().getParentQueryId();
+            current = parentId != null ? queryHistoryRepository.findById(parentId) : Optional.empty();
+        }
+        return session;
+    }
+
     @Transactional(readOnly = true)
     public Page<QueryHistory> getQueryHistoryByUserID(String userId, Pageable pageable) {
         return queryHistoryRepository.findByUserIdOrderByTimestampDesc(userId, pageable);
@@ -0,0 +1,419 @@
+package com.ai.texttosql.service;
+
+import com.ai.texttosql.config.TargetDataSourceRegistry;
+import com.ai.texttosql.model.QueryHistory;
+import com.ai.texttosql.model.QueryResultPage;
+import com.ai.texttosql.model.QueryWatch;
+import com.ai.texttosql.model.SchemaInfo;
+import com.ai.texttosql.repository.QueryWatchRepository;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityNotFoundException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.support.CronExpression;
+import org.springframework.stereotype.Service;
+
+import java.time.DateTimeException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Runs saved queries on a schedule and posts what changed since the previous run to Slack.
+ * <p>
+ * Each watch keeps a {@link WatchSnapshot} of its last result, a hash per row, instead of the
+ * rows themselves, and posts the added, changed and removed rows. When the watched statement reads
+ * its rows by an auto-increment key (see {@link WatchedQuery}), runs in between full ones only read
+ * the rows above the highest key seen. Every {@code app.watch.full-run-every} runs the whole
+ * result is read again, which also catches rows that were updated or deleted meanwhile.
+ * <p>
+ * Watches run on the data source their query ran against.
+ * A run is claimed in the database before it starts, so instances sharing it do not run a watch
+ * twice.
+ */
+@Slf4j
+@Service
+public class QueryWatchService {
+
+    private static final int MAX_ERROR_LENGTH = 1000;
+
+    private final QueryWatchRepository queryWatchRepository;
+    private final QueryHistoryService queryHistoryService;
+    private final QueryExecutionService queryExecutionService;
+    private final QueryCancellationService queryCancellationService;
+    private final SchemaAnalysisService schemaAnalysisService;
+    private final SlackMessagePoster slackMessagePoster;
+    private final SlackResultRenderer slackResultRenderer;
+    private final TargetDataSourceRegistry targetDataSources;
+    private final MeterRegistry meterRegistry;
+    private final DistributionSummary stateSize;
+    private final ExecutorService runner;
+    private final Semaphore slots;
+
+    private final boolean enabled;
+    private final int maxRows;
+    private final int maxPostedRows;
+    private final int fullRunEvery;
+    private final Duration minInterval;
+    private final Duration timeout;
+    private final String defaultTimeZone;
+    private final int maxPerChannel;
+    private final boolean postUnchanged;
+
+    public QueryWatchService(QueryWatchRepository queryWatchRepository,
+                             QueryHistoryService queryHistoryService,
+                             QueryExecutionService queryExecutionService,
+                             QueryCancellationService queryCancellationService,
+                             SchemaAnalysisService schemaAnalysisService,
+                             SlackMessagePoster slackMessagePoster,
+                             SlackResultRenderer slackResultRenderer,
+                             TargetDataSourceRegistry targetDataSources,
+                             MeterRegistry meterRegistry,
+                             @Value("${app.watch.enabled:true}") boolean enabled,
+                             @Value("${app.watch.max-rows:100000}") int maxRows,
+                             @Value("${app.watch.max-posted-rows:20}") int maxPostedRows,
+                             @Value("${app.watch.full-run-every:24}") int fullRunEvery,
+                             @Value("${app.watch.min-interval:15m}") Duration minInterval,
+                             @Value("${app.watch.parallelism:2}") int parallelism,
+                             @Value("${app.watch.timeout:10m}") Duration timeout,
+                             @Value("${app.watch.default-time-zone:UTC}") String defaultTimeZone,
+                             @Value("${app.watch.max-per-channel:20}") int maxPerChannel,
+                             @Value("${app.watch.post-unchanged:false}") boolean postUnchanged) {
+        this.queryWatchRepository = queryWatchRepository;
+        this.queryHistoryService = queryHistoryService;
+        this.queryExecutionService = queryExecutionService;
+        this.queryCancellationService = queryCancellationService;
+        this.schemaAnalysisService = schemaAnalysisService;
+        this.slackMessagePoster = slackMessagePoster;
+        this.slackResultRenderer = slackResultRenderer;
+        this.targetDataSources = targetDataSources;
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.maxRows = maxRows;
+        this.maxPostedRows = maxPostedRows;
+        this.fullRunEvery = fullRunEvery;
+        this.minInterval = minInterval;
+        this.timeout = timeout;
+        this.defaultTimeZone = defaultTimeZone;
+        this.maxPerChannel = maxPerChannel;
+        this.postUnchanged = postUnchanged;
+        this.slots = new Semaphore(parallelism);
+        this.runner = Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "query-watch");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.stateSize = DistributionSummary.builder("watch.state.size")
+                .description("Size of the row hashes kept for a watch after a run")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Watches a saved query, posting its changes to a channel.
+     *
+     * @param schedule Spring cron expression such as {@code 0 0 8 * * MON-FRI} or {@code @daily}
+     * @param timeZone zone the schedule is read in, {@code app.watch.default-time-zone} when null
+     */
+    public QueryWatch create(UUID queryId, String channelId, String schedule, String timeZone, String createdBy) {
+        QueryHistory query = queryHistoryService.getQueryById(queryId)
+                .orElseThrow(() -> new EntityNotFoundException("Query not found with ID: " + queryId));
+        if (query.getGeneratedSql() == null || query.getGeneratedSql().isBlank()) {
+            throw new IllegalArgumentException("Query " + queryId + " has no SQL to watch");
+        }
+        if (channelId == null || channelId.isBlank()) {
+            throw new IllegalArgumentException("A watch needs a Slack channel to post to");
+        }
+        if (!slackMessagePoster.isEnabled()) {
+            throw new IllegalStateException("Watches post to Slack and need app.slack.bot-token to be set");
+        }
+        if (queryWatchRepository.findByChannelIdOrderByCreatedAtAsc(channelId).size() >= maxPerChannel) {
+            throw new IllegalArgumentException("A channel can have at most " + maxPerChannel + " watches");
+        }
+
+        String zone = timeZone == null || timeZone.isBlank() ? defaultTimeZone : timeZone.strip();
+        CronExpression cron = cron(schedule.strip());
+        ZoneId zoneId = zone(zone);
+        Instant first = next(cron, zoneId, Instant.now());
+        Instant second = first != null ? next(cron, zoneId, first) : null;
+        if (first == null) {
+            throw new IllegalArgumentException("Schedule never runs: " + schedule);
+        }
+        if (second != null && Duration.between(first, second).compareTo(minInterval) < 0) {
+            throw new IllegalArgumentException("Schedule runs more often than every " + minInterval.toMinutes() + " minutes");
+        }
+
+        QueryWatch watch = new QueryWatch();
+        watch.setQueryId(queryId);
+        watch.setChannelId(channelId);
+        watch.setCreatedBy(createdBy);
+        watch.setSchedule(schedule.strip());
+        watch.setTimeZone(zoneId.getId());
+        watch.setStatus(QueryWatch.ACTIVE);
+        watch.setNextRunAt(first);
+        QueryWatch saved = queryWatchRepository.save(watch);
+        log.info("Watching query {} in channel {} on schedule '{}' ({})", queryId, channelId, schedule, zoneId);
+        return saved;
+    }
+
+    /**
+     * The watches of a channel, or all of them when {@code channelId} is null.
+     */
+    public List<QueryWatch> list(String channelId) {
+        return channelId != null ? queryWatchRepository.findByChannelIdOrderByCreatedAtAsc(channelId)
+                : queryWatchRepository.findAll();
+    }
+
+    /**
+     * @param channelId the channel the watch must belong to, or {@code null} for any channel
+     */
+    public void delete(UUID id, String channelId) {
+        // A watch in another channel is reported as missing rather than as someone else's
+        QueryWatch watch = queryWatchRepository.findById(id)
+                .filter(w -> channelId == null || channelId.equals(w.getChannelId()))
+                .orElseThrow(() -> new EntityNotFoundException("Watch not found with ID: " + id));
+        queryWatchRepository.delete(watch);
+    }
+
+    /**
+     * Starts the due watches there is room for; the others stay due until the next poll.
+     */
+    @Scheduled(initialDelayString = "${app.watch.initial-delay-ms:60000}",
+            fixedDelayString = "${app.watch.poll-interval-ms:60000}")
+    public void runDue() {
+        int available = slots.availablePermits();
+        if (!enabled || available == 0) {
+            return;
+        }
+        Instant now = Instant.now();
+        for (QueryWatch watch : queryWatchRepository.findDue(now, PageRequest.of(0, available))) {
+            if (!slots.tryAcquire()) {
+                return;
+            }
+            boolean started = false;
+            try {
+                Instant next;
+                try {
+                    next = next(cron(watch.getSchedule()), zone(watch.getTimeZone()), now);
+                } catch (IllegalArgumentException e) {
+                    next = null;
+                }
+                if (next == null) {
+                    // A schedule that stopped parsing or running leaves the watch paused rather than due forever
+                    log.warn("Pausing watch {} whose schedule '{}' no longer runs", watch.getId(), watch.getSchedule());
+                    watch.setStatus(QueryWatch.PAUSED);
+                    queryWatchRepository.save(watch);
+                    continue;
+                }
+                if (queryWatchRepository.claim(watch.getId(), watch.getNextRunAt(), next) == 0) {
+                    continue;
+                }
+                runner.execute(() -> {
+                    try {
+                        run(watch);
+                    } finally {
+                        slots.release();
+                    }
+                });
+                started = true;
+            } catch (Exception e) {
+                log.error("Could not start watch {}: {}", watch.getId(), e.getMessage(), e);
+            } finally {
+                if (!started) {
+                    slots.release();
+                }
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        runner.shutdownNow();
+    }
+
+    /**
+     * Runs a watch once, posts its changes and stores the new snapshot. The snapshot is only
+     * stored after the post went out, so a failed post is reported again by the next run.
+     */
+    void run(QueryWatch watch) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String mode = "full";
+        Instant startedAt = Instant.now();
+        CancellationToken token = queryCancellationService.open(timeout);
+        try (CancellationToken.Scope ignored = token.activate()) {
+            QueryHistory query = queryHistoryService.getQueryById(watch.getQueryId())
+                    .orElseThrow(() -> new EntityNotFoundException("The watched query " + watch.getQueryId() + " was deleted"));
+            String dataSource = query.getDataSource();
+            WatchedQuery watched = WatchedQuery.of(query.getGeneratedSql(), schemas(dataSource),
+                    (table, column) -> isAutoIncrement(dataSource, table, column));
+            WatchSnapshot previous = WatchSnapshot.decode(watch.getStateFormat(), watch.getRowState());
+
+            // Once a result turned out to have repeated keys, its rows are compared whole from then on
+            int keyColumn = WatchSnapshot.ROWS.equals(watch.getStateFormat()) ? -1 : watched.keyColumn();
+            boolean incremental = watched.isIncremental() && keyColumn >= 0 && previous != null && previous.isKeyed()
+                    && watch.getWatermark() != null && watch.getIncrementalRuns() + 1 < fullRunEvery;
+            mode = incremental ? "incremental" : "full";
+            String sql = incremental ? watched.after(watch.getWatermark()) : query.getGeneratedSql();
+            int limit = incremental ? Math.max(0, maxRows - previous.size()) : maxRows;
+
+            WatchSnapshot.Comparison comparison = WatchSnapshot.compare(previous, keyColumn, incremental, maxPostedRows);
+            long rows = queryExecutionService.streamQuery(dataSource, sql, limit + 1, comparison::accept);
+            if (rows > limit) {
+                throw new IllegalStateException("The result has more than " + maxRows + " rows, the most a watch compares");
+            }
+            WatchSnapshot.Delta delta = comparison.finish();
+
+            String outcome = delta.baseline() ? "baseline" : delta.isEmpty() ? "unchanged" : "changed";
+            if (delta.baseline() || !delta.isEmpty() || postUnchanged) {
+                post(watch, query, delta);
+            }
+
+            byte[] state = delta.snapshot().encode();
+            Long watermark = watched.isIncremental() && delta.snapshot().isKeyed() ? delta.snapshot().maxKey() : null;
+            queryWatchRepository.updateState(watch.getId(), startedAt, null, delta.snapshot().getFormat(), state,
+                    delta.snapshot().size(), watermark, incremental ? watch.getIncrementalRuns() + 1 : 0);
+
+            stateSize.record(state.length);
+            meterRegistry.summary("watch.delta.rows", "kind", "added").record(delta.addedCount());
+            meterRegistry.summary("watch.delta.rows", "kind", "changed").record(delta.changedCount());
+            meterRegistry.summary("watch.delta.rows", "kind", "removed").record(delta.removedCount());
+            meterRegistry.counter("watch.runs", "outcome", outcome).increment();
+            log.debug("Watch {} ran {} in {}: {} rows read, +{} ~{} -{}", watch.getId(), mode,
+                    Duration.between(startedAt, Instant.now()), rows,
+                    delta.addedCount(), delta.changedCount(), delta.removedCount());
+        } catch (Exception e) {
+            log.warn("Watch {} failed: {}", watch.getId(), e.getMessage());
+            meterRegistry.counter("watch.runs", "outcome", "failed").increment();
+            String error = String.valueOf(e.getMessage());
+            queryWatchRepository.updateError(watch.getId(), startedAt,
+                    error.length() > MAX_ERROR_LENGTH ? error.substring(0, MAX_ERROR_LENGTH) : error);
+            // A watch that keeps failing says so once, not on every run
+            if (watch.getLastError() == null) {
+                postError(watch, error);
+            }
+        } finally {
+            token.close();
+            sample.stop(meterRegistry.timer("watch.run.time", "mode", mode));
+        }
+    }
+
+    private void post(QueryWatch watch, QueryHistory query, WatchSnapshot.Delta delta) {
+        List<Map<String, Object>> blocks = new ArrayList<>();
+        String summary;
+        if (delta.baseline()) {
+            summary = String.format("Watching %d rows. Changes will be posted here.", delta.snapshot().size());
+        } else if (delta.isEmpty()) {
+            summary = "No changes.";
+        } else {
+            summary = String.format("%d added, %d changed, %d removed.",
+                    delta.addedCount(), delta.changedCount(), delta.removedCount());
+        }
+        blocks.add(section("*👀 Watch:* " + question(query) + "\n" + summary));
+
+        addRows(blocks, "➕ Added", delta.added(), delta.addedCount());
+        addRows(blocks, "✏️ Changed", delta.changed(), delta.changedCount());
+        if (delta.removedCount() > 0) {
+            String keys = delta.removedKeys().stream().map(String::valueOf).collect(Collectors.joining(", "));
+            blocks.add(section("*➖ Removed (" + delta.removedCount() + ")*"
+                    + (keys.isEmpty() ? "" : "\nKeys: " + keys + more(delta.removedKeys().size(), delta.removedCount()))));
+        }
+        blocks.add(Map.of("type", "context", "elements", List.of(Map.of("type", "mrkdwn", "text",
+                "Watch `" + watch.getId() + "` · `" + watch.getSchedule() + "` (" + watch.getTimeZone() + ")"))));
+
+        for (List<Map<String, Object>> message : slackResultRenderer.splitIntoMessages(blocks)) {
+            slackMessagePoster.post(watch.getChannelId(), summary, message);
+        }
+    }
+
+    private void addRows(List<Map<String, Object>> blocks, String title, List<Object[]> rows, long count) {
+        if (count == 0) {
+            return;
+        }
+        blocks.add(section("*" + title + " (" + count + ")*" + more(rows.size(), count)));
+        List<Map<String, Object>> results = new ArrayList<>();
+        for (Object[] row : rows) {
+            Map<String, Object> result = new LinkedHashMap<>();
+            for (int i = 0; i < row.length; i++) {
+                result.put(QueryResultPage.columnName(i), row[i]);
+            }
+            results.add(result);
+        }
+        for (String chunk : slackResultRenderer.renderTableChunks(results)) {
+            blocks.add(section(chunk));
+        }
+    }
+
+    private void postError(QueryWatch watch, String error) {
+        try {
+            slackMessagePoster.post(watch.getChannelId(), "Watch failed",
+                    List.of(section("*⚠️ Watch `" + watch.getId() + "` failed:* " + error
+                            + "\nIt keeps running on its schedule.")));
+        } catch (Exception e) {
+            log.warn("Could not report the failure of watch {} to Slack: {}", watch.getId(), e.getMessage());
+        }
+    }
+
+    private static Map<String, Object> section(String text) {
+        return Map.of("type", "section", "text", Map.of("type", "mrkdwn", "text", text));
+    }
+
+    private static String question(QueryHistory query) {
+        return query.getNaturalLanguageQuery() != null ? query.getNaturalLanguageQuery() : "`" + query.getId() + "`";
+    }
+
+    private static String more(int shown, long count) {
+        return count > shown ? " _(first " + shown + " shown)_" : "";
+    }
+
+    private static CronExpression cron(String schedule) {
+        // CronExpression.parse reports a bad expression as an IllegalArgumentException already
+        return CronExpression.parse(schedule);
+    }
+
+    private static ZoneId zone(String zone) {
+        try {
+            return ZoneId.of(zone);
+        } catch (DateTimeException e) {
+            throw new IllegalArgumentException("Unknown time zone: " + zone, e);
+        }
+    }
+
+    private static Instant next(CronExpression cron, ZoneId zone, Instant after) {
+        ZonedDateTime next = cron.next(after.atZone(zone));
+        return next != null ? next.toInstant() : null;
+    }
+
+    private Function<String, SchemaInfo> schemas(String dataSource) {
+        Map<String, String> tables = schemaAnalysisService.getAllTableNames(dataSource).stream()
+                .collect(Collectors.toMap(name -> name.toLowerCase(Locale.ROOT), name -> name, (a, b) -> a));
+        return name -> {
+            String table = tables.get(name.toLowerCase(Locale.ROOT));
+            return table != null ? schemaAnalysisService.getTableSchema(dataSource, table) : null;
+        };
+    }
+
+    private boolean isAutoIncrement(String dataSource, String table, String column) {
+        Integer autoIncrement = targetDataSources.jdbcTemplate(dataSource).queryForObject("""
+                        SELECT COUNT(*) FROM information_schema.columns
+                        WHERE table_schema = DATABASE() AND table_name = ? AND column_name = ? AND extra LIKE '%auto_increment%'""",
+                Integer.class, table, column);
+        return autoIncrement != null && autoIncrement > 0;
+    }
+}
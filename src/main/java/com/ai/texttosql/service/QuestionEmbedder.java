@@ -0,0 +1,10 @@
+package com.ai.texttosql.service;
+
+/**
+ * Turns a natural language question into an embedding vector for {@link SemanticQuestionCache}.
+ * The default implementation uses Ollama; declare a {@code @Primary} bean to plug in another embedder.
+ */
+public interface QuestionEmbedder {
+
+    float[] embed(String text);
+}
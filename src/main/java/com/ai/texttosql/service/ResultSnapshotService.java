@@ -0,0 +1,318 @@
+package com.ai.texttosql.service;
+
+import com.ai.texttosql.exception.QueryExecutionException;
+import com.ai.texttosql.model.QueryResponse;
+import com.ai.texttosql.model.QueryResultPage;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Pageable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Materializes the full result of a query once into a local file, so that paging back and forth
+ * through it does not re-run the statement and its COUNT against the database.
+ * <p>
+ * The result is streamed into a compressed columnar file (see {@link ColumnarSnapshotFile}) and
+ * later pages are read from a read-only memory mapping of it. A snapshot is a point-in-time copy,
+ * so it expires a fixed time after it was taken. When the snapshots together would exceed the
+ * disk quota, the least recently read ones are deleted first. Snapshots live as long as the
+ * process: leftover files are removed at startup.
+ */
+@Slf4j
+@Service
+public class ResultSnapshotService {
+
+    private static final String FILE_SUFFIX = ".snap";
+
+    private final QueryExecutionService queryExecutionService;
+    private final MeterRegistry meterRegistry;
+    private final Timer buildTimer;
+    private final Timer pageTimer;
+    private final DistributionSummary snapshotBytes;
+    private final Map<String, Snapshot> snapshots = new ConcurrentHashMap<>();
+    private final Cache<BlockKey, Object[][]> decodedBlocks;
+    private final AtomicLong diskBytes = new AtomicLong();
+
+    private final Path directory;
+    private final Duration ttl;
+    private final long maxDiskBytes;
+    private final int maxRows;
+    private final int blockRows;
+
+    public ResultSnapshotService(QueryExecutionService queryExecutionService,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${app.snapshots.dir:${java.io.tmpdir}/text-to-sql-snapshots}") String directory,
+                                 @Value("${app.snapshots.ttl:30m}") Duration ttl,
+                                 @Value("${app.snapshots.max-disk-size:1GB}") DataSize maxDiskSize,
+                                 @Value("${app.snapshots.max-rows:1000000}") int maxRows,
+                                 @Value("${app.snapshots.block-rows:1000}") int blockRows,
+                                 @Value("${app.snapshots.decoded-block-cache-size:64}") long decodedBlockCacheSize) {
+        this.queryExecutionService = queryExecutionService;
+        this.meterRegistry = meterRegistry;
+        this.directory = Paths.get(directory);
+        this.ttl = ttl;
+        // A snapshot is mapped as a single buffer, which cannot exceed 2 GB
+        this.maxDiskBytes = Math.min(maxDiskSize.toBytes(), Integer.MAX_VALUE);
+        this.maxRows = maxRows;
+        this.blockRows = blockRows;
+        this.decodedBlocks = Caffeine.newBuilder().maximumSize(decodedBlockCacheSize).build();
+
+        this.buildTimer = Timer.builder("query.snapshot.build.time")
+                .description("Time taken to stream a full result into a snapshot file")
+                .register(meterRegistry);
+        this.pageTimer = Timer.builder("query.snapshot.page.time")
+                .description("Time taken to serve one page from a snapshot file")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+        this.snapshotBytes = DistributionSummary.builder("query.snapshot.size")
+                .description("Size of a snapshot file on disk")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        meterRegistry.gauge("query.snapshot.count", snapshots, Map::size);
+        meterRegistry.gauge("query.snapshot.disk.bytes", diskBytes);
+
+        deleteLeftoverFiles();
+    }
+
+    /**
+     * Executes a query into a new snapshot and returns the requested page from it, with the
+     * snapshot ID in its {@link QueryResponse.PageInfo}. Results over the row limit or the disk
+     * quota are not snapshotted; the page is then executed normally and carries no snapshot ID.
+     */
+    public QueryResultPage create(String dataSource, String sqlQuery, Pageable pageable) {
+        String id = UUID.randomUUID().toString();
+        Path path = directory.resolve(id + FILE_SUFFIX);
+        long start = System.nanoTime();
+
+        long bytes;
+        long rows;
+        ColumnarSnapshotFile.Reader reader;
+        try {
+            Files.createDirectories(directory);
+            try (ColumnarSnapshotFile.Writer writer = new ColumnarSnapshotFile.Writer(path, blockRows, maxDiskBytes)) {
+                // One row over the limit tells that the result was cut off
+                queryExecutionService.streamQuery(dataSource, sqlQuery, maxRows + 1, row -> {
+                    try {
+                        writer.append(row);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                if (writer.rows() > maxRows) {
+                    throw new ColumnarSnapshotFile.TooLargeException("Result has more than " + maxRows + " rows");
+                }
+                bytes = writer.finish();
+                rows = writer.rows();
+                log.debug("Snapshot {} holds {} rows in {} bytes ({} bytes uncompressed)",
+                        id, rows, bytes, writer.inflatedBytes());
+            }
+            reserve(bytes);
+            reader = ColumnarSnapshotFile.Reader.open(path);
+        } catch (Exception e) {
+            deleteFile(path);
+            IOException cause = e instanceof UncheckedIOException unchecked ? unchecked.getCause()
+                    : e instanceof IOException io ? io : null;
+            if (cause instanceof ColumnarSnapshotFile.TooLargeException) {
+                meterRegistry.counter("query.snapshot.build", "outcome", "too_large").increment();
+                log.info("Not snapshotting query: {}", cause.getMessage());
+                return queryExecutionService.executeQueryPage(dataSource, sqlQuery, pageable, null);
+            }
+            meterRegistry.counter("query.snapshot.build", "outcome", "failed").increment();
+            if (e instanceof QueryExecutionException queryExecutionException) {
+                throw queryExecutionException;
+            }
+            throw new QueryExecutionException("Failed to snapshot query: " + e.getMessage(), e);
+        }
+
+        long elapsed = System.nanoTime() - start;
+        buildTimer.record(elapsed, TimeUnit.NANOSECONDS);
+        snapshotBytes.record(bytes);
+        meterRegistry.counter("query.snapshot.build", "outcome", "success").increment();
+
+        Snapshot snapshot = new Snapshot(id, sqlQuery, path, bytes, rows, Instant.now(), reader);
+        snapshots.put(id, snapshot);
+        log.info("Created snapshot {} with {} rows ({} bytes) in {} ms",
+                id, rows, bytes, TimeUnit.NANOSECONDS.toMillis(elapsed));
+
+        QueryResultPage resultPage = readPage(snapshot, pageable);
+        resultPage.setExecutionMetrics(new QueryResponse.ExecutionMetrics(
+                TimeUnit.NANOSECONDS.toMillis(elapsed), resultPage.getRows().size(), "SUCCESS"));
+        return resultPage;
+    }
+
+    /**
+     * Serves a page of an existing snapshot without touching the database.
+     *
+     * @return empty when the snapshot does not exist or has expired
+     */
+    public Optional<QueryResultPage> page(String snapshotId, Pageable pageable) {
+        Snapshot snapshot = snapshots.get(snapshotId);
+        if (snapshot == null) {
+            meterRegistry.counter("query.snapshot.page", "result", "miss").increment();
+            return Optional.empty();
+        }
+        if (snapshot.isExpired(ttl)) {
+            remove(snapshot, "ttl");
+            meterRegistry.counter("query.snapshot.page", "result", "miss").increment();
+            return Optional.empty();
+        }
+
+        long start = System.nanoTime();
+        QueryResultPage resultPage = readPage(snapshot, pageable);
+        long elapsed = System.nanoTime() - start;
+        pageTimer.record(elapsed, TimeUnit.NANOSECONDS);
+        meterRegistry.counter("query.snapshot.page", "result", "hit").increment();
+
+        resultPage.setExecutionMetrics(new QueryResponse.ExecutionMetrics(
+                TimeUnit.NANOSECONDS.toMillis(elapsed), resultPage.getRows().size(), "SUCCESS"));
+        return Optional.of(resultPage);
+    }
+
+    @Scheduled(fixedDelayString = "${app.snapshots.cleanup-interval-ms:60000}")
+    public void evictExpired() {
+        for (Snapshot snapshot : snapshots.values()) {
+            if (snapshot.isExpired(ttl)) {
+                remove(snapshot, "ttl");
+            }
+        }
+    }
+
+    @PreDestroy
+    public void deleteAll() {
+        snapshots.values().forEach(snapshot -> remove(snapshot, "shutdown"));
+    }
+
+    private QueryResultPage readPage(Snapshot snapshot, Pageable pageable) {
+        snapshot.lastReadNanos = System.nanoTime();
+
+        long first = Math.min(pageable.getOffset(), snapshot.rows);
+        long last = Math.min(first + pageable.getPageSize(), snapshot.rows);
+        List<Object[]> rows = new ArrayList<>((int) (last - first));
+        int blockRows = snapshot.reader.blockRows();
+        for (long row = first; row < last; ) {
+            int block = (int) (row / blockRows);
+            Object[][] values = decodedBlocks.get(new BlockKey(snapshot.id, block), key -> snapshot.reader.readBlock(block));
+            int from = (int) (row - (long) block * blockRows);
+            int to = (int) Math.min(values.length, last - (long) block * blockRows);
+            for (int i = from; i < to; i++) {
+                rows.add(values[i]);
+            }
+            row += to - from;
+        }
+
+        QueryResponse.PageInfo pageInfo = new QueryResponse.PageInfo(
+                pageable.getPageNumber(), pageable.getPageSize(), snapshot.rows);
+        pageInfo.setSnapshotId(snapshot.id);
+        return QueryResultPage.builder()
+                .generatedSql(snapshot.sql)
+                .rows(rows)
+                .timestamp(snapshot.createdAt)
+                .page(pageInfo)
+                .build();
+    }
+
+    /**
+     * Makes room for a new snapshot under the disk quota by deleting the least recently read ones.
+     */
+    private synchronized void reserve(long bytes) {
+        if (diskBytes.get() + bytes > maxDiskBytes) {
+            List<Snapshot> byLastRead = new ArrayList<>(snapshots.values());
+            byLastRead.sort(Comparator.comparingLong(snapshot -> snapshot.lastReadNanos));
+            for (Snapshot snapshot : byLastRead) {
+                if (diskBytes.get() + bytes <= maxDiskBytes) {
+                    break;
+                }
+                remove(snapshot, "quota");
+            }
+        }
+        diskBytes.addAndGet(bytes);
+    }
+
+    private void remove(Snapshot snapshot, String reason) {
+        if (!snapshots.remove(snapshot.id, snapshot)) {
+            return;
+        }
+        diskBytes.addAndGet(-snapshot.bytes);
+        decodedBlocks.asMap().keySet().removeIf(key -> key.snapshotId().equals(snapshot.id));
+        // Readers that still hold the mapping keep working after the file is unlinked
+        deleteFile(snapshot.path);
+        meterRegistry.counter("query.snapshot.evicted", "reason", reason).increment();
+        log.debug("Removed snapshot {} ({})", snapshot.id, reason);
+    }
+
+    private void deleteLeftoverFiles() {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + FILE_SUFFIX)) {
+            for (Path file : files) {
+                deleteFile(file);
+            }
+        } catch (IOException e) {
+            log.warn("Could not clean up snapshot directory {}: {}", directory, e.getMessage());
+        }
+    }
+
+    private static void deleteFile(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Could not delete snapshot file {}: {}", path, e.getMessage());
+        }
+    }
+
+    private record BlockKey(String snapshotId, int block) {
+    }
+
+    private static final class Snapshot {
+        private final String id;
+        private final String sql;
+        private final Path path;
+        private final long bytes;
+        private final long rows;
+        private final Instant createdAt;
+        private final ColumnarSnapshotFile.Reader reader;
+        private volatile long lastReadNanos = System.nanoTime();
+
+        private Snapshot(String id, String sql, Path path, long bytes, long rows, Instant createdAt,
+                         ColumnarSnapshotFile.Reader reader) {
+            this.id = id;
+            this.sql = sql;
+            this.path = path;
+            this.bytes = bytes;
+            this.rows = rows;
+            this.createdAt = createdAt;
+            this.reader = reader;
+        }
+
+        boolean isExpired(Duration ttl) {
+            return createdAt.plus(ttl).isBefore(Instant.now());
+        }
+    }
+}
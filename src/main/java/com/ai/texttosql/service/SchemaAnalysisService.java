@@ -1,104 +1,107 @@
 package com.ai.texttosql.service;
 
+import com.ai.texttosql.config.TargetDataSourceRegistry;
 import com.ai.texttosql.model.SchemaInfo;
-import jakarta.persistence.EntityManager;
-import jakarta.persistence.PersistenceContext;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cache.annotation.Cacheable;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
-import java.util.stream.Collectors;
 
+/**
+ * Reads table metadata from {@code information_schema}. Cache keys are prefixed with the data
+ * source name so that {@link TargetDataSourceRegistry} can drop a target's metadata with its pool.
+ */
 @Service
+@RequiredArgsConstructor
 public class SchemaAnalysisService {
 
-    @PersistenceContext
-    private EntityManager entityManager;
+    private final TargetDataSourceRegistry targetDataSources;
 
-    @Cacheable(value = "schemaCache", key = "'allTables'")
-    public List<String> getAllTableNames() {
-        return entityManager.createNativeQuery(
-                        "SELECT table_name FROM information_schema.tables WHERE table_schema = DATABASE()")
-                .getResultList();
+    @Value("${app.summary.table-prefix:summary_}")
+    private String summaryTablePrefix;
+
+    @Value("${app.index-advisor.table-prefix:index_advisor_}")
+    private String indexAdvisorTablePrefix;
+
+    @Cacheable(value = "schemaCache", key = "T(com.ai.texttosql.config.TargetDataSourceRegistry).resolveName(#dataSource) + ':allTables'")
+    public List<String> getAllTableNames(String dataSource) {
+        List<String> tables = targetDataSources.jdbcTemplate(dataSource).queryForList(
+                "SELECT table_name FROM information_schema.tables WHERE table_schema = DATABASE()", String.class);
+        // Summary tables and the index advisor's scratch copies are implementation details, not part of the schema
+        return TargetDataSourceRegistry.isDefault(dataSource)
+                ? tables.stream()
+                        .filter(table -> !table.startsWith(summaryTablePrefix) && !table.startsWith(indexAdvisorTablePrefix))
+                        .toList()
+                : tables;
     }
 
-    @Cacheable(value = "schemaCache", key = "#tableName")
-    public SchemaInfo getTableSchema(String tableName) {
+    @Cacheable(value = "schemaCache", key = "T(com.ai.texttosql.config.TargetDataSourceRegistry).resolveName(#dataSource) + ':' + #tableName")
+    public SchemaInfo getTableSchema(String dataSource, String tableName) {
+        JdbcTemplate jdbcTemplate = targetDataSources.jdbcTemplate(dataSource);
         SchemaInfo schemaInfo = new SchemaInfo();
         schemaInfo.setTableName(tableName);
 
-        List<Object[]> columns = entityManager.createNativeQuery(
+        schemaInfo.setColumns(jdbcTemplate.query(
                         "SELECT column_name, data_type, is_nullable, column_key, column_default, column_comment " +
                                 "FROM information_schema.columns " +
-                                "WHERE table_schema = DATABASE() AND table_name = :tableName")
-                .setParameter("tableName", tableName)
-                .getResultList();
-
-        schemaInfo.setColumns(columns.stream()
-                .map(col -> {
-                    SchemaInfo.ColumnInfo columnInfo = new SchemaInfo.ColumnInfo();
-                    columnInfo.setName((String) col[0]);
-                    columnInfo.setType((String) col[1]);
-                    columnInfo.setNullable("YES".equals(col[2]));
-                    columnInfo.setPrimaryKey("PRI".equals(col[3]));
-                    columnInfo.setDefaultValue(col[4] != null ? col[4].toString() : null);
-                    columnInfo.setComment((String) col[5]);
-                    return columnInfo;
-                })
-                .collect(Collectors.toList()));
-
-        List<Object[]> foreignKeys = entityManager.createNativeQuery(
+                                "WHERE table_schema = DATABASE() AND table_name = ?",
+                        (rs, rowNum) -> {
+                            SchemaInfo.ColumnInfo columnInfo = new SchemaInfo.ColumnInfo();
+                            columnInfo.setName(rs.getString(1));
+                            columnInfo.setType(rs.getString(2));
+                            columnInfo.setNullable("YES".equals(rs.getString(3)));
+                            columnInfo.setPrimaryKey("PRI".equals(rs.getString(4)));
+                            columnInfo.setDefaultValue(rs.getString(5));
+                            columnInfo.setComment(rs.getString(6));
+                            return columnInfo;
+                        },
+                        tableName));
+
+        schemaInfo.setForeignKeys(jdbcTemplate.query(
                         "SELECT column_name, referenced_table_name, referenced_column_name, constraint_name " +
                                 "FROM information_schema.key_column_usage " +
-                                "WHERE table_schema = DATABASE() AND table_name = :tableName " +
-                                "AND referenced_table_name IS NOT NULL")
-                .setParameter("tableName", tableName)
-                .getResultList();
-
-        schemaInfo.setForeignKeys(foreignKeys.stream()
-                .map(fk -> {
-                    SchemaInfo.ForeignKeyInfo fkInfo = new SchemaInfo.ForeignKeyInfo();
-                    fkInfo.setColumnName((String) fk[0]);
-                    fkInfo.setReferencedTable((String) fk[1]);
-                    fkInfo.setReferencedColumn((String) fk[2]);
-                    fkInfo.setConstraintName((String) fk[3]);
-                    return fkInfo;
-                })
-                .collect(Collectors.toList()));
-
-        List<Object[]> indexes = entityManager.createNativeQuery(
+                                "WHERE table_schema = DATABASE() AND table_name = ? " +
+                                "AND referenced_table_name IS NOT NULL",
+                        (rs, rowNum) -> {
+                            SchemaInfo.ForeignKeyInfo fkInfo = new SchemaInfo.ForeignKeyInfo();
+                            fkInfo.setColumnName(rs.getString(1));
+                            fkInfo.setReferencedTable(rs.getString(2));
+                            fkInfo.setReferencedColumn(rs.getString(3));
+                            fkInfo.setConstraintName(rs.getString(4));
+                            return fkInfo;
+                        },
+                        tableName));
+
+        schemaInfo.setIndexes(jdbcTemplate.query(
                         "SELECT index_name, GROUP_CONCAT(column_name ORDER BY seq_in_index), non_unique " +
                                 "FROM information_schema.statistics " +
-                                "WHERE table_schema = DATABASE() AND table_name = :tableName " +
-                                "GROUP BY index_name, non_unique")
-                .setParameter("tableName", tableName)
-                .getResultList();
-
-        schemaInfo.setIndexes(indexes.stream()
-                .map(idx -> {
-                    SchemaInfo.IndexInfo idxInfo = new SchemaInfo.IndexInfo();
-                    idxInfo.setName((String) idx[0]);
-                    idxInfo.setColumns(List.of(((String) idx[1]).split(",")));
-                    idxInfo.setUnique((Integer) idx[2] == 0);
-                    return idxInfo;
-                })
-                .collect(Collectors.toList()));
-
-        Object[] ddlRow = (Object[]) entityManager.createNativeQuery(
-                        "SHOW CREATE TABLE `" + tableName + "`")
-                .getSingleResult();
-        schemaInfo.setDdl((String) ddlRow[1]);
+                                "WHERE table_schema = DATABASE() AND table_name = ? " +
+                                "GROUP BY index_name, non_unique",
+                        (rs, rowNum) -> {
+                            SchemaInfo.IndexInfo idxInfo = new SchemaInfo.IndexInfo();
+                            idxInfo.setName(rs.getString(1));
+                            idxInfo.setColumns(List.of(rs.getString(2).split(",")));
+                            idxInfo.setUnique(rs.getInt(3) == 0);
+                            return idxInfo;
+                        },
+                        tableName));
+
+        schemaInfo.setDdl(jdbcTemplate.queryForObject(
+                "SHOW CREATE TABLE `" + tableName.replace("`", "``") + "`", (rs, rowNum) -> rs.getString(2)));
 
         return schemaInfo;
     }
 
-    @Cacheable(value = "schemaCache", key = "'schemaContext'")
-    public String generateSchemaContext() {
-        List<String> tables = getAllTableNames();
+    @Cacheable(value = "schemaCache", key = "T(com.ai.texttosql.config.TargetDataSourceRegistry).resolveName(#dataSource) + ':schemaContext'")
+    public String generateSchemaContext(String dataSource) {
+        List<String> tables = getAllTableNames(dataSource);
         StringBuilder context = new StringBuilder("Database Schema:\n\n");
 
         for (String table : tables) {
-            SchemaInfo schema = getTableSchema(table);
+            SchemaInfo schema = getTableSchema(dataSource, table);
             context.append("Table: ").append(table).append("\n");
 
             for (SchemaInfo.ColumnInfo column : schema.getColumns()) {
@@ -0,0 +1,271 @@
+package com.ai.texttosql.service;
+
+import com.ai.texttosql.config.TargetDataSourceRegistry;
+import com.ai.texttosql.model.SchemaInfo;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Renders the schema context for prompts in a compact, token-budgeted format:
+ * <pre>
+ * orders: id bigint PK, user_id→users, order_date ts, total_amount dec NN, ...
+ * </pre>
+ * Types are abbreviated, adjacent columns of the same type are grouped, foreign keys are inline
+ * arrows and column comments are optional. When the rendering exceeds the token budget, detail is
+ * dropped in order of value: comments, nullability, bookkeeping timestamps, types, non-key columns.
+ */
+@Slf4j
+@Service
+public class SchemaPromptCompiler {
+
+    enum Detail { FULL, NO_COMMENTS, NO_NULLABILITY, NO_BOOKKEEPING, NO_TYPES, KEYS_ONLY }
+
+    private static final Set<String> BOOKKEEPING_COLUMNS = Set.of("created_at", "updated_at");
+
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_][A-Za-z0-9_$]*");
+
+    private static final Map<String, String> TYPE_ABBREVIATIONS = Map.ofEntries(
+            Map.entry("varchar", "str"),
+            Map.entry("char", "str"),
+            Map.entry("tinytext", "text"),
+            Map.entry("mediumtext", "text"),
+            Map.entry("longtext", "text"),
+            Map.entry("tinyint", "int"),
+            Map.entry("smallint", "int"),
+            Map.entry("mediumint", "int"),
+            Map.entry("integer", "int"),
+            Map.entry("decimal", "dec"),
+            Map.entry("numeric", "dec"),
+            Map.entry("timestamp", "ts"),
+            Map.entry("datetime", "ts"),
+            Map.entry("boolean", "bool")
+    );
+
+    private final SchemaAnalysisService schemaAnalysisService;
+    private final AtomicLong verboseTokens = new AtomicLong();
+    private final AtomicLong compactTokens = new AtomicLong();
+    private final Map<String, Instant> compiledAt = new ConcurrentHashMap<>();
+
+    @Value("${app.prompt.schema-format:compact}")
+    private String schemaFormat;
+
+    @Value("${app.prompt.token-budget:2000}")
+    private int tokenBudget;
+
+    @Value("${app.prompt.include-comments:true}")
+    private boolean includeComments;
+
+    public SchemaPromptCompiler(SchemaAnalysisService schemaAnalysisService, MeterRegistry meterRegistry) {
+        this.schemaAnalysisService = schemaAnalysisService;
+        meterRegistry.gauge("prompt.schema.tokens", Tags.of("format", "verbose"), verboseTokens);
+        meterRegistry.gauge("prompt.schema.tokens", Tags.of("format", "compact"), compactTokens);
+    }
+
+    /**
+     * The schema context of a data source to put in prompts, in the configured format.
+     */
+    @Cacheable(value = "schemaCache", key = "T(com.ai.texttosql.config.TargetDataSourceRegistry).resolveName(#dataSource) + ':compiledSchemaContext'")
+    public String compileSchemaContext(String dataSource) {
+        String verbose = schemaAnalysisService.generateSchemaContext(dataSource);
+        verboseTokens.set(estimateTokens(verbose));
+        compiledAt.put(TargetDataSourceRegistry.resolveName(dataSource), Instant.now());
+        if (!"compact".equalsIgnoreCase(schemaFormat)) {
+            return verbose;
+        }
+
+        List<SchemaInfo> schemas = schemaAnalysisService.getAllTableNames(dataSource).stream()
+                .map(table -> schemaAnalysisService.getTableSchema(dataSource, table))
+                .collect(Collectors.toList());
+
+        String compact = null;
+        for (Detail detail : Detail.values()) {
+            if (detail == Detail.FULL && !includeComments) {
+                continue;
+            }
+            compact = render(schemas, detail);
+            if (estimateTokens(compact) <= tokenBudget) {
+                break;
+            }
+        }
+        compact = truncateToBudget(compact);
+
+        compactTokens.set(estimateTokens(compact));
+        log.info("Schema prompt for '{}' compacted from ~{} to ~{} tokens (budget {})",
+                TargetDataSourceRegistry.resolveName(dataSource), verboseTokens.get(), compactTokens.get(), tokenBudget);
+        return compact;
+    }
+
+    /**
+     * The schema context of only the tables a statement uses, for prompts that edit it. The tables
+     * these reference are listed after them without column types, so that an edit can join them.
+     */
+    public String compileTablesContext(String dataSource, String sql) {
+        Set<String> identifiers = new LinkedHashSet<>();
+        Matcher matcher = IDENTIFIER.matcher(sql);
+        while (matcher.find()) {
+            identifiers.add(matcher.group().toLowerCase(Locale.ROOT));
+        }
+
+        List<SchemaInfo> used = new ArrayList<>();
+        Set<String> usedNames = new LinkedHashSet<>();
+        for (String table : schemaAnalysisService.getAllTableNames(dataSource)) {
+            if (identifiers.contains(table.toLowerCase(Locale.ROOT))) {
+                used.add(schemaAnalysisService.getTableSchema(dataSource, table));
+                usedNames.add(table);
+            }
+        }
+        List<SchemaInfo> referenced = used.stream()
+                .flatMap(schema -> schema.getForeignKeys().stream())
+                .map(SchemaInfo.ForeignKeyInfo::getReferencedTable)
+                .filter(table -> !usedNames.contains(table))
+                .distinct()
+                .map(table -> schemaAnalysisService.getTableSchema(dataSource, table))
+                .toList();
+
+        String context = render(used, includeComments ? Detail.FULL : Detail.NO_COMMENTS);
+        if (!referenced.isEmpty()) {
+            String related = render(referenced, Detail.NO_TYPES);
+            context += "Related:\n" + related.substring(related.indexOf('\n') + 1);
+        }
+        return context;
+    }
+
+    /**
+     * When the schema context of each data source was last built from {@code information_schema}.
+     */
+    public Map<String, Instant> getCompiledAt() {
+        return Collections.unmodifiableMap(compiledAt);
+    }
+
+    /**
+     * Local approximation of a BPE tokenizer: words cost one token per four characters,
+     * every other non-space character costs one token.
+     */
+    public static long estimateTokens(String text) {
+        long tokens = 0;
+        int wordLength = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                wordLength++;
+                continue;
+            }
+            tokens += (wordLength + 3) / 4;
+            wordLength = 0;
+            if (!Character.isWhitespace(c)) {
+                tokens++;
+            }
+        }
+        return tokens + (wordLength + 3) / 4;
+    }
+
+    String render(List<SchemaInfo> schemas, Detail detail) {
+        StringBuilder context = new StringBuilder("Schema (PK primary key, NN not null, a→b foreign key to b):\n");
+        for (SchemaInfo schema : schemas) {
+            Map<String, SchemaInfo.ForeignKeyInfo> foreignKeys = schema.getForeignKeys().stream()
+                    .collect(Collectors.toMap(SchemaInfo.ForeignKeyInfo::getColumnName, Function.identity(), (a, b) -> a));
+
+            List<String> parts = new ArrayList<>();
+            String pendingType = null;
+            List<String> pendingNames = new ArrayList<>();
+
+            for (SchemaInfo.ColumnInfo column : schema.getColumns()) {
+                SchemaInfo.ForeignKeyInfo fk = foreignKeys.get(column.getName());
+                boolean key = column.isPrimaryKey() || fk != null;
+                if (!key && (detail == Detail.KEYS_ONLY
+                        || detail.compareTo(Detail.NO_BOOKKEEPING) >= 0 && BOOKKEEPING_COLUMNS.contains(column.getName()))) {
+                    continue;
+                }
+
+                String suffix = columnSuffix(column, fk, detail);
+                if (!suffix.equals(pendingType) || fk != null || column.isPrimaryKey()) {
+                    flush(parts, pendingNames, pendingType);
+                }
+                pendingNames.add(column.getName());
+                pendingType = suffix;
+                if (fk != null || column.isPrimaryKey()) {
+                    flush(parts, pendingNames, pendingType);
+                    pendingType = null;
+                }
+            }
+            flush(parts, pendingNames, pendingType);
+
+            context.append(schema.getTableName()).append(": ").append(String.join(", ", parts)).append('\n');
+        }
+        return context.toString();
+    }
+
+    private String columnSuffix(SchemaInfo.ColumnInfo column, SchemaInfo.ForeignKeyInfo fk, Detail detail) {
+        StringBuilder suffix = new StringBuilder();
+        if (fk != null) {
+            suffix.append("→").append(fk.getReferencedTable());
+            if (!"id".equalsIgnoreCase(fk.getReferencedColumn())) {
+                suffix.append('.').append(fk.getReferencedColumn());
+            }
+        } else if (detail.compareTo(Detail.NO_TYPES) < 0) {
+            suffix.append(' ').append(abbreviate(column.getType()));
+        }
+        if (column.isPrimaryKey()) {
+            suffix.append(" PK");
+        } else if (!column.isNullable() && detail.compareTo(Detail.NO_NULLABILITY) < 0) {
+            suffix.append(" NN");
+        }
+        if (detail == Detail.FULL && column.getComment() != null && !column.getComment().isBlank()) {
+            suffix.append(" \"").append(column.getComment().trim()).append('"');
+        }
+        return suffix.toString();
+    }
+
+    private static void flush(List<String> parts, List<String> names, String suffix) {
+        if (names.isEmpty()) {
+            return;
+        }
+        parts.add(String.join(",", names) + (suffix != null ? suffix : ""));
+        names.clear();
+    }
+
+    private static String abbreviate(String type) {
+        if (type == null) {
+            return "?";
+        }
+        String lower = type.toLowerCase(Locale.ROOT);
+        return TYPE_ABBREVIATIONS.getOrDefault(lower, lower);
+    }
+
+    private String truncateToBudget(String context) {
+        if (estimateTokens(context) <= tokenBudget) {
+            return context;
+        }
+        log.warn("Schema context exceeds the token budget of {} even with keys only; dropping tables", tokenBudget);
+        StringBuilder truncated = new StringBuilder();
+        long tokens = 0;
+        for (String line : context.split("\n")) {
+            long lineTokens = estimateTokens(line) + 1;
+            if (tokens + lineTokens > tokenBudget) {
+                break;
+            }
+            truncated.append(line).append('\n');
+            tokens += lineTokens;
+        }
+        return truncated.toString();
+    }
+}
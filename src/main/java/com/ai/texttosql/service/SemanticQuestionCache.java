@@ -0,0 +1,257 @@
+package com.ai.texttosql.service;
+
+import com.ai.texttosql.config.TargetDataSourceRegistry;
+import com.ai.texttosql.repository.QueryHistoryRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Answers paraphrased questions ("top 5 customers by spend" / "who are our five biggest spenders")
+ * with the SQL of a previously answered question.
+ * <p>
+ * Question embeddings are L2-normalized and kept in one contiguous {@code float[]}, so a lookup is a
+ * brute-force dot product over the index. A hit also requires both questions to mention the same
+ * values in the same order, so "orders over 100" never answers "orders over 250". Numbers spelled
+ * out from "two" to "ninety" count as their digits, which is what lets "five" match "5". The index holds
+ * at most {@code capacity} questions and overwrites the oldest entries once full; it is rebuilt from
+ * {@code query_history} at startup.
+ */
+@Slf4j
+@Service
+public class SemanticQuestionCache {
+
+    // "one" is left out: it is far more often a pronoun ("which one") than a count
+    private static final Map<String, String> NUMBER_WORDS = Map.ofEntries(
+            Map.entry("two", "2"), Map.entry("three", "3"), Map.entry("four", "4"), Map.entry("five", "5"),
+            Map.entry("six", "6"), Map.entry("seven", "7"), Map.entry("eight", "8"), Map.entry("nine", "9"),
+            Map.entry("ten", "10"), Map.entry("eleven", "11"), Map.entry("twelve", "12"), Map.entry("thirteen", "13"),
+            Map.entry("fourteen", "14"), Map.entry("fifteen", "15"), Map.entry("sixteen", "16"),
+            Map.entry("seventeen", "17"), Map.entry("eighteen", "18"), Map.entry("nineteen", "19"),
+            Map.entry("twenty", "20"), Map.entry("thirty", "30"), Map.entry("forty", "40"), Map.entry("fifty", "50"),
+            Map.entry("sixty", "60"), Map.entry("seventy", "70"), Map.entry("eighty", "80"), Map.entry("ninety", "90"));
+    private static final Pattern NUMBER_WORD = Pattern.compile(
+            "(?i)\\b(" + String.join("|", NUMBER_WORDS.keySet()) + ")\\b");
+
+    private final QuestionEmbedder questionEmbedder;
+    private final QueryHistoryRepository queryHistoryRepository;
+    private final MeterRegistry meterRegistry;
+    private final Timer lookupTimer;
+    private final DistributionSummary hitSimilarity;
+    private final Cache<String, float[]> recentEmbeddings = Caffeine.newBuilder().maximumSize(1000).build();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final boolean enabled;
+    private final double similarityThreshold;
+    private final int capacity;
+    private final int rebuildLimit;
+
+    private float[] vectors;
+    private int dimensions;
+    private String[] sqls;
+    private String[] questions;
+    private List<List<String>> values;
+    private volatile int size;
+    private int next;
+
+    public SemanticQuestionCache(QuestionEmbedder questionEmbedder,
+                                 QueryHistoryRepository queryHistoryRepository,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${app.semantic-cache.enabled:true}") boolean enabled,
+                                 @Value("${app.semantic-cache.similarity-threshold:0.92}") double similarityThreshold,
+                                 @Value("${app.semantic-cache.capacity:5000}") int capacity,
+                                 @Value("${app.semantic-cache.rebuild-limit:2000}") int rebuildLimit) {
+        this.questionEmbedder = questionEmbedder;
+        this.queryHistoryRepository = queryHistoryRepository;
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.similarityThreshold = similarityThreshold;
+        this.capacity = capacity;
+        this.rebuildLimit = rebuildLimit;
+        this.sqls = new String[capacity];
+        this.questions = new String[capacity];
+        this.values = new ArrayList<>(Collections.nCopies(capacity, null));
+        this.lookupTimer = Timer.builder("query.semantic.lookup.time")
+                .description("Time taken to embed a question and search the semantic index")
+                .register(meterRegistry);
+        this.hitSimilarity = DistributionSummary.builder("query.semantic.hit.similarity")
+                .description("Cosine similarity of semantic cache hits")
+                .publishPercentiles(0.05, 0.5, 0.95)
+                .register(meterRegistry);
+        meterRegistry.gauge("query.semantic.index.size", this, cache -> cache.size);
+        meterRegistry.gauge("query.semantic.index.bytes", this, SemanticQuestionCache::indexBytes);
+    }
+
+    @Async
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuildFromHistory() {
+        if (!enabled) {
+            return;
+        }
+        Set<String> seen = new HashSet<>();
+        int added = 0;
+        try {
+            for (Object[] row : queryHistoryRepository.findRecentSuccessfulQuestions(TargetDataSourceRegistry.DEFAULT,
+                    PageRequest.of(0, rebuildLimit))) {
+                String question = (String) row[0];
+                if (question != null && seen.add(GeneratedSqlCache.normalize(question))) {
+                    add(question, (String) row[1]);
+                    added++;
+                }
+            }
+            log.info("Rebuilt semantic question index with {} questions", added);
+        } catch (Exception e) {
+            log.warn("Could not rebuild semantic question index: {}", e.getMessage());
+        }
+    }
+
+    public Optional<String> find(String naturalLanguageQuery) {
+        if (!enabled || size == 0) {
+            return Optional.empty();
+        }
+        long start = System.nanoTime();
+        try {
+            float[] query = embedding(naturalLanguageQuery);
+            List<String> mentioned = mentionedValues(naturalLanguageQuery);
+
+            lock.readLock().lock();
+            try {
+                if (query.length != dimensions) {
+                    return Optional.empty();
+                }
+                int best = -1;
+                double bestScore = -1;
+                for (int i = 0; i < size; i++) {
+                    double score = dot(query, i);
+                    if (score > bestScore && score >= similarityThreshold && mentioned.equals(values.get(i))) {
+                        best = i;
+                        bestScore = score;
+                    }
+                }
+                if (best < 0) {
+                    meterRegistry.counter("query.semantic.lookup", "result", "miss").increment();
+                    return Optional.empty();
+                }
+                hitSimilarity.record(bestScore);
+                meterRegistry.counter("query.semantic.lookup", "result", "hit").increment();
+                log.debug("Semantic cache answered '{}' with the SQL of '{}' (similarity {})",
+                        naturalLanguageQuery, questions[best], bestScore);
+                return Optional.of(sqls[best]);
+            } finally {
+                lock.readLock().unlock();
+            }
+        } catch (Exception e) {
+            meterRegistry.counter("query.semantic.lookup", "result", "error").increment();
+            log.debug("Semantic cache lookup failed: {}", e.getMessage());
+            return Optional.empty();
+        } finally {
+            lookupTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public void add(String naturalLanguageQuery, String sql) {
+        if (!enabled) {
+            return;
+        }
+        float[] vector;
+        try {
+            vector = embedding(naturalLanguageQuery);
+        } catch (Exception e) {
+            log.debug("Could not embed question for the semantic cache: {}", e.getMessage());
+            return;
+        }
+
+        lock.writeLock().lock();
+        try {
+            if (vectors == null) {
+                dimensions = vector.length;
+                vectors = new float[capacity * dimensions];
+            } else if (vector.length != dimensions) {
+                return;
+            }
+            System.arraycopy(vector, 0, vectors, next * dimensions, dimensions);
+            sqls[next] = sql;
+            questions[next] = naturalLanguageQuery;
+            values.set(next, mentionedValues(naturalLanguageQuery));
+            next = (next + 1) % capacity;
+            size = Math.min(size + 1, capacity);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private float[] embedding(String naturalLanguageQuery) {
+        float[] vector = recentEmbeddings.get(GeneratedSqlCache.normalize(naturalLanguageQuery), questionEmbedder::embed);
+        Objects.requireNonNull(vector, "embedder returned no vector");
+        return normalized(vector);
+    }
+
+    /**
+     * The values a question mentions, in order, with spelled-out numbers as digits.
+     */
+    static List<String> mentionedValues(String naturalLanguageQuery) {
+        Matcher words = NUMBER_WORD.matcher(naturalLanguageQuery);
+        StringBuilder spelled = new StringBuilder();
+        while (words.find()) {
+            words.appendReplacement(spelled, NUMBER_WORDS.get(words.group(1).toLowerCase(Locale.ROOT)));
+        }
+        words.appendTail(spelled);
+        return SqlTemplateService.slotValues(spelled.toString());
+    }
+
+    private double dot(float[] query, int index) {
+        int offset = index * dimensions;
+        double sum = 0;
+        for (int d = 0; d < dimensions; d++) {
+            sum += query[d] * vectors[offset + d];
+        }
+        return sum;
+    }
+
+    /**
+     * A unit-length copy of the vector; the cached embedding itself is left as it is.
+     */
+    private static float[] normalized(float[] vector) {
+        double norm = 0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        norm = Math.sqrt(norm);
+        float[] copy = vector.clone();
+        if (norm == 0 || Math.abs(norm - 1) < 1e-6) {
+            return copy;
+        }
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] /= (float) norm;
+        }
+        return copy;
+    }
+
+    private double indexBytes() {
+        return vectors == null ? 0 : (double) vectors.length * Float.BYTES;
+    }
+}
@@ -0,0 +1,58 @@
+package com.ai.texttosql.service;
+
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+/**
+ * Calls Slack Web API methods with the bot token, for work outside of a slash command's
+ * response_url.
+ */
+@Service
+public class SlackApiClient {
+
+    private static final String SLACK_API = "https://slack.com/api/";
+
+    private final HttpClient httpClient = HttpClient.newHttpClient();
+
+    @Value("${app.slack.bot-token:}")
+    private String botToken;
+
+    public boolean isEnabled() {
+        return botToken != null && !botToken.isBlank();
+    }
+
+    /**
+     * Calls a method with a JSON body.
+     */
+    public JSONObject call(String method, JSONObject body) throws IOException, InterruptedException {
+        return call(method, HttpRequest.BodyPublishers.ofString(body.toString()), "application/json; charset=utf-8");
+    }
+
+    /**
+     * Calls a method and returns its response.
+     *
+     * @param method the method name, with its query string if it takes arguments there
+     * @throws IllegalStateException when Slack answers that the call failed
+     */
+    public JSONObject call(String method, HttpRequest.BodyPublisher body, String contentType)
+            throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(SLACK_API + method))
+                .header("Authorization", "Bearer " + botToken)
+                .header("Content-Type", contentType)
+                .POST(body)
+                .build();
+        JSONObject response = new JSONObject(httpClient.send(request, HttpResponse.BodyHandlers.ofString()).body());
+        if (!response.optBoolean("ok")) {
+            throw new IllegalStateException("Slack API " + method + " failed: " + response.optString("error"));
+        }
+        return response;
+    }
+}
@@ -0,0 +1,123 @@
+package com.ai.texttosql.service;
+
+import com.ai.texttosql.model.QueryResultPage;
+import lombok.extern.slf4j.Slf4j;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Uploads a full query result to a Slack channel as a CSV file.
+ * <p>
+ * Rows are streamed from the result cursor into a temporary file and the file is streamed to
+ * Slack's external upload URL, so neither step holds the result in memory. Requires a bot token.
+ */
+@Slf4j
+@Service
+public class SlackFileUploader {
+
+    private final QueryExecutionService queryExecutionService;
+    private final SlackApiClient slackApiClient;
+    private final HttpClient httpClient = HttpClient.newHttpClient();
+
+    @Value("${app.slack.max-upload-rows:100000}")
+    private int maxUploadRows;
+
+    public SlackFileUploader(QueryExecutionService queryExecutionService, SlackApiClient slackApiClient) {
+        this.queryExecutionService = queryExecutionService;
+        this.slackApiClient = slackApiClient;
+    }
+
+    public boolean isEnabled() {
+        return slackApiClient.isEnabled();
+    }
+
+    public void uploadQueryResult(String channelId, String sql, String title) {
+        Path file = null;
+        try {
+            file = Files.createTempFile("query-result-", ".csv");
+            long rows = writeCsv(file, sql);
+
+            JSONObject upload = slackApiClient.call(
+                    "files.getUploadURLExternal?filename=query-result.csv&length=" + Files.size(file),
+                    HttpRequest.BodyPublishers.noBody(), "application/x-www-form-urlencoded");
+
+            HttpRequest putFile = HttpRequest.newBuilder()
+                    .uri(URI.create(upload.getString("upload_url")))
+                    .POST(HttpRequest.BodyPublishers.ofFile(file))
+                    .build();
+            httpClient.send(putFile, HttpResponse.BodyHandlers.discarding());
+
+            JSONObject complete = new JSONObject()
+                    .put("channel_id", channelId)
+                    .put("initial_comment", "Full result: " + rows + " rows")
+                    .put("files", new JSONArray().put(new JSONObject()
+                            .put("id", upload.getString("file_id"))
+                            .put("title", title)));
+            slackApiClient.call("files.completeUploadExternal", complete);
+
+            log.info("Uploaded {} result rows to Slack channel {}", rows, channelId);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to upload query result to Slack", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while uploading query result to Slack", e);
+        } finally {
+            if (file != null) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    log.warn("Could not delete temporary result file {}", file);
+                }
+            }
+        }
+    }
+
+    private long writeCsv(Path file, String sql) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            boolean[] headerWritten = {false};
+            return queryExecutionService.streamQuery(sql, maxUploadRows, row -> {
+                try {
+                    if (!headerWritten[0]) {
+                        for (int i = 0; i < row.length; i++) {
+                            if (i > 0) writer.write(',');
+                            writer.write(QueryResultPage.columnName(i));
+                        }
+                        writer.write('\n');
+                        headerWritten[0] = true;
+                    }
+                    for (int i = 0; i < row.length; i++) {
+                        if (i > 0) writer.write(',');
+                        writer.write(csvValue(row[i]));
+                    }
+                    writer.write('\n');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+    }
+
+    private static String csvValue(Object value) {
+        if (value == null) {
+            return "";
+        }
+        String text = value instanceof byte[] bytes ? new String(bytes) : value.toString();
+        if (text.indexOf(',') < 0 && text.indexOf('"') < 0 && text.indexOf('\n') < 0) {
+            return text;
+        }
+        return '"' + text.replace("\"", "\"\"") + '"';
+    }
+}
@@ -0,0 +1,46 @@
+package com.ai.texttosql.service;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Posts messages to a Slack channel outside of any slash command, where there is no response_url
+ * to answer on. Requires a bot token that is a member of the channel.
+ */
+@Service
+public class SlackMessagePoster {
+
+    private final SlackApiClient slackApiClient;
+
+    public SlackMessagePoster(SlackApiClient slackApiClient) {
+        this.slackApiClient = slackApiClient;
+    }
+
+    public boolean isEnabled() {
+        return slackApiClient.isEnabled();
+    }
+
+    /**
+     * @param text shown in notifications and where blocks cannot be rendered
+     */
+    public void post(String channelId, String text, List<Map<String, Object>> blocks) {
+        JSONObject message = new JSONObject()
+                .put("channel", channelId)
+                .put("text", text)
+                .put("blocks", new JSONArray(blocks));
+        try {
+            slackApiClient.call("chat.postMessage", message);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to post message to Slack", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while posting message to Slack", e);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.ai.texttosql.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.Optional;
+
+/**
+ * Recognizes Slack requests that were already accepted, so that a retry neither generates nor
+ * runs the same SQL again.
+ * <p>
+ * Slack resends a request it got no answer to within 3 seconds, with the same {@code trigger_id}
+ * and {@code response_url}. The first request stores its acknowledgement under that identity with
+ * an atomic {@code SET NX} in Redis, which all nodes share and which expires the entry after
+ * {@code app.slack.dedup.ttl}. A duplicate finds the entry and gets the stored acknowledgement
+ * back. While Redis is unreachable, it is skipped for 30 seconds at a time in favor of a bounded
+ * local store, which only catches retries that reach the same node.
+ */
+@Slf4j
+@Service
+public class SlackRequestDeduplicator {
+
+    private static final String KEY_PREFIX = "slack:request:";
+    // Slack waits 3 seconds for the acknowledgement, too short to wait for Redis timeouts each time
+    private static final long REDIS_BACKOFF_NANOS = Duration.ofSeconds(30).toNanos();
+
+    private final ObjectProvider<StringRedisTemplate> redisTemplate;
+    private final MeterRegistry meterRegistry;
+    private final Cache<String, String> localAcknowledgements;
+
+    private final boolean enabled;
+    private final Duration ttl;
+    private volatile long redisRetryAt;
+
+    public SlackRequestDeduplicator(ObjectProvider<StringRedisTemplate> redisTemplate,
+                                    MeterRegistry meterRegistry,
+                                    @Value("${app.slack.dedup.enabled:true}") boolean enabled,
+                                    @Value("${app.slack.dedup.ttl:30m}") Duration ttl,
+                                    @Value("${app.slack.dedup.local-max-entries:10000}") long localMaxEntries) {
+        this.redisTemplate = redisTemplate;
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.ttl = ttl;
+        // nanoTime has an arbitrary origin, so Redis is only due from now on rather than from 0
+        this.redisRetryAt = System.nanoTime();
+        this.localAcknowledgements = Caffeine.newBuilder()
+                .maximumSize(localMaxEntries)
+                .expireAfterWrite(ttl)
+                .build();
+    }
+
+    /**
+     * Registers a request as accepted with the given acknowledgement.
+     *
+     * @param kind            {@code command} or {@code interaction}, for the metrics
+     * @param identity        what identifies the request across retries, see {@link #identity}
+     * @param acknowledgement what the request is answered with
+     * @param retryNum        Slack's {@code X-Slack-Retry-Num} header, if any
+     * @return empty for a new request, which should be processed, or the acknowledgement of the
+     *         request this one duplicates
+     */
+    public Optional<String> register(String kind, String identity, String acknowledgement, String retryNum) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        String key = KEY_PREFIX + kind + ":" + identity;
+        Optional<String> original = claim(key, acknowledgement);
+        if (original.isPresent()) {
+            meterRegistry.counter("slack.requests.deduplicated", "kind", kind,
+                    "retry", String.valueOf(retryNum != null)).increment();
+            log.info("Ignoring duplicate Slack {} (retry {})", kind, retryNum != null ? retryNum : "-");
+        } else if (retryNum != null) {
+            // The original was lost before it got here, or its entry has expired
+            meterRegistry.counter("slack.requests.retried.new", "kind", kind).increment();
+        }
+        return original;
+    }
+
+    /**
+     * The identity of a request across Slack's retries: its {@code trigger_id}, else its
+     * {@code response_url}, else a hash of the whole payload.
+     */
+    public static String identity(String triggerId, String responseUrl, String payload) {
+        if (triggerId != null && !triggerId.isBlank()) {
+            return "t:" + triggerId;
+        }
+        return responseUrl != null && !responseUrl.isBlank() ? "u:" + sha256(responseUrl) : "p:" + sha256(payload);
+    }
+
+    private Optional<String> claim(String key, String acknowledgement) {
+        StringRedisTemplate redis = redisTemplate.getIfAvailable();
+        if (redis != null && System.nanoTime() - redisRetryAt >= 0) {
+            try {
+                Boolean claimed = redis.opsForValue().setIfAbsent(key, acknowledgement, ttl);
+                if (Boolean.TRUE.equals(claimed)) {
+                    return Optional.empty();
+                }
+                // The entry can expire between the two calls; then the request counts as new
+                return Optional.ofNullable(redis.opsForValue().get(key));
+            } catch (Exception e) {
+                log.warn("Redis unavailable for Slack deduplication, using the local store: {}", e.getMessage());
+                meterRegistry.counter("slack.dedup.store.errors").increment();
+                redisRetryAt = System.nanoTime() + REDIS_BACKOFF_NANOS;
+            }
+        }
+        String existing = localAcknowledgements.asMap().putIfAbsent(key, acknowledgement);
+        return Optional.ofNullable(existing);
+    }
+
+    private static String sha256(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.ai.texttosql.service;
+
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Renders a result page as aligned, fixed-width tables split into Slack-sized pieces.
+ * <p>
+ * Slack rejects section blocks whose text exceeds 3000 characters and messages with more
+ * than 50 blocks, so the table is cut into code-block chunks under the section limit and the
+ * blocks are spread over as many messages as needed.
+ */
+@Component
+public class SlackResultRenderer {
+
+    static final int MAX_SECTION_TEXT = 3000;
+    static final int MAX_BLOCKS_PER_MESSAGE = 50;
+    static final int MAX_MESSAGE_TEXT = 12_000;
+
+    private static final int MAX_COLUMN_WIDTH = 40;
+    private static final String FENCE = "```";
+    private static final String SEPARATOR = " | ";
+
+    /**
+     * Renders the rows as table chunks, each wrapped in a code fence and repeating the header.
+     */
+    public List<String> renderTableChunks(List<Map<String, Object>> results) {
+        if (results == null || results.isEmpty()) {
+            return List.of(FENCE + "\nNo results found.\n" + FENCE);
+        }
+
+        List<String> columns = new ArrayList<>(results.get(0).keySet());
+        int[] widths = new int[columns.size()];
+        for (int i = 0; i < columns.size(); i++) {
+            widths[i] = Math.min(columns.get(i).length(), MAX_COLUMN_WIDTH);
+        }
+        // Single pass over the data for the column widths
+        for (Map<String, Object> row : results) {
+            for (int i = 0; i < columns.size(); i++) {
+                widths[i] = Math.max(widths[i], Math.min(cellText(row.get(columns.get(i))).length(), MAX_COLUMN_WIDTH));
+            }
+        }
+
+        StringBuilder line = new StringBuilder();
+        String header = renderLine(line, columns.toArray(), widths);
+        String ruler = renderRuler(widths);
+        int budget = MAX_SECTION_TEXT - 2 * (FENCE.length() + 1);
+
+        List<String> chunks = new ArrayList<>();
+        StringBuilder chunk = startChunk(header, ruler);
+        int headerLength = chunk.length();
+        Object[] values = new Object[columns.size()];
+
+        for (Map<String, Object> row : results) {
+            for (int i = 0; i < columns.size(); i++) {
+                values[i] = row.get(columns.get(i));
+            }
+            String rendered = truncate(renderLine(line, values, widths), budget - headerLength);
+            if (chunk.length() + rendered.length() + 1 > budget && chunk.length() > headerLength) {
+                chunks.add(closeChunk(chunk));
+                chunk = startChunk(header, ruler);
+            }
+            chunk.append(rendered).append('\n');
+        }
+        chunks.add(closeChunk(chunk));
+        return chunks;
+    }
+
+    /**
+     * Spreads blocks over messages so that no message exceeds Slack's block count or size.
+     */
+    public List<List<Map<String, Object>>> splitIntoMessages(List<Map<String, Object>> blocks) {
+        List<List<Map<String, Object>>> messages = new ArrayList<>();
+        List<Map<String, Object>> current = new ArrayList<>();
+        int currentText = 0;
+
+        for (Map<String, Object> block : blocks) {
+            int size = block.toString().length();
+            if (!current.isEmpty()
+                    && (current.size() >= MAX_BLOCKS_PER_MESSAGE || currentText + size > MAX_MESSAGE_TEXT)) {
+                messages.add(current);
+                current = new ArrayList<>();
+                currentText = 0;
+            }
+            current.add(block);
+            currentText += size;
+        }
+        if (!current.isEmpty()) {
+            messages.add(current);
+        }
+        return messages;
+    }
+
+    private StringBuilder startChunk(String header, String ruler) {
+        return new StringBuilder(MAX_SECTION_TEXT)
+                .append(FENCE).append('\n')
+                .append(header).append('\n')
+                .append(ruler).append('\n');
+    }
+
+    private String closeChunk(StringBuilder chunk) {
+        return chunk.append(FENCE).toString();
+    }
+
+    private String renderLine(StringBuilder line, Object[] values, int[] widths) {
+        line.setLength(0);
+        for (int i = 0; i < widths.length; i++) {
+            if (i > 0) {
+                line.append(SEPARATOR);
+            }
+            String text = truncate(cellText(values[i]), widths[i]);
+            line.append(text);
+            if (i < widths.length - 1) {
+                line.repeat(' ', widths[i] - text.length());
+            }
+        }
+        return line.toString();
+    }
+
+    private String renderRuler(int[] widths) {
+        StringBuilder ruler = new StringBuilder();
+        for (int i = 0; i < widths.length; i++) {
+            if (i > 0) {
+                ruler.append("-+-");
+            }
+            ruler.repeat('-', widths[i]);
+        }
+        return ruler.toString();
+    }
+
+    private static String cellText(Object value) {
+        if (value == null) {
+            return "NULL";
+        }
+        return value.toString().replace('\n', ' ').replace("`", "'");
+    }
+
+    private static String truncate(String text, int width) {
+        if (text.length() <= width) {
+            return text;
+        }
+        return width <= 1 ? text.substring(0, width) : text.substring(0, width - 1) + "…";
+    }
+}
@@ -0,0 +1,206 @@
+package com.ai.texttosql.service;
+
+import com.ai.texttosql.config.TargetDataSourceRegistry;
+import com.ai.texttosql.model.ExecutionPlan;
+import com.ai.texttosql.repository.QueryHistoryRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Captures the {@code EXPLAIN ANALYZE} plan of queries that ran longer than
+ * {@code app.slow-query.threshold-ms} and stores it with their history entry.
+ * <p>
+ * {@code EXPLAIN ANALYZE} runs the query once more, so captures are rationed: one at a time on a
+ * background thread with its own pooled connection and a statement timeout, at most one per
+ * {@code app.slow-query.min-interval}, and each statement at most once per
+ * {@code app.slow-query.recapture-after}. A slow execution is remembered by its SQL until the
+ * query is saved to the history, and the capture starts once that entry is committed.
+ */
+@Slf4j
+@Service
+public class SlowQueryCaptureService {
+
+    private final TargetDataSourceRegistry targetDataSources;
+    private final QueryHistoryRepository queryHistoryRepository;
+    private final MeterRegistry meterRegistry;
+    private final ThreadPoolExecutor explainer;
+    private final Timer captureTimer;
+    private final Cache<String, SlowExecution> slowExecutions;
+    private final Cache<String, Boolean> recentlyCaptured;
+    private final AtomicLong nextCaptureAt = new AtomicLong(System.nanoTime());
+
+    private final boolean enabled;
+    private final long thresholdMs;
+    private final Duration minInterval;
+    private final Duration explainTimeout;
+    private final int maxPlanChars;
+
+    public SlowQueryCaptureService(TargetDataSourceRegistry targetDataSources,
+                                   QueryHistoryRepository queryHistoryRepository,
+                                   MeterRegistry meterRegistry,
+                                   @Value("${app.slow-query.enabled:true}") boolean enabled,
+                                   @Value("${app.slow-query.threshold-ms:2000}") long thresholdMs,
+                                   @Value("${app.slow-query.min-interval:30s}") Duration minInterval,
+                                   @Value("${app.slow-query.recapture-after:1h}") Duration recaptureAfter,
+                                   @Value("${app.slow-query.explain-timeout:60s}") Duration explainTimeout,
+                                   @Value("${app.slow-query.max-plan-chars:65536}") int maxPlanChars) {
+        this.targetDataSources = targetDataSources;
+        this.queryHistoryRepository = queryHistoryRepository;
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.thresholdMs = thresholdMs;
+        this.minInterval = minInterval;
+        this.explainTimeout = explainTimeout;
+        this.maxPlanChars = maxPlanChars;
+        // A capture that finds the thread busy is dropped; the next slow query gets its turn
+        this.explainer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(1),
+                (task, executor) -> meterRegistry.counter("query.slow.captures", "outcome", "busy").increment());
+        this.captureTimer = Timer.builder("query.slow.capture.time")
+                .description("Time to run EXPLAIN ANALYZE for a slow query")
+                .register(meterRegistry);
+        this.slowExecutions = Caffeine.newBuilder()
+                .maximumSize(1000)
+                .expireAfterWrite(Duration.ofMinutes(5))
+                .build();
+        this.recentlyCaptured = Caffeine.newBuilder()
+                .maximumSize(10_000)
+                .expireAfterWrite(recaptureAfter)
+                .build();
+    }
+
+    /**
+     * Notes an execution of a generated statement if it was slow.
+     *
+     * @param sql         the generated statement, as it is saved to the history
+     * @param executedSql the statement that actually ran, with its literals inline
+     */
+    public void recordExecution(String dataSource, String sql, String executedSql, long elapsedMs) {
+        if (!enabled || elapsedMs < thresholdMs) {
+            return;
+        }
+        meterRegistry.counter("query.slow").increment();
+        slowExecutions.put(sql, new SlowExecution(dataSource, executedSql, elapsedMs));
+    }
+
+    /**
+     * Captures the plan of a query that was just saved to the history, if its execution was slow.
+     */
+    public void onSaved(UUID queryId, String sql) {
+        if (!enabled || sql == null) {
+            return;
+        }
+        SlowExecution execution = slowExecutions.asMap().remove(sql);
+        if (execution == null) {
+            return;
+        }
+        if (recentlyCaptured.getIfPresent(execution.sql()) != null) {
+            meterRegistry.counter("query.slow.captures", "outcome", "recent").increment();
+            return;
+        }
+        long now = System.nanoTime();
+        long next = nextCaptureAt.get();
+        if (now - next < 0 || !nextCaptureAt.compareAndSet(next, now + minInterval.toNanos())) {
+            meterRegistry.counter("query.slow.captures", "outcome", "rate_limited").increment();
+            return;
+        }
+        recentlyCaptured.put(execution.sql(), Boolean.TRUE);
+
+        Runnable capture = () -> explainer.execute(() -> capture(queryId, execution));
+        // The plan is stored into the history row, which has to be committed first
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    capture.run();
+                }
+            });
+        } else {
+            capture.run();
+        }
+    }
+
+    /**
+     * The captured plan of a query, analyzed.
+     */
+    public Optional<ExecutionPlan> getPlan(UUID queryId) {
+        return queryHistoryRepository.findById(queryId)
+                .filter(history -> history.getExecutionPlan() != null)
+                .map(history -> {
+                    ExecutionPlan.Node root = ExplainAnalyzeTree.parse(history.getExecutionPlan());
+                    return ExecutionPlan.builder()
+                            .queryId(history.getId())
+                            .generatedSql(history.getGeneratedSql())
+                            .executionTimeMs(history.getExecutionTimeMillis())
+                            .capturedAt(history.getPlanCapturedAt())
+                            .root(root)
+                            .hotspots(ExplainAnalyzeTree.hotspots(root))
+                            .text(history.getExecutionPlan())
+                            .build();
+                });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        explainer.shutdownNow();
+    }
+
+    private void capture(UUID queryId, SlowExecution execution) {
+        long start = System.nanoTime();
+        try {
+            String plan = targetDataSources.jdbcTemplate(execution.dataSource()).execute((ConnectionCallback<String>) connection -> {
+                // The tree format is MySQL's; other databases print plans differently
+                if (!connection.getMetaData().getDatabaseProductName().toLowerCase(Locale.ROOT).contains("mysql")) {
+                    return null;
+                }
+                try (Statement statement = connection.createStatement()) {
+                    statement.setQueryTimeout((int) Math.max(1, explainTimeout.toSeconds()));
+                    try (ResultSet rs = statement.executeQuery("EXPLAIN ANALYZE " + execution.sql())) {
+                        StringBuilder text = new StringBuilder();
+                        while (rs.next()) {
+                            text.append(rs.getString(1)).append('\n');
+                        }
+                        return text.toString();
+                    }
+                }
+            });
+            if (plan == null) {
+                meterRegistry.counter("query.slow.captures", "outcome", "unsupported").increment();
+                return;
+            }
+            if (plan.length() > maxPlanChars) {
+                plan = plan.substring(0, maxPlanChars);
+            }
+            queryHistoryRepository.updateExecutionPlan(queryId, plan, Instant.now());
+            captureTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            meterRegistry.counter("query.slow.captures", "outcome", "captured").increment();
+            log.info("Captured the plan of query {}, which ran {} ms", queryId, execution.elapsedMs());
+        } catch (Exception e) {
+            meterRegistry.counter("query.slow.captures", "outcome", "failed").increment();
+            log.warn("Could not capture the plan of query {}: {}", queryId, e.getMessage());
+        }
+    }
+
+    private record SlowExecution(String dataSource, String sql, long elapsedMs) {
+    }
+}
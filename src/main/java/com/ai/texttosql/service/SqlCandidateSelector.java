@@ -0,0 +1,186 @@
+package com.ai.texttosql.service;
+
+import com.ai.texttosql.exception.QueryGenerationException;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Picks the cheapest of several SQL candidates generated for the same question.
+ * <p>
+ * The candidates are generated in parallel. Those that MySQL can plan are ranked by the cost
+ * estimate of {@code EXPLAIN FORMAT=JSON}, and the cheapest is returned. Candidates that are
+ * still generating when the timeout expires are left out.
+ */
+@Slf4j
+@Service
+public class SqlCandidateSelector {
+
+    private final QueryExecutionService queryExecutionService;
+    private final MeterRegistry meterRegistry;
+    private final ExecutorService executor;
+    private final Timer selectionTimer;
+    private final DistributionSummary costSaved;
+    private final DistributionSummary validCandidates;
+
+    private final int candidates;
+    private final List<Double> temperatures;
+    private final Duration timeout;
+
+    public SqlCandidateSelector(QueryExecutionService queryExecutionService,
+                                MeterRegistry meterRegistry,
+                                @Value("${app.candidates.count:3}") int candidates,
+                                @Value("${app.candidates.temperatures:0.4,0.8}") List<Double> temperatures,
+                                @Value("${app.candidates.timeout:60s}") Duration timeout,
+                                @Value("${app.candidates.parallelism:3}") int parallelism) {
+        this.queryExecutionService = queryExecutionService;
+        this.meterRegistry = meterRegistry;
+        this.candidates = Math.max(1, candidates);
+        this.temperatures = temperatures;
+        this.timeout = timeout;
+        this.executor = Executors.newFixedThreadPool(parallelism);
+        this.selectionTimer = Timer.builder("sql.candidates.time")
+                .description("Time to generate and rank SQL candidates")
+                .register(meterRegistry);
+        this.costSaved = DistributionSummary.builder("sql.candidates.cost.saved")
+                .description("EXPLAIN cost of the first candidate minus that of the selected one")
+                .register(meterRegistry);
+        this.validCandidates = DistributionSummary.builder("sql.candidates.valid")
+                .description("Candidates per question that MySQL could plan")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Number of candidates to generate per question.
+     */
+    public int getCandidates() {
+        return candidates;
+    }
+
+    /**
+     * Sampling temperature for the candidate at {@code index}; the first candidate uses the
+     * model's default, so {@code index} starts at 1.
+     */
+    public double temperature(int index) {
+        return temperatures.get((index - 1) % temperatures.size());
+    }
+
+    /**
+     * Runs the generators and returns the cheapest valid statement.
+     *
+     * @param generators produce one SQL statement each; the first is the regular sample that the
+     *                   others are compared against
+     * @return the cheapest candidate MySQL can plan, or the first one generated when none is valid
+     */
+    public String select(String dataSource, List<Callable<String>> generators) {
+        long start = System.nanoTime();
+
+        // The generators run on the pool, so they have to be bound to the request's token and
+        // caller there
+        CancellationToken token = CancellationToken.current();
+        LlmScheduler.Caller caller = LlmScheduler.Caller.current();
+        List<Callable<String>> tasks = generators.stream()
+                .map(generator -> (Callable<String>) () -> {
+                    try (CancellationToken.Scope ignored = caller.bind();
+                         CancellationToken.Scope ignoredToken = token != null ? token.activate() : null) {
+                        return generator.call();
+                    }
+                })
+                .toList();
+        Duration wait = token == null || timeout.compareTo(token.remaining()) < 0 ? timeout : token.remaining();
+
+        List<Future<String>> futures;
+        try {
+            futures = executor.invokeAll(tasks, wait.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new QueryGenerationException("Interrupted while generating SQL candidates", e);
+        }
+
+        List<String> generated = new ArrayList<>(futures.size());
+        for (Future<String> future : futures) {
+            generated.add(result(future));
+        }
+
+        int winner = -1;
+        double winnerCost = Double.NaN;
+        double firstCost = Double.NaN;
+        int valid = 0;
+        for (int i = 0; i < generated.size(); i++) {
+            String sql = generated.get(i);
+            if (sql == null) {
+                continue;
+            }
+            double cost;
+            try {
+                cost = queryExecutionService.explainCost(dataSource, sql);
+            } catch (Exception e) {
+                log.debug("Discarding SQL candidate {}: {}", i, e.getMessage());
+                continue;
+            }
+            valid++;
+            if (i == 0) {
+                firstCost = cost;
+            }
+            // Double.compare ranks NaN last, so candidates without a cost estimate only win when none has one
+            if (winner < 0 || Double.compare(cost, winnerCost) < 0) {
+                winner = i;
+                winnerCost = cost;
+            }
+        }
+        selectionTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        validCandidates.record(valid);
+
+        if (token != null) {
+            token.throwIfCancelled();
+        }
+        if (winner < 0) {
+            meterRegistry.counter("sql.candidates.selected", "winner", "none").increment();
+            return generated.stream()
+                    .filter(sql -> sql != null)
+                    .findFirst()
+                    .orElseThrow(() -> new QueryGenerationException("No SQL candidate was generated within " + timeout));
+        }
+        meterRegistry.counter("sql.candidates.selected", "winner", winner == 0 ? "first" : "other").increment();
+        if (!Double.isNaN(firstCost) && !Double.isNaN(winnerCost)) {
+            costSaved.record(firstCost - winnerCost);
+        }
+        log.info("Selected SQL candidate {} of {} with cost {} (first: {})",
+                winner + 1, generated.size(), winnerCost, firstCost);
+        return generated.get(winner);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static String result(Future<String> future) {
+        try {
+            return future.get();
+        } catch (CancellationException e) {
+            return null;
+        } catch (ExecutionException e) {
+            log.debug("SQL candidate generation failed: {}", e.getCause().getMessage());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+}
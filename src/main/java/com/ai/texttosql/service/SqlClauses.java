@@ -0,0 +1,198 @@
+package com.ai.texttosql.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Locates the top-level clauses of a single SELECT statement, ignoring anything inside
+ * parentheses, quotes and comments, so that generated SQL can be rewritten clause by clause.
+ */
+final class SqlClauses {
+
+    static final String SELECT = "SELECT";
+    static final String FROM = "FROM";
+    static final String WHERE = "WHERE";
+    static final String GROUP_BY = "GROUP BY";
+    static final String HAVING = "HAVING";
+    static final String WINDOW = "WINDOW";
+    static final String ORDER_BY = "ORDER BY";
+    static final String LIMIT = "LIMIT";
+    static final String FOR = "FOR";
+    static final String INTO = "INTO";
+
+    private static final Set<String> CLAUSES = Set.of(SELECT, FROM, WHERE, GROUP_BY, HAVING, WINDOW, ORDER_BY, LIMIT, FOR, INTO);
+    private static final Set<String> COMPOUND = Set.of("UNION", "EXCEPT", "INTERSECT");
+
+    private final String sql;
+    private final Map<String, int[]> clauses = new HashMap<>();
+    private final List<int[]> order = new ArrayList<>();
+    private boolean compound;
+
+    private SqlClauses(String sql) {
+        this.sql = sql;
+    }
+
+    static SqlClauses parse(String sql) {
+        SqlClauses parsed = new SqlClauses(sql);
+        int n = sql.length();
+        int depth = 0;
+        int i = 0;
+        while (i < n) {
+            char c = sql.charAt(i);
+            if (c == '\'' || c == '"' || c == '`') {
+                i = skipQuoted(sql, i);
+            } else if ((c == '-' && i + 1 < n && sql.charAt(i + 1) == '-') || c == '#') {
+                int end = sql.indexOf('\n', i);
+                i = end < 0 ? n : end + 1;
+            } else if (c == '/' && i + 1 < n && sql.charAt(i + 1) == '*') {
+                int end = sql.indexOf("*/", i + 2);
+                i = end < 0 ? n : end + 2;
+            } else if (c == '(') {
+                depth++;
+                i++;
+            } else if (c == ')') {
+                depth--;
+                i++;
+            } else if (Character.isLetter(c) && depth == 0 && (i == 0 || !isWordChar(sql.charAt(i - 1)))) {
+                int end = wordEnd(sql, i);
+                String word = sql.substring(i, end).toUpperCase(Locale.ROOT);
+                if (word.equals("GROUP") || word.equals("ORDER")) {
+                    int by = skipWhitespace(sql, end);
+                    int byEnd = wordEnd(sql, by);
+                    if ("BY".equalsIgnoreCase(sql.substring(by, byEnd))) {
+                        parsed.record(word + " BY", i, byEnd);
+                        end = byEnd;
+                    }
+                } else if (CLAUSES.contains(word)) {
+                    parsed.record(word, i, end);
+                } else if (COMPOUND.contains(word)) {
+                    parsed.compound = true;
+                }
+                i = end;
+            } else {
+                i++;
+            }
+        }
+        return parsed;
+    }
+
+    /**
+     * True for UNION, EXCEPT and INTERSECT statements, whose clauses are not tracked.
+     */
+    boolean isCompound() {
+        return compound;
+    }
+
+    boolean has(String clause) {
+        return clauses.containsKey(clause);
+    }
+
+    /**
+     * Index of the clause keyword, or -1 when the statement has no such clause.
+     */
+    int start(String clause) {
+        int[] position = clauses.get(clause);
+        return position == null ? -1 : position[0];
+    }
+
+    /**
+     * Index just after the clause keyword.
+     */
+    int bodyStart(String clause) {
+        return clauses.get(clause)[1];
+    }
+
+    /**
+     * Index where the clause ends: the start of the next top-level clause, or the end of the statement.
+     */
+    int end(String clause) {
+        int start = start(clause);
+        int end = sql.length();
+        for (int[] position : order) {
+            if (position[0] > start && position[0] < end) {
+                end = position[0];
+            }
+        }
+        return end;
+    }
+
+    String body(String clause) {
+        return sql.substring(bodyStart(clause), end(clause)).trim();
+    }
+
+    /**
+     * Splits a clause body on commas outside parentheses and quotes.
+     */
+    static List<String> splitTopLevel(String text) {
+        List<String> parts = new ArrayList<>();
+        int depth = 0;
+        int partStart = 0;
+        int i = 0;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (c == '\'' || c == '"' || c == '`') {
+                i = skipQuoted(text, i);
+                continue;
+            }
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                parts.add(text.substring(partStart, i).trim());
+                partStart = i + 1;
+            }
+            i++;
+        }
+        parts.add(text.substring(partStart).trim());
+        return parts;
+    }
+
+    private void record(String clause, int start, int end) {
+        if (!clauses.containsKey(clause)) {
+            int[] position = {start, end};
+            clauses.put(clause, position);
+            order.add(position);
+        }
+    }
+
+    /**
+     * Index just after the quoted string, identifier or literal that starts at {@code start}.
+     */
+    static int skipQuoted(String sql, int start) {
+        char quote = sql.charAt(start);
+        for (int i = start + 1; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (c == '\\' && quote != '`') {
+                i++;
+            } else if (c == quote) {
+                if (i + 1 < sql.length() && sql.charAt(i + 1) == quote) {
+                    i++;
+                } else {
+                    return i + 1;
+                }
+            }
+        }
+        return sql.length();
+    }
+
+    private static int skipWhitespace(String sql, int start) {
+        int i = start;
+        while (i < sql.length() && Character.isWhitespace(sql.charAt(i))) i++;
+        return i;
+    }
+
+    private static int wordEnd(String sql, int start) {
+        int i = start;
+        while (i < sql.length() && isWordChar(sql.charAt(i))) i++;
+        return i;
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+    }
+}
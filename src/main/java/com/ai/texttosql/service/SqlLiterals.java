@@ -0,0 +1,172 @@
+package com.ai.texttosql.service;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the literals in a generated SQL statement and decides which of them can safely be
+ * replaced by bind parameters.
+ * <p>
+ * Positional references ({@code ORDER BY 2}), type arguments ({@code DECIMAL(10,2)}) and
+ * quoted aliases ({@code AS 'total'}) are reported but marked as not bindable.
+ */
+final class SqlLiterals {
+
+    enum Type { NUMBER, STRING, DATE }
+
+    record Literal(int start, int end, Type type, String text, Object value, boolean bindable) {
+    }
+
+    private static final Set<String> CLAUSE_KEYWORDS = Set.of(
+            "SELECT", "FROM", "WHERE", "BY", "HAVING", "LIMIT", "ON", "JOIN", "SET", "VALUES", "UNION");
+
+    private static final Pattern TYPE_ARGUMENT_PREFIX = Pattern.compile(
+            "(?i)\\b(DECIMAL|NUMERIC|DEC|CHAR|VARCHAR|FLOAT|DOUBLE|BINARY|VARBINARY|DATETIME|TIME|TIMESTAMP)\\s*\\(\\s*(\\d+\\s*,\\s*)?$");
+
+    private SqlLiterals() {
+    }
+
+    static List<Literal> extract(String sql) {
+        List<Literal> literals = new ArrayList<>();
+        String previousToken = "";
+        String clause = "";
+        int n = sql.length();
+        int i = 0;
+
+        while (i < n) {
+            char c = sql.charAt(i);
+
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '\'') {
+                int end = closingQuote(sql, i);
+                if (end < 0) {
+                    break;
+                }
+                String text = sql.substring(i, end + 1);
+                Matcher date = TextToSqlService.DATE_PATTERN.matcher(sql).region(i, n);
+                boolean isDate = date.lookingAt() && date.end() == end + 1;
+                literals.add(new Literal(i, end + 1, isDate ? Type.DATE : Type.STRING, text,
+                        unquote(text), !"AS".equals(previousToken)));
+                previousToken = "?";
+                i = end + 1;
+            } else if (Character.isDigit(c) && !isIdentifierChar(sql, i - 1)) {
+                int end = numberEnd(sql, i);
+                if (end < n && isIdentifierPart(sql.charAt(end))) {
+                    // Identifiers may start with a digit in MySQL
+                    i = wordEnd(sql, i);
+                    previousToken = "";
+                    continue;
+                }
+                String text = sql.substring(i, end);
+                boolean positional = "BY".equals(previousToken) || (",".equals(previousToken) && "BY".equals(clause));
+                boolean typeArgument = TYPE_ARGUMENT_PREFIX.matcher(sql.substring(Math.max(0, i - 40), i)).find();
+                literals.add(new Literal(i, end, Type.NUMBER, text, new BigDecimal(text), !positional && !typeArgument));
+                previousToken = "?";
+                i = end;
+            } else if (Character.isLetter(c) || c == '_') {
+                int end = wordEnd(sql, i);
+                previousToken = sql.substring(i, end).toUpperCase(Locale.ROOT);
+                if (CLAUSE_KEYWORDS.contains(previousToken)) {
+                    clause = previousToken;
+                }
+                i = end;
+            } else if (c == '`' || c == '"') {
+                int end = sql.indexOf(c, i + 1);
+                previousToken = "";
+                i = end < 0 ? n : end + 1;
+            } else if ((c == '-' && i + 1 < n && sql.charAt(i + 1) == '-') || c == '#') {
+                int end = sql.indexOf('\n', i);
+                i = end < 0 ? n : end + 1;
+            } else if (c == '/' && i + 1 < n && sql.charAt(i + 1) == '*') {
+                int end = sql.indexOf("*/", i + 2);
+                i = end < 0 ? n : end + 2;
+            } else {
+                previousToken = String.valueOf(c);
+                i++;
+            }
+        }
+        return literals;
+    }
+
+    /**
+     * The statement with every literal replaced by {@code ?}; statements that differ only in
+     * literal values share a skeleton.
+     */
+    static String skeleton(String sql, List<Literal> literals) {
+        StringBuilder skeleton = new StringBuilder(sql.length());
+        int position = 0;
+        for (Literal literal : literals) {
+            skeleton.append(sql, position, literal.start()).append('?');
+            position = literal.end();
+        }
+        return skeleton.append(sql, position, sql.length()).toString();
+    }
+
+    static String quote(String value) {
+        return "'" + value.replace("\\", "\\\\").replace("'", "''") + "'";
+    }
+
+    private static int closingQuote(String sql, int start) {
+        for (int i = start + 1; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '\'') {
+                if (i + 1 < sql.length() && sql.charAt(i + 1) == '\'') {
+                    i++;
+                } else {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static String unquote(String text) {
+        StringBuilder value = new StringBuilder(text.length());
+        for (int i = 1; i < text.length() - 1; i++) {
+            char c = text.charAt(i);
+            if ((c == '\\' || c == '\'') && i + 1 < text.length() - 1) {
+                value.append(text.charAt(++i));
+            } else {
+                value.append(c);
+            }
+        }
+        return value.toString();
+    }
+
+    private static int numberEnd(String sql, int start) {
+        int i = start;
+        int n = sql.length();
+        while (i < n && Character.isDigit(sql.charAt(i))) i++;
+        if (i + 1 < n && sql.charAt(i) == '.' && Character.isDigit(sql.charAt(i + 1))) {
+            i++;
+            while (i < n && Character.isDigit(sql.charAt(i))) i++;
+        }
+        return i;
+    }
+
+    private static int wordEnd(String sql, int start) {
+        int i = start;
+        while (i < sql.length() && isIdentifierPart(sql.charAt(i))) i++;
+        return i;
+    }
+
+    private static boolean isIdentifierChar(String sql, int index) {
+        if (index < 0) {
+            return false;
+        }
+        char c = sql.charAt(index);
+        return isIdentifierPart(c) || c == '.' || c == '`';
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+    }
+}
@@ -0,0 +1,624 @@
+package com.ai.texttosql.service;
+
+import com.ai.texttosql.model.SchemaInfo;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Rewrites generated SQL into faster equivalent SQL using the index and foreign key metadata of
+ * the schema.
+ * <p>
+ * The model writes correct statements that MySQL often cannot plan well. Every rule below fires
+ * only when the schema shows that the rewritten statement returns the same rows:
+ * <ul>
+ *   <li>{@value #SARGABLE_DATES}: {@code YEAR(col) = 2024}, {@code DATE(col) = '...'} and
+ *   {@code DATE_FORMAT(col, '%Y-%m') = '...'} on an indexed date column become ranges on the
+ *   column itself, so that the index can be used</li>
+ *   <li>{@value #SELF_JOIN}: a table joined to itself on its primary key is read once</li>
+ *   <li>{@value #UNUSED_JOIN}: a join none of whose columns are used is dropped when it matches
+ *   exactly one row, i.e. a LEFT JOIN on a unique key or a join along a NOT NULL foreign key</li>
+ *   <li>{@value #STAR_PROJECTION}: {@code EXISTS} subqueries select a constant</li>
+ *   <li>{@value #REDUNDANT_ORDER_BY}: ORDER BY without LIMIT is dropped from subqueries and from
+ *   aggregates that return a single row</li>
+ * </ul>
+ * The rules are applied to each subquery and then to the statement around it. A rewritten
+ * statement is checked with EXPLAIN and the original is kept if MySQL rejects it. A sample of the
+ * rewrites is run both ways in the background to record the speedup.
+ */
+@Slf4j
+@Service
+public class SqlOptimizer {
+
+    static final String SARGABLE_DATES = "sargable-dates";
+    static final String SELF_JOIN = "self-join";
+    static final String UNUSED_JOIN = "unused-join";
+    static final String STAR_PROJECTION = "star-projection";
+    static final String REDUNDANT_ORDER_BY = "redundant-order-by";
+
+    private static final String COLUMN = "((?:`?\\w+`?\\s*\\.\\s*)?`?\\w+`?)";
+    private static final String DATE = "'(\\d{4}-\\d{2}-\\d{2})'";
+    private static final String COMPARISON = "\\s*(>=|<=|=|>|<)\\s*";
+    private static final List<DateRule> DATE_RULES = List.of(
+            new DateRule(Pattern.compile("(?i)\\bYEAR\\s*\\(\\s*" + COLUMN + "\\s*\\)\\s*=\\s*(\\d{4})\\s+AND\\s+MONTH\\s*\\(\\s*\\1\\s*\\)\\s*=\\s*(\\d{1,2})\\b"),
+                    m -> month(m.group(1), Integer.parseInt(m.group(2)), Integer.parseInt(m.group(3)))),
+            new DateRule(Pattern.compile("(?i)\\bMONTH\\s*\\(\\s*" + COLUMN + "\\s*\\)\\s*=\\s*(\\d{1,2})\\s+AND\\s+YEAR\\s*\\(\\s*\\1\\s*\\)\\s*=\\s*(\\d{4})\\b"),
+                    m -> month(m.group(1), Integer.parseInt(m.group(3)), Integer.parseInt(m.group(2)))),
+            new DateRule(Pattern.compile("(?i)\\bDATE_FORMAT\\s*\\(\\s*" + COLUMN + "\\s*,\\s*'%Y-%m'\\s*\\)\\s*=\\s*'(\\d{4})-(\\d{2})'"),
+                    m -> month(m.group(1), Integer.parseInt(m.group(2)), Integer.parseInt(m.group(3)))),
+            new DateRule(Pattern.compile("(?i)\\bYEAR\\s*\\(\\s*" + COLUMN + "\\s*\\)\\s+BETWEEN\\s+(\\d{4})\\s+AND\\s+(\\d{4})\\b"),
+                    m -> range(m.group(1), LocalDate.of(Integer.parseInt(m.group(2)), 1, 1),
+                            LocalDate.of(Integer.parseInt(m.group(3)) + 1, 1, 1))),
+            new DateRule(Pattern.compile("(?i)\\bYEAR\\s*\\(\\s*" + COLUMN + "\\s*\\)" + COMPARISON + "(\\d{4})\\b"),
+                    m -> compare(m.group(1), m.group(2), LocalDate.of(Integer.parseInt(m.group(3)), 1, 1),
+                            LocalDate.of(Integer.parseInt(m.group(3)) + 1, 1, 1))),
+            new DateRule(Pattern.compile("(?i)\\bDATE\\s*\\(\\s*" + COLUMN + "\\s*\\)\\s+BETWEEN\\s+" + DATE + "\\s+AND\\s+" + DATE),
+                    m -> range(m.group(1), LocalDate.parse(m.group(2)), LocalDate.parse(m.group(3)).plusDays(1))),
+            new DateRule(Pattern.compile("(?i)\\bDATE\\s*\\(\\s*" + COLUMN + "\\s*\\)" + COMPARISON + DATE),
+                    m -> compare(m.group(1), m.group(2), LocalDate.parse(m.group(3)), LocalDate.parse(m.group(3)).plusDays(1))));
+    private static final Set<String> DATE_TYPES = Set.of("date", "datetime", "timestamp");
+    private static final Pattern EXISTS_BEFORE = Pattern.compile("(?i)\\bEXISTS\\s*$");
+    private static final Pattern SELECT_START = Pattern.compile("(?i)^\\s*SELECT\\b");
+    private static final Pattern BARE_WORD = Pattern.compile("(?<![\\w.@])(\\w+)\\b(?!\\s*[.(])");
+    private static final Pattern WINDOW_FUNCTION = Pattern.compile("(?i)\\bOVER\\s*[(\\w]");
+
+    private final SchemaAnalysisService schemaAnalysisService;
+    private final QueryExecutionService queryExecutionService;
+    private final MeterRegistry meterRegistry;
+    private final ThreadPoolExecutor measurer;
+
+    private final boolean enabled;
+    private final double measureSampleRate;
+    private final int measureMaxRows;
+
+    public SqlOptimizer(SchemaAnalysisService schemaAnalysisService,
+                        QueryExecutionService queryExecutionService,
+                        MeterRegistry meterRegistry,
+                        @Value("${app.optimizer.enabled:true}") boolean enabled,
+                        @Value("${app.optimizer.measure-sample-rate:0.1}") double measureSampleRate,
+                        @Value("${app.optimizer.measure-max-rows:1000}") int measureMaxRows) {
+        this.schemaAnalysisService = schemaAnalysisService;
+        this.queryExecutionService = queryExecutionService;
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.measureSampleRate = measureSampleRate;
+        this.measureMaxRows = measureMaxRows;
+        // Measurements are best effort: beyond a short backlog they are dropped rather than queued up
+        this.measurer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(4), new ThreadPoolExecutor.DiscardPolicy());
+    }
+
+    /**
+     * Returns the optimized form of a statement, or the statement itself when no rule applies or
+     * the rewrite does not pass EXPLAIN.
+     */
+    public String optimize(String dataSource, String sql) {
+        if (!enabled || sql == null) {
+            return sql;
+        }
+        Set<String> rules = new LinkedHashSet<>();
+        String optimized;
+        try {
+            optimized = rewrite(dataSource, sql, false, false, rules);
+        } catch (RuntimeException e) {
+            log.debug("Skipping optimization of {}: {}", sql, e.getMessage());
+            return sql;
+        }
+        if (rules.isEmpty() || optimized.equals(sql)) {
+            return sql;
+        }
+        try {
+            queryExecutionService.validateExecutable(dataSource, optimized);
+        } catch (Exception e) {
+            log.warn("Discarding {} rewrite rejected by MySQL: {}", rules, e.getMessage());
+            meterRegistry.counter("sql.optimizer.rewrites", "rule", "rejected").increment();
+            return sql;
+        }
+
+        log.info("Optimized SQL with {}: {} -> {}", rules, sql, optimized);
+        rules.forEach(rule -> meterRegistry.counter("sql.optimizer.rewrites", "rule", rule).increment());
+        if (ThreadLocalRandom.current().nextDouble() < measureSampleRate) {
+            measurer.execute(() -> measure(dataSource, sql, optimized, rules));
+        }
+        return optimized;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        measurer.shutdownNow();
+    }
+
+    private String rewrite(String dataSource, String sql, boolean nested, boolean exists, Set<String> rules) {
+        sql = rewriteSubqueries(dataSource, sql, rules);
+        SqlClauses clauses = SqlClauses.parse(sql);
+        if (clauses.isCompound() || clauses.start(SqlClauses.SELECT) != 0 || !clauses.has(SqlClauses.FROM)) {
+            return sql;
+        }
+        sql = removeSelfJoins(dataSource, sql, rules);
+        sql = removeUnusedJoins(dataSource, sql, rules);
+        sql = sargableDates(dataSource, sql, rules);
+        if (exists) {
+            sql = constantExistsProjection(sql, rules);
+        }
+        return removeRedundantOrderBy(sql, nested, rules);
+    }
+
+    /**
+     * Optimizes the {@code (SELECT ...)} subqueries directly inside a statement.
+     */
+    private String rewriteSubqueries(String dataSource, String sql, Set<String> rules) {
+        StringBuilder rewritten = new StringBuilder(sql.length());
+        int last = 0;
+        for (int[] subquery : subqueries(sql)) {
+            boolean exists = EXISTS_BEFORE.matcher(sql.substring(0, subquery[0])).find();
+            rewritten.append(sql, last, subquery[0] + 1)
+                    .append(rewrite(dataSource, sql.substring(subquery[0] + 1, subquery[1]), true, exists, rules));
+            last = subquery[1];
+        }
+        return rewritten.append(sql.substring(last)).toString();
+    }
+
+    /**
+     * Drops {@code JOIN t b ON a.id = b.id} when {@code a} is the same table and {@code id} its
+     * primary key, and points references to {@code b} at {@code a}.
+     */
+    private String removeSelfJoins(String dataSource, String sql, Set<String> rules) {
+        SqlClauses clauses = SqlClauses.parse(sql);
+        List<Join> joins = parseFrom(dataSource, clauses.body(SqlClauses.FROM));
+        if (joins == null) {
+            return sql;
+        }
+        for (int j = 1; j < joins.size(); j++) {
+            Join joined = joins.get(j);
+            Matcher equality = equality(joined);
+            if (equality == null || joined.ref().alias() == null) {
+                continue;
+            }
+            for (int i = 0; i < j; i++) {
+                Join original = joins.get(i);
+                // Rows null-extended by an outer join of the original would be filtered out by the self-join
+                if (!original.ref().table().equalsIgnoreCase(joined.ref().table()) || original.ref().alias() == null
+                        || i > 0 && original.type().equals("LEFT")) {
+                    continue;
+                }
+                boolean sameKey = equality.group(2).equalsIgnoreCase(equality.group(4))
+                        && (original.ref().matches(equality.group(1)) && joined.ref().matches(equality.group(3))
+                        || joined.ref().matches(equality.group(1)) && original.ref().matches(equality.group(3)));
+                SchemaInfo.ColumnInfo key = original.ref().column(equality.group(2));
+                if (sameKey && key != null && !key.isNullable() && original.ref().isUniqueColumn(key.getName())) {
+                    rules.add(SELF_JOIN);
+                    return requalify(withoutJoin(sql, clauses, joins, j), joined.ref().alias(), original.ref().alias());
+                }
+            }
+        }
+        return sql;
+    }
+
+    /**
+     * Drops joins that match exactly one row and whose columns are not used anywhere else.
+     */
+    private String removeUnusedJoins(String dataSource, String sql, Set<String> rules) {
+        boolean removed = true;
+        while (removed) {
+            removed = false;
+            SqlClauses clauses = SqlClauses.parse(sql);
+            List<Join> joins = parseFrom(dataSource, clauses.body(SqlClauses.FROM));
+            if (joins == null) {
+                return sql;
+            }
+            for (int j = 1; j < joins.size() && !removed; j++) {
+                String without = withoutJoin(sql, clauses, joins, j);
+                if (matchesExactlyOneRow(joins, j) && !references(without, joins.get(j).ref())) {
+                    sql = without;
+                    rules.add(UNUSED_JOIN);
+                    removed = true;
+                }
+            }
+        }
+        return sql;
+    }
+
+    /**
+     * True when every row coming into the join finds exactly one row of the joined table, so
+     * that dropping the join changes neither the number of rows nor, if its columns are unused,
+     * their values.
+     */
+    private static boolean matchesExactlyOneRow(List<Join> joins, int index) {
+        Join joined = joins.get(index);
+        Matcher equality = equality(joined);
+        if (equality == null) {
+            return false;
+        }
+        int own = joined.ref().matches(equality.group(1)) ? 1 : joined.ref().matches(equality.group(3)) ? 3 : 0;
+        if (own == 0 || !joined.ref().isUniqueColumn(equality.group(own + 1))) {
+            return false;
+        }
+        // A LEFT JOIN on a unique key yields at most one match, and keeps the row without one
+        if (joined.type().equals("LEFT")) {
+            return true;
+        }
+
+        // An inner join only keeps every row when a NOT NULL foreign key guarantees the match
+        String otherQualifier = equality.group(own == 1 ? 3 : 1);
+        String otherColumn = equality.group(own == 1 ? 4 : 2);
+        String ownColumn = equality.group(own + 1);
+        Join other = joins.stream()
+                .filter(join -> join != joined && join.ref().matches(otherQualifier))
+                .findFirst()
+                .orElse(null);
+        if (other == null || other.type().equals("LEFT")) {
+            return false;
+        }
+        SchemaInfo.ColumnInfo foreignKeyColumn = other.ref().column(otherColumn);
+        return foreignKeyColumn != null && !foreignKeyColumn.isNullable()
+                && other.ref().schema().getForeignKeys() != null
+                && other.ref().schema().getForeignKeys().stream().anyMatch(fk ->
+                        fk.getColumnName().equalsIgnoreCase(otherColumn)
+                                && fk.getReferencedTable().equalsIgnoreCase(joined.ref().table())
+                                && fk.getReferencedColumn().equalsIgnoreCase(ownColumn));
+    }
+
+    /**
+     * Replaces functions of indexed date columns in the WHERE clause by ranges on the columns.
+     */
+    private String sargableDates(String dataSource, String sql, Set<String> rules) {
+        SqlClauses clauses = SqlClauses.parse(sql);
+        if (!clauses.has(SqlClauses.WHERE)) {
+            return sql;
+        }
+        List<Join> joins = parseFrom(dataSource, clauses.body(SqlClauses.FROM));
+        if (joins == null) {
+            return sql;
+        }
+        List<KeysetPaginator.TableRef> tables = joins.stream().map(Join::ref).toList();
+        int start = clauses.bodyStart(SqlClauses.WHERE);
+        int end = clauses.end(SqlClauses.WHERE);
+        String where = sql.substring(start, end);
+        String rewritten = where;
+        for (DateRule rule : DATE_RULES) {
+            rewritten = rule.apply(rewritten, column -> isIndexedDate(tables, column));
+        }
+        if (rewritten.equals(where)) {
+            return sql;
+        }
+        rules.add(SARGABLE_DATES);
+        return sql.substring(0, start) + rewritten + sql.substring(end);
+    }
+
+    private static boolean isIndexedDate(List<KeysetPaginator.TableRef> tables, String column) {
+        String[] parts = column.replace("`", "").split("\\s*\\.\\s*");
+        String qualifier = parts.length == 2 ? parts[0] : null;
+        String name = parts[parts.length - 1];
+        List<KeysetPaginator.TableRef> candidates = tables.stream()
+                .filter(t -> qualifier != null ? t.matches(qualifier) : t.column(name) != null)
+                .toList();
+        if (candidates.size() != 1) {
+            return false;
+        }
+        KeysetPaginator.TableRef table = candidates.get(0);
+        SchemaInfo.ColumnInfo info = table.column(name);
+        return info != null && DATE_TYPES.contains(info.getType().toLowerCase(Locale.ROOT)) && table.leadsIndex(name);
+    }
+
+    /**
+     * Selects a constant in an EXISTS subquery, which only needs to find a row.
+     */
+    private static String constantExistsProjection(String sql, Set<String> rules) {
+        SqlClauses clauses = SqlClauses.parse(sql);
+        String select = clauses.body(SqlClauses.SELECT);
+        // Without GROUP BY an aggregate always returns a row, so it cannot be replaced
+        if (select.equals("1") || clauses.has(SqlClauses.GROUP_BY) || clauses.has(SqlClauses.HAVING)
+                || KeysetPaginator.AGGREGATE.matcher(maskSubqueries(select)).find()) {
+            return sql;
+        }
+        rules.add(STAR_PROJECTION);
+        return sql.substring(0, clauses.bodyStart(SqlClauses.SELECT)) + " 1 "
+                + sql.substring(clauses.end(SqlClauses.SELECT)).stripLeading();
+    }
+
+    /**
+     * Drops ORDER BY where it cannot affect the result: in subqueries without LIMIT, whose order
+     * MySQL does not preserve anyway, and in aggregates without GROUP BY, which return one row.
+     * The outer ORDER BY of other statements is kept since the executor pages them with LIMIT.
+     */
+    private static String removeRedundantOrderBy(String sql, boolean nested, Set<String> rules) {
+        SqlClauses clauses = SqlClauses.parse(sql);
+        if (!clauses.has(SqlClauses.ORDER_BY) || clauses.has(SqlClauses.LIMIT)) {
+            return sql;
+        }
+        // An aggregate inside a subquery of the select list is evaluated per row, not over the result
+        String select = maskSubqueries(clauses.body(SqlClauses.SELECT));
+        boolean singleRow = !clauses.has(SqlClauses.GROUP_BY) && KeysetPaginator.AGGREGATE.matcher(select).find()
+                && !WINDOW_FUNCTION.matcher(select).find();
+        if (!nested && !singleRow) {
+            return sql;
+        }
+        rules.add(REDUNDANT_ORDER_BY);
+        return (sql.substring(0, clauses.start(SqlClauses.ORDER_BY)).stripTrailing() + " "
+                + sql.substring(clauses.end(SqlClauses.ORDER_BY)).stripLeading()).strip();
+    }
+
+    private List<Join> parseFrom(String dataSource, String from) {
+        if (from == null) {
+            return null;
+        }
+        Map<String, String> tableNames = schemaAnalysisService.getAllTableNames(dataSource).stream()
+                .collect(Collectors.toMap(t -> t.toLowerCase(Locale.ROOT), t -> t, (a, b) -> a));
+        List<Join> joins = new ArrayList<>();
+        for (String part : KeysetPaginator.JOIN_SPLIT.split(from.trim())) {
+            if (part.contains(",") || part.contains("(") && !part.toUpperCase(Locale.ROOT).contains(" ON ")) {
+                return null;
+            }
+            Matcher matcher = KeysetPaginator.TABLE_REFERENCE.matcher(part.trim());
+            if (!matcher.matches()) {
+                return null;
+            }
+            String joinType = matcher.group(1) != null ? matcher.group(1).toUpperCase(Locale.ROOT) : "";
+            if (!joins.isEmpty() && !(joinType.isEmpty() || joinType.equals("INNER") || joinType.equals("LEFT"))) {
+                return null;
+            }
+            String table = tableNames.get(matcher.group(2).toLowerCase(Locale.ROOT));
+            String alias = matcher.group(3);
+            if (table == null || alias != null && KeysetPaginator.NOT_ALIASES.contains(alias.toUpperCase(Locale.ROOT))) {
+                return null;
+            }
+            SchemaInfo schema = schemaAnalysisService.getTableSchema(dataSource, table);
+            if (schema.getColumns() == null || schema.getColumns().isEmpty()) {
+                return null;
+            }
+            joins.add(new Join(part, joinType,
+                    new KeysetPaginator.TableRef(table, alias, schema, joinType.equals("LEFT"), matcher.group(4))));
+        }
+        return joins;
+    }
+
+    /**
+     * Matches the join condition when it is a single column equality.
+     */
+    private static Matcher equality(Join join) {
+        String on = join.ref().on();
+        if (on == null) {
+            return null;
+        }
+        on = on.strip();
+        while (on.startsWith("(") && on.endsWith(")")) {
+            on = on.substring(1, on.length() - 1).strip();
+        }
+        Matcher matcher = KeysetPaginator.EQUALITY.matcher(on);
+        return matcher.matches() ? matcher : null;
+    }
+
+    private static String withoutJoin(String sql, SqlClauses clauses, List<Join> joins, int index) {
+        List<String> parts = new ArrayList<>();
+        for (int i = 0; i < joins.size(); i++) {
+            if (i != index) {
+                parts.add(joins.get(i).text().strip());
+            }
+        }
+        String tail = sql.substring(clauses.end(SqlClauses.FROM)).stripLeading();
+        return sql.substring(0, clauses.bodyStart(SqlClauses.FROM)).stripTrailing() + " " + String.join(" ", parts)
+                + (tail.isEmpty() ? "" : " " + tail);
+    }
+
+    /**
+     * True when the statement may use a column of the table: through its qualifier, through an
+     * unqualified name that is one of its columns, or through a bare {@code *}.
+     */
+    private static boolean references(String sql, KeysetPaginator.TableRef table) {
+        String text = maskLiterals(sql).replace("`", "");
+        String qualifier = table.alias() != null ? table.alias() : table.table();
+        if (Pattern.compile("(?i)(?<![\\w.])" + Pattern.quote(qualifier) + "\\s*\\.").matcher(text).find()) {
+            return true;
+        }
+        Set<String> columns = table.schema().getColumns().stream()
+                .map(c -> c.getName().toLowerCase(Locale.ROOT))
+                .collect(Collectors.toSet());
+        Matcher words = BARE_WORD.matcher(text);
+        while (words.find()) {
+            if (columns.contains(words.group(1).toLowerCase(Locale.ROOT))) {
+                return true;
+            }
+        }
+        return SqlClauses.splitTopLevel(SqlClauses.parse(sql).body(SqlClauses.SELECT)).stream()
+                .anyMatch(item -> item.strip().equals("*"));
+    }
+
+    /**
+     * Points qualified references from one alias to another.
+     */
+    private static String requalify(String sql, String from, String to) {
+        Matcher matcher = Pattern.compile("(?i)(?<![\\w.])`?" + Pattern.quote(from) + "`?(?=\\s*\\.)")
+                .matcher(maskLiterals(sql));
+        StringBuilder rewritten = new StringBuilder(sql.length());
+        int last = 0;
+        while (matcher.find()) {
+            rewritten.append(sql, last, matcher.start()).append(to);
+            last = matcher.end();
+        }
+        return rewritten.append(sql.substring(last)).toString();
+    }
+
+    /**
+     * Start and end index of the parentheses around each top-level {@code (SELECT ...)}.
+     */
+    private static List<int[]> subqueries(String sql) {
+        List<int[]> subqueries = new ArrayList<>();
+        int depth = 0;
+        int open = -1;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (c == '\'' || c == '"' || c == '`') {
+                i = SqlClauses.skipQuoted(sql, i) - 1;
+            } else if (c == '(') {
+                if (depth++ == 0) {
+                    open = i;
+                }
+            } else if (c == ')' && depth > 0 && --depth == 0
+                    && SELECT_START.matcher(sql.substring(open + 1, i)).find()) {
+                subqueries.add(new int[]{open, i});
+            }
+        }
+        return subqueries;
+    }
+
+    /**
+     * The statement with the contents of string literals blanked out, keeping every index.
+     */
+    private static String maskLiterals(String sql) {
+        StringBuilder masked = new StringBuilder(sql);
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (c == '\'' || c == '"') {
+                int end = SqlClauses.skipQuoted(sql, i);
+                for (int j = i + 1; j < end - 1; j++) {
+                    masked.setCharAt(j, ' ');
+                }
+                i = end - 1;
+            }
+        }
+        return masked.toString();
+    }
+
+    /**
+     * The text with string literals and the contents of parenthesized subqueries blanked out,
+     * keeping every index, so that only what belongs to the statement itself is left.
+     */
+    static String maskSubqueries(String sql) {
+        StringBuilder masked = new StringBuilder(maskLiterals(sql));
+        for (int[] subquery : subqueries(sql)) {
+            for (int i = subquery[0] + 1; i < subquery[1]; i++) {
+                masked.setCharAt(i, ' ');
+            }
+        }
+        return masked.toString();
+    }
+
+    private static String month(String column, int year, int month) {
+        if (month < 1 || month > 12) {
+            return null;
+        }
+        LocalDate first = LocalDate.of(year, month, 1);
+        return range(column, first, first.plusMonths(1));
+    }
+
+    private static String range(String column, LocalDate from, LocalDate until) {
+        return "(" + column + " >= '" + from + "' AND " + column + " < '" + until + "')";
+    }
+
+    /**
+     * Compares a column with a period that starts at {@code from} and ends before {@code until}.
+     */
+    private static String compare(String column, String operator, LocalDate from, LocalDate until) {
+        return switch (operator) {
+            case "=" -> range(column, from, until);
+            case ">=" -> column + " >= '" + from + "'";
+            case ">" -> column + " >= '" + until + "'";
+            case "<=" -> column + " < '" + until + "'";
+            default -> column + " < '" + from + "'";
+        };
+    }
+
+    /**
+     * Runs the original and the optimized statement alternately and records how much faster the
+     * optimized one is, taking the best of each to discount caching effects.
+     */
+    private void measure(String dataSource, String original, String optimized, Set<String> rules) {
+        try {
+            long originalNanos = Long.MAX_VALUE;
+            long optimizedNanos = Long.MAX_VALUE;
+            for (int run = 0; run < 2; run++) {
+                originalNanos = Math.min(originalNanos, time(dataSource, original));
+                optimizedNanos = Math.min(optimizedNanos, time(dataSource, optimized));
+            }
+            double speedup = (double) originalNanos / Math.max(1, optimizedNanos);
+            DistributionSummary.builder("sql.optimizer.speedup")
+                    .description("Run time of generated SQL divided by that of its optimized rewrite")
+                    .tag("rules", String.join(",", rules))
+                    .register(meterRegistry)
+                    .record(speedup);
+            log.info("Optimized SQL with {} ran in {} ms instead of {} ms", rules,
+                    TimeUnit.NANOSECONDS.toMillis(optimizedNanos), TimeUnit.NANOSECONDS.toMillis(originalNanos));
+        } catch (Exception e) {
+            log.debug("Could not measure optimized SQL: {}", e.getMessage());
+        }
+    }
+
+    private long time(String dataSource, String sql) {
+        long start = System.nanoTime();
+        queryExecutionService.queryRows(dataSource, sql, List.of(), measureMaxRows);
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * One table of the FROM clause with the text it was parsed from.
+     */
+    private record Join(String text, String type, KeysetPaginator.TableRef ref) {
+    }
+
+    /**
+     * A date predicate and its rewrite, which may be {@code null} to leave a match alone.
+     */
+    private record DateRule(Pattern pattern, Function<Matcher, String> rewrite) {
+
+        String apply(String where, Predicate<String> eligible) {
+            boolean[] opaque = opaque(where);
+            Matcher matcher = pattern.matcher(where);
+            StringBuilder rewritten = new StringBuilder(where.length());
+            int last = 0;
+            while (matcher.find()) {
+                if (opaque[matcher.start()] || !eligible.test(matcher.group(1))) {
+                    continue;
+                }
+                String replacement;
+                try {
+                    replacement = rewrite.apply(matcher);
+                } catch (DateTimeException e) {
+                    replacement = null;
+                }
+                if (replacement != null) {
+                    rewritten.append(where, last, matcher.start()).append(replacement);
+                    last = matcher.end();
+                }
+            }
+            return rewritten.append(where.substring(last)).toString();
+        }
+
+        /**
+         * Marks string literals and subqueries, whose columns belong to other tables.
+         */
+        private static boolean[] opaque(String where) {
+            boolean[] opaque = new boolean[where.length() + 1];
+            String masked = maskLiterals(where);
+            for (int i = 0; i < where.length(); i++) {
+                opaque[i] = masked.charAt(i) != where.charAt(i);
+            }
+            for (int[] subquery : subqueries(where)) {
+                for (int i = subquery[0]; i <= subquery[1]; i++) {
+                    opaque[i] = true;
+                }
+            }
+            return opaque;
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package com.ai.texttosql.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.HdrHistogram.AtomicHistogram;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Aggregated execution statistics per SQL fingerprint, in the spirit of
+ * {@code pg_stat_statements}.
+ * <p>
+ * A fingerprint is the statement with its literals replaced by {@code ?}, so that the same
+ * question asked about different values adds up in one entry. Executions are recorded without
+ * locking: counters are {@link LongAdder}s and latencies go into a fixed-size
+ * {@link AtomicHistogram}. When {@code app.sql-stats.max-statements} fingerprints are tracked,
+ * the least called one makes room for a new one. The totals are added to the
+ * {@code sql_statement_stats} table periodically.
+ */
+@Slf4j
+@Service
+public class SqlStatementStats {
+
+    private static final long MAX_TRACKED_MICROS = TimeUnit.HOURS.toMicros(1);
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern IN_LIST = Pattern.compile("(?i)\\bIN\\s*\\(\\s*\\?(?:\\s*,\\s*\\?)*\\s*\\)");
+
+    private final JdbcTemplate jdbcTemplate;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private final boolean enabled;
+    private final int maxStatements;
+
+    public SqlStatementStats(JdbcTemplate jdbcTemplate,
+                             MeterRegistry meterRegistry,
+                             @Value("${app.sql-stats.enabled:true}") boolean enabled,
+                             @Value("${app.sql-stats.max-statements:500}") int maxStatements) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.maxStatements = maxStatements;
+        meterRegistry.gaugeMapSize("sql.stats.statements", List.of(), entries);
+    }
+
+    /**
+     * Records one execution of a statement.
+     *
+     * @param rows number of rows returned, or a negative number when the execution failed
+     */
+    public void record(String sql, long elapsedNanos, long rows) {
+        if (!enabled || sql == null) {
+            return;
+        }
+        String normalized = normalize(sql);
+        Entry entry = entries.get(normalized);
+        if (entry == null) {
+            if (entries.size() >= maxStatements) {
+                evictLeastCalled();
+            }
+            entry = entries.computeIfAbsent(normalized, Entry::new);
+        }
+        entry.record(TimeUnit.NANOSECONDS.toMicros(elapsedNanos), rows);
+    }
+
+    /**
+     * The tracked statements with the highest total execution time, or by another order.
+     *
+     * @param orderBy one of {@code total_time}, {@code mean_time}, {@code calls}, {@code rows}
+     *                and {@code errors}
+     */
+    public List<StatementSummary> top(int limit, String orderBy) {
+        Comparator<StatementSummary> order = switch (orderBy == null ? "total_time" : orderBy.toLowerCase(Locale.ROOT)) {
+            case "mean_time" -> Comparator.comparingDouble(StatementSummary::meanTimeMs);
+            case "calls" -> Comparator.comparingLong(StatementSummary::calls);
+            case "rows" -> Comparator.comparingLong(StatementSummary::rows);
+            case "errors" -> Comparator.comparingLong(StatementSummary::errors);
+            default -> Comparator.comparingDouble(StatementSummary::totalTimeMs);
+        };
+        return entries.values().stream()
+                .map(Entry::summary)
+                .sorted(order.reversed())
+                .limit(Math.max(0, limit))
+                .toList();
+    }
+
+    /**
+     * Forgets all statistics that have not been flushed yet and starts over.
+     */
+    public void reset() {
+        entries.clear();
+    }
+
+    /**
+     * Adds what was recorded since the last flush to the summary table.
+     */
+    @Scheduled(fixedDelayString = "${app.sql-stats.flush-interval-ms:60000}",
+            initialDelayString = "${app.sql-stats.flush-interval-ms:60000}")
+    public void flush() {
+        if (!enabled) {
+            return;
+        }
+        List<Object[]> batch = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            Object[] delta = entry.takeDelta();
+            if (delta != null) {
+                batch.add(delta);
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            jdbcTemplate.batchUpdate("""
+                    INSERT INTO sql_statement_stats
+                        (fingerprint, query, calls, errors, rows_returned, total_time_ms,
+                         p50_time_ms, p95_time_ms, p99_time_ms, max_time_ms, first_seen, last_seen)
+                    VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
+                    ON DUPLICATE KEY UPDATE
+                        calls = calls + VALUES(calls),
+                        errors = errors + VALUES(errors),
+                        rows_returned = rows_returned + VALUES(rows_returned),
+                        total_time_ms = total_time_ms + VALUES(total_time_ms),
+                        p50_time_ms = VALUES(p50_time_ms),
+                        p95_time_ms = VALUES(p95_time_ms),
+                        p99_time_ms = VALUES(p99_time_ms),
+                        max_time_ms = GREATEST(max_time_ms, VALUES(max_time_ms)),
+                        last_seen = VALUES(last_seen)
+                    """, batch);
+            meterRegistry.counter("sql.stats.flushed").increment(batch.size());
+        } catch (Exception e) {
+            // The deltas are lost rather than retried, the in-memory totals are still complete
+            log.warn("Failed to flush statistics of {} statements: {}", batch.size(), e.getMessage());
+            meterRegistry.counter("sql.stats.flush.failures").increment();
+        }
+    }
+
+    /**
+     * The statement with literals replaced by {@code ?}, IN lists collapsed and whitespace and
+     * letter case normalized.
+     */
+    static String normalize(String sql) {
+        StringBuilder normalized = new StringBuilder(sql.length());
+        int last = 0;
+        for (SqlLiterals.Literal literal : SqlLiterals.extract(sql)) {
+            normalized.append(sql, last, literal.start()).append('?');
+            last = literal.end();
+        }
+        normalized.append(sql.substring(last));
+        String collapsed = WHITESPACE.matcher(normalized).replaceAll(" ").trim();
+        collapsed = IN_LIST.matcher(collapsed).replaceAll("IN (...)");
+        return collapsed.toUpperCase(Locale.ROOT);
+    }
+
+    static String fingerprint(String normalized) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(normalized.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(Arrays.copyOf(digest, 8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void evictLeastCalled() {
+        entries.values().stream()
+                .min(Comparator.comparingLong(entry -> entry.calls.sum()))
+                .ifPresent(entry -> {
+                    // Whatever was not flushed yet is lost with the entry
+                    if (entries.remove(entry.query, entry)) {
+                        meterRegistry.counter("sql.stats.evicted").increment();
+                    }
+                });
+    }
+
+    /**
+     * Statistics of one fingerprint as reported by the actuator endpoint.
+     */
+    public record StatementSummary(String fingerprint, String query, long calls, long errors, long rows,
+                                   double totalTimeMs, double meanTimeMs, double p50TimeMs, double p95TimeMs,
+                                   double p99TimeMs, double maxTimeMs, Instant firstSeen, Instant lastSeen) {
+    }
+
+    private static final class Entry {
+
+        private final String query;
+        private final String fingerprint;
+        private final Instant firstSeen = Instant.now();
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder rows = new LongAdder();
+        private final LongAdder totalMicros = new LongAdder();
+        private final AtomicHistogram latency = new AtomicHistogram(MAX_TRACKED_MICROS, 2);
+        private volatile long lastSeenMillis;
+
+        // What the summary table already has, only touched by the flush job
+        private long flushedCalls;
+        private long flushedErrors;
+        private long flushedRows;
+        private long flushedMicros;
+
+        Entry(String query) {
+            this.query = query;
+            this.fingerprint = SqlStatementStats.fingerprint(query);
+        }
+
+        void record(long micros, long returnedRows) {
+            calls.increment();
+            totalMicros.add(micros);
+            if (returnedRows < 0) {
+                errors.increment();
+            } else {
+                rows.add(returnedRows);
+            }
+            latency.recordValue(Math.max(1, Math.min(micros, MAX_TRACKED_MICROS)));
+            lastSeenMillis = System.currentTimeMillis();
+        }
+
+        StatementSummary summary() {
+            long callCount = calls.sum();
+            double totalMs = totalMicros.sum() / 1000.0;
+            return new StatementSummary(fingerprint, query, callCount, errors.sum(), rows.sum(),
+                    totalMs, callCount > 0 ? totalMs / callCount : 0,
+                    percentileMs(50), percentileMs(95), percentileMs(99), latency.getMaxValue() / 1000.0,
+                    firstSeen, Instant.ofEpochMilli(lastSeenMillis));
+        }
+
+        /**
+         * The row to add to the summary table, or {@code null} when nothing was recorded since
+         * the last flush.
+         */
+        Object[] takeDelta() {
+            long callCount = calls.sum();
+            if (callCount == flushedCalls) {
+                return null;
+            }
+            long errorCount = errors.sum();
+            long rowCount = rows.sum();
+            long micros = totalMicros.sum();
+            Object[] delta = {fingerprint, query, callCount - flushedCalls, errorCount - flushedErrors,
+                    rowCount - flushedRows, (micros - flushedMicros) / 1000.0,
+                    percentileMs(50), percentileMs(95), percentileMs(99), latency.getMaxValue() / 1000.0,
+                    Timestamp.from(firstSeen), new Timestamp(lastSeenMillis)};
+            flushedCalls = callCount;
+            flushedErrors = errorCount;
+            flushedRows = rowCount;
+            flushedMicros = micros;
+            return delta;
+        }
+
+        private double percentileMs(double percentile) {
+            return latency.getValueAtPercentile(percentile) / 1000.0;
+        }
+    }
+}
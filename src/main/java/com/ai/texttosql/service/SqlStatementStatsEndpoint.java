@@ -0,0 +1,39 @@
+package com.ai.texttosql.service;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Actuator endpoint at {@code /management/sqlstats} listing the most expensive generated
+ * statements, see {@link SqlStatementStats}.
+ */
+@Component
+@Endpoint(id = "sqlstats")
+@RequiredArgsConstructor
+public class SqlStatementStatsEndpoint {
+
+    private static final int DEFAULT_LIMIT = 20;
+
+    private final SqlStatementStats sqlStatementStats;
+
+    /**
+     * @param limit   number of statements, 20 by default
+     * @param orderBy {@code total_time} (default), {@code mean_time}, {@code calls}, {@code rows}
+     *                or {@code errors}
+     */
+    @ReadOperation
+    public List<SqlStatementStats.StatementSummary> top(@Nullable Integer limit, @Nullable String orderBy) {
+        return sqlStatementStats.top(limit != null ? limit : DEFAULT_LIMIT, orderBy);
+    }
+
+    @DeleteOperation
+    public void reset() {
+        sqlStatementStats.reset();
+    }
+}
@@ -0,0 +1,235 @@
+package com.ai.texttosql.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Literal-agnostic SQL templates.
+ * <p>
+ * After a generation, the literals in the SQL that come from the question ("orders over $100")
+ * are matched to the question's slots and a template is stored under the slot-normalized
+ * question ("orders over {num}"). A later question with the same shape is answered by filling
+ * the new values into the template instead of calling Ollama, and executions of statements
+ * with a known template bind those literals as parameters of a server-side prepared statement.
+ */
+@Slf4j
+@Service
+public class SqlTemplateService {
+
+    private static final Pattern QUESTION_SLOT = Pattern.compile(
+            "(?<!\\w)'([^']*)'(?!\\w)|\"([^\"]*)\"|(?<![\\w.])(\\d{4}-\\d{2}-\\d{2})(?!\\w)|(?<![\\w.])\\$?(\\d(?:[\\d,]*\\d)?(?:\\.\\d+)?)(?![\\w$])");
+
+    private final Cache<String, SqlTemplate> templatesByShape;
+    private final Cache<String, boolean[]> boundLiteralsBySkeleton;
+    private final MeterRegistry meterRegistry;
+
+    public SqlTemplateService(MeterRegistry meterRegistry,
+                              @Value("${app.sql-template.maximum-size:2000}") long maximumSize) {
+        this.meterRegistry = meterRegistry;
+        this.templatesByShape = Caffeine.newBuilder().maximumSize(maximumSize).build();
+        this.boundLiteralsBySkeleton = Caffeine.newBuilder().maximumSize(maximumSize).build();
+        meterRegistry.gauge("query.template.size", templatesByShape, Cache::estimatedSize);
+    }
+
+    /**
+     * Learns a template from a freshly generated statement. Nothing is stored unless every
+     * slot of the question maps to exactly the literals that carry its value.
+     */
+    public void learn(String naturalLanguageQuery, String sql) {
+        List<Slot> slots = extractSlots(naturalLanguageQuery);
+        if (slots.isEmpty()) {
+            return;
+        }
+
+        List<SqlLiterals.Literal> literals = SqlLiterals.extract(sql);
+        int[] slotOfLiteral = new int[literals.size()];
+        boolean[] slotUsed = new boolean[slots.size()];
+        Arrays.fill(slotOfLiteral, -1);
+
+        for (int i = 0; i < literals.size(); i++) {
+            SqlLiterals.Literal literal = literals.get(i);
+            if (!literal.bindable()) {
+                continue;
+            }
+            int match = -1;
+            for (int s = 0; s < slots.size(); s++) {
+                if (slots.get(s).matches(literal)) {
+                    if (match >= 0) {
+                        // Two slots carry the same value, so we cannot tell which one this is
+                        return;
+                    }
+                    match = s;
+                }
+            }
+            if (match >= 0) {
+                slotOfLiteral[i] = match;
+                slotUsed[match] = true;
+            }
+        }
+
+        for (boolean used : slotUsed) {
+            if (!used) {
+                return;
+            }
+        }
+
+        boolean[] bound = new boolean[literals.size()];
+        for (int i = 0; i < literals.size(); i++) {
+            bound[i] = slotOfLiteral[i] >= 0;
+        }
+
+        templatesByShape.put(shape(naturalLanguageQuery), new SqlTemplate(sql, literals, slotOfLiteral));
+        boundLiteralsBySkeleton.put(SqlLiterals.skeleton(sql, literals), bound);
+        meterRegistry.counter("query.template.learned").increment();
+    }
+
+    /**
+     * Fills the values of the question into a stored template of the same shape.
+     */
+    public Optional<String> instantiate(String naturalLanguageQuery) {
+        List<Slot> slots = extractSlots(naturalLanguageQuery);
+        SqlTemplate template = slots.isEmpty() ? null : templatesByShape.getIfPresent(shape(naturalLanguageQuery));
+        if (template == null) {
+            meterRegistry.counter("query.template.lookup", "result", "miss").increment();
+            return Optional.empty();
+        }
+
+        StringBuilder sql = new StringBuilder(template.sql().length());
+        int position = 0;
+        for (int i = 0; i < template.literals().size(); i++) {
+            int slot = template.slotOfLiteral()[i];
+            if (slot < 0) {
+                continue;
+            }
+            SqlLiterals.Literal literal = template.literals().get(i);
+            sql.append(template.sql(), position, literal.start()).append(slots.get(slot).render(literal.type()));
+            position = literal.end();
+        }
+        sql.append(template.sql(), position, template.sql().length());
+
+        meterRegistry.counter("query.template.lookup", "result", "hit").increment();
+        log.debug("Answered '{}' from SQL template", naturalLanguageQuery);
+        return Optional.of(sql.toString());
+    }
+
+    /**
+     * Rewrites a statement with a known template into a parameterized form, with ordinal
+     * parameters in place of the literals that came from the question (JPA-style {@code ?1}
+     * and plain JDBC {@code ?}). Statements without a known template are returned unchanged
+     * with no parameters.
+     */
+    public PreparedSql prepare(String sql) {
+        List<SqlLiterals.Literal> literals = SqlLiterals.extract(sql);
+        boolean[] bound = literals.isEmpty() ? null
+                : boundLiteralsBySkeleton.getIfPresent(SqlLiterals.skeleton(sql, literals));
+        if (bound == null || bound.length != literals.size()) {
+            return new PreparedSql(sql, sql, List.of());
+        }
+
+        StringBuilder parameterized = new StringBuilder(sql.length());
+        StringBuilder jdbcParameterized = new StringBuilder(sql.length());
+        List<Object> parameters = new ArrayList<>();
+        int position = 0;
+        for (int i = 0; i < literals.size(); i++) {
+            if (!bound[i]) {
+                continue;
+            }
+            SqlLiterals.Literal literal = literals.get(i);
+            parameters.add(bindValue(literal));
+            parameterized.append(sql, position, literal.start()).append('?').append(parameters.size());
+            jdbcParameterized.append(sql, position, literal.start()).append('?');
+            position = literal.end();
+        }
+        parameterized.append(sql, position, sql.length());
+        jdbcParameterized.append(sql, position, sql.length());
+
+        if (!StartupWarmupService.isWarmingUp()) {
+            meterRegistry.counter("query.template.prepared").increment();
+        }
+        return new PreparedSql(parameterized.toString(), jdbcParameterized.toString(), parameters);
+    }
+
+    /**
+     * The question with every value replaced by a typed placeholder, e.g. "orders over {num} in {date}".
+     */
+    static String shape(String naturalLanguageQuery) {
+        Matcher matcher = QUESTION_SLOT.matcher(naturalLanguageQuery);
+        StringBuilder shape = new StringBuilder();
+        while (matcher.find()) {
+            String placeholder = matcher.group(3) != null ? "{date}" : matcher.group(4) != null ? "{num}" : "{str}";
+            matcher.appendReplacement(shape, Matcher.quoteReplacement(placeholder));
+        }
+        matcher.appendTail(shape);
+        return GeneratedSqlCache.normalize(shape.toString());
+    }
+
+    /**
+     * The literal values mentioned in a question (numbers, dates, quoted strings), in order.
+     */
+    static List<String> slotValues(String naturalLanguageQuery) {
+        return extractSlots(naturalLanguageQuery).stream().map(Slot::value).toList();
+    }
+
+    private static List<Slot> extractSlots(String naturalLanguageQuery) {
+        List<Slot> slots = new ArrayList<>();
+        Matcher matcher = QUESTION_SLOT.matcher(naturalLanguageQuery);
+        while (matcher.find()) {
+            if (matcher.group(3) != null) {
+                slots.add(new Slot(SqlLiterals.Type.DATE, matcher.group(3)));
+            } else if (matcher.group(4) != null) {
+                slots.add(new Slot(SqlLiterals.Type.NUMBER, matcher.group(4).replace(",", "")));
+            } else {
+                slots.add(new Slot(SqlLiterals.Type.STRING, matcher.group(1) != null ? matcher.group(1) : matcher.group(2)));
+            }
+        }
+        return slots;
+    }
+
+    private static Object bindValue(SqlLiterals.Literal literal) {
+        if (literal.value() instanceof BigDecimal number) {
+            if (number.scale() <= 0) {
+                try {
+                    return number.longValueExact();
+                } catch (ArithmeticException e) {
+                    return number;
+                }
+            }
+            return number;
+        }
+        return literal.value();
+    }
+
+    public record PreparedSql(String sql, String jdbcSql, List<Object> parameters) {
+    }
+
+    private record SqlTemplate(String sql, List<SqlLiterals.Literal> literals, int[] slotOfLiteral) {
+    }
+
+    private record Slot(SqlLiterals.Type type, String value) {
+
+        boolean matches(SqlLiterals.Literal literal) {
+            return switch (type) {
+                case NUMBER -> literal.type() == SqlLiterals.Type.NUMBER
+                        && new BigDecimal(value).compareTo((BigDecimal) literal.value()) == 0;
+                case DATE -> literal.type() == SqlLiterals.Type.DATE && value.equals(literal.value());
+                case STRING -> literal.type() == SqlLiterals.Type.STRING && value.equalsIgnoreCase((String) literal.value());
+            };
+        }
+
+        String render(SqlLiterals.Type literalType) {
+            return literalType == SqlLiterals.Type.NUMBER ? new BigDecimal(value).toPlainString() : SqlLiterals.quote(value);
+        }
+    }
+}
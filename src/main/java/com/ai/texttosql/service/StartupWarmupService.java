@@ -0,0 +1,216 @@
+package com.ai.texttosql.service;
+
+import com.ai.texttosql.config.OllamaClient;
+import com.ai.texttosql.config.TargetDataSourceRegistry;
+import com.ai.texttosql.model.QueryResultPage;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Warms the application up before it reports ready.
+ * <p>
+ * Runs on {@link ApplicationStartedEvent}, which Spring Boot publishes before the readiness state
+ * changes to {@code ACCEPTING_TRAFFIC}, so the readiness probe stays down until every step has
+ * finished: filling the connection pool, building the schema context, loading the model into
+ * Ollama and running the request hot paths on synthetic input. A failing step is logged and
+ * skipped rather than keeping the pod out of rotation. The synthetic requests are not recorded in
+ * the request metrics, statement statistics or slow-query capture, see {@link #isWarmingUp()}.
+ */
+@Slf4j
+@Service
+public class StartupWarmupService {
+
+    private static final String[] SYNTHETIC_QUESTIONS = {
+            "Show the top 5 customers by total spend in 2024",
+            "How many orders were placed after '2024-01-15'?",
+            "List products in category \"Electronics\" priced over $250.50",
+    };
+
+    private static final String[] SYNTHETIC_RESPONSES = {
+            "```sql\nSELECT c.name, SUM(o.total_amount) AS total FROM customers c JOIN orders o ON o.customer_id = c.id "
+                    + "WHERE YEAR(o.order_date) = 2024 GROUP BY c.name ORDER BY 2 DESC LIMIT 5;\n```",
+            "SELECT COUNT(*) FROM orders o WHERE o.order_date > '2024-01-15'",
+            "SELECT p.name, p.price FROM products p WHERE p.category = 'Electronics' AND p.price > 250.50;",
+    };
+
+    private static final ThreadLocal<Boolean> WARMING_UP = ThreadLocal.withInitial(() -> false);
+
+    private final DataSource dataSource;
+    private final SchemaPromptCompiler schemaPromptCompiler;
+    private final OllamaClient ollamaClient;
+    private final TextToSqlService textToSqlService;
+    private final QueryExecutionService queryExecutionService;
+    private final SqlTemplateService sqlTemplateService;
+    private final ColumnarCborEncoder columnarCborEncoder;
+    private final MeterRegistry meterRegistry;
+    private final AtomicLong timeToReadyMs = new AtomicLong();
+
+    @Value("${app.warmup.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.warmup.hot-path-iterations:2000}")
+    private int hotPathIterations;
+
+    @Value("${app.warmup.query-executions:20}")
+    private int queryExecutions;
+
+    // Ollama may hang while loading; startup must not wait for it forever
+    @Value("${app.warmup.model-timeout:2m}")
+    private Duration modelTimeout;
+
+    public StartupWarmupService(DataSource dataSource,
+                                SchemaPromptCompiler schemaPromptCompiler,
+                                OllamaClient ollamaClient,
+                                TextToSqlService textToSqlService,
+                                QueryExecutionService queryExecutionService,
+                                SqlTemplateService sqlTemplateService,
+                                ColumnarCborEncoder columnarCborEncoder,
+                                MeterRegistry meterRegistry) {
+        this.dataSource = dataSource;
+        this.schemaPromptCompiler = schemaPromptCompiler;
+        this.ollamaClient = ollamaClient;
+        this.textToSqlService = textToSqlService;
+        this.queryExecutionService = queryExecutionService;
+        this.sqlTemplateService = sqlTemplateService;
+        this.columnarCborEncoder = columnarCborEncoder;
+        this.meterRegistry = meterRegistry;
+        meterRegistry.gauge("startup.time.to.ready", timeToReadyMs);
+    }
+
+    @EventListener(ApplicationStartedEvent.class)
+    public void warmUp() {
+        if (enabled) {
+            runStep("connection-pool", this::fillConnectionPool);
+            runStep("schema-context", () -> schemaPromptCompiler.compileSchemaContext(TargetDataSourceRegistry.DEFAULT));
+            runStep("model", () -> ollamaClient.loadModel(modelTimeout));
+            runStep("hot-paths", () -> synthetic(this::exerciseHotPaths));
+            runStep("query-execution", () -> synthetic(this::exerciseQueryExecution));
+        }
+
+        timeToReadyMs.set(ManagementFactory.getRuntimeMXBean().getUptime());
+        log.info("Ready to accept traffic {} ms after JVM start", timeToReadyMs.get());
+    }
+
+    /**
+     * Whether the current thread is running synthetic warm-up requests, which code that records
+     * metrics or statistics about real traffic leaves out.
+     */
+    public static boolean isWarmingUp() {
+        return WARMING_UP.get();
+    }
+
+    private static void synthetic(Runnable action) {
+        WARMING_UP.set(true);
+        try {
+            action.run();
+        } finally {
+            WARMING_UP.remove();
+        }
+    }
+
+    private void runStep(String step, Runnable action) {
+        long start = System.nanoTime();
+        String outcome = "success";
+        try {
+            action.run();
+        } catch (Exception e) {
+            outcome = "failed";
+            log.warn("Warm-up step '{}' failed: {}", step, e.getMessage());
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            Timer.builder("startup.warmup.step.time")
+                    .description("Time taken by one startup warm-up step")
+                    .tag("step", step)
+                    .tag("outcome", outcome)
+                    .register(meterRegistry)
+                    .record(elapsed, TimeUnit.NANOSECONDS);
+            log.info("Warm-up step '{}' {} in {} ms", step, outcome, TimeUnit.NANOSECONDS.toMillis(elapsed));
+        }
+    }
+
+    /**
+     * Opens the pool's idle connections up front instead of on the first requests.
+     */
+    private void fillConnectionPool() {
+        List<Connection> opened = new ArrayList<>();
+        try {
+            opened.add(dataSource.getConnection());
+            // Hikari resolves its minimum idle setting when the pool starts on the first borrow
+            int connections = dataSource instanceof HikariDataSource hikari ? Math.max(1, hikari.getMinimumIdle()) : 1;
+            while (opened.size() < connections) {
+                opened.add(dataSource.getConnection());
+            }
+            for (Connection connection : opened) {
+                connection.isValid(5);
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not open connection " + (opened.size() + 1) + ": " + e.getMessage(), e);
+        } finally {
+            for (Connection connection : opened) {
+                try {
+                    connection.close();
+                } catch (Exception e) {
+                    log.debug("Could not return warm-up connection: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs response extraction, question normalization, literal parsing and result encoding
+     * until they are JIT-compiled.
+     */
+    private void exerciseHotPaths() {
+        List<Object[]> rows = List.of(
+                new Object[]{1L, "Alice", new BigDecimal("1250.50"), Instant.EPOCH},
+                new Object[]{2L, "Bob", null, Instant.EPOCH});
+        QueryResultPage resultPage = QueryResultPage.builder()
+                .generatedSql(SYNTHETIC_RESPONSES[0])
+                .rows(rows)
+                .timestamp(Instant.now())
+                .build();
+
+        try {
+            for (int i = 0; i < hotPathIterations; i++) {
+                String question = SYNTHETIC_QUESTIONS[i % SYNTHETIC_QUESTIONS.length];
+                String sql = textToSqlService.toSql(SYNTHETIC_RESPONSES[i % SYNTHETIC_RESPONSES.length]);
+                GeneratedSqlCache.normalize(question);
+                SqlTemplateService.shape(question);
+                SqlTemplateService.slotValues(question);
+                SqlLiterals.extract(sql);
+                sqlTemplateService.prepare(sql);
+                columnarCborEncoder.encode(resultPage, null, question, null, OutputStream.nullOutputStream());
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void exerciseQueryExecution() {
+        for (int i = 0; i < queryExecutions; i++) {
+            queryExecutionService.executeQuery(
+                    "SELECT table_name, table_rows FROM information_schema.tables WHERE table_schema = DATABASE()",
+                    PageRequest.of(0, 10));
+        }
+    }
+}
@@ -0,0 +1,444 @@
+package com.ai.texttosql.service;
+
+import com.ai.texttosql.model.SchemaInfo;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An aggregate query described by the columns it filters and groups by, its dimensions, and the
+ * aggregates it computes, its measures, so that it can be answered from a summary table.
+ * <p>
+ * A summary table holds the measures of a FROM clause grouped by a set of dimensions. Any query
+ * over the same FROM clause whose dimensions and measures the summary has is answered by
+ * aggregating the summary again: {@code COUNT} and {@code SUM} become sums of the stored counts
+ * and sums, {@code AVG} the ratio of the two, {@code MIN} and {@code MAX} stay what they are.
+ * Date and timestamp columns are summarized per day, so they may only be used where the day gives
+ * the same answer as the exact value: inside {@code YEAR()}, {@code DATE_FORMAT()} without time
+ * and similar functions, or compared with {@code >=} and {@code <} to a date.
+ */
+final class SummaryShape {
+
+    /**
+     * An aggregate of the summary: {@code COUNT}, {@code SUM}, {@code MIN} or {@code MAX} of an
+     * expression over the FROM clause. {@code COUNT(*)} is always kept as {@code row_count}.
+     */
+    record Measure(String function, String argument) {
+
+        String key() {
+            return function + "(" + normalize(argument) + ")";
+        }
+    }
+
+    private enum Rollup { COUNT_ROWS, COUNT, SUM, AVG, MIN, MAX }
+
+    private record Edit(int start, int end, Rollup rollup, String key, String averageCount) {
+    }
+
+    private static final Set<String> TIME_TYPES = Set.of("datetime", "timestamp");
+    private static final String PUNCTUATION = "(),.=<>+-*/";
+    private static final Pattern AGGREGATE_CALL = Pattern.compile("(?i)\\b(COUNT|SUM|AVG|MIN|MAX)\\s*\\(");
+    private static final Pattern OTHER_AGGREGATE = Pattern.compile(
+            "(?i)\\b(GROUP_CONCAT|JSON_ARRAYAGG|JSON_OBJECTAGG|STD|STDDEV|STDDEV_POP|STDDEV_SAMP|VARIANCE|VAR_POP|VAR_SAMP|BIT_AND|BIT_OR|BIT_XOR)\\s*\\(");
+    private static final Pattern SUBQUERY = Pattern.compile("(?i)\\(\\s*SELECT\\b");
+    private static final Pattern IDENTIFIER = Pattern.compile("(?<![\\w.@$`])`?(\\w+)`?(?:\\s*\\.\\s*`?(\\w+)`?)?");
+    private static final Pattern FUNCTION_AFTER = Pattern.compile("^\\s*\\(");
+    private static final Pattern ALIAS_BEFORE = Pattern.compile("(?i)\\bAS\\s*$");
+    private static final Pattern SELECT_ALIAS = Pattern.compile("(?i)\\bAS\\s+`?(\\w+)`?");
+    private static final Pattern DAY_FUNCTION_BEFORE = Pattern.compile(
+            "(?i)\\b(DATE|YEAR|MONTH|DAY|DAYOFMONTH|DAYOFWEEK|DAYOFYEAR|WEEKDAY|WEEK|YEARWEEK|QUARTER|DAYNAME|MONTHNAME|LAST_DAY|DATE_FORMAT)\\s*\\(\\s*$");
+    private static final Pattern FUNCTION_CLOSE = Pattern.compile("^\\s*(?:,\\s*\\d+\\s*)?\\)");
+    private static final Pattern DATE_FORMAT_ARGUMENT = Pattern.compile("^\\s*,\\s*'([^']*)'\\s*\\)");
+    private static final Pattern TIME_SPECIFIER = Pattern.compile("%[fHhIiklprSsTX]");
+    private static final String TODAY = "(?:CURDATE\\(\\)|CURRENT_DATE(?:\\(\\))?)";
+    private static final String DAY_INTERVAL = "INTERVAL\\s+\\d+\\s+(?:DAY|WEEK|MONTH|QUARTER|YEAR)";
+    private static final Pattern DAY_ALIGNED_BOUND = Pattern.compile("(?i)^\\s*(?:>=|<)\\s*"
+            + "(?:'\\d{4}-\\d{2}-\\d{2}'|" + TODAY + "|DATE_(?:SUB|ADD)\\(\\s*" + TODAY + "\\s*,\\s*" + DAY_INTERVAL + "\\s*\\))"
+            + "(?:\\s*[-+]\\s*" + DAY_INTERVAL + ")?(?![\\w(:])");
+
+    private final String statement;
+    private final int fromStart;
+    private final int fromEnd;
+    private final String from;
+    private final List<KeysetPaginator.TableRef> tables;
+    private final Map<String, String> dimensions;
+    private final Map<String, Measure> measures;
+    private final List<Edit> edits;
+
+    private SummaryShape(String statement, int fromStart, int fromEnd, List<KeysetPaginator.TableRef> tables,
+                         Map<String, String> dimensions, Map<String, Measure> measures, List<Edit> edits) {
+        this.statement = statement;
+        this.fromStart = fromStart;
+        this.fromEnd = fromEnd;
+        this.from = statement.substring(fromStart, fromEnd).strip();
+        this.tables = tables;
+        this.dimensions = dimensions;
+        this.measures = measures;
+        this.edits = edits;
+    }
+
+    /**
+     * Describes a statement, if it is a single aggregate SELECT without subqueries whose columns
+     * outside of aggregates can all be summarized.
+     *
+     * @param schemas the schema of each table by name, or {@code null} for unknown tables
+     */
+    static Optional<SummaryShape> parse(String sql, Function<String, SchemaInfo> schemas) {
+        String statement = sql.strip().replaceAll(";\\s*$", "");
+        String masked = maskLiterals(statement);
+        if (masked.contains("--") || masked.contains("#") || masked.contains("/*")
+                || SUBQUERY.matcher(masked).find() || OTHER_AGGREGATE.matcher(masked).find()) {
+            return Optional.empty();
+        }
+        SqlClauses clauses = SqlClauses.parse(statement);
+        if (clauses.isCompound() || clauses.start(SqlClauses.SELECT) != 0 || !clauses.has(SqlClauses.FROM)
+                || clauses.has(SqlClauses.WINDOW) || clauses.has(SqlClauses.FOR) || clauses.has(SqlClauses.INTO)) {
+            return Optional.empty();
+        }
+        String selectList = clauses.body(SqlClauses.SELECT);
+        if (selectList.toUpperCase(Locale.ROOT).matches("(?s)^(DISTINCT|DISTINCTROW|SQL_\\w+|HIGH_PRIORITY|STRAIGHT_JOIN)\\b.*")
+                || SqlClauses.splitTopLevel(selectList).stream().anyMatch(item -> item.strip().endsWith("*"))) {
+            return Optional.empty();
+        }
+        List<KeysetPaginator.TableRef> tables = parseFrom(clauses.body(SqlClauses.FROM), schemas);
+        if (tables == null) {
+            return Optional.empty();
+        }
+
+        Set<String> selectAliases = new HashSet<>();
+        Matcher alias = SELECT_ALIAS.matcher(masked.substring(clauses.bodyStart(SqlClauses.SELECT), clauses.end(SqlClauses.SELECT)));
+        while (alias.find()) {
+            selectAliases.add(alias.group(1).toLowerCase(Locale.ROOT));
+        }
+
+        Scan scan = new Scan(statement, masked, tables);
+        for (String clause : List.of(SqlClauses.SELECT, SqlClauses.WHERE, SqlClauses.GROUP_BY, SqlClauses.HAVING, SqlClauses.ORDER_BY)) {
+            if (clauses.has(clause)) {
+                // Only WHERE sees columns where other clauses see select aliases of the same name
+                Set<String> aliases = clause.equals(SqlClauses.WHERE) || clause.equals(SqlClauses.SELECT) ? Set.of() : selectAliases;
+                if (!scan.region(clauses.bodyStart(clause), clauses.end(clause), aliases)) {
+                    return Optional.empty();
+                }
+            }
+        }
+        if (!scan.aggregated) {
+            return Optional.empty();
+        }
+        scan.edits.sort(Comparator.comparingInt(Edit::start));
+        return Optional.of(new SummaryShape(statement, clauses.bodyStart(SqlClauses.FROM), clauses.end(SqlClauses.FROM),
+                tables, scan.dimensions, scan.measures, scan.edits));
+    }
+
+    /**
+     * The FROM clause as written.
+     */
+    String getFrom() {
+        return from;
+    }
+
+    /**
+     * The FROM clause normalized for comparison; summaries are only shared by identical ones.
+     */
+    String getFromKey() {
+        return normalize(from);
+    }
+
+    /**
+     * The first table of the FROM clause.
+     */
+    KeysetPaginator.TableRef getDrivingTable() {
+        return tables.get(0);
+    }
+
+    boolean isJoined() {
+        return tables.size() > 1;
+    }
+
+    /**
+     * Expression over the FROM clause of each dimension, by column reference such as {@code o.status}.
+     */
+    Map<String, String> getDimensions() {
+        return dimensions;
+    }
+
+    /**
+     * The measures by {@link Measure#key()}, without {@code COUNT(*)}.
+     */
+    Map<String, Measure> getMeasures() {
+        return measures;
+    }
+
+    /**
+     * The same query over a summary table.
+     *
+     * @param dimensionColumns summary column of each dimension reference
+     * @param measureColumns   summary column of each measure key
+     * @param rowCountColumn   summary column holding {@code COUNT(*)}
+     */
+    String rewrite(String table, Map<String, String> dimensionColumns, Map<String, String> measureColumns,
+                   String rowCountColumn) {
+        StringBuilder sql = new StringBuilder(statement.length());
+        int last = 0;
+        boolean fromWritten = false;
+        for (Edit edit : edits) {
+            if (!fromWritten && edit.start() >= fromEnd) {
+                sql.append(statement, last, fromStart).append(' ').append(table).append(' ');
+                last = fromEnd;
+                fromWritten = true;
+            }
+            sql.append(statement, last, edit.start());
+            // COUNT(*) has no key of its own and reads the row count
+            String column = edit.key() == null ? null
+                    : edit.rollup() == null ? dimensionColumns.get(edit.key()) : measureColumns.get(edit.key());
+            sql.append(switch (edit.rollup() == null ? Rollup.MIN : edit.rollup()) {
+                case COUNT_ROWS -> "COALESCE(SUM(" + rowCountColumn + "), 0)";
+                case COUNT -> "COALESCE(SUM(" + column + "), 0)";
+                case SUM -> "SUM(" + column + ")";
+                case AVG -> "(SUM(" + column + ") / SUM(" + measureColumns.get(edit.averageCount()) + "))";
+                case MIN -> edit.rollup() == null ? column : "MIN(" + column + ")";
+                case MAX -> "MAX(" + column + ")";
+            });
+            last = edit.end();
+        }
+        if (!fromWritten) {
+            sql.append(statement, last, fromStart).append(' ').append(table).append(' ');
+            last = fromEnd;
+        }
+        return sql.append(statement.substring(last)).toString().replaceAll("[ \\t]{2,}", " ").strip();
+    }
+
+    /**
+     * Lower case outside of literals, without backticks and with whitespace collapsed, for
+     * comparing clauses.
+     */
+    static String normalize(String text) {
+        StringBuilder normalized = new StringBuilder(text.length());
+        boolean space = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = !normalized.isEmpty();
+                continue;
+            }
+            if (c == '`') {
+                continue;
+            }
+            if (space && PUNCTUATION.indexOf(c) < 0 && PUNCTUATION.indexOf(normalized.charAt(normalized.length() - 1)) < 0) {
+                normalized.append(' ');
+            }
+            space = false;
+            if (c == '\'' || c == '"') {
+                int end = SqlClauses.skipQuoted(text, i);
+                normalized.append(text, i, end);
+                i = end - 1;
+            } else {
+                normalized.append(Character.toLowerCase(c));
+            }
+        }
+        return normalized.toString();
+    }
+
+    private static List<KeysetPaginator.TableRef> parseFrom(String from, Function<String, SchemaInfo> schemas) {
+        List<KeysetPaginator.TableRef> tables = new ArrayList<>();
+        for (String part : KeysetPaginator.JOIN_SPLIT.split(from.strip())) {
+            if (part.contains(",") && !part.toUpperCase(Locale.ROOT).contains(" ON ")) {
+                return null;
+            }
+            Matcher matcher = KeysetPaginator.TABLE_REFERENCE.matcher(part.strip());
+            if (!matcher.matches()) {
+                return null;
+            }
+            String joinType = matcher.group(1) != null ? matcher.group(1).toUpperCase(Locale.ROOT) : "";
+            if (!tables.isEmpty() && !(joinType.isEmpty() || joinType.equals("INNER") || joinType.equals("LEFT"))) {
+                return null;
+            }
+            String alias = matcher.group(3);
+            if (alias != null && KeysetPaginator.NOT_ALIASES.contains(alias.toUpperCase(Locale.ROOT))) {
+                return null;
+            }
+            SchemaInfo schema = schemas.apply(matcher.group(2));
+            if (schema == null || schema.getColumns() == null || schema.getColumns().isEmpty()) {
+                return null;
+            }
+            tables.add(new KeysetPaginator.TableRef(schema.getTableName(), alias, schema,
+                    joinType.equals("LEFT"), matcher.group(4)));
+        }
+        return tables;
+    }
+
+    /**
+     * The statement with the contents of string literals blanked out, keeping every index.
+     */
+    private static String maskLiterals(String sql) {
+        StringBuilder masked = new StringBuilder(sql);
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (c == '\'' || c == '"') {
+                int end = SqlClauses.skipQuoted(sql, i);
+                for (int j = i + 1; j < end - 1; j++) {
+                    masked.setCharAt(j, ' ');
+                }
+                i = end - 1;
+            }
+        }
+        return masked.toString();
+    }
+
+    /**
+     * Collects dimensions, measures and the edits to apply to the clauses of one statement.
+     */
+    private static final class Scan {
+
+        private final String statement;
+        private final String masked;
+        private final List<KeysetPaginator.TableRef> tables;
+        private final Map<String, String> dimensions = new TreeMap<>();
+        private final Map<String, Measure> measures = new LinkedHashMap<>();
+        private final List<Edit> edits = new ArrayList<>();
+        private boolean aggregated;
+
+        private Scan(String statement, String masked, List<KeysetPaginator.TableRef> tables) {
+            this.statement = statement;
+            this.masked = masked;
+            this.tables = tables;
+        }
+
+        /**
+         * Scans {@code [start, end)}; false when it uses something a summary cannot answer.
+         */
+        boolean region(int start, int end, Set<String> selectAliases) {
+            Matcher call = AGGREGATE_CALL.matcher(masked).region(start, end);
+            int position = start;
+            while (call.find()) {
+                int close = closingParenthesis(call.end() - 1);
+                if (close < 0 || close >= end || !columns(position, call.start(), selectAliases)) {
+                    return false;
+                }
+                if (!aggregate(call.group(1).toUpperCase(Locale.ROOT), call.start(), call.end(), close)) {
+                    return false;
+                }
+                position = close + 1;
+                call.region(position, end);
+            }
+            return columns(position, end, selectAliases);
+        }
+
+        private boolean aggregate(String function, int start, int argumentStart, int close) {
+            String argument = statement.substring(argumentStart, close).strip();
+            if (argument.isEmpty() || argument.toUpperCase(Locale.ROOT).startsWith("DISTINCT")
+                    || AGGREGATE_CALL.matcher(masked.substring(argumentStart, close)).find()) {
+                return false;
+            }
+            aggregated = true;
+            if (function.equals("COUNT") && (argument.equals("*") || argument.equals("1"))) {
+                edits.add(new Edit(start, close + 1, Rollup.COUNT_ROWS, null, null));
+                return true;
+            }
+            if (function.equals("AVG")) {
+                Measure sum = add(new Measure("SUM", argument));
+                Measure count = add(new Measure("COUNT", argument));
+                edits.add(new Edit(start, close + 1, Rollup.AVG, sum.key(), count.key()));
+                return true;
+            }
+            Measure measure = add(new Measure(function, argument));
+            edits.add(new Edit(start, close + 1, Rollup.valueOf(function), measure.key(), null));
+            return true;
+        }
+
+        private Measure add(Measure measure) {
+            return measures.computeIfAbsent(measure.key(), key -> measure);
+        }
+
+        /**
+         * Turns the column references in {@code [start, end)} into dimensions.
+         */
+        private boolean columns(int start, int end, Set<String> selectAliases) {
+            Matcher identifier = IDENTIFIER.matcher(masked).region(start, end);
+            while (identifier.find()) {
+                String qualifier = identifier.group(2) != null ? identifier.group(1) : null;
+                String name = identifier.group(2) != null ? identifier.group(2) : identifier.group(1);
+                KeysetPaginator.TableRef table;
+                if (qualifier != null) {
+                    table = tables.stream().filter(t -> t.matches(qualifier)).findFirst().orElse(null);
+                    if (table == null || table.column(name) == null) {
+                        return false;
+                    }
+                } else {
+                    if (Character.isDigit(name.charAt(0))
+                            || FUNCTION_AFTER.matcher(masked.substring(identifier.end(), end)).find()
+                            || ALIAS_BEFORE.matcher(masked.substring(start, identifier.start())).find()) {
+                        continue;
+                    }
+                    List<KeysetPaginator.TableRef> candidates = tables.stream().filter(t -> t.column(name) != null).toList();
+                    if (selectAliases.contains(name.toLowerCase(Locale.ROOT))) {
+                        // MySQL resolves a name that is both differently per clause
+                        if (!candidates.isEmpty()) {
+                            return false;
+                        }
+                        continue;
+                    }
+                    if (candidates.size() > 1) {
+                        return false;
+                    }
+                    if (candidates.isEmpty()) {
+                        // A keyword or an alias
+                        continue;
+                    }
+                    table = candidates.get(0);
+                }
+                SchemaInfo.ColumnInfo column = table.column(name);
+                String reference = (table.alias() != null ? table.alias() : table.table()).toLowerCase(Locale.ROOT)
+                        + "." + column.getName().toLowerCase(Locale.ROOT);
+                String expression = table.qualifier() + ".`" + column.getName() + "`";
+                if (column.getType() != null && TIME_TYPES.contains(column.getType().toLowerCase(Locale.ROOT))) {
+                    if (!dayGranular(identifier.start(), identifier.end())) {
+                        return false;
+                    }
+                    expression = "DATE(" + expression + ")";
+                }
+                dimensions.put(reference, expression);
+                edits.add(new Edit(identifier.start(), identifier.end(), null, reference, null));
+            }
+            return true;
+        }
+
+        /**
+         * True when the date column at {@code [start, end)} is used in a way that its day answers.
+         */
+        private boolean dayGranular(int start, int end) {
+            Matcher function = DAY_FUNCTION_BEFORE.matcher(masked.substring(0, start));
+            if (function.find()) {
+                if (!function.group(1).equalsIgnoreCase("DATE_FORMAT")) {
+                    return FUNCTION_CLOSE.matcher(masked.substring(end)).find();
+                }
+                Matcher format = DATE_FORMAT_ARGUMENT.matcher(statement.substring(end));
+                return format.find() && !TIME_SPECIFIER.matcher(format.group(1)).find();
+            }
+            return DAY_ALIGNED_BOUND.matcher(statement.substring(end)).find();
+        }
+
+        private int closingParenthesis(int open) {
+            int depth = 0;
+            for (int i = open; i < masked.length(); i++) {
+                char c = masked.charAt(i);
+                if (c == '(') {
+                    depth++;
+                } else if (c == ')' && --depth == 0) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+}
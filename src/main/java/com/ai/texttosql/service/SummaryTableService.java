@@ -0,0 +1,665 @@
+package com.ai.texttosql.service;
+
+import com.ai.texttosql.config.TargetDataSourceRegistry;
+import com.ai.texttosql.model.SchemaInfo;
+import com.ai.texttosql.repository.QueryHistoryRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Answers frequent aggregate questions from summary tables instead of the base tables.
+ * <p>
+ * A scheduled job looks for the aggregate statements that recur in {@code query_history} and
+ * groups them by FROM clause and the columns they filter and group by, see {@link SummaryShape}.
+ * Each group that occurs often enough gets a summary table, named with
+ * {@code app.summary.table-prefix} and kept out of the schema given to the model, that holds
+ * the group's aggregates per combination of those columns. Summaries over a single table with an
+ * auto-increment key and an {@code ON UPDATE CURRENT_TIMESTAMP} column are refreshed by appending
+ * the aggregates of the rows added since the last refresh. All others, and all of them every
+ * {@code app.summary.rebuild-interval} or when summarized rows were updated or deleted since, are
+ * rebuilt into a new table that is then swapped in. Summaries that are not much smaller than
+ * their base tables are dropped again.
+ * <p>
+ * A generated statement that a summary refreshed within {@code app.summary.max-staleness} can
+ * answer is rewritten to read from the smallest such summary. The catalog lives in the
+ * {@code aggregate_summaries} table: one instance at a time does the maintenance, under a MySQL
+ * named lock, and all of them reload the catalog after each run. A retired table is only dropped
+ * one run later, so that no instance still routes to it.
+ */
+@Slf4j
+@Service
+public class SummaryTableService {
+
+    static final String ROW_COUNT = "row_count";
+    private static final String LOCK_NAME = "text_to_sql.summary_tables";
+    private static final String NEW_SUFFIX = "__new";
+    private static final String OLD_SUFFIX = "__old";
+    private static final String ACTIVE = "ACTIVE";
+    private static final String UNPROFITABLE = "UNPROFITABLE";
+    private static final String RETIRED = "RETIRED";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final SchemaAnalysisService schemaAnalysisService;
+    private final QueryHistoryRepository queryHistoryRepository;
+    private final MeterRegistry meterRegistry;
+    private final ThreadPoolExecutor measurer;
+    private final DistributionSummary timeSaved;
+    private final Cache<String, Optional<SummaryShape>> shapes;
+    private final Cache<String, Boolean> validRewrites;
+    private volatile List<Summary> summaries = List.of();
+
+    private final boolean enabled;
+    private final String tablePrefix;
+    private final Duration lookback;
+    private final int historyLimit;
+    private final int minOccurrences;
+    private final int maxTables;
+    private final Duration rebuildInterval;
+    private final Duration maxStaleness;
+    private final double maxRowRatio;
+    private final double measureSampleRate;
+
+    public SummaryTableService(JdbcTemplate jdbcTemplate,
+                               SchemaAnalysisService schemaAnalysisService,
+                               QueryHistoryRepository queryHistoryRepository,
+                               MeterRegistry meterRegistry,
+                               @Value("${app.summary.enabled:true}") boolean enabled,
+                               @Value("${app.summary.table-prefix:summary_}") String tablePrefix,
+                               @Value("${app.summary.lookback-days:14}") int lookbackDays,
+                               @Value("${app.summary.history-limit:500}") int historyLimit,
+                               @Value("${app.summary.min-occurrences:5}") int minOccurrences,
+                               @Value("${app.summary.max-tables:20}") int maxTables,
+                               @Value("${app.summary.rebuild-interval:6h}") Duration rebuildInterval,
+                               @Value("${app.summary.max-staleness:15m}") Duration maxStaleness,
+                               @Value("${app.summary.max-row-ratio:0.2}") double maxRowRatio,
+                               @Value("${app.summary.measure-sample-rate:0.05}") double measureSampleRate) {
+        if (!tablePrefix.matches("\\w+")) {
+            throw new IllegalArgumentException("app.summary.table-prefix must be a plain identifier: " + tablePrefix);
+        }
+        this.jdbcTemplate = jdbcTemplate;
+        this.schemaAnalysisService = schemaAnalysisService;
+        this.queryHistoryRepository = queryHistoryRepository;
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.tablePrefix = tablePrefix;
+        this.lookback = Duration.ofDays(lookbackDays);
+        this.historyLimit = historyLimit;
+        this.minOccurrences = minOccurrences;
+        this.maxTables = maxTables;
+        this.rebuildInterval = rebuildInterval;
+        this.maxStaleness = maxStaleness;
+        this.maxRowRatio = maxRowRatio;
+        this.measureSampleRate = measureSampleRate;
+        // Measurements are best effort: beyond a short backlog they are dropped rather than queued up
+        this.measurer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(4), new ThreadPoolExecutor.DiscardPolicy());
+        this.timeSaved = DistributionSummary.builder("summary.time.saved")
+                .description("Run time of an aggregate on its base tables minus that on its summary table")
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
+        this.shapes = Caffeine.newBuilder().maximumSize(1000).build();
+        this.validRewrites = Caffeine.newBuilder().maximumSize(1000).build();
+        meterRegistry.gauge("summary.tables", this, service -> service.summaries.size());
+    }
+
+    /**
+     * The statement to run for a generated one: its rewrite onto the smallest fresh summary table
+     * that can answer it, or the statement itself.
+     */
+    public String route(String dataSource, String sql) {
+        List<Summary> current = summaries;
+        if (!enabled || sql == null || current.isEmpty() || !TargetDataSourceRegistry.isDefault(dataSource)) {
+            return sql;
+        }
+        Optional<SummaryShape> shape = shapes.get(sql, this::parse);
+        if (shape.isEmpty()) {
+            return sql;
+        }
+        List<Summary> matching = current.stream().filter(summary -> summary.answers(shape.get())).toList();
+        Instant freshSince = Instant.now().minus(maxStaleness);
+        Optional<Summary> chosen = matching.stream()
+                .filter(summary -> summary.refreshedAt().isAfter(freshSince))
+                .min(Comparator.comparingLong(Summary::rowCount));
+        if (chosen.isEmpty()) {
+            meterRegistry.counter("summary.lookups", "result", matching.isEmpty() ? "miss" : "stale").increment();
+            return sql;
+        }
+
+        Summary summary = chosen.get();
+        String rewritten = shape.get().rewrite(quote(summary.table()), summary.dimensionColumns(),
+                summary.measureColumns(), ROW_COUNT);
+        if (!validRewrites.get(rewritten, this::explains)) {
+            meterRegistry.counter("summary.lookups", "result", "miss").increment();
+            return sql;
+        }
+        meterRegistry.counter("summary.lookups", "result", "hit").increment();
+        log.debug("Answering from summary table {}: {}", summary.table(), rewritten);
+        if (ThreadLocalRandom.current().nextDouble() < measureSampleRate) {
+            measurer.execute(() -> measure(sql, rewritten));
+        }
+        return rewritten;
+    }
+
+    /**
+     * Creates, refreshes and drops summary tables according to the query history, then reloads
+     * the catalog.
+     */
+    @Scheduled(initialDelayString = "${app.summary.initial-delay-ms:60000}",
+            fixedDelayString = "${app.summary.refresh-interval-ms:300000}")
+    public void refresh() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            // The named lock belongs to the connection, so it is taken and released on the same one
+            jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+                if (lock(connection, "SELECT GET_LOCK(?, 0)")) {
+                    try {
+                        maintain();
+                    } finally {
+                        lock(connection, "SELECT RELEASE_LOCK(?)");
+                    }
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            log.error("Summary table maintenance failed: {}", e.getMessage(), e);
+            meterRegistry.counter("summary.refresh", "mode", "failed").increment();
+        }
+        reload();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        measurer.shutdownNow();
+    }
+
+    private void maintain() {
+        Map<String, Candidate> wanted = mine();
+        Map<String, CatalogEntry> catalog = new HashMap<>();
+        jdbcTemplate.query("SELECT table_name, status, watermark, built_at FROM aggregate_summaries", rs -> {
+            Timestamp builtAt = rs.getTimestamp(4);
+            catalog.put(rs.getString(1), new CatalogEntry(rs.getString(2), rs.getObject(3, Long.class),
+                    builtAt != null ? builtAt.toInstant() : Instant.EPOCH));
+        });
+
+        for (Map.Entry<String, CatalogEntry> entry : catalog.entrySet()) {
+            String table = entry.getKey();
+            // Other instances stopped routing to tables that were not active at their last reload
+            if (!entry.getValue().status().equals(ACTIVE)) {
+                jdbcTemplate.execute("DROP TABLE IF EXISTS " + quote(table));
+            }
+            if (wanted.containsKey(table)) {
+                continue;
+            }
+            if (entry.getValue().status().equals(ACTIVE)) {
+                jdbcTemplate.update("UPDATE aggregate_summaries SET status = ? WHERE table_name = ?", RETIRED, table);
+            } else {
+                jdbcTemplate.update("DELETE FROM aggregate_summaries WHERE table_name = ?", table);
+                meterRegistry.counter("summary.dropped", "reason", entry.getValue().status().toLowerCase(Locale.ROOT)).increment();
+                log.info("Dropped summary table {} ({})", table, entry.getValue().status());
+            }
+        }
+
+        Instant rebuildBefore = Instant.now().minus(rebuildInterval);
+        for (Candidate candidate : wanted.values()) {
+            CatalogEntry entry = catalog.get(candidate.table());
+            try {
+                // An unprofitable summary is tried again once the data may have changed enough
+                if (entry != null && entry.status().equals(UNPROFITABLE) && entry.builtAt().isAfter(rebuildBefore)) {
+                    jdbcTemplate.update("UPDATE aggregate_summaries SET occurrences = ? WHERE table_name = ?",
+                            candidate.occurrences, candidate.table());
+                    continue;
+                }
+                String key = incrementalKey(candidate);
+                boolean incremental = entry != null && entry.status().equals(ACTIVE) && key != null
+                        && entry.watermark() != null && entry.builtAt().isAfter(rebuildBefore)
+                        && !changedSince(candidate, key, entry);
+                if (incremental) {
+                    try {
+                        append(candidate, key, entry.watermark());
+                        continue;
+                    } catch (DataAccessException e) {
+                        log.warn("Rebuilding summary table {} that could not be appended to: {}", candidate.table(), e.getMessage());
+                    }
+                }
+                build(candidate, key);
+            } catch (Exception e) {
+                log.warn("Could not refresh summary table {}: {}", candidate.table(), e.getMessage());
+                meterRegistry.counter("summary.refresh", "mode", "failed").increment();
+            }
+        }
+    }
+
+    /**
+     * The most frequent aggregate shapes of the lookback window, by table name.
+     */
+    private Map<String, Candidate> mine() {
+        Function<String, SchemaInfo> schemas = schemas();
+        Map<String, Candidate> groups = new HashMap<>();
+        for (Object[] row : queryHistoryRepository.findMostFrequentSql(TargetDataSourceRegistry.DEFAULT,
+                Instant.now().minus(lookback), PageRequest.of(0, historyLimit))) {
+            long occurrences = ((Number) row[1]).longValue();
+            SummaryShape.parse((String) row[0], schemas).ifPresent(shape -> groups
+                    .computeIfAbsent(shape.getFromKey() + "|" + String.join(",", shape.getDimensions().keySet()),
+                            group -> new Candidate(shape))
+                    .add(shape, occurrences));
+        }
+        return groups.values().stream()
+                .filter(candidate -> candidate.occurrences >= minOccurrences)
+                .sorted(Comparator.comparingLong((Candidate candidate) -> candidate.occurrences).reversed())
+                .limit(maxTables)
+                .collect(Collectors.toMap(Candidate::table, candidate -> candidate, (a, b) -> a, LinkedHashMap::new));
+    }
+
+    /**
+     * Builds a summary from scratch into a new table and swaps it in, unless it is too large to
+     * be worth it.
+     */
+    private void build(Candidate candidate, String key) {
+        long start = System.nanoTime();
+        Instant snapshot = Instant.now();
+        Long watermark = key != null ? maxKey(candidate, key) : null;
+        String table = candidate.table();
+        String building = quote(table + NEW_SUFFIX);
+
+        jdbcTemplate.execute("DROP TABLE IF EXISTS " + building);
+        jdbcTemplate.execute("CREATE TABLE " + building + " AS " + aggregate(candidate, key, null, watermark));
+        long[] size = size(table + NEW_SUFFIX);
+        long buildMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        if (size[1] > 0 && size[0] > maxRowRatio * size[1]) {
+            jdbcTemplate.execute("DROP TABLE " + building);
+            save(candidate, UNPROFITABLE, size, null, buildMs, snapshot);
+            log.info("Not keeping summary table {}: {} rows for {} base rows", table, size[0], size[1]);
+            return;
+        }
+        jdbcTemplate.execute("DROP TABLE IF EXISTS " + quote(table + OLD_SUFFIX));
+        Integer exists = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM information_schema.tables WHERE table_schema = DATABASE() AND table_name = ?",
+                Integer.class, table);
+        if (exists != null && exists > 0) {
+            // Swaps both names in one step, so that queries always find a complete table
+            jdbcTemplate.execute("RENAME TABLE " + quote(table) + " TO " + quote(table + OLD_SUFFIX)
+                    + ", " + building + " TO " + quote(table));
+            jdbcTemplate.execute("DROP TABLE " + quote(table + OLD_SUFFIX));
+        } else {
+            jdbcTemplate.execute("RENAME TABLE " + building + " TO " + quote(table));
+        }
+        save(candidate, ACTIVE, size, watermark, buildMs, snapshot);
+        meterRegistry.counter("summary.refresh", "mode", "full").increment();
+        log.info("Built summary table {} with {} rows from {} base rows in {} ms", table, size[0], size[1], buildMs);
+    }
+
+    /**
+     * Appends the aggregates of the rows added since the last refresh; the summary then has more
+     * than one row per group, which the rewritten queries aggregate again anyway.
+     */
+    private void append(Candidate candidate, String key, long watermark) {
+        Instant snapshot = Instant.now();
+        Long upTo = maxKey(candidate, key);
+        int appended = 0;
+        if (upTo != null && upTo > watermark) {
+            appended = jdbcTemplate.update("INSERT INTO " + quote(candidate.table()) + " (" + candidate.columns() + ") "
+                    + aggregate(candidate, key, watermark, upTo));
+        }
+        long[] size = size(candidate.table());
+        jdbcTemplate.update("""
+                        UPDATE aggregate_summaries
+                        SET occurrences = ?, row_count = ?, source_rows = ?, watermark = ?, refreshed_at = ?
+                        WHERE table_name = ?""",
+                candidate.occurrences, size[0], size[1], upTo != null ? upTo : watermark, Timestamp.from(snapshot),
+                candidate.table());
+        meterRegistry.counter("summary.refresh", "mode", "incremental").increment();
+        log.debug("Appended {} rows to summary table {}", appended, candidate.table());
+    }
+
+    /**
+     * The statement that aggregates the FROM clause of a summary, optionally only over the
+     * rows with a key in {@code (after, upTo]}.
+     */
+    private String aggregate(Candidate candidate, String key, Long after, Long upTo) {
+        Map<String, String> dimensionColumns = dimensionColumns(candidate.dimensions.keySet());
+        Map<String, String> measureColumns = measureColumns(candidate.measures.keySet());
+        List<String> items = new ArrayList<>();
+        candidate.dimensions.forEach((reference, expression) -> items.add(expression + " AS " + dimensionColumns.get(reference)));
+        items.add("COUNT(*) AS " + ROW_COUNT);
+        candidate.measures.forEach((measureKey, measure) ->
+                items.add(measure.function() + "(" + measure.argument() + ") AS " + measureColumns.get(measureKey)));
+
+        StringBuilder sql = new StringBuilder("SELECT ").append(String.join(", ", items))
+                .append(" FROM ").append(candidate.from);
+        String column = key != null ? candidate.driving.qualifier() + "." + quote(key) : null;
+        if (after != null) {
+            sql.append(" WHERE ").append(column).append(" > ").append(after).append(" AND ").append(column).append(" <= ").append(upTo);
+        } else if (upTo != null) {
+            sql.append(" WHERE ").append(column).append(" <= ").append(upTo);
+        }
+        if (!candidate.dimensions.isEmpty()) {
+            sql.append(" GROUP BY ").append(String.join(", ", candidate.dimensions.values()));
+        }
+        return sql.toString();
+    }
+
+    private void save(Candidate candidate, String status, long[] size, Long watermark, long buildMs, Instant snapshot) {
+        jdbcTemplate.update("""
+                        INSERT INTO aggregate_summaries
+                            (table_name, definition, occurrences, status, row_count, source_rows, watermark,
+                             build_time_ms, built_at, refreshed_at)
+                        VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
+                        ON DUPLICATE KEY UPDATE
+                            occurrences = VALUES(occurrences), status = VALUES(status), row_count = VALUES(row_count),
+                            source_rows = VALUES(source_rows), watermark = VALUES(watermark),
+                            build_time_ms = VALUES(build_time_ms), built_at = VALUES(built_at),
+                            refreshed_at = VALUES(refreshed_at)""",
+                candidate.table(), candidate.definition().toString(), candidate.occurrences, status, size[0], size[1],
+                watermark, buildMs, Timestamp.from(snapshot), Timestamp.from(snapshot));
+    }
+
+    /**
+     * The single auto-increment key of the summary's only table, if it has one.
+     */
+    private String incrementalKey(Candidate candidate) {
+        if (candidate.joined) {
+            return null;
+        }
+        List<SchemaInfo.ColumnInfo> primaryKey = candidate.driving.schema().getColumns().stream()
+                .filter(SchemaInfo.ColumnInfo::isPrimaryKey)
+                .toList();
+        if (primaryKey.size() != 1) {
+            return null;
+        }
+        String name = primaryKey.get(0).getName();
+        Integer autoIncrement = jdbcTemplate.queryForObject("""
+                        SELECT COUNT(*) FROM information_schema.columns
+                        WHERE table_schema = DATABASE() AND table_name = ? AND column_name = ? AND extra LIKE '%auto_increment%'""",
+                Integer.class, candidate.driving.table(), name);
+        return autoIncrement != null && autoIncrement > 0 ? name : null;
+    }
+
+    /**
+     * Whether rows already in the summary may have changed since it was built, so that appending
+     * new rows would leave it wrong. Updates can only be ruled out through a column set
+     * {@code ON UPDATE CURRENT_TIMESTAMP}; without one the summary is rebuilt every time. Deletes
+     * show as fewer base rows up to the watermark than the summary counts.
+     */
+    private boolean changedSince(Candidate candidate, String key, CatalogEntry entry) {
+        String table = quote(candidate.driving.table());
+        List<String> updatedColumns = jdbcTemplate.queryForList("""
+                        SELECT column_name FROM information_schema.columns
+                        WHERE table_schema = DATABASE() AND table_name = ? AND extra LIKE '%on update%'""",
+                String.class, candidate.driving.table());
+        if (updatedColumns.isEmpty()) {
+            return true;
+        }
+        for (String column : updatedColumns) {
+            Boolean updated = jdbcTemplate.queryForObject("SELECT EXISTS (SELECT 1 FROM " + table
+                            + " WHERE " + quote(column) + " >= ? AND " + quote(key) + " <= ?)",
+                    Boolean.class, Timestamp.from(entry.builtAt()), entry.watermark());
+            if (Boolean.TRUE.equals(updated)) {
+                return true;
+            }
+        }
+        Long baseRows = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + table + " WHERE " + quote(key) + " <= ?",
+                Long.class, entry.watermark());
+        return baseRows == null || baseRows != size(candidate.table())[1];
+    }
+
+    private Long maxKey(Candidate candidate, String key) {
+        return jdbcTemplate.queryForObject("SELECT MAX(" + quote(key) + ") FROM " + quote(candidate.driving.table()), Long.class);
+    }
+
+    /**
+     * Rows of a summary table and the number of base rows they summarize.
+     */
+    private long[] size(String table) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*), COALESCE(SUM(" + ROW_COUNT + "), 0) FROM " + quote(table),
+                (rs, rowNum) -> new long[]{rs.getLong(1), rs.getLong(2)});
+    }
+
+    private void reload() {
+        try {
+            List<Summary> loaded = jdbcTemplate.query(
+                    "SELECT table_name, definition, row_count, refreshed_at FROM aggregate_summaries WHERE status = ?",
+                    (rs, rowNum) -> Summary.of(rs.getString(1), new JSONObject(rs.getString(2)), rs.getLong(3),
+                            rs.getTimestamp(4).toInstant()),
+                    ACTIVE);
+            summaries = List.copyOf(loaded);
+            shapes.invalidateAll();
+            validRewrites.invalidateAll();
+        } catch (Exception e) {
+            log.warn("Could not load the summary table catalog: {}", e.getMessage());
+        }
+    }
+
+    private Optional<SummaryShape> parse(String sql) {
+        try {
+            return SummaryShape.parse(sql, schemas());
+        } catch (RuntimeException e) {
+            log.debug("Cannot summarize {}: {}", sql, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    private Function<String, SchemaInfo> schemas() {
+        Map<String, String> tables = schemaAnalysisService.getAllTableNames(TargetDataSourceRegistry.DEFAULT).stream()
+                .collect(Collectors.toMap(name -> name.toLowerCase(Locale.ROOT), name -> name, (a, b) -> a));
+        return name -> {
+            String table = tables.get(name.toLowerCase(Locale.ROOT));
+            return table != null ? schemaAnalysisService.getTableSchema(TargetDataSourceRegistry.DEFAULT, table) : null;
+        };
+    }
+
+    private boolean explains(String sql) {
+        try {
+            jdbcTemplate.queryForList("EXPLAIN " + sql);
+            return true;
+        } catch (Exception e) {
+            log.warn("Not answering from summary table, MySQL rejects the rewrite {}: {}", sql, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Runs a statement on its base tables and on its summary table, twice each, and records the
+     * difference of the best times.
+     */
+    private void measure(String original, String rewritten) {
+        try {
+            long originalNanos = Long.MAX_VALUE;
+            long rewrittenNanos = Long.MAX_VALUE;
+            for (int run = 0; run < 2; run++) {
+                originalNanos = Math.min(originalNanos, time(original));
+                rewrittenNanos = Math.min(rewrittenNanos, time(rewritten));
+            }
+            timeSaved.record((originalNanos - rewrittenNanos) / 1_000_000.0);
+        } catch (Exception e) {
+            log.debug("Could not measure summary table rewrite: {}", e.getMessage());
+        }
+    }
+
+    private long time(String sql) {
+        long start = System.nanoTime();
+        jdbcTemplate.query(sql, (ResultSetExtractor<Void>) rs -> {
+            while (rs.next()) {
+                // Fetches every row, as the query execution would
+            }
+            return null;
+        });
+        return System.nanoTime() - start;
+    }
+
+    private static boolean lock(Connection connection, String sql) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setString(1, LOCK_NAME);
+            try (ResultSet rs = statement.executeQuery()) {
+                return rs.next() && rs.getInt(1) == 1;
+            }
+        }
+    }
+
+    private static Map<String, String> dimensionColumns(Iterable<String> references) {
+        Map<String, String> columns = new HashMap<>();
+        for (String reference : references) {
+            columns.put(reference, "d" + columns.size());
+        }
+        return columns;
+    }
+
+    private static Map<String, String> measureColumns(Iterable<String> keys) {
+        Map<String, String> columns = new HashMap<>();
+        for (String key : keys) {
+            columns.put(key, "m" + columns.size());
+        }
+        return columns;
+    }
+
+    private static String quote(String identifier) {
+        return "`" + identifier + "`";
+    }
+
+    private record CatalogEntry(String status, Long watermark, Instant builtAt) {
+    }
+
+    /**
+     * An active summary table as loaded from the catalog. Dimensions and measures are sorted, so
+     * their columns {@code d0, d1, ...} and {@code m0, m1, ...} follow from the definition.
+     */
+    private record Summary(String table, String fromKey, TreeMap<String, String> dimensions,
+                           TreeMap<String, SummaryShape.Measure> measures, long rowCount, Instant refreshedAt) {
+
+        static Summary of(String table, JSONObject definition, long rowCount, Instant refreshedAt) {
+            TreeMap<String, String> dimensions = new TreeMap<>();
+            JSONObject dimensionJson = definition.getJSONObject("dimensions");
+            for (String reference : dimensionJson.keySet()) {
+                dimensions.put(reference, dimensionJson.getString(reference));
+            }
+            TreeMap<String, SummaryShape.Measure> measures = new TreeMap<>();
+            JSONArray measureJson = definition.getJSONArray("measures");
+            for (int i = 0; i < measureJson.length(); i++) {
+                JSONObject item = measureJson.getJSONObject(i);
+                SummaryShape.Measure measure = new SummaryShape.Measure(item.getString("function"), item.getString("argument"));
+                measures.put(measure.key(), measure);
+            }
+            return new Summary(table, SummaryShape.normalize(definition.getString("from")), dimensions, measures,
+                    rowCount, refreshedAt);
+        }
+
+        boolean answers(SummaryShape shape) {
+            return fromKey.equals(shape.getFromKey())
+                    && dimensions.entrySet().containsAll(shape.getDimensions().entrySet())
+                    && measures.keySet().containsAll(shape.getMeasures().keySet());
+        }
+
+        Map<String, String> dimensionColumns() {
+            return SummaryTableService.dimensionColumns(dimensions.keySet());
+        }
+
+        Map<String, String> measureColumns() {
+            return SummaryTableService.measureColumns(measures.keySet());
+        }
+    }
+
+    /**
+     * A group of frequent statements with the same FROM clause and dimensions, and the union of
+     * their measures.
+     */
+    private final class Candidate {
+
+        private final String from;
+        private final KeysetPaginator.TableRef driving;
+        private final boolean joined;
+        private final TreeMap<String, String> dimensions;
+        private final TreeMap<String, SummaryShape.Measure> measures = new TreeMap<>();
+        private long occurrences;
+
+        private Candidate(SummaryShape shape) {
+            this.from = shape.getFrom();
+            this.driving = shape.getDrivingTable();
+            this.joined = shape.isJoined();
+            this.dimensions = new TreeMap<>(shape.getDimensions());
+        }
+
+        void add(SummaryShape shape, long count) {
+            measures.putAll(shape.getMeasures());
+            occurrences += count;
+        }
+
+        JSONObject definition() {
+            JSONArray measureJson = new JSONArray();
+            measures.values().forEach(measure -> measureJson.put(
+                    new JSONObject().put("function", measure.function()).put("argument", measure.argument())));
+            return new JSONObject()
+                    .put("from", from)
+                    .put("dimensions", new JSONObject(dimensions))
+                    .put("measures", measureJson);
+        }
+
+        /**
+         * Named after the whole definition, so a table never changes its columns under a name
+         * that other instances may still route to.
+         */
+        String table() {
+            String key = SummaryShape.normalize(from) + "|" + dimensions + "|" + measures.keySet();
+            try {
+                byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+                return tablePrefix + HexFormat.of().formatHex(digest, 0, 6);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        String columns() {
+            List<String> columns = new ArrayList<>();
+            for (int i = 0; i < dimensions.size(); i++) {
+                columns.add("d" + i);
+            }
+            columns.add(ROW_COUNT);
+            for (int i = 0; i < measures.size(); i++) {
+                columns.add("m" + i);
+            }
+            return String.join(", ", columns);
+        }
+    }
+}
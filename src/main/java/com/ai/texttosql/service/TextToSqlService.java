@@ -2,7 +2,12 @@ package com.ai.texttosql.service;
 
 import com.ai.texttosql.config.MetricsConfig;
 import com.ai.texttosql.config.OllamaClient;
+import com.ai.texttosql.config.TargetDataSourceRegistry;
+import com.ai.texttosql.exception.GenerationRejectedException;
+import com.ai.texttosql.exception.InvalidQueryException;
+import com.ai.texttosql.exception.QueryCancelledException;
 import com.ai.texttosql.exception.QueryGenerationException;
+import com.ai.texttosql.model.QueryHistory;
 import com.ai.texttosql.model.QueryRequest;
 import com.ai.texttosql.model.QueryResponse;
 import io.micrometer.core.instrument.MeterRegistry;
@@ -13,7 +18,12 @@ import org.springframework.stereotype.Service;
 import org.springframework.util.StopWatch;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -22,10 +32,18 @@ import java.util.regex.Pattern;
 @RequiredArgsConstructor
 public class TextToSqlService {
 
-    private final SchemaAnalysisService schemaAnalysisService;
+    private final SchemaPromptCompiler schemaPromptCompiler;
     private final OllamaClient ollamaClient;
     private final MeterRegistry meterRegistry;
     private final Timer queryConversionTimer;
+    private final GeneratedSqlCache generatedSqlCache;
+    private final SqlTemplateService sqlTemplateService;
+    private final SemanticQuestionCache semanticQuestionCache;
+    private final SqlOptimizer sqlOptimizer;
+    private final SqlCandidateSelector sqlCandidateSelector;
+    private final LlmScheduler llmScheduler;
+    private final QueryHistoryService queryHistoryService;
+    private final QueryExecutionService queryExecutionService;
 
     private static final Pattern SQL_KEYWORDS = Pattern.compile(
             "(?i)^(SELECT|INSERT|UPDATE|DELETE|WITH|CREATE|DROP|ALTER)\\b.*"
@@ -35,7 +53,15 @@ public class TextToSqlService {
             "(?i)^(FROM|WHERE|JOIN|LEFT|RIGHT|INNER|OUTER|GROUP|ORDER|HAVING|UNION|LIMIT|OFFSET)\\b.*"
     );
 
-    private static final Pattern DATE_PATTERN = Pattern.compile(
+    /**
+     * Extra instructions that steer the additional candidates towards different plans.
+     */
+    private static final List<String> CANDIDATE_HINTS = List.of(
+            "Prefer JOINs over correlated subqueries",
+            "Compare columns directly instead of wrapping them in functions in WHERE clauses"
+    );
+
+    static final Pattern DATE_PATTERN = Pattern.compile(
             "'(\\d{4}-\\d{2}-\\d{2})'(?!\\s+\\d{2}:\\d{2}:\\d{2})",
             Pattern.CASE_INSENSITIVE
     );
@@ -46,27 +72,40 @@ public class TextToSqlService {
         
         try {
             validateRequest(request);
-            String schemaContext = request.isIncludeSchemaContext()
-                    ? schemaAnalysisService.generateSchemaContext()
-                    : "No schema context provided.";
+            // Reuse caches only hold SQL generated against the application database, and a
+            // follow-up only makes sense together with the query it refines
+            boolean followUp = request.getPreviousQueryId() != null;
+            boolean reusable = !followUp && request.isIncludeSchemaContext()
+                    && TargetDataSourceRegistry.isDefault(request.getDataSource());
+            String sqlQuery = reusable
+                    ? generatedSqlCache.get(request.getNaturalLanguageQuery()).orElse(null)
+                    : null;
 
-            String prompt = buildPrompt(schemaContext, request.getNaturalLanguageQuery());
-            log.debug("Sending prompt to Ollama: {}", prompt);
-            
-            String rawResponse = ollamaClient.ask(prompt);
-            log.debug("Ollama raw response: {}", rawResponse);
+            if (sqlQuery == null && reusable) {
+                // Templates are learned from the SQL as generated, so their instances still need optimizing
+                sqlQuery = sqlTemplateService.instantiate(request.getNaturalLanguageQuery())
+                        .map(sql -> sqlOptimizer.optimize(TargetDataSourceRegistry.DEFAULT, sql))
+                        .orElse(null);
+            }
 
-            String sqlQuery = extractSqlFromResponse(rawResponse);
-            if (sqlQuery.trim().isEmpty()) {
-                throw new QueryGenerationException("Failed to extract valid SQL from response");
+            if (sqlQuery == null && reusable) {
+                sqlQuery = semanticQuestionCache.find(request.getNaturalLanguageQuery()).orElse(null);
             }
 
-            sqlQuery = postProcessSql(sqlQuery);
-            log.info("Generated SQL: {}", sqlQuery);
+            if (sqlQuery == null && followUp) {
+                sqlQuery = generateFollowUpSql(request);
+            } else if (sqlQuery == null) {
+                sqlQuery = generateSql(request.getNaturalLanguageQuery(), request.getDataSource(),
+                        request.isIncludeSchemaContext(), request.isMultiCandidate(), reusable);
+                if (reusable) {
+                    generatedSqlCache.put(request.getNaturalLanguageQuery(), sqlQuery);
+                }
+            }
 
             QueryResponse response = new QueryResponse();
             response.setNaturalLanguageQuery(request.getNaturalLanguageQuery());
             response.setGeneratedSql(sqlQuery);
+            response.setPreviousQueryId(request.getPreviousQueryId());
             response.setTimestamp(Instant.now());
 
             if (request.isExplainQuery()) {
@@ -77,24 +116,147 @@ public class TextToSqlService {
             meterRegistry.counter("query.generation", "status", "success").increment();
             return response;
 
+        } catch (QueryCancelledException e) {
+            meterRegistry.counter("query.generation", "status", "cancelled").increment();
+            throw e;
+        } catch (GenerationRejectedException e) {
+            meterRegistry.counter("query.generation", "status", "rejected").increment();
+            throw e;
         } catch (Exception e) {
             log.error("Error generating SQL query for request: {}", request.getNaturalLanguageQuery(), e);
             meterRegistry.counter("query.generation", "status", "failed", "error", e.getClass().getSimpleName()).increment();
             throw new QueryGenerationException("Failed to generate SQL query: " + e.getMessage(), e);
         } finally {
             stopWatch.stop();
-            queryConversionTimer.record(stopWatch.getTotalTimeMillis(), java.util.concurrent.TimeUnit.MILLISECONDS);
+            queryConversionTimer.record(stopWatch.getTotalTimeMillis(), TimeUnit.MILLISECONDS);
             log.debug("Query generation completed in {} ms", stopWatch.getTotalTimeMillis());
         }
     }
 
+    /**
+     * Generates SQL for a question without consulting the generated SQL cache.
+     */
+    public String generateFreshSql(String naturalLanguageQuery) {
+        return generateSql(naturalLanguageQuery, TargetDataSourceRegistry.DEFAULT, true, false, true);
+    }
+
+    /**
+     * Generates SQL from the full schema. Only when {@code reusable} is it learned as a template
+     * and added to the semantic cache, which the caller decides: the SQL has to answer the
+     * question on its own, against the application database.
+     */
+    private String generateSql(String naturalLanguageQuery, String dataSource, boolean includeSchemaContext,
+                               boolean multiCandidate, boolean reusable) {
+        String schemaContext = includeSchemaContext
+                ? schemaPromptCompiler.compileSchemaContext(dataSource)
+                : "No schema context provided.";
+
+        String sqlQuery;
+        if (multiCandidate && sqlCandidateSelector.getCandidates() > 1) {
+            sqlQuery = sqlCandidateSelector.select(dataSource, candidateGenerators(schemaContext, naturalLanguageQuery));
+        } else {
+            String prompt = buildPrompt(schemaContext, naturalLanguageQuery, null);
+            log.debug("Sending prompt to Ollama: {}", prompt);
+
+            long start = System.nanoTime();
+            String rawResponse = llmScheduler.call(() -> ollamaClient.ask(prompt));
+            log.debug("Ollama raw response: {}", rawResponse);
+
+            sqlQuery = toSql(rawResponse);
+            recordGeneration("cold", prompt, start);
+        }
+        log.info("Generated SQL: {}", sqlQuery);
+
+        // Templates generalize the literals of the question, which rewrites such as date ranges no longer contain
+        if (reusable) {
+            sqlTemplateService.learn(naturalLanguageQuery, sqlQuery);
+        }
+        sqlQuery = sqlOptimizer.optimize(dataSource, sqlQuery);
+        if (reusable) {
+            semanticQuestionCache.add(naturalLanguageQuery, sqlQuery);
+        }
+        return sqlQuery;
+    }
+
+    /**
+     * Edits the SQL of the previous query instead of generating from scratch. The prompt only has
+     * the previous question and SQL and the tables they use. When MySQL cannot plan the edit, both
+     * questions are generated together from the full schema instead.
+     */
+    private String generateFollowUpSql(QueryRequest request) {
+        UUID previousQueryId = request.getPreviousQueryId();
+        QueryHistory previous = queryHistoryService.getQueryById(previousQueryId)
+                .orElseThrow(() -> new InvalidQueryException("No query " + previousQueryId + " to follow up on"));
+        String dataSource = TargetDataSourceRegistry.resolveName(request.getDataSource());
+        // The previous SQL only runs on the data source it was generated for
+        if (!dataSource.equals(TargetDataSourceRegistry.resolveName(previous.getDataSource()))) {
+            throw new InvalidQueryException("Query " + previousQueryId + " ran against '" + previous.getDataSource()
+                    + "', follow it up there");
+        }
+
+        String tablesContext = schemaPromptCompiler.compileTablesContext(dataSource, previous.getGeneratedSql());
+        String prompt = buildFollowUpPrompt(tablesContext, previous, request.getNaturalLanguageQuery());
+        log.debug("Sending follow-up prompt to Ollama: {}", prompt);
+
+        long start = System.nanoTime();
+        String sqlQuery = toSql(llmScheduler.call(() -> ollamaClient.ask(prompt)));
+        try {
+            queryExecutionService.validateExecutable(dataSource, sqlQuery);
+        } catch (Exception e) {
+            log.info("Edited SQL of follow-up is not executable, generating from scratch: {}", e.getMessage());
+            meterRegistry.counter("query.follow.up", "outcome", "regenerated").increment();
+            // The combined question is made up, so its SQL must not answer anyone else's
+            return generateSql(previous.getNaturalLanguageQuery() + ", then: " + request.getNaturalLanguageQuery(),
+                    dataSource, request.isIncludeSchemaContext(), false, false);
+        }
+        recordGeneration("follow_up", prompt, start);
+        meterRegistry.counter("query.follow.up", "outcome", "edited").increment();
+        log.info("Generated SQL by editing query {}: {}", previousQueryId, sqlQuery);
+        return sqlOptimizer.optimize(dataSource, sqlQuery);
+    }
+
+    /**
+     * Records prompt size and model latency of a single-sample generation, so that follow-up
+     * edits can be compared with generation from scratch.
+     */
+    private void recordGeneration(String mode, String prompt, long startNanos) {
+        meterRegistry.summary("prompt.tokens", "mode", mode).record(SchemaPromptCompiler.estimateTokens(prompt));
+        meterRegistry.timer("sql.generation.time", "mode", mode).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * The regular prompt first, then variants with an extra hint at other temperatures.
+     */
+    private List<Callable<String>> candidateGenerators(String schemaContext, String naturalLanguageQuery) {
+        List<Callable<String>> generators = new ArrayList<>();
+        String prompt = buildPrompt(schemaContext, naturalLanguageQuery, null);
+        generators.add(() -> toSql(llmScheduler.call(() -> ollamaClient.ask(prompt))));
+        for (int i = 1; i < sqlCandidateSelector.getCandidates(); i++) {
+            String hinted = buildPrompt(schemaContext, naturalLanguageQuery, CANDIDATE_HINTS.get((i - 1) % CANDIDATE_HINTS.size()));
+            double temperature = sqlCandidateSelector.temperature(i);
+            generators.add(() -> toSql(llmScheduler.call(() -> ollamaClient.ask(hinted, temperature))));
+        }
+        return generators;
+    }
+
+    /**
+     * Extracts and normalizes the SQL statement from a raw model response.
+     */
+    String toSql(String rawResponse) {
+        String sqlQuery = extractSqlFromResponse(rawResponse);
+        if (sqlQuery.trim().isEmpty()) {
+            throw new QueryGenerationException("Failed to extract valid SQL from response");
+        }
+        return postProcessSql(sqlQuery);
+    }
+
     private void validateRequest(QueryRequest request) {
         if (request == null || request.getNaturalLanguageQuery() == null || request.getNaturalLanguageQuery().trim().isEmpty()) {
             throw new IllegalArgumentException("Natural language query cannot be empty");
         }
     }
 
-    private String buildPrompt(String schemaContext, String naturalLanguageQuery) {
+    private String buildPrompt(String schemaContext, String naturalLanguageQuery, String hint) {
         return String.format("""
                 ### Database Schema:
                 %s
@@ -110,9 +272,33 @@ public class TextToSqlService {
                 4. Include all necessary JOIN conditions
                 5. Add appropriate WHERE clauses based on the query
                 6. Include ORDER BY if sorting is implied
+                %s
+                ### SQL Query:
+                """, schemaContext, naturalLanguageQuery, hint != null ? "7. " + hint + "\n" : "");
+    }
+
+    private String buildFollowUpPrompt(String tablesContext, QueryHistory previous, String followUp) {
+        return String.format("""
+                ### Database Schema:
+                %s
+                
+                ### Previous Question:
+                "%s"
+                
+                ### Previous SQL Query:
+                %s
+                
+                ### Task:
+                Edit the previous SQL query so that it answers this follow-up:
+                "%s"
+                
+                ### Instructions:
+                1. Generate only the edited SQL query without any explanations or markdown formatting
+                2. Keep everything of the previous query that the follow-up does not change
+                3. Only use the tables and columns of the schema above
                 
                 ### SQL Query:
-                """, schemaContext, naturalLanguageQuery);
+                """, tablesContext, previous.getNaturalLanguageQuery(), previous.getGeneratedSql(), followUp);
     }
 
     private String extractSqlFromResponse(String response) {
@@ -0,0 +1,316 @@
+package com.ai.texttosql.service;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The rows of a watched query's last result, kept as compactly as they can still be compared:
+ * a 64-bit hash of each row's values and, for results with a key column, the key next to it,
+ * sorted by key. A keyed snapshot takes 16 bytes per row and tells changed rows from added and
+ * removed ones; one without keys takes 8 bytes per row and only tells added from removed rows.
+ */
+final class WatchSnapshot {
+
+    static final String KEYED = "KEYED";
+    static final String ROWS = "ROWS";
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final long[] keys;
+    private final long[] hashes;
+
+    private WatchSnapshot(long[] keys, long[] hashes) {
+        this.keys = keys;
+        this.hashes = hashes;
+    }
+
+    /**
+     * The snapshot stored in {@code data}, or {@code null} when there is none.
+     */
+    static WatchSnapshot decode(String format, byte[] data) {
+        if (format == null || data == null) {
+            return null;
+        }
+        boolean keyed = KEYED.equals(format);
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        int rows = data.length / (keyed ? 16 : 8);
+        long[] keys = keyed ? new long[rows] : null;
+        long[] hashes = new long[rows];
+        for (int i = 0; i < rows; i++) {
+            if (keyed) {
+                keys[i] = buffer.getLong();
+            }
+            hashes[i] = buffer.getLong();
+        }
+        return new WatchSnapshot(keys, hashes);
+    }
+
+    byte[] encode() {
+        ByteBuffer buffer = ByteBuffer.allocate(hashes.length * (keys != null ? 16 : 8));
+        for (int i = 0; i < hashes.length; i++) {
+            if (keys != null) {
+                buffer.putLong(keys[i]);
+            }
+            buffer.putLong(hashes[i]);
+        }
+        return buffer.array();
+    }
+
+    String getFormat() {
+        return keys != null ? KEYED : ROWS;
+    }
+
+    boolean isKeyed() {
+        return keys != null;
+    }
+
+    int size() {
+        return hashes.length;
+    }
+
+    /**
+     * The highest key, or {@code null} for an empty or unkeyed snapshot.
+     */
+    Long maxKey() {
+        return keys != null && keys.length > 0 ? keys[keys.length - 1] : null;
+    }
+
+    /**
+     * Starts comparing a new result with {@code previous}.
+     *
+     * @param previous   the last snapshot, or {@code null} for the first run
+     * @param keyColumn  position of the key in the rows, or -1 to compare whole rows
+     * @param incremental whether the new rows are only those above the previous highest key
+     * @param keep       how many added and changed rows to keep for display
+     */
+    static Comparison compare(WatchSnapshot previous, int keyColumn, boolean incremental, int keep) {
+        // A snapshot of the other kind cannot be compared with, so the new result starts over
+        boolean comparable = previous != null && previous.isKeyed() == (keyColumn >= 0);
+        return new Comparison(comparable ? previous : null, keyColumn, incremental && comparable, keep);
+    }
+
+    /**
+     * What changed between two results.
+     *
+     * @param baseline true when there was nothing to compare with, so that nothing is reported
+     */
+    record Delta(WatchSnapshot snapshot, boolean baseline,
+                 List<Object[]> added, long addedCount,
+                 List<Object[]> changed, long changedCount,
+                 List<Long> removedKeys, long removedCount) {
+
+        boolean isEmpty() {
+            return addedCount == 0 && changedCount == 0 && removedCount == 0;
+        }
+    }
+
+    /**
+     * Compares the rows of a new result, as they are streamed, with the previous snapshot.
+     */
+    static final class Comparison {
+
+        private final WatchSnapshot previous;
+        private final int keyColumn;
+        private final boolean incremental;
+        private final int keep;
+        private final BitSet seen = new BitSet();
+        private final List<Object[]> added = new ArrayList<>();
+        private final List<Object[]> changed = new ArrayList<>();
+        private Map<Long, Integer> remaining;
+        private long[] keys;
+        private long[] hashes = new long[64];
+        private int rows;
+        private long addedCount;
+        private long changedCount;
+        private boolean keyed;
+
+        private Comparison(WatchSnapshot previous, int keyColumn, boolean incremental, int keep) {
+            this.previous = previous;
+            this.keyColumn = keyColumn;
+            this.incremental = incremental;
+            this.keep = keep;
+            this.keyed = keyColumn >= 0;
+            this.keys = keyed ? new long[64] : null;
+        }
+
+        void accept(Object[] row) {
+            long hash = hash(row);
+            Long key = keyed ? key(row[keyColumn]) : null;
+            if (keyed && key == null) {
+                keyed = false;
+            }
+            if (rows == hashes.length) {
+                hashes = Arrays.copyOf(hashes, rows * 2);
+                if (keys != null) {
+                    keys = Arrays.copyOf(keys, rows * 2);
+                }
+            }
+            if (keyed) {
+                keys[rows] = key;
+            }
+            hashes[rows++] = hash;
+
+            if (previous == null || !keyed && keyColumn >= 0) {
+                return;
+            }
+            if (keyed) {
+                int index = Arrays.binarySearch(previous.keys, key);
+                if (index < 0) {
+                    addedCount++;
+                    keepRow(added, row);
+                } else {
+                    seen.set(index);
+                    if (previous.hashes[index] != hash) {
+                        changedCount++;
+                        keepRow(changed, row);
+                    }
+                }
+                return;
+            }
+            if (remaining == null) {
+                remaining = new HashMap<>();
+                for (long previousHash : previous.hashes) {
+                    remaining.merge(previousHash, 1, Integer::sum);
+                }
+            }
+            Integer count = remaining.get(hash);
+            if (count != null && count > 0) {
+                remaining.put(hash, count - 1);
+            } else {
+                addedCount++;
+                keepRow(added, row);
+            }
+        }
+
+        /**
+         * The delta and the snapshot to keep. A keyed result whose keys turn out to be missing or
+         * repeated, as after a join that fans out, is kept as whole rows from then on.
+         */
+        Delta finish() {
+            if (keyColumn >= 0 && !keyed) {
+                return baseline(unkeyed());
+            }
+            if (!keyed) {
+                WatchSnapshot snapshot = new WatchSnapshot(null, sorted(Arrays.copyOf(hashes, rows)));
+                if (previous == null) {
+                    return baseline(snapshot);
+                }
+                long removed = remaining != null
+                        ? remaining.values().stream().mapToLong(Integer::longValue).sum()
+                        : previous.size();
+                return new Delta(snapshot, false, added, addedCount, List.of(), 0, List.of(), removed);
+            }
+
+            Integer[] order = new Integer[rows];
+            for (int i = 0; i < rows; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Long.compare(keys[a], keys[b]));
+            long[] sortedKeys = new long[rows];
+            long[] sortedHashes = new long[rows];
+            for (int i = 0; i < rows; i++) {
+                sortedKeys[i] = keys[order[i]];
+                sortedHashes[i] = hashes[order[i]];
+                if (i > 0 && sortedKeys[i] == sortedKeys[i - 1]) {
+                    return baseline(unkeyed());
+                }
+            }
+            if (previous == null) {
+                return baseline(new WatchSnapshot(sortedKeys, sortedHashes));
+            }
+            if (incremental) {
+                // The new rows all lie above the previous ones, so the snapshot grows at the end
+                long[] mergedKeys = Arrays.copyOf(previous.keys, previous.size() + rows);
+                long[] mergedHashes = Arrays.copyOf(previous.hashes, previous.size() + rows);
+                System.arraycopy(sortedKeys, 0, mergedKeys, previous.size(), rows);
+                System.arraycopy(sortedHashes, 0, mergedHashes, previous.size(), rows);
+                return new Delta(new WatchSnapshot(mergedKeys, mergedHashes), false,
+                        added, addedCount, changed, changedCount, List.of(), 0);
+            }
+            List<Long> removedKeys = new ArrayList<>();
+            long removed = 0;
+            for (int i = seen.nextClearBit(0); i < previous.size(); i = seen.nextClearBit(i + 1)) {
+                removed++;
+                if (removedKeys.size() < keep) {
+                    removedKeys.add(previous.keys[i]);
+                }
+            }
+            return new Delta(new WatchSnapshot(sortedKeys, sortedHashes), false,
+                    added, addedCount, changed, changedCount, removedKeys, removed);
+        }
+
+        /**
+         * The rows as whole-row hashes, with the previous ones when only new rows were read.
+         */
+        private WatchSnapshot unkeyed() {
+            int kept = incremental ? previous.size() : 0;
+            long[] all = Arrays.copyOf(hashes, rows + kept);
+            if (kept > 0) {
+                System.arraycopy(previous.hashes, 0, all, rows, kept);
+            }
+            return new WatchSnapshot(null, sorted(all));
+        }
+
+        private Delta baseline(WatchSnapshot snapshot) {
+            return new Delta(snapshot, true, List.of(), 0, List.of(), 0, List.of(), 0);
+        }
+
+        private void keepRow(List<Object[]> kept, Object[] row) {
+            if (kept.size() < keep) {
+                kept.add(row.clone());
+            }
+        }
+    }
+
+    /**
+     * FNV-1a over the values in a canonical text form, so that the same values hash the same
+     * whatever type the driver returned them as.
+     */
+    static long hash(Object[] row) {
+        long hash = FNV_OFFSET;
+        for (Object value : row) {
+            String text = value == null ? "\u0000"
+                    : value instanceof byte[] bytes ? HexFormat.of().formatHex(bytes)
+                    : value instanceof BigDecimal decimal ? decimal.stripTrailingZeros().toPlainString()
+                    : value.toString();
+            for (byte b : text.getBytes(StandardCharsets.UTF_8)) {
+                hash ^= b & 0xff;
+                hash *= FNV_PRIME;
+            }
+            hash ^= 0x1f;
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * The value of an integer key, or {@code null} when the value is not one.
+     */
+    private static Long key(Object value) {
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return ((Number) value).longValue();
+        }
+        if (value instanceof BigInteger integer && integer.bitLength() < 64) {
+            return integer.longValue();
+        }
+        if (value instanceof BigDecimal decimal && decimal.scale() <= 0 && decimal.toBigInteger().bitLength() < 64) {
+            return decimal.longValue();
+        }
+        return null;
+    }
+
+    private static long[] sorted(long[] values) {
+        Arrays.sort(values);
+        return values;
+    }
+}
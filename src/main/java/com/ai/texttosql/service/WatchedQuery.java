@@ -0,0 +1,123 @@
+package com.ai.texttosql.service;
+
+import com.ai.texttosql.model.SchemaInfo;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * What a watched statement offers for comparing its results across runs.
+ * <p>
+ * When the select list has the integer primary key of the first table as a plain column, that
+ * column identifies rows, so a changed row can be told from a removed and an added one. When the
+ * key is also auto-increment and the statement neither groups, aggregates nor limits its rows, new
+ * rows are exactly those above the highest key seen, and a run may read just those with an added
+ * {@code key > watermark} predicate instead of the whole result.
+ */
+final class WatchedQuery {
+
+    private static final Pattern SELECT_ITEM = Pattern.compile(
+            "(?i)^(?:`?(\\w+)`?\\s*\\.\\s*)?`?(\\w+)`?(?:\\s+(?:AS\\s+)?`?\\w+`?)?$");
+    private static final Pattern SELECT_MODIFIER = Pattern.compile("(?is)^(DISTINCT|DISTINCTROW)\\b.*");
+    private static final Pattern WINDOW_FUNCTION = Pattern.compile("(?i)\\bOVER\\s*[(`\\w]");
+
+    private final String sql;
+    private final int keyColumn;
+    private final String keyReference;
+    private final boolean incremental;
+
+    private WatchedQuery(String sql, int keyColumn, String keyReference, boolean incremental) {
+        this.sql = sql;
+        this.keyColumn = keyColumn;
+        this.keyReference = keyReference;
+        this.incremental = incremental;
+    }
+
+    /**
+     * @param schemas       the schema of each table by name, or {@code null} for unknown tables
+     * @param autoIncrement whether a column of a table is auto-increment
+     */
+    static WatchedQuery of(String sql, Function<String, SchemaInfo> schemas, BiPredicate<String, String> autoIncrement) {
+        String statement = sql.strip().replaceAll(";\\s*$", "");
+        WatchedQuery unkeyed = new WatchedQuery(statement, -1, null, false);
+        SqlClauses clauses = SqlClauses.parse(statement);
+        if (clauses.isCompound() || clauses.start(SqlClauses.SELECT) != 0 || !clauses.has(SqlClauses.FROM)) {
+            return unkeyed;
+        }
+        String[] from = KeysetPaginator.JOIN_SPLIT.split(clauses.body(SqlClauses.FROM).strip());
+        Matcher first = KeysetPaginator.TABLE_REFERENCE.matcher(from[0].strip());
+        if (from[0].contains(",") || !first.matches()
+                || first.group(3) != null && KeysetPaginator.NOT_ALIASES.contains(first.group(3).toUpperCase(Locale.ROOT))) {
+            return unkeyed;
+        }
+        SchemaInfo schema = schemas.apply(first.group(2));
+        if (schema == null || schema.getColumns() == null) {
+            return unkeyed;
+        }
+        List<SchemaInfo.ColumnInfo> primaryKey = schema.getColumns().stream().filter(SchemaInfo.ColumnInfo::isPrimaryKey).toList();
+        if (primaryKey.size() != 1 || !primaryKey.get(0).getType().toLowerCase(Locale.ROOT).contains("int")) {
+            return unkeyed;
+        }
+        String key = primaryKey.get(0).getName();
+        String qualifier = first.group(3) != null ? first.group(3) : first.group(2);
+
+        // Unqualified, the key column is only known to be the first table's when there is no other
+        String selectList = clauses.body(SqlClauses.SELECT);
+        List<String> items = SqlClauses.splitTopLevel(SELECT_MODIFIER.matcher(selectList).matches()
+                ? selectList.replaceFirst("(?i)^\\s*DISTINCT(ROW)?\\s+", "") : selectList);
+        int keyColumn = -1;
+        for (int i = 0; i < items.size() && keyColumn < 0; i++) {
+            Matcher item = SELECT_ITEM.matcher(items.get(i).strip());
+            if (item.matches() && item.group(2).equalsIgnoreCase(key)
+                    && (item.group(1) != null ? item.group(1).equalsIgnoreCase(qualifier) : from.length == 1)) {
+                keyColumn = i;
+            }
+        }
+        if (keyColumn < 0) {
+            return unkeyed;
+        }
+
+        boolean incremental = !clauses.has(SqlClauses.GROUP_BY) && !clauses.has(SqlClauses.HAVING)
+                && !clauses.has(SqlClauses.LIMIT) && !clauses.has(SqlClauses.WINDOW)
+                && !clauses.has(SqlClauses.FOR) && !clauses.has(SqlClauses.INTO)
+                && !KeysetPaginator.AGGREGATE.matcher(selectList).find()
+                && !WINDOW_FUNCTION.matcher(selectList).find()
+                && autoIncrement.test(schema.getTableName(), key);
+        return new WatchedQuery(statement, keyColumn, "`" + qualifier + "`.`" + key + "`", incremental);
+    }
+
+    /**
+     * Position of the key in the result rows, or -1 when rows have no key.
+     */
+    int keyColumn() {
+        return keyColumn;
+    }
+
+    /**
+     * Whether new rows can be read on their own, see {@link #after(long)}.
+     */
+    boolean isIncremental() {
+        return incremental;
+    }
+
+    /**
+     * The statement restricted to rows whose key is above {@code watermark}.
+     */
+    String after(long watermark) {
+        if (!incremental) {
+            throw new IllegalStateException("Not an incremental statement: " + sql);
+        }
+        SqlClauses clauses = SqlClauses.parse(sql);
+        String predicate = keyReference + " > " + watermark;
+        if (clauses.has(SqlClauses.WHERE)) {
+            return sql.substring(0, clauses.bodyStart(SqlClauses.WHERE)) + " (" + clauses.body(SqlClauses.WHERE) + ") AND "
+                    + predicate + (" " + sql.substring(clauses.end(SqlClauses.WHERE))).stripTrailing();
+        }
+        int at = clauses.has(SqlClauses.ORDER_BY) ? clauses.start(SqlClauses.ORDER_BY) : sql.length();
+        return sql.substring(0, at).stripTrailing() + " WHERE " + predicate + (" " + sql.substring(at)).stripTrailing();
+    }
+}
@@ -0,0 +1,12 @@
+-- Monthly range partitioning for query_history
+
+-- The partitioning column has to be part of every unique key
+ALTER TABLE query_history MODIFY timestamp TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP;
+ALTER TABLE query_history DROP PRIMARY KEY, ADD PRIMARY KEY (id, timestamp);
+
+-- Bounds are epoch seconds (UTC). Everything before 2026-10-01 lands in p_legacy;
+-- QueryHistoryLifecycleService splits monthly partitions out of p_future ahead of time.
+ALTER TABLE query_history PARTITION BY RANGE (UNIX_TIMESTAMP(timestamp)) (
+    PARTITION p_legacy VALUES LESS THAN (1790812800),
+    PARTITION p_future VALUES LESS THAN MAXVALUE
+);
@@ -0,0 +1,18 @@
+-- Totals per SQL fingerprint, flushed periodically by SqlStatementStats
+
+CREATE TABLE sql_statement_stats (
+    fingerprint CHAR(16) NOT NULL PRIMARY KEY,
+    query TEXT NOT NULL,
+    calls BIGINT NOT NULL,
+    errors BIGINT NOT NULL,
+    rows_returned BIGINT NOT NULL,
+    total_time_ms DOUBLE NOT NULL,
+    -- Percentiles and maximum are over the lifetime of the application instance that flushed last
+    p50_time_ms DOUBLE NOT NULL,
+    p95_time_ms DOUBLE NOT NULL,
+    p99_time_ms DOUBLE NOT NULL,
+    max_time_ms DOUBLE NOT NULL,
+    first_seen TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    last_seen TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    INDEX idx_sql_statement_stats_total_time (total_time_ms)
+);
@@ -0,0 +1,4 @@
+-- Follow-up queries refer to the query they refine, which chains them into sessions
+
+ALTER TABLE query_history ADD COLUMN parent_query_id BINARY(16) NULL AFTER explanation;
+ALTER TABLE query_history ADD INDEX idx_query_history_parent (parent_query_id);
@@ -0,0 +1,18 @@
+-- Catalog of the summary tables maintained by SummaryTableService
+
+CREATE TABLE aggregate_summaries (
+    table_name VARCHAR(64) NOT NULL PRIMARY KEY,
+    -- FROM clause, dimensions and measures the summary table was built from
+    definition JSON NOT NULL,
+    occurrences BIGINT NOT NULL,
+    -- ACTIVE, UNPROFITABLE or RETIRED; only ACTIVE summaries answer queries
+    status VARCHAR(20) NOT NULL,
+    row_count BIGINT NOT NULL DEFAULT 0,
+    source_rows BIGINT NOT NULL DEFAULT 0,
+    -- Highest auto-increment key summarized, for summaries that are refreshed incrementally
+    watermark BIGINT NULL,
+    build_time_ms BIGINT NOT NULL DEFAULT 0,
+    built_at TIMESTAMP NULL,
+    refreshed_at TIMESTAMP NULL,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
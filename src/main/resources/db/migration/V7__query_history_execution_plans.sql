@@ -0,0 +1,5 @@
+-- EXPLAIN ANALYZE output of slow queries, captured after they ran
+
+ALTER TABLE query_history
+    ADD COLUMN execution_plan MEDIUMTEXT NULL AFTER execution_metrics,
+    ADD COLUMN plan_captured_at TIMESTAMP NULL AFTER execution_plan;
@@ -0,0 +1,26 @@
+-- Scheduled re-runs of saved queries whose changes are posted to a Slack channel, see QueryWatchService
+
+CREATE TABLE query_watches (
+    id BINARY(16) NOT NULL PRIMARY KEY,
+    query_id BINARY(16) NOT NULL,
+    channel_id VARCHAR(64) NOT NULL,
+    created_by VARCHAR(255) NOT NULL,
+    -- Spring cron expression, evaluated in time_zone
+    schedule VARCHAR(100) NOT NULL,
+    time_zone VARCHAR(64) NOT NULL DEFAULT 'UTC',
+    -- ACTIVE or PAUSED
+    status VARCHAR(20) NOT NULL,
+    next_run_at TIMESTAMP NOT NULL,
+    last_run_at TIMESTAMP NULL,
+    last_error VARCHAR(1000) NULL,
+    -- KEYED (primary key and row hash per row) or ROWS (row hash per row), see WatchSnapshot
+    state_format VARCHAR(10) NULL,
+    row_state MEDIUMBLOB NULL,
+    row_count INT NULL,
+    -- Highest key seen, for watches that only read rows above it between full runs
+    watermark BIGINT NULL,
+    incremental_runs INT NOT NULL DEFAULT 0,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    INDEX idx_query_watches_due (status, next_run_at),
+    INDEX idx_query_watches_channel (channel_id)
+);
@@ -0,0 +1,3 @@
+-- The data source a query ran against, so that its SQL is only reused or re-run there
+
+ALTER TABLE query_history ADD COLUMN data_source VARCHAR(64) NOT NULL DEFAULT 'default' AFTER generated_sql;
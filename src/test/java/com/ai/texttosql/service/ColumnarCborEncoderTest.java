@@ -0,0 +1,144 @@
+package com.ai.texttosql.service;
+
+import com.ai.texttosql.model.QueryResponse;
+import com.ai.texttosql.model.QueryResultPage;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.params.provider.Arguments.arguments;
+
+class ColumnarCborEncoderTest {
+
+    private static final UUID QUERY_ID = UUID.fromString("3f2c1d4e-5a6b-4c7d-8e9f-0a1b2c3d4e5f");
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ColumnarCborEncoder encoder = new ColumnarCborEncoder(meterRegistry);
+    private final ObjectMapper cborMapper = new ObjectMapper(new CBORFactory());
+
+    @Test
+    void writesOneArrayPerColumn() throws IOException {
+        QueryResultPage page = QueryResultPage.builder()
+                .generatedSql("SELECT id, status FROM orders")
+                .rows(List.of(new Object[]{1L, "open"}, new Object[]{2L, null}, new Object[]{3L, "paid"}))
+                .timestamp(Instant.parse("2024-06-01T00:00:00Z"))
+                .page(QueryResponse.PageInfo.builder().pageNumber(0).pageSize(3).totalElements(7).totalPages(3)
+                        .continuationToken("next").build())
+                .executionMetrics(new QueryResponse.ExecutionMetrics(12, 3, "SUCCESS"))
+                .build();
+
+        JsonNode body = decode(page, QUERY_ID);
+
+        assertThat(body.get("queryId").asText()).isEqualTo(QUERY_ID.toString());
+        assertThat(body.get("naturalLanguageQuery").asText()).isEqualTo("open orders");
+        assertThat(body.get("generatedSql").asText()).isEqualTo("SELECT id, status FROM orders");
+        assertThat(body.get("timestamp").asText()).isEqualTo("2024-06-01T00:00:00Z");
+        assertThat(body.get("columns")).extracting(JsonNode::asText).containsExactly("column_1", "column_2");
+        assertThat(body.get("rowCount").asInt()).isEqualTo(3);
+        assertThat(body.get("data").get(0)).extracting(JsonNode::asLong).containsExactly(1L, 2L, 3L);
+        assertThat(body.get("data").get(1)).extracting(JsonNode::isNull).containsExactly(false, true, false);
+        assertThat(body.get("data").get(1).get(2).asText()).isEqualTo("paid");
+        assertThat(body.at("/page/totalElements").asLong()).isEqualTo(7);
+        assertThat(body.at("/page/continuationToken").asText()).isEqualTo("next");
+        assertThat(body.at("/page").has("snapshotId")).isFalse();
+        assertThat(body.at("/executionMetrics/executionTimeMs").asLong()).isEqualTo(12);
+        assertThat(body.at("/executionMetrics/status").asText()).isEqualTo("SUCCESS");
+    }
+
+    @Test
+    void leavesOutWhatAPageDoesNotHave() throws IOException {
+        JsonNode body = decode(QueryResultPage.builder().generatedSql("SELECT 1").rows(List.of()).build(), null);
+
+        assertThat(body.get("queryId").isNull()).isTrue();
+        assertThat(body.get("timestamp").isNull()).isTrue();
+        assertThat(body.has("page")).isFalse();
+        assertThat(body.has("executionMetrics")).isFalse();
+        assertThat(body.get("columns")).isEmpty();
+        assertThat(body.get("rowCount").asInt()).isZero();
+        assertThat(body.get("data")).isEmpty();
+    }
+
+    static Stream<Arguments> values() {
+        return Stream.of(
+                // column value and what it decodes to
+                arguments(null, (Predicate<JsonNode>) JsonNode::isNull),
+                arguments(42, (Predicate<JsonNode>) node -> node.isIntegralNumber() && node.asLong() == 42),
+                arguments(Long.MAX_VALUE, (Predicate<JsonNode>) node -> node.asLong() == Long.MAX_VALUE),
+                arguments(new BigInteger("123456789012345678901234567890"),
+                        (Predicate<JsonNode>) node -> node.bigIntegerValue().equals(new BigInteger("123456789012345678901234567890"))),
+                arguments(new BigDecimal("12345678901234567.89"),
+                        (Predicate<JsonNode>) node -> node.isBigDecimal()
+                                && node.decimalValue().compareTo(new BigDecimal("12345678901234567.89")) == 0),
+                arguments(0.5d, (Predicate<JsonNode>) node -> node.isFloatingPointNumber() && node.asDouble() == 0.5),
+                arguments(true, (Predicate<JsonNode>) node -> node.isBoolean() && node.asBoolean()),
+                arguments("Zürich".getBytes(StandardCharsets.UTF_8), (Predicate<JsonNode>) node -> node.asText().equals("Zürich")),
+                arguments(Timestamp.from(Instant.parse("2024-02-29T12:30:00Z")),
+                        (Predicate<JsonNode>) node -> node.asText().equals("2024-02-29T12:30:00Z")),
+                arguments(LocalDate.of(2024, 3, 1), (Predicate<JsonNode>) node -> node.asText().equals("2024-03-01")));
+    }
+
+    @ParameterizedTest
+    @MethodSource("values")
+    void roundTripsColumnValues(Object value, Predicate<JsonNode> decoded) throws IOException {
+        List<Object[]> rows = new ArrayList<>();
+        rows.add(new Object[]{value});
+        JsonNode body = decode(QueryResultPage.builder().rows(rows).build(), null);
+
+        JsonNode cell = body.at("/data/0/0");
+        assertThat(decoded.test(cell)).as("decoded %s", cell).isTrue();
+    }
+
+    @Test
+    void recordsTheEncodedSize() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.encode(QueryResultPage.builder().rows(List.<Object[]>of(new Object[]{1L})).build(), null, null, null, out);
+
+        assertThat(meterRegistry.get("query.result.encoded.bytes").tag("format", "cbor").summary().totalAmount())
+                .isEqualTo(out.size());
+        assertThat(meterRegistry.get("query.result.encode.time").tag("format", "cbor").timer().count()).isEqualTo(1);
+    }
+
+    static Stream<Arguments> acceptHeaders() {
+        return Stream.of(
+                // Accept header and whether it asks for CBOR
+                arguments("application/cbor", true),
+                arguments("application/cbor, application/json", true),
+                arguments("application/json, application/cbor;q=0.5", false),
+                arguments("application/json", false),
+                arguments("*/*", false),
+                arguments(null, false));
+    }
+
+    @ParameterizedTest
+    @MethodSource("acceptHeaders")
+    void isRequestedWhenPreferredOverJson(String accept, boolean requested) {
+        assertThat(ColumnarCborEncoder.isRequested(accept)).isEqualTo(requested);
+    }
+
+    private JsonNode decode(QueryResultPage page, UUID queryId) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.encode(page, queryId, "open orders", null, out);
+        return cborMapper.readTree(out.toByteArray());
+    }
+}
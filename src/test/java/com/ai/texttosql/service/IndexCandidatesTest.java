@@ -0,0 +1,112 @@
+package com.ai.texttosql.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.params.provider.Arguments.arguments;
+
+class IndexCandidatesTest {
+
+    static Stream<Arguments> candidates() {
+        return Stream.of(
+                // statement, its candidates as table(columns)/equality columns/reason
+                arguments("SELECT * FROM orders WHERE status = 'paid' AND customer_id = 5",
+                        List.of("orders(customer_id,status)/2/filter")),
+                arguments("SELECT * FROM orders WHERE status = 'paid' AND total > 100",
+                        List.of("orders(status,total)/1/filter")),
+                arguments("SELECT * FROM orders WHERE status = 'paid' ORDER BY created_at",
+                        List.of("orders(status,created_at)/1/filter")),
+                arguments("SELECT * FROM orders ORDER BY total DESC", List.of("orders(total)/0/order")),
+                arguments("SELECT customer_id, COUNT(*) FROM orders GROUP BY customer_id", List.of("orders(customer_id)/0/group")),
+                arguments("SELECT * FROM orders WHERE status = 'a OR b' AND total BETWEEN 1 AND 5",
+                        List.of("orders(status,total)/1/filter")),
+                arguments("SELECT * FROM orders WHERE status LIKE 'pa%'", List.of("orders(status)/0/filter")),
+                arguments("SELECT * FROM orders WHERE (status = 'paid' AND total IS NULL)", List.of("orders(status,total)/2/filter")),
+                arguments("SELECT * FROM orders WHERE customer_id IN (SELECT id FROM customers WHERE region = 'EU')",
+                        List.of("orders(customer_id)/1/filter")),
+                arguments("SELECT c.name FROM orders o JOIN customers c ON c.id = o.customer_id WHERE o.status = 'paid'",
+                        List.of("orders(status)/1/filter")),
+                arguments("SELECT o.id FROM customers c JOIN orders o ON o.customer_id = c.id WHERE c.region = 'EU'",
+                        List.of("customers(region)/1/filter")),
+                arguments("SELECT * FROM customers c JOIN orders o ON o.status = c.region",
+                        List.of("orders(status)/1/join")),
+                arguments("SELECT * FROM orders WHERE status LIKE '%id'", List.of()),
+                arguments("SELECT * FROM orders WHERE status = 'a' OR total > 5", List.of()),
+                arguments("SELECT * FROM orders WHERE YEAR(created_at) = 2024", List.of()),
+                arguments("SELECT * FROM orders WHERE status <> 'x'", List.of()),
+                arguments("SELECT * FROM orders WHERE total > (SELECT AVG(total) FROM orders)", List.of()),
+                arguments("SELECT * FROM events WHERE payload = 'x'", List.of()),
+                arguments("SELECT id FROM orders WHERE status = 'a' UNION SELECT id FROM customers WHERE region = 'b'", List.of()),
+                arguments("SELECT * FROM shipments WHERE id = 1", List.of()));
+    }
+
+    @ParameterizedTest
+    @MethodSource("candidates")
+    void readsCandidatesFromPredicatesJoinsAndSorts(String sql, List<String> expected) {
+        List<String> candidates = IndexCandidates.of(sql, TestSchemas.lookup(), 4).stream()
+                .map(c -> c.table() + "(" + String.join(",", c.columns()) + ")/" + c.equalityColumns() + "/" + c.reason())
+                .toList();
+
+        assertThat(candidates).isEqualTo(expected);
+    }
+
+    @Test
+    void cutsCandidatesAtTheColumnLimit() {
+        List<IndexCandidates.Candidate> candidates = IndexCandidates.of(
+                "SELECT * FROM orders WHERE status = 'a' AND customer_id = 1 AND total > 3", TestSchemas.lookup(), 2);
+
+        assertThat(candidates).extracting(IndexCandidates.Candidate::columns).containsExactly(List.of("customer_id", "status"));
+    }
+
+    static Stream<Arguments> served() {
+        return Stream.of(
+                // candidate columns and equality count, index columns, served
+                arguments(List.of("customer_id", "status"), 2, List.of("status", "customer_id", "total"), true),
+                arguments(List.of("status", "total"), 1, List.of("status", "total"), true),
+                arguments(List.of("status", "total"), 1, List.of("total", "status"), false),
+                arguments(List.of("status"), 1, List.of("customer_id", "status"), false),
+                arguments(List.of("status", "created_at"), 1, List.of("STATUS", "CREATED_AT"), true));
+    }
+
+    @ParameterizedTest
+    @MethodSource("served")
+    void equalityColumnsMayComeInAnyOrder(List<String> columns, int equality, List<String> index, boolean served) {
+        assertThat(new IndexCandidates.Candidate("orders", columns, equality, IndexCandidates.FILTER).servedBy(index))
+                .isEqualTo(served);
+    }
+
+    @Test
+    void mergesCandidatesOneIndexServes() {
+        IndexCandidates.Candidate byStatus = new IndexCandidates.Candidate("orders", List.of("status"), 1, IndexCandidates.FILTER);
+        IndexCandidates.Candidate byStatusAndCustomer = new IndexCandidates.Candidate(
+                "orders", List.of("customer_id", "status"), 2, IndexCandidates.FILTER);
+        IndexCandidates.Candidate byTotal = new IndexCandidates.Candidate("orders", List.of("total"), 0, IndexCandidates.ORDER);
+
+        assertThat(byStatus.merge(byStatusAndCustomer).columns()).containsExactly("status", "customer_id");
+        assertThat(byStatus.merge(byTotal)).isNull();
+    }
+
+    static Stream<Arguments> rewrites() {
+        return Stream.of(
+                arguments("SELECT * FROM orders WHERE orders.status = 'FROM orders'",
+                        "SELECT * FROM copy AS `orders` WHERE orders.status = 'FROM orders'"),
+                arguments("SELECT c.name FROM customers c JOIN orders o ON o.customer_id = c.id",
+                        "SELECT c.name FROM customers c JOIN copy o ON o.customer_id = c.id "),
+                arguments("SELECT id FROM customers", null),
+                arguments("SELECT id FROM orders UNION SELECT id FROM orders", null));
+    }
+
+    @ParameterizedTest
+    @MethodSource("rewrites")
+    void readsTheTableFromItsCopy(String sql, String rewritten) {
+        IndexCandidates.Rewrite rewrite = IndexCandidates.onTable(sql, "orders", "copy");
+
+        assertThat(rewrite == null ? null : rewrite.sql()).isEqualTo(rewritten);
+    }
+}
@@ -0,0 +1,103 @@
+package com.ai.texttosql.service;
+
+import com.ai.texttosql.exception.QueryExecutionException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.params.provider.Arguments.arguments;
+
+class KeysetPaginatorTest {
+
+    private final KeysetPaginator paginator = new KeysetPaginator(TestSchemas.schemaAnalysisService());
+
+    static Stream<Arguments> plans() {
+        return Stream.of(
+                // statement, key columns including tie-breakers, or -1 when it cannot be paged by key
+                arguments("SELECT id, total FROM orders ORDER BY created_at", 2),
+                arguments("SELECT id FROM orders ORDER BY id DESC", 1),
+                arguments("SELECT o.id, c.name FROM orders o JOIN customers c ON c.id = o.customer_id ORDER BY o.created_at", 2),
+                arguments("SELECT o.id FROM orders o LEFT JOIN customers c ON c.email = o.status ORDER BY o.id", 1),
+                arguments("SELECT id FROM orders WHERE status = 'ORDER BY total LIMIT 5' ORDER BY id", 1),
+                arguments("SELECT id, (SELECT COUNT(*) FROM order_items i WHERE i.order_id = orders.id) AS items FROM orders ORDER BY id", 1),
+                arguments("SELECT * FROM orders ORDER BY total", -1),
+                arguments("SELECT * FROM orders ORDER BY status", -1),
+                arguments("SELECT id FROM orders ORDER BY id LIMIT 10", -1),
+                arguments("SELECT COUNT(*) FROM orders ORDER BY id", -1),
+                arguments("SELECT DISTINCT customer_id FROM orders ORDER BY customer_id", -1),
+                arguments("SELECT customer_id, id FROM orders GROUP BY customer_id, id ORDER BY customer_id", -1),
+                arguments("SELECT c.id FROM customers c JOIN orders o ON o.customer_id = c.id ORDER BY c.id", -1),
+                arguments("SELECT o.id FROM orders o LEFT JOIN customers c ON c.id = o.customer_id ORDER BY c.name", -1),
+                arguments("SELECT id FROM orders UNION SELECT id FROM customers ORDER BY id", -1),
+                arguments("SELECT total AS created_at FROM orders ORDER BY created_at", -1),
+                arguments("SELECT code FROM events ORDER BY code", 1));
+    }
+
+    @ParameterizedTest
+    @MethodSource("plans")
+    void plansStatementsThatCanBePagedByKey(String sql, int keys) {
+        Optional<KeysetPaginator.Plan> plan = paginator.plan("default", sql);
+
+        if (keys < 0) {
+            assertThat(plan).isEmpty();
+        } else {
+            assertThat(plan).get().extracting(KeysetPaginator.Plan::getKeyCount).isEqualTo(keys);
+        }
+    }
+
+    @Test
+    void firstPageAddsKeyColumnsAndTieBreaker() {
+        KeysetPaginator.Plan plan = paginator.plan("default", "SELECT id, total FROM orders ORDER BY created_at").orElseThrow();
+
+        KeysetPaginator.PageQuery page = plan.pageQuery(null, 0, true);
+
+        assertThat(page.sql()).isEqualTo("SELECT id, total , `orders`.`created_at` AS __keyset_0, "
+                + "`orders`.`id` AS __keyset_1 FROM orders ORDER BY created_at, `orders`.`id`");
+        assertThat(page.parameters()).isEmpty();
+    }
+
+    @Test
+    void laterPagesSeekPastTheLastKeyWithoutTouchingLiterals() {
+        String sql = "SELECT id FROM orders WHERE status = 'ORDER BY id' ORDER BY created_at DESC";
+        KeysetPaginator.Plan plan = paginator.plan("default", sql).orElseThrow();
+        LocalDateTime createdAt = LocalDateTime.of(2024, 3, 1, 12, 0);
+
+        KeysetPaginator.PageQuery page = plan.pageQuery(new KeysetPaginator.Cursor(1, 100, List.of(createdAt, 42L)), 1, false);
+
+        assertThat(page.sql()).isEqualTo("SELECT id , `orders`.`created_at` AS __keyset_0, `orders`.`id` AS __keyset_1 "
+                + "FROM orders WHERE (status = 'ORDER BY id') AND ((`orders`.`created_at` < ?2) "
+                + "OR (`orders`.`created_at` = ?3 AND `orders`.`id` > ?4)) ORDER BY created_at DESC, `orders`.`id`");
+        assertThat(page.parameters()).containsExactly(createdAt, createdAt, 42L);
+    }
+
+    @Test
+    void continuationTokensRoundTripTypedKeys() {
+        String sql = "SELECT id FROM orders ORDER BY created_at";
+        LocalDateTime createdAt = LocalDateTime.of(2024, 3, 1, 12, 0);
+        Object[] lastKey = {createdAt, 42L, new BigDecimal("1.50"), "a'b"};
+
+        KeysetPaginator.Cursor cursor = paginator.decode(sql, paginator.encode(sql, 3, 250, lastKey));
+
+        assertThat(cursor.page()).isEqualTo(3);
+        assertThat(cursor.total()).isEqualTo(250);
+        assertThat(cursor.key()).containsExactly(createdAt, 42L, new BigDecimal("1.50"), "a'b");
+    }
+
+    @Test
+    void rejectsTokensOfAnotherStatement() {
+        String token = paginator.encode("SELECT id FROM orders ORDER BY id", 1, 10, new Object[]{1L});
+
+        assertThatThrownBy(() -> paginator.decode("SELECT id FROM customers ORDER BY id", token))
+                .isInstanceOf(QueryExecutionException.class)
+                .hasMessageContaining("different query");
+    }
+}
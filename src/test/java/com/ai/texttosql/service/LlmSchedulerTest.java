@@ -0,0 +1,178 @@
+package com.ai.texttosql.service;
+
+import com.ai.texttosql.config.RateLimitConfig.PricingPlan;
+import com.ai.texttosql.exception.GenerationRejectedException;
+import com.ai.texttosql.exception.QueryCancelledException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.params.provider.Arguments.arguments;
+
+class LlmSchedulerTest {
+
+    private static final LlmScheduler.Caller A = new LlmScheduler.Caller("key:a", PricingPlan.FREE, false);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ExecutorService threads = Executors.newCachedThreadPool();
+    private final CountDownLatch holding = new CountDownLatch(1);
+
+    @AfterEach
+    void releaseAndStop() {
+        holding.countDown();
+        threads.shutdownNow();
+    }
+
+    static Stream<Arguments> orders() {
+        return Stream.of(
+                // the caller queuing three calls after three of key a, and the order all six run in
+                arguments(new LlmScheduler.Caller("key:b", PricingPlan.FREE, false), "a b a b a b"),
+                arguments(new LlmScheduler.Caller("key:b", PricingPlan.BASIC, false), "b a b b a a"),
+                arguments(new LlmScheduler.Caller("key:b", PricingPlan.PREMIUM, false), "b b b a a a"),
+                arguments(LlmScheduler.Caller.slackUser("u1"), "u1 u1 u1 a a a"));
+    }
+
+    @ParameterizedTest
+    @MethodSource("orders")
+    void sharesTheModelFairlyBetweenKeys(LlmScheduler.Caller later, String order) throws Exception {
+        LlmScheduler scheduler = scheduler(20, Duration.ofMinutes(1));
+        hold(scheduler);
+        List<String> ran = new CopyOnWriteArrayList<>();
+        List<Future<?>> calls = new ArrayList<>();
+        for (LlmScheduler.Caller caller : List.of(A, A, A, later, later, later)) {
+            int queued = scheduler.getQueued();
+            calls.add(threads.submit(() -> call(scheduler, caller, () -> ran.add(name(caller)))));
+            awaitValue(scheduler::getQueued, queued + 1);
+        }
+
+        holding.countDown();
+        for (Future<?> call : calls) {
+            call.get(5, TimeUnit.SECONDS);
+        }
+
+        assertThat(String.join(" ", ran)).isEqualTo(order);
+        assertThat(scheduler.getQueued()).isZero();
+    }
+
+    @Test
+    void rejectsAKeyWithTooManyCallsWaiting() throws Exception {
+        LlmScheduler scheduler = scheduler(2, Duration.ofMinutes(1));
+        hold(scheduler);
+        List<Future<?>> calls = List.of(
+                threads.submit(() -> call(scheduler, A, () -> { })),
+                threads.submit(() -> call(scheduler, A, () -> { })));
+        awaitValue(scheduler::getQueued, 2);
+
+        assertThatThrownBy(() -> call(scheduler, A, () -> { })).isInstanceOf(GenerationRejectedException.class);
+        Future<?> otherKey = threads.submit(() -> call(scheduler, LlmScheduler.Caller.ANONYMOUS, () -> { }));
+        awaitValue(scheduler::getQueued, 3);
+
+        holding.countDown();
+        for (Future<?> call : List.of(calls.get(0), calls.get(1), otherKey)) {
+            call.get(5, TimeUnit.SECONDS);
+        }
+        assertThat(meterRegistry.counter("llm.scheduler.rejected", "reason", "queue_full").count()).isEqualTo(1);
+    }
+
+    @Test
+    void givesUpAfterTheMaximumQueueTime() {
+        LlmScheduler scheduler = scheduler(20, Duration.ofMillis(100));
+        hold(scheduler);
+
+        assertThatThrownBy(() -> call(scheduler, A, () -> { }))
+                .isInstanceOf(GenerationRejectedException.class)
+                .hasMessageContaining("Timed out");
+        assertThat(scheduler.getQueued()).isZero();
+        assertThat(meterRegistry.counter("llm.scheduler.rejected", "reason", "timeout").count()).isEqualTo(1);
+    }
+
+    @Test
+    void stopsWaitingWhenTheRequestIsCancelled() throws Exception {
+        LlmScheduler scheduler = scheduler(20, Duration.ofMinutes(1));
+        hold(scheduler);
+        CancellationToken token = new CancellationToken(Instant.now().plus(Duration.ofMinutes(1)), reason -> { });
+        Future<?> call = threads.submit(() -> {
+            try (CancellationToken.Scope ignored = token.activate()) {
+                call(scheduler, A, () -> { });
+            }
+        });
+        awaitValue(scheduler::getQueued, 1);
+
+        token.cancel(CancellationToken.DISCONNECT);
+
+        assertThatThrownBy(() -> call.get(5, TimeUnit.SECONDS)).hasCauseInstanceOf(QueryCancelledException.class);
+        assertThat(scheduler.getQueued()).isZero();
+        assertThat(meterRegistry.counter("llm.scheduler.rejected", "reason", "cancelled").count()).isEqualTo(1);
+    }
+
+    @Test
+    void admitsTheNextCallOnceOneFinishes() throws Exception {
+        LlmScheduler scheduler = scheduler(20, Duration.ofMinutes(1));
+        hold(scheduler);
+        Future<?> waiting = threads.submit(() -> call(scheduler, A, () -> { }));
+        awaitValue(scheduler::getQueued, 1);
+
+        holding.countDown();
+
+        waiting.get(5, TimeUnit.SECONDS);
+        awaitValue(() -> (int) meterRegistry.get("llm.scheduler.in.flight").gauge().value(), 0);
+    }
+
+    private LlmScheduler scheduler(int maxQueuedPerKey, Duration maxQueueTime) {
+        return new LlmScheduler(meterRegistry, true, 1, maxQueuedPerKey, maxQueueTime, true, 1, 2, 4);
+    }
+
+    /**
+     * Takes the only slot until the test releases it.
+     */
+    private void hold(LlmScheduler scheduler) {
+        LlmScheduler.Caller holder = new LlmScheduler.Caller("key:holder", PricingPlan.FREE, false);
+        threads.submit(() -> call(scheduler, holder, () -> {
+            try {
+                holding.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        awaitValue(() -> (int) meterRegistry.get("llm.scheduler.in.flight").gauge().value(), 1);
+    }
+
+    private static void call(LlmScheduler scheduler, LlmScheduler.Caller caller, Runnable work) {
+        try (CancellationToken.Scope ignored = caller.bind()) {
+            scheduler.call(() -> {
+                work.run();
+                return null;
+            });
+        }
+    }
+
+    private static String name(LlmScheduler.Caller caller) {
+        return caller.key().substring(caller.key().indexOf(':') + 1);
+    }
+
+    private static void awaitValue(IntSupplier value, int expected) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (value.getAsInt() != expected) {
+            assertThat(System.nanoTime()).as("waiting for %d", expected).isLessThan(deadline);
+            Thread.onSpinWait();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.ai.texttosql.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.params.provider.Arguments.arguments;
+
+class PartitionedAggregateTest {
+
+    static Stream<Arguments> ranges() {
+        return Stream.of(
+                // statement, its range over id 1..100, or null when it cannot be split
+                arguments("SELECT COUNT(*) FROM orders",
+                        "SELECT COUNT(*) FROM orders WHERE `orders`.`id` BETWEEN 1 AND 100"),
+                arguments("SELECT status, SUM(total) AS revenue FROM orders o WHERE o.total > 10 GROUP BY status",
+                        "SELECT status, SUM(total) AS revenue FROM orders o WHERE (o.total > 10) AND `o`.`id` BETWEEN 1 AND 100 GROUP BY status"),
+                arguments("SELECT AVG(total) FROM orders",
+                        "SELECT SUM(total), COUNT(total) AS __avg_count_0 FROM orders WHERE `orders`.`id` BETWEEN 1 AND 100"),
+                arguments("SELECT COUNT(*) FROM orders GROUP BY YEAR(created_at)",
+                        "SELECT COUNT(*), YEAR(created_at) AS __group_0 FROM orders WHERE `orders`.`id` BETWEEN 1 AND 100 GROUP BY YEAR(created_at)"),
+                arguments("SELECT status, COUNT(*) FROM orders WHERE status <> 'GROUP BY x LIMIT 1' GROUP BY status",
+                        "SELECT status, COUNT(*) FROM orders WHERE (status <> 'GROUP BY x LIMIT 1') AND `orders`.`id` BETWEEN 1 AND 100 GROUP BY status"),
+                arguments("SELECT c.region, MAX(o.total) FROM orders o JOIN customers c ON c.id = o.customer_id GROUP BY c.region ORDER BY 2 DESC",
+                        "SELECT c.region, MAX(o.total) FROM orders o JOIN customers c ON c.id = o.customer_id WHERE `o`.`id` BETWEEN 1 AND 100 GROUP BY c.region"),
+                arguments("SELECT COUNT(*) FROM orders WHERE customer_id IN (SELECT id FROM customers WHERE region = 'EU')",
+                        "SELECT COUNT(*) FROM orders WHERE (customer_id IN (SELECT id FROM customers WHERE region = 'EU')) AND `orders`.`id` BETWEEN 1 AND 100"),
+                arguments("SELECT id, (SELECT COUNT(*) FROM order_items i WHERE i.order_id = orders.id) FROM orders", null),
+                arguments("SELECT SUM(total) / (SELECT COUNT(*) FROM customers) FROM orders", null),
+                arguments("SELECT COUNT(DISTINCT customer_id) FROM orders", null),
+                arguments("SELECT status, COUNT(*) FROM orders GROUP BY status HAVING COUNT(*) > 1", null),
+                arguments("SELECT COUNT(*) FROM orders LIMIT 1", null),
+                arguments("SELECT status FROM orders GROUP BY status", null),
+                arguments("SELECT status, COUNT(*) FROM orders", null),
+                arguments("SELECT COUNT(*) FROM orders UNION ALL SELECT COUNT(*) FROM customers", null),
+                arguments("SELECT COUNT(*) FROM customers c RIGHT JOIN orders o ON o.customer_id = c.id", null),
+                arguments("SELECT GROUP_CONCAT(status) FROM orders", null));
+    }
+
+    @ParameterizedTest
+    @MethodSource("ranges")
+    void splitsSupportedAggregatesByKeyRange(String sql, String range) {
+        Optional<PartitionedAggregate> aggregate = PartitionedAggregate.parse(sql);
+
+        if (range == null) {
+            assertThat(aggregate).isEmpty();
+        } else {
+            assertThat(aggregate).get().extracting(a -> a.rangeSql("id", 1, 100)).isEqualTo(range);
+        }
+    }
+
+    @Test
+    void mergesGroupsAcrossRanges() {
+        PartitionedAggregate aggregate = PartitionedAggregate
+                .parse("SELECT status, COUNT(*), AVG(total), MAX(total) FROM orders GROUP BY status ORDER BY 2 DESC")
+                .orElseThrow();
+        PartitionedAggregate.Accumulator accumulator = aggregate.newAccumulator();
+
+        // status, count, sum of total, max, count of total
+        accumulator.add(List.<Object[]>of(
+                new Object[]{"paid", 2L, new BigDecimal("30.00"), new BigDecimal("20.00"), 2L},
+                new Object[]{"open", 1L, new BigDecimal("5.00"), new BigDecimal("5.00"), 1L}));
+        accumulator.add(List.<Object[]>of(
+                new Object[]{"paid", 1L, null, null, 0L}));
+        accumulator.add(List.<Object[]>of(
+                new Object[]{"open", 3L, new BigDecimal("15.00"), new BigDecimal("9.00"), 2L},
+                new Object[]{"void", 5L, null, null, 0L}));
+
+        assertThat(accumulator.result()).containsExactly(
+                new Object[]{"void", 5L, null, null},
+                new Object[]{"open", 4L, new BigDecimal("6.666667"), new BigDecimal("9.00")},
+                new Object[]{"paid", 3L, new BigDecimal("15.000000"), new BigDecimal("20.00")});
+    }
+
+    @Test
+    void estimatesTotalsFromTheRangesSeenSoFar() {
+        PartitionedAggregate aggregate = PartitionedAggregate.parse("SELECT COUNT(*) FROM orders").orElseThrow();
+        PartitionedAggregate.Accumulator accumulator = aggregate.newAccumulator();
+        accumulator.add(List.<Object[]>of(new Object[]{10L}));
+        accumulator.add(List.<Object[]>of(new Object[]{14L}));
+
+        PartitionedAggregate.Estimate estimate = accumulator.estimate(4).get(0);
+
+        assertThat(estimate.values()[0]).isEqualTo(48L);
+        assertThat(estimate.bounds()[0][0]).isGreaterThanOrEqualTo(24).isLessThan(48);
+        assertThat(estimate.bounds()[0][1]).isGreaterThan(48);
+    }
+}
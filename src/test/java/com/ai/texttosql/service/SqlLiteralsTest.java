@@ -0,0 +1,70 @@
+package com.ai.texttosql.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.params.provider.Arguments.arguments;
+
+class SqlLiteralsTest {
+
+    static Stream<Arguments> literals() {
+        return Stream.of(
+                // statement, its literals as text/type/bindable
+                arguments("SELECT * FROM orders WHERE total > 100 AND status = 'paid'",
+                        List.of("100/NUMBER/true", "'paid'/STRING/true")),
+                arguments("SELECT * FROM orders WHERE created_at >= '2024-01-01' AND updated_at < '2024-01-01 10:00:00'",
+                        List.of("'2024-01-01'/DATE/true", "'2024-01-01 10:00:00'/STRING/true")),
+                arguments("SELECT * FROM orders WHERE total > 99.50 LIMIT 10",
+                        List.of("99.50/NUMBER/true", "10/NUMBER/true")),
+                arguments("SELECT status, COUNT(*) FROM orders GROUP BY 1 ORDER BY 2, 1",
+                        List.of("1/NUMBER/false", "2/NUMBER/false", "1/NUMBER/false")),
+                arguments("SELECT CAST(total AS DECIMAL(10,2)) FROM orders", List.of("10/NUMBER/false", "2/NUMBER/false")),
+                arguments("SELECT SUM(total) AS 'sum' FROM orders", List.of("'sum'/STRING/false")),
+                arguments("SELECT * FROM customers WHERE name = 'O''Brien' OR name = 'it\\'s'",
+                        List.of("'O''Brien'/STRING/true", "'it\\'s'/STRING/true")),
+                arguments("SELECT t1.id, `col 7` FROM t1 JOIN 2fa_codes c ON c.x2 = 3",
+                        List.of("3/NUMBER/true")),
+                arguments("SELECT id FROM orders -- over 100\nWHERE id = 5 /* not 7 */ # nor 8",
+                        List.of("5/NUMBER/true")),
+                arguments("SELECT id FROM orders WHERE note = \"a 'b' 9\"", List.of()),
+                arguments("SELECT id FROM orders WHERE status = 'open", List.of()));
+    }
+
+    @ParameterizedTest
+    @MethodSource("literals")
+    void findsLiteralsAndWhichCanBeBound(String sql, List<String> expected) {
+        List<String> literals = SqlLiterals.extract(sql).stream()
+                .map(l -> l.text() + "/" + l.type() + "/" + l.bindable())
+                .toList();
+
+        assertThat(literals).isEqualTo(expected);
+    }
+
+    @Test
+    void unquotesStringValues() {
+        assertThat(SqlLiterals.extract("SELECT 'O''Brien', 'it\\'s', 'a\\\\b'"))
+                .extracting(SqlLiterals.Literal::value)
+                .containsExactly("O'Brien", "it's", "a\\b");
+    }
+
+    @Test
+    void quotesValuesBackIntoLiterals() {
+        assertThat(SqlLiterals.quote("O'Brien \\ co")).isEqualTo("'O''Brien \\\\ co'");
+    }
+
+    @Test
+    void statementsDifferingInValuesShareASkeleton() {
+        String first = "SELECT * FROM orders WHERE total > 100 AND status = 'paid' ORDER BY 2";
+        String second = "SELECT * FROM orders WHERE total > 7.5 AND status = 'open' ORDER BY 3";
+
+        assertThat(SqlLiterals.skeleton(first, SqlLiterals.extract(first)))
+                .isEqualTo("SELECT * FROM orders WHERE total > ? AND status = ? ORDER BY ?")
+                .isEqualTo(SqlLiterals.skeleton(second, SqlLiterals.extract(second)));
+    }
+}
@@ -0,0 +1,91 @@
+package com.ai.texttosql.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.params.provider.Arguments.arguments;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+
+class SqlOptimizerTest {
+
+    private final QueryExecutionService queryExecutionService = mock(QueryExecutionService.class);
+    private final SqlOptimizer optimizer = new SqlOptimizer(TestSchemas.schemaAnalysisService(), queryExecutionService,
+            new SimpleMeterRegistry(), true, 0, 1000);
+
+    static Stream<Arguments> rewrites() {
+        return Stream.of(
+                // statement, its optimized form, or null when it is left alone
+                arguments("SELECT id FROM orders WHERE YEAR(created_at) = 2024",
+                        "SELECT id FROM orders WHERE (created_at >= '2024-01-01' AND created_at < '2025-01-01')"),
+                arguments("SELECT o.id FROM orders o WHERE DATE(o.created_at) = '2024-03-01' AND o.status = 'paid'",
+                        "SELECT o.id FROM orders o WHERE (o.created_at >= '2024-03-01' AND o.created_at < '2024-03-02') AND o.status = 'paid'"),
+                arguments("SELECT id FROM orders WHERE YEAR(created_at) = 2024 AND MONTH(created_at) = 2",
+                        "SELECT id FROM orders WHERE (created_at >= '2024-02-01' AND created_at < '2024-03-01')"),
+                arguments("SELECT id FROM orders WHERE YEAR(created_at) > 2023",
+                        "SELECT id FROM orders WHERE created_at >= '2024-01-01'"),
+                arguments("SELECT id FROM orders WHERE YEAR(updated_at) = 2024", null),
+                arguments("SELECT id FROM orders WHERE status = 'YEAR(created_at) = 2024'", null),
+                arguments("SELECT id FROM orders WHERE YEAR(created_at) = 2024 AND MONTH(created_at) = 13",
+                        "SELECT id FROM orders WHERE (created_at >= '2024-01-01' AND created_at < '2025-01-01') AND MONTH(created_at) = 13"),
+                arguments("SELECT a.id, b.total FROM orders a JOIN orders b ON a.id = b.id",
+                        "SELECT a.id, a.total FROM orders a"),
+                arguments("SELECT o.id FROM orders o JOIN customers c ON c.id = o.customer_id",
+                        "SELECT o.id FROM orders o"),
+                arguments("SELECT o.id FROM orders o LEFT JOIN customers c ON c.id = o.customer_id WHERE o.total > 5",
+                        "SELECT o.id FROM orders o WHERE o.total > 5"),
+                arguments("SELECT o.id, c.name FROM orders o JOIN customers c ON c.id = o.customer_id", null),
+                arguments("SELECT o.id, name FROM orders o JOIN customers c ON c.id = o.customer_id", null),
+                arguments("SELECT c.id FROM customers c JOIN orders o ON o.customer_id = c.id", null),
+                arguments("SELECT * FROM orders o JOIN customers c ON c.id = o.customer_id", null),
+                arguments("SELECT c.name FROM customers c WHERE EXISTS (SELECT * FROM orders o WHERE o.customer_id = c.id)",
+                        "SELECT c.name FROM customers c WHERE EXISTS (SELECT 1 FROM orders o WHERE o.customer_id = c.id)"),
+                arguments("SELECT c.name FROM customers c WHERE EXISTS (SELECT COUNT(*) FROM orders o WHERE o.customer_id = c.id)", null),
+                arguments("SELECT COUNT(*) FROM orders WHERE total > 5 ORDER BY created_at",
+                        "SELECT COUNT(*) FROM orders WHERE total > 5"),
+                arguments("SELECT name FROM customers WHERE id IN (SELECT customer_id FROM orders ORDER BY created_at)",
+                        "SELECT name FROM customers WHERE id IN (SELECT customer_id FROM orders)"),
+                arguments("SELECT name FROM customers WHERE id IN (SELECT customer_id FROM orders ORDER BY created_at LIMIT 5)", null),
+                arguments("SELECT id, (SELECT COUNT(*) FROM order_items i WHERE i.order_id = o.id) AS items FROM orders o ORDER BY id", null),
+                arguments("SELECT COUNT(*) OVER (), id FROM orders ORDER BY id", null),
+                arguments("SELECT status, COUNT(*) FROM orders GROUP BY status ORDER BY 2", null),
+                arguments("SELECT id FROM orders WHERE status = 'ORDER BY x' ORDER BY id", null),
+                arguments("SELECT id FROM orders WHERE YEAR(created_at) = 2024 UNION SELECT id FROM customers", null),
+                arguments("SELECT COUNT(*) FROM orders UNION ALL SELECT COUNT(*) FROM customers ORDER BY 1", null));
+    }
+
+    @ParameterizedTest
+    @MethodSource("rewrites")
+    void rewritesOnlyWhenTheResultStaysTheSame(String sql, String optimized) {
+        assertThat(optimizer.optimize("default", sql)).isEqualTo(optimized != null ? optimized : sql);
+    }
+
+    @Test
+    void keepsTheOriginalWhenMySqlRejectsTheRewrite() {
+        doThrow(new IllegalStateException("Unknown column")).when(queryExecutionService).validateExecutable(any(), anyString());
+        String sql = "SELECT id FROM orders WHERE YEAR(created_at) = 2024";
+
+        assertThat(optimizer.optimize("default", sql)).isEqualTo(sql);
+    }
+
+    static Stream<Arguments> masks() {
+        return Stream.of(
+                arguments("COUNT(*), (SELECT MAX(total) FROM orders)", "COUNT(*), (" + " ".repeat(29) + ")"),
+                arguments("name, 'SUM(x)'", "name, '      '"),
+                arguments("(SELECT 'a)' FROM t), MIN(id)", "(" + " ".repeat(18) + "), MIN(id)"));
+    }
+
+    @ParameterizedTest
+    @MethodSource("masks")
+    void masksLiteralsAndSubqueriesKeepingPositions(String text, String masked) {
+        assertThat(SqlOptimizer.maskSubqueries(text)).isEqualTo(masked).hasSameSizeAs(text);
+    }
+}
@@ -0,0 +1,115 @@
+package com.ai.texttosql.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.params.provider.Arguments.arguments;
+
+class SqlTemplateServiceTest {
+
+    private final SqlTemplateService templates = new SqlTemplateService(new SimpleMeterRegistry(), 100);
+
+    static Stream<Arguments> instances() {
+        return Stream.of(
+                // learned question and SQL, a later question, and the SQL filled in for it, or null when there is none
+                arguments("orders over $100 since 2024-01-01",
+                        "SELECT * FROM orders WHERE total > 100 AND created_at >= '2024-01-01'",
+                        "Orders over $250 since 2024-03-01?",
+                        "SELECT * FROM orders WHERE total > 250 AND created_at >= '2024-03-01'"),
+                arguments("orders over 1,000", "SELECT * FROM orders WHERE total > 1000",
+                        "orders over 2,500", "SELECT * FROM orders WHERE total > 2500"),
+                arguments("orders over 99.50", "SELECT * FROM orders WHERE total > 99.5",
+                        "orders over 10.25", "SELECT * FROM orders WHERE total > 10.25"),
+                arguments("customers named \"Smith\"", "SELECT * FROM customers WHERE name = 'smith'",
+                        "customers named \"O'Neil\"", "SELECT * FROM customers WHERE name = 'O''Neil'"),
+                arguments("paid orders over 100", "SELECT * FROM orders WHERE status = 'paid' AND total > 100",
+                        "paid orders over 50", "SELECT * FROM orders WHERE status = 'paid' AND total > 50"),
+                arguments("statuses with more than 2 orders",
+                        "SELECT status, COUNT(*) FROM orders GROUP BY 1 HAVING COUNT(*) > 2 ORDER BY 2",
+                        "statuses with more than 7 orders",
+                        "SELECT status, COUNT(*) FROM orders GROUP BY 1 HAVING COUNT(*) > 7 ORDER BY 2"),
+                arguments("orders over 100 and 'LIMIT 5'", "SELECT * FROM orders WHERE total > 100 AND note = 'LIMIT 5'",
+                        "orders over 3 and 'x'", "SELECT * FROM orders WHERE total > 3 AND note = 'x'"),
+                // A value of the question the SQL does not use
+                arguments("top 5 orders over 100", "SELECT * FROM orders WHERE total > 100 ORDER BY total DESC LIMIT 10",
+                        "top 3 orders over 200", null),
+                // Two values that cannot be told apart in the SQL
+                arguments("orders over 100 with 100 items", "SELECT * FROM orders WHERE total > 100 AND items = 100",
+                        "orders over 200 with 3 items", null),
+                arguments("orders over 100", "SELECT * FROM orders WHERE total > 100", "orders under 100", null),
+                arguments("orders over 100", "SELECT * FROM orders WHERE total > 100", "orders over 100 since 2024-01-01", null),
+                arguments("orders since 2024-01-01", "SELECT * FROM orders WHERE created_at >= '2024-01-01 00:00:00'",
+                        "orders since 2024-02-01", null),
+                arguments("all orders", "SELECT * FROM orders", "all orders", null));
+    }
+
+    @ParameterizedTest
+    @MethodSource("instances")
+    void fillsTheValuesOfAQuestionIntoItsTemplate(String learnedQuestion, String learnedSql, String question, String sql) {
+        templates.learn(learnedQuestion, learnedSql);
+
+        assertThat(templates.instantiate(question).orElse(null)).isEqualTo(sql);
+    }
+
+    static Stream<Arguments> prepared() {
+        return Stream.of(
+                // learned question and SQL, executed SQL, and its forms with ?n and ? and their parameters
+                arguments("orders over $100 since 2024-01-01",
+                        "SELECT * FROM orders WHERE total > 100 AND created_at >= '2024-01-01'",
+                        "SELECT * FROM orders WHERE total > 250 AND created_at >= '2024-03-01'",
+                        "SELECT * FROM orders WHERE total > ?1 AND created_at >= ?2",
+                        "SELECT * FROM orders WHERE total > ? AND created_at >= ?",
+                        List.of(250L, "2024-03-01")),
+                arguments("paid orders over 100", "SELECT * FROM orders WHERE status = 'paid' AND total > 100",
+                        "SELECT * FROM orders WHERE status = 'open' AND total > 75.5",
+                        "SELECT * FROM orders WHERE status = 'open' AND total > ?1",
+                        "SELECT * FROM orders WHERE status = 'open' AND total > ?",
+                        List.of(new BigDecimal("75.5"))),
+                arguments("statuses with more than 2 orders",
+                        "SELECT status, COUNT(*) FROM orders GROUP BY 1 HAVING COUNT(*) > 2 ORDER BY 2",
+                        "SELECT status, COUNT(*) FROM orders GROUP BY 1 HAVING COUNT(*) > 9 ORDER BY 2",
+                        "SELECT status, COUNT(*) FROM orders GROUP BY 1 HAVING COUNT(*) > ?1 ORDER BY 2",
+                        "SELECT status, COUNT(*) FROM orders GROUP BY 1 HAVING COUNT(*) > ? ORDER BY 2",
+                        List.of(9L)),
+                arguments("orders over 100", "SELECT * FROM orders WHERE total > 100",
+                        "SELECT * FROM orders WHERE total > 100 AND status = 'paid'",
+                        "SELECT * FROM orders WHERE total > 100 AND status = 'paid'",
+                        "SELECT * FROM orders WHERE total > 100 AND status = 'paid'",
+                        List.of()),
+                arguments("top 5 orders over 100", "SELECT * FROM orders WHERE total > 100 ORDER BY total DESC LIMIT 10",
+                        "SELECT * FROM orders WHERE total > 100 ORDER BY total DESC LIMIT 10",
+                        "SELECT * FROM orders WHERE total > 100 ORDER BY total DESC LIMIT 10",
+                        "SELECT * FROM orders WHERE total > 100 ORDER BY total DESC LIMIT 10",
+                        List.of()));
+    }
+
+    @ParameterizedTest
+    @MethodSource("prepared")
+    void bindsTheLiteralsThatCameFromTheQuestion(String learnedQuestion, String learnedSql, String executed,
+                                                 String sql, String jdbcSql, List<Object> parameters) {
+        templates.learn(learnedQuestion, learnedSql);
+
+        SqlTemplateService.PreparedSql prepared = templates.prepare(executed);
+
+        assertThat(prepared.sql()).isEqualTo(sql);
+        assertThat(prepared.jdbcSql()).isEqualTo(jdbcSql);
+        assertThat(prepared.parameters()).isEqualTo(parameters);
+    }
+
+    @Test
+    void describesQuestionsByTheirValues() {
+        String question = "Orders over $1,000 in 'EU' or \"US\" since 2024-01-01 for customer 42b?";
+
+        assertThat(SqlTemplateService.shape(question))
+                .isEqualTo("orders over {num} in {str} or {str} since {date} for customer 42b");
+        assertThat(SqlTemplateService.slotValues(question)).containsExactly("1000", "EU", "US", "2024-01-01");
+    }
+}
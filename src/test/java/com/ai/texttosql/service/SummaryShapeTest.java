@@ -0,0 +1,83 @@
+package com.ai.texttosql.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.params.provider.Arguments.arguments;
+
+class SummaryShapeTest {
+
+    static Stream<Arguments> shapes() {
+        return Stream.of(
+                // statement, its dimensions and its measures, or nulls when no summary can answer it
+                arguments("SELECT status, COUNT(*) FROM orders GROUP BY status", "orders.status", ""),
+                arguments("SELECT o.status, SUM(o.total), AVG(o.total) FROM orders o WHERE o.created_at >= '2024-01-01' GROUP BY o.status",
+                        "o.created_at,o.status", "SUM(o.total),COUNT(o.total)"),
+                arguments("SELECT YEAR(created_at), MAX(total) FROM orders GROUP BY YEAR(created_at)",
+                        "orders.created_at", "MAX(total)"),
+                arguments("SELECT COUNT(*) FROM orders WHERE created_at >= CURDATE() - INTERVAL 7 DAY",
+                        "orders.created_at", ""),
+                arguments("SELECT c.region, SUM(o.total) FROM orders o JOIN customers c ON c.id = o.customer_id GROUP BY c.region",
+                        "c.region", "SUM(o.total)"),
+                arguments("SELECT status AS s, COUNT(*) AS n FROM orders GROUP BY s ORDER BY n DESC", "orders.status", ""),
+                arguments("SELECT COUNT(*) FROM orders WHERE status = 'SUM(total) FROM x GROUP BY y'", "orders.status", ""),
+                arguments("SELECT HOUR(created_at), COUNT(*) FROM orders GROUP BY HOUR(created_at)", null, null),
+                arguments("SELECT COUNT(*) FROM orders WHERE created_at > '2024-01-01'", null, null),
+                arguments("SELECT DATE_FORMAT(created_at, '%Y-%m-%d %H'), COUNT(*) FROM orders GROUP BY 1", null, null),
+                arguments("SELECT COUNT(*) FROM orders WHERE customer_id IN (SELECT id FROM customers)", null, null),
+                arguments("SELECT status, (SELECT COUNT(*) FROM customers) FROM orders GROUP BY status", null, null),
+                arguments("SELECT COUNT(*) FROM orders UNION SELECT COUNT(*) FROM customers", null, null),
+                arguments("SELECT COUNT(DISTINCT customer_id) FROM orders", null, null),
+                arguments("SELECT SUM(MAX(total)) FROM orders", null, null),
+                arguments("SELECT GROUP_CONCAT(status) FROM orders", null, null),
+                arguments("SELECT status FROM orders GROUP BY status", null, null),
+                arguments("SELECT * FROM orders", null, null),
+                arguments("SELECT id, COUNT(*) FROM orders o JOIN customers c ON c.id = o.customer_id GROUP BY id", null, null),
+                arguments("SELECT COUNT(*) FROM shipments", null, null),
+                arguments("SELECT COUNT(*) FROM orders -- all of them", null, null));
+    }
+
+    @ParameterizedTest
+    @MethodSource("shapes")
+    void describesAggregatesBySummarizableColumns(String sql, String dimensions, String measures) {
+        Optional<SummaryShape> shape = SummaryShape.parse(sql, TestSchemas.lookup());
+
+        if (dimensions == null) {
+            assertThat(shape).isEmpty();
+        } else {
+            assertThat(String.join(",", shape.orElseThrow().getDimensions().keySet())).isEqualTo(dimensions);
+            assertThat(String.join(",", shape.orElseThrow().getMeasures().keySet())).isEqualTo(measures);
+        }
+    }
+
+    @Test
+    void rewritesOverTheSummaryTable() {
+        SummaryShape shape = SummaryShape.parse("SELECT status, COUNT(*), AVG(total) FROM orders "
+                + "WHERE created_at >= '2024-01-01' AND status <> 'AVG(total)' GROUP BY status ORDER BY 2 DESC",
+                TestSchemas.lookup()).orElseThrow();
+
+        String rewritten = shape.rewrite("`summary_1`",
+                Map.of("orders.status", "d_status", "orders.created_at", "d_created_at"),
+                Map.of("SUM(total)", "m_sum_total", "COUNT(total)", "m_count_total"), "row_count");
+
+        assertThat(rewritten).isEqualTo("SELECT d_status, COALESCE(SUM(row_count), 0), (SUM(m_sum_total) / SUM(m_count_total)) "
+                + "FROM `summary_1` WHERE d_created_at >= '2024-01-01' AND d_status <> 'AVG(total)' "
+                + "GROUP BY d_status ORDER BY 2 DESC");
+    }
+
+    @Test
+    void summarizesTimeColumnsPerDay() {
+        SummaryShape shape = SummaryShape.parse("SELECT YEAR(o.created_at), COUNT(*) FROM orders o GROUP BY 1",
+                TestSchemas.lookup()).orElseThrow();
+
+        assertThat(shape.getDimensions()).containsExactly(Map.entry("o.created_at", "DATE(`o`.`created_at`)"));
+        assertThat(shape.getFromKey()).isEqualTo("orders o");
+    }
+}
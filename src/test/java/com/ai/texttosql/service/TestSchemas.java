@@ -0,0 +1,121 @@
+package com.ai.texttosql.service;
+
+import com.ai.texttosql.model.SchemaInfo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * A small shop schema for the SQL rewriter tests:
+ * <ul>
+ *   <li>{@code customers(id PK, name NOT NULL, email UNIQUE, region)}</li>
+ *   <li>{@code orders(id PK, customer_id NOT NULL FK, created_at NOT NULL indexed, status NOT NULL, total,
+ *   updated_at)} with an index on {@code (customer_id, status)}</li>
+ *   <li>{@code order_items(order_id, product_id)} with a composite primary key, and {@code quantity}</li>
+ *   <li>{@code events(code PK varchar, payload)}</li>
+ * </ul>
+ */
+final class TestSchemas {
+
+    private static final Map<String, SchemaInfo> TABLES = Map.of(
+            "customers", table("customers",
+                    List.of(column("id", "bigint", false, true), column("name", "varchar", false, false),
+                            column("email", "varchar", true, false), column("region", "varchar", true, false)),
+                    List.of(index("PRIMARY", true, "id"), index("uq_customers_email", true, "email")),
+                    List.of()),
+            "orders", table("orders",
+                    List.of(column("id", "bigint", false, true), column("customer_id", "bigint", false, false),
+                            column("created_at", "datetime", false, false), column("status", "varchar", false, false),
+                            column("total", "decimal", true, false), column("updated_at", "timestamp", true, false)),
+                    List.of(index("PRIMARY", true, "id"), index("idx_orders_customer_status", false, "customer_id", "status"),
+                            index("idx_orders_created_at", false, "created_at")),
+                    List.of(foreignKey("customer_id", "customers", "id"))),
+            "order_items", table("order_items",
+                    List.of(column("order_id", "bigint", false, true), column("product_id", "bigint", false, true),
+                            column("quantity", "int", false, false)),
+                    List.of(index("PRIMARY", true, "order_id", "product_id")),
+                    List.of(foreignKey("order_id", "orders", "id"))),
+            "events", table("events",
+                    List.of(column("code", "varchar", false, true), column("payload", "text", true, false)),
+                    List.of(index("PRIMARY", true, "code")),
+                    List.of()));
+
+    private TestSchemas() {
+    }
+
+    /**
+     * The schema of a table, or an empty one for a table that does not exist, as
+     * {@link SchemaAnalysisService#getTableSchema} returns it.
+     */
+    static SchemaInfo schema(String table) {
+        SchemaInfo schema = TABLES.get(table.toLowerCase(Locale.ROOT));
+        if (schema != null) {
+            return schema;
+        }
+        SchemaInfo missing = new SchemaInfo();
+        missing.setTableName(table);
+        missing.setColumns(List.of());
+        missing.setIndexes(List.of());
+        missing.setForeignKeys(List.of());
+        return missing;
+    }
+
+    /**
+     * Looks tables up as the parsers that take a schema function do, with {@code null} for
+     * tables that do not exist.
+     */
+    static Function<String, SchemaInfo> lookup() {
+        return table -> TABLES.get(table.toLowerCase(Locale.ROOT));
+    }
+
+    static SchemaAnalysisService schemaAnalysisService() {
+        SchemaAnalysisService service = mock(SchemaAnalysisService.class);
+        when(service.getAllTableNames(any())).thenReturn(new ArrayList<>(TABLES.keySet()));
+        when(service.getTableSchema(any(), anyString())).thenAnswer(invocation -> schema(invocation.getArgument(1)));
+        return service;
+    }
+
+    private static SchemaInfo table(String name, List<SchemaInfo.ColumnInfo> columns, List<SchemaInfo.IndexInfo> indexes,
+                                    List<SchemaInfo.ForeignKeyInfo> foreignKeys) {
+        SchemaInfo schema = new SchemaInfo();
+        schema.setTableName(name);
+        schema.setColumns(columns);
+        schema.setIndexes(indexes);
+        schema.setForeignKeys(foreignKeys);
+        return schema;
+    }
+
+    private static SchemaInfo.ColumnInfo column(String name, String type, boolean nullable, boolean primaryKey) {
+        SchemaInfo.ColumnInfo column = new SchemaInfo.ColumnInfo();
+        column.setName(name);
+        column.setType(type);
+        column.setNullable(nullable);
+        column.setPrimaryKey(primaryKey);
+        return column;
+    }
+
+    private static SchemaInfo.IndexInfo index(String name, boolean unique, String... columns) {
+        SchemaInfo.IndexInfo index = new SchemaInfo.IndexInfo();
+        index.setName(name);
+        index.setUnique(unique);
+        index.setColumns(List.of(columns));
+        return index;
+    }
+
+    private static SchemaInfo.ForeignKeyInfo foreignKey(String column, String referencedTable, String referencedColumn) {
+        SchemaInfo.ForeignKeyInfo foreignKey = new SchemaInfo.ForeignKeyInfo();
+        foreignKey.setColumnName(column);
+        foreignKey.setReferencedTable(referencedTable);
+        foreignKey.setReferencedColumn(referencedColumn);
+        foreignKey.setConstraintName("fk_" + column);
+        return foreignKey;
+    }
+}
@@ -0,0 +1,134 @@
+package com.ai.texttosql.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.params.provider.Arguments.arguments;
+
+class WatchSnapshotTest {
+
+    private static final List<Object[]> FIRST = List.of(
+            new Object[]{1L, "open"}, new Object[]{2L, "open"}, new Object[]{3L, "paid"});
+
+    static Stream<Arguments> deltas() {
+        return Stream.of(
+                // second result, key column, and the added, changed and removed counts against the first
+                arguments(FIRST, 0, 0, 0, 0),
+                arguments(List.of(new Object[]{1L, "open"}, new Object[]{2L, "paid"}, new Object[]{4L, "open"}), 0, 1, 1, 1),
+                arguments(List.of(new Object[]{3L, "paid"}, new Object[]{1L, "open"}), 0, 0, 0, 1),
+                // Without a key a changed row is a removed and an added one
+                arguments(List.of(new Object[]{1L, "open"}, new Object[]{2L, "paid"}, new Object[]{4L, "open"}), -1, 2, 0, 2),
+                arguments(List.of(new Object[]{1L, "open"}, new Object[]{1L, "open"}, new Object[]{2L, "open"},
+                        new Object[]{3L, "paid"}), -1, 1, 0, 0));
+    }
+
+    @ParameterizedTest
+    @MethodSource("deltas")
+    void comparesResultsRowByRow(List<Object[]> second, int keyColumn, long added, long changed, long removed) {
+        WatchSnapshot previous = run(null, FIRST, keyColumn, false).snapshot();
+
+        WatchSnapshot.Delta delta = run(previous, second, keyColumn, false);
+
+        assertThat(delta.baseline()).isFalse();
+        assertThat(delta.addedCount()).isEqualTo(added);
+        assertThat(delta.changedCount()).isEqualTo(changed);
+        assertThat(delta.removedCount()).isEqualTo(removed);
+        assertThat(delta.snapshot().size()).isEqualTo(second.size());
+    }
+
+    @Test
+    void reportsNothingOnTheFirstRun() {
+        WatchSnapshot.Delta delta = run(null, FIRST, 0, false);
+
+        assertThat(delta.baseline()).isTrue();
+        assertThat(delta.isEmpty()).isTrue();
+        assertThat(delta.snapshot().isKeyed()).isTrue();
+        assertThat(delta.snapshot().maxKey()).isEqualTo(3L);
+    }
+
+    @Test
+    void keepsTheRowsAndKeysOfTheDelta() {
+        WatchSnapshot previous = run(null, FIRST, 0, false).snapshot();
+
+        WatchSnapshot.Delta delta = run(previous, List.of(new Object[]{2L, "paid"}, new Object[]{4L, "open"}), 0, false);
+
+        assertThat(delta.added()).containsExactly(new Object[]{4L, "open"});
+        assertThat(delta.changed()).containsExactly(new Object[]{2L, "paid"});
+        assertThat(delta.removedKeys()).containsExactly(1L, 3L);
+    }
+
+    @Test
+    void growsTheSnapshotWithRowsAboveTheLastKey() {
+        WatchSnapshot previous = run(null, FIRST, 0, false).snapshot();
+
+        WatchSnapshot.Delta delta = run(previous, List.of(new Object[]{5L, "open"}, new Object[]{4L, "open"}), 0, true);
+
+        assertThat(delta.addedCount()).isEqualTo(2);
+        assertThat(delta.removedCount()).isZero();
+        assertThat(delta.snapshot().size()).isEqualTo(5);
+        assertThat(delta.snapshot().maxKey()).isEqualTo(5L);
+    }
+
+    @Test
+    void startsOverUnkeyedWhenKeysRepeat() {
+        WatchSnapshot previous = run(null, FIRST, 0, false).snapshot();
+
+        WatchSnapshot.Delta delta = run(previous, List.of(new Object[]{1L, "open"}, new Object[]{1L, "paid"}), 0, false);
+
+        assertThat(delta.baseline()).isTrue();
+        assertThat(delta.snapshot().isKeyed()).isFalse();
+        assertThat(delta.snapshot().size()).isEqualTo(2);
+    }
+
+    @Test
+    void startsOverWhenTheKindOfSnapshotChanges() {
+        WatchSnapshot previous = run(null, FIRST, -1, false).snapshot();
+
+        assertThat(run(previous, FIRST, 0, false).baseline()).isTrue();
+    }
+
+    @Test
+    void roundTripsThroughItsEncoding() {
+        WatchSnapshot keyed = run(null, FIRST, 0, false).snapshot();
+        WatchSnapshot unkeyed = run(null, FIRST, -1, false).snapshot();
+
+        WatchSnapshot decodedKeyed = WatchSnapshot.decode(keyed.getFormat(), keyed.encode());
+        WatchSnapshot decodedUnkeyed = WatchSnapshot.decode(unkeyed.getFormat(), unkeyed.encode());
+
+        assertThat(decodedKeyed.encode()).isEqualTo(keyed.encode());
+        assertThat(decodedKeyed.maxKey()).isEqualTo(3L);
+        assertThat(decodedUnkeyed.encode()).isEqualTo(unkeyed.encode());
+        assertThat(decodedUnkeyed.isKeyed()).isFalse();
+        assertThat(WatchSnapshot.decode(null, null)).isNull();
+    }
+
+    static Stream<Arguments> hashes() {
+        return Stream.of(
+                // two rows and whether they hash the same
+                arguments(new Object[]{new BigDecimal("1.50")}, new Object[]{new BigDecimal("1.5")}, true),
+                arguments(new Object[]{5L}, new Object[]{BigInteger.valueOf(5)}, true),
+                arguments(new Object[]{"ab", "c"}, new Object[]{"a", "bc"}, false),
+                arguments(new Object[]{null}, new Object[]{""}, false),
+                arguments(new Object[]{new byte[]{1, 2}}, new Object[]{"0102"}, true));
+    }
+
+    @ParameterizedTest
+    @MethodSource("hashes")
+    void hashesValuesByTheirCanonicalText(Object[] a, Object[] b, boolean same) {
+        assertThat(WatchSnapshot.hash(a) == WatchSnapshot.hash(b)).isEqualTo(same);
+    }
+
+    private static WatchSnapshot.Delta run(WatchSnapshot previous, List<Object[]> rows, int keyColumn, boolean incremental) {
+        WatchSnapshot.Comparison comparison = WatchSnapshot.compare(previous, keyColumn, incremental, 10);
+        rows.forEach(comparison::accept);
+        return comparison.finish();
+    }
+}
@@ -0,0 +1,66 @@
+package com.ai.texttosql.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.util.function.BiPredicate;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.params.provider.Arguments.arguments;
+
+class WatchedQueryTest {
+
+    // Only the orders key is auto-increment
+    private static final BiPredicate<String, String> AUTO_INCREMENT = (table, column) -> table.equals("orders");
+
+    static Stream<Arguments> watches() {
+        return Stream.of(
+                // statement, position of the key, and the statement for rows above key 10 when it can read only those
+                arguments("SELECT id, status FROM orders", 0,
+                        "SELECT id, status FROM orders WHERE `orders`.`id` > 10"),
+                arguments("SELECT status, id FROM orders ORDER BY id", 1,
+                        "SELECT status, id FROM orders WHERE `orders`.`id` > 10 ORDER BY id"),
+                arguments("SELECT o.status, o.id FROM orders o WHERE o.total > 5 ORDER BY o.id", 1,
+                        "SELECT o.status, o.id FROM orders o WHERE (o.total > 5) AND `o`.`id` > 10 ORDER BY o.id"),
+                arguments("SELECT id FROM orders WHERE status = 'x ORDER BY y' OR total > 1", 0,
+                        "SELECT id FROM orders WHERE (status = 'x ORDER BY y' OR total > 1) AND `orders`.`id` > 10"),
+                arguments("SELECT c.name, o.id AS order_id FROM orders o JOIN customers c ON c.id = o.customer_id", 1,
+                        "SELECT c.name, o.id AS order_id FROM orders o JOIN customers c ON c.id = o.customer_id WHERE `o`.`id` > 10"),
+                arguments("SELECT id FROM orders LIMIT 10", 0, null),
+                arguments("SELECT id, COUNT(*) FROM orders GROUP BY id", 0, null),
+                // The count of an old order grows as items are added, which reading new orders would miss
+                arguments("SELECT id, (SELECT COUNT(*) FROM order_items i WHERE i.order_id = orders.id) FROM orders", 0, null),
+                arguments("SELECT id, ROW_NUMBER() OVER (ORDER BY created_at) FROM orders", 0, null),
+                arguments("SELECT id, name FROM customers", 0, null),
+                arguments("SELECT id FROM orders o JOIN customers c ON c.id = o.customer_id", -1, null),
+                arguments("SELECT c.id FROM orders o JOIN customers c ON c.id = o.customer_id", -1, null),
+                arguments("SELECT id FROM orders UNION SELECT id FROM customers", -1, null),
+                arguments("SELECT id + 1 FROM orders", -1, null),
+                arguments("SELECT order_id FROM order_items", -1, null),
+                arguments("SELECT code FROM events", -1, null),
+                arguments("SELECT id FROM shipments", -1, null));
+    }
+
+    @ParameterizedTest
+    @MethodSource("watches")
+    void findsTheKeyAndWhetherNewRowsCanBeReadAlone(String sql, int keyColumn, String after) {
+        WatchedQuery watched = WatchedQuery.of(sql, TestSchemas.lookup(), AUTO_INCREMENT);
+
+        assertThat(watched.keyColumn()).isEqualTo(keyColumn);
+        assertThat(watched.isIncremental()).isEqualTo(after != null);
+        if (after != null) {
+            assertThat(watched.after(10)).isEqualTo(after);
+        }
+    }
+
+    @Test
+    void refusesToRestrictAStatementThatIsNotIncremental() {
+        WatchedQuery watched = WatchedQuery.of("SELECT id FROM orders LIMIT 10", TestSchemas.lookup(), AUTO_INCREMENT);
+
+        assertThatThrownBy(() -> watched.after(10)).isInstanceOf(IllegalStateException.class);
+    }
+}